@@ -0,0 +1,87 @@
+// Programa que so gera lixo: monta e descarta listas encadeadas, cada no
+// com um vetor, e soma os valores. Sem coletor a memoria cresce com o
+// numero de voltas; com -fgc fica limitada ao tamanho de uma lista.
+class Churn {
+    public static void main(String[] a) {
+        System.out.println(new Driver().Run(300, 10000));
+    }
+}
+
+class Driver {
+    public int Run(int rounds, int size) {
+        int round;
+        int total;
+        Node list;
+
+        round = 0;
+        total = 0;
+        while (round < rounds) {
+            list = new Node().Build(size);
+            total = total + list.Sum();
+            round = round + 1;
+        }
+        return total;
+    }
+}
+
+class Node {
+    int value;
+    Node next;
+    boolean hasNext;
+    int[] payload;
+
+    public boolean Init(int v, Node n, boolean more) {
+        value = v;
+        next = n;
+        hasNext = more;
+        payload = new int[4];
+        payload[0] = v;
+        return true;
+    }
+
+    public Node Build(int size) {
+        Node head;
+        Node node;
+        int i;
+        boolean ok;
+
+        head = this;
+        ok = head.Init(0, head, false);
+        i = 1;
+        while (i < size) {
+            node = new Node();
+            ok = node.Init(i, head, true);
+            head = node;
+            i = i + 1;
+        }
+        return head;
+    }
+
+    public int Sum() {
+        Node node;
+        int sum;
+        boolean more;
+
+        node = this;
+        sum = payload[0];
+        more = hasNext;
+        while (more) {
+            node = node.GetNext();
+            sum = sum + node.GetValue();
+            more = node.HasNext();
+        }
+        return sum;
+    }
+
+    public Node GetNext() {
+        return next;
+    }
+
+    public int GetValue() {
+        return payload[0];
+    }
+
+    public boolean HasNext() {
+        return hasNext;
+    }
+}
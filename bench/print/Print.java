@@ -0,0 +1,36 @@
+// Programa que so imprime: um vetor de 1000000 inteiros (metade
+// negativos, ate 10 digitos), impresso 5 vezes, como os testes que
+// imprimem um vetor ordenado inteiro. Com e sem -fprintf, a diferenca
+// de tempo e o custo do printf em cada System.out.println.
+class Print {
+    public static void main(String[] a) {
+        System.out.println(new Printer().Run(5, 1000000));
+    }
+}
+
+class Printer {
+    int[] values;
+
+    public int Run(int rounds, int size) {
+        int round;
+        int i;
+
+        values = new int[size];
+        i = 0;
+        while (i < size) {
+            values[i] = i * 2000 - 1000000000;
+            i = i + 1;
+        }
+
+        round = 0;
+        while (round < rounds) {
+            i = 0;
+            while (i < size) {
+                System.out.println(values[i]);
+                i = i + 1;
+            }
+            round = round + 1;
+        }
+        return rounds * size;
+    }
+}
@@ -0,0 +1,126 @@
+package llvm;
+
+import semant.Env;
+import syntaxtree.Program;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Benchmark da compilação incremental (Codegen.setIncrementalCache):
+ * compara a geração do LLVM-IR de um programa sintético sem cache, com o
+ * cache já quente e sem mudanças, e depois de editar o corpo de um método
+ * de uma única classe.
+ * <p/>
+ * Uso: java llvm.IncrementalBenchmark [-runs=N] [-synthetic=NxMxK] [-edit=k]
+ * <p/>
+ * Cada medida é a média de 'runs' compilações (só a geração e a emissão;
+ * a análise sintática e a verificação de tipos ficam de fora). Na edição,
+ * cada compilação troca uma constante diferente em um método da classe
+ * Ck, para que nunca ache o resultado da compilação anterior no cache.
+ */
+public final class IncrementalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int runs = 20;
+        String spec = "100x10x20";
+        int edit = -1;
+        for (String arg : args) {
+            if (arg.startsWith("-runs=")) {
+                runs = Integer.parseInt(arg.substring("-runs=".length()));
+            } else if (arg.startsWith("-synthetic=")) {
+                spec = arg.substring("-synthetic=".length());
+            } else if (arg.startsWith("-edit=")) {
+                edit = Integer.parseInt(arg.substring("-edit=".length()));
+            } else {
+                System.err.println("Uso: java llvm.IncrementalBenchmark [-runs=N] [-synthetic=NxMxK] [-edit=k]");
+                System.exit(-1);
+            }
+        }
+        String source = SyntheticProgram.generate(spec);
+        if (edit < 0)
+            edit = Integer.parseInt(spec.split("x")[0]) / 2;
+
+        Path dir = Files.createTempDirectory("incremental");
+        try {
+            Program program = PipelineBenchmark.parse(source);
+            Env env = PipelineBenchmark.typeCheck(program);
+
+            // aquece o JIT e o cache
+            for (int i = 0; i < runs; i++) {
+                compile(program, env, null);
+                compile(program, env, dir);
+            }
+
+            double full = 0;
+            double warm = 0;
+            double edited = 0;
+            int hits = 0;
+            int units = 0;
+            for (int i = 0; i < runs; i++) {
+                full += compile(program, env, null).seconds;
+                warm += compile(program, env, dir).seconds;
+
+                Program changed = PipelineBenchmark.parse(edit(source, edit, 1000 + i));
+                Result r = compile(changed, PipelineBenchmark.typeCheck(changed), dir);
+                edited += r.seconds;
+                hits += r.hits;
+                units += r.units;
+            }
+
+            System.out.printf("sintético %s, edição na classe C%d, média de %d compilações%n", spec, edit, runs);
+            System.out.printf("%-28s %10.2f ms%n", "completa", full * 1000 / runs);
+            System.out.printf("%-28s %10.2f ms  (%.1fx)%n", "incremental, sem mudanças", warm * 1000 / runs, full / warm);
+            System.out.printf("%-28s %10.2f ms  (%.1fx)%n", "incremental, uma classe", edited * 1000 / runs, full / edited);
+            System.out.printf("unidades reaproveitadas após a edição: %d de %d (%.1f%%)%n",
+                    hits / runs, units / runs, 100.0 * hits / units);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static final class Result {
+        double seconds;
+        int hits;
+        int units;
+    }
+
+    private static Result compile(Program program, Env env, Path cache) throws IOException {
+        Codegen codegen = new Codegen();
+        if (cache != null)
+            codegen.setIncrementalCache(cache.toString());
+        StringBuilder out = new StringBuilder();
+        long start = System.nanoTime();
+        codegen.translate(program, env, out);
+        Result r = new Result();
+        r.seconds = (System.nanoTime() - start) / 1e9;
+        r.hits = codegen.getCacheHits();
+        r.units = codegen.getCacheUnits();
+        return r;
+    }
+
+    // Troca a primeira constante "* 2 - 1" da classe Ck por "* value - 1"
+    private static String edit(String source, int k, int value) {
+        int start = source.indexOf("class C" + k + " ");
+        int at = source.indexOf("* 2 - 1", start);
+        return source.substring(0, at) + "* " + value + " - 1" + source.substring(at + "* 2 - 1".length());
+    }
+
+    private static void delete(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,164 @@
+package llvm;
+
+import jvm.JvmCodegen;
+import jvm.Loader;
+import semant.Env;
+import syntaxtree.Program;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmark do backend da JVM (-target=jvm) contra o LLVM-IR rodando no
+ * lli: para cada programa, o tempo da primeira execução na JVM (classes
+ * recém-carregadas, no interpretador), o tempo por execução depois do
+ * aquecimento (o main chamado de novo nas mesmas classes, já compiladas
+ * pelo JIT) e o tempo de uma execução do lli, que também compila o
+ * LLVM-IR a cada vez.
+ * <p/>
+ * Uso: java llvm.JvmBenchmark [-warmup=ms] [-time=ms] [-runs=N] [-lli=comando] [-runtime=runtime.ll] programa.java...
+ * <p/>
+ * Sem -runtime o lli não roda e a coluna fica vazia; o runtime.ll sai de
+ * 'clang -S -emit-llvm runtime/runtime.c'. A saída do programa é
+ * descartada, mas a da primeira execução na JVM é comparada com a do
+ * lli. O tempo do lli é o menor de 'runs' execuções.
+ */
+public final class JvmBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long warmup = 2000;
+        long time = 3000;
+        int runs = 5;
+        String lli = "lli";
+        String runtime = null;
+        List<String> files = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.startsWith("-warmup=")) {
+                warmup = Long.parseLong(arg.substring("-warmup=".length()));
+            } else if (arg.startsWith("-time=")) {
+                time = Long.parseLong(arg.substring("-time=".length()));
+            } else if (arg.startsWith("-runs=")) {
+                runs = Integer.parseInt(arg.substring("-runs=".length()));
+            } else if (arg.startsWith("-lli=")) {
+                lli = arg.substring("-lli=".length());
+            } else if (arg.startsWith("-runtime=")) {
+                runtime = arg.substring("-runtime=".length());
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Uso: java llvm.JvmBenchmark [-warmup=ms] [-time=ms] [-runs=N] [-lli=comando] "
+                    + "[-runtime=runtime.ll] programa.java...");
+            System.exit(-1);
+        }
+
+        PrintStream console = System.out;
+        console.printf("%-20s %14s %14s %12s %10s%n", "programa", "JVM 1ª (ms)", "JVM estável", "lli (ms)", "lli/JVM");
+        Path dir = Files.createTempDirectory("jvmbench");
+        try {
+            for (String file : files) {
+                String name = Paths.get(file).getFileName().toString();
+                Program program = PipelineBenchmark.parse(new String(Files.readAllBytes(Paths.get(file)), "UTF-8"));
+                Env env = PipelineBenchmark.typeCheck(program);
+                if (env == null) {
+                    console.printf("%-20s erros de tipo%n", name);
+                    continue;
+                }
+
+                JvmCodegen codegen = new JvmCodegen();
+                Map<String, byte[]> classes = codegen.translate(program);
+                Method main = new Loader(classes).loadClass(codegen.getMainClass()).getMethod("main", String[].class);
+
+                ByteArrayOutputStream first = new ByteArrayOutputStream();
+                double cold;
+                double steady;
+                try {
+                    System.setOut(new PrintStream(first));
+                    cold = invoke(main);
+                    System.setOut(new PrintStream(NULL));
+                    steady = measure(main, warmup, time);
+                } finally {
+                    System.setOut(console);
+                }
+
+                String lliColumn = "";
+                String ratio = "";
+                if (runtime != null) {
+                    File ir = new File(dir.toFile(), name + ".s");
+                    new Codegen().translate(program, env, ir.getPath());
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    double best = Double.MAX_VALUE;
+                    for (int i = 0; i < runs; i++)
+                        best = Math.min(best, lli(lli, runtime, ir, i == 0 ? output : NULL));
+                    if (!Arrays.equals(output.toByteArray(), first.toByteArray()))
+                        console.printf("%-20s as saídas da JVM e do lli são diferentes%n", name);
+                    lliColumn = String.format("%12.3f", best * 1000);
+                    ratio = String.format("%9.1fx", best / steady);
+                }
+                console.printf("%-20s %14.3f %14.4f %12s %10s%n", name, cold * 1000, steady * 1000, lliColumn, ratio);
+            }
+        } finally {
+            for (File f : dir.toFile().listFiles())
+                f.delete();
+            dir.toFile().delete();
+        }
+    }
+
+    private static final OutputStream NULL = new OutputStream() {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private static double invoke(Method main) throws Exception {
+        long start = System.nanoTime();
+        main.invoke(null, (Object) new String[0]);
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    // Segundos por execução do main depois de 'warmup' ms chamando de novo
+    private static double measure(Method main, long warmup, long time) throws Exception {
+        long end = System.nanoTime() + warmup * 1000000L;
+        while (System.nanoTime() < end)
+            invoke(main);
+
+        long runs = 0;
+        long start = System.nanoTime();
+        end = start + time * 1000000L;
+        long now;
+        do {
+            invoke(main);
+            runs++;
+            now = System.nanoTime();
+        } while (now < end);
+        return (now - start) / 1e9 / runs;
+    }
+
+    // Segundos de uma execução do lli sobre 'ir', com a saída copiada para 'out'
+    private static double lli(String lli, String runtime, File ir, OutputStream out) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder(lli, "-extra-module=" + runtime, ir.getPath());
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        long start = System.nanoTime();
+        Process process = builder.start();
+        InputStream in = process.getInputStream();
+        byte[] buffer = new byte[1 << 16];
+        for (int n; (n = in.read(buffer)) > 0; )
+            out.write(buffer, 0, n);
+        process.waitFor();
+        return (System.nanoTime() - start) / 1e9;
+    }
+}
@@ -0,0 +1,264 @@
+package llvm;
+
+import errors.ErrorEchoer;
+import minijava.lexer.Lexer;
+import minijava.parser.Parser;
+import semant.Env;
+import semant.TypeChecker;
+import syntaxtree.Program;
+import util.conversor.SyntaxTreeGenerator;
+
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark das fases do compilador: análise sintática, verificação de
+ * tipos, tabela de símbolos (SymTab.FillTabSymbol), geração de código
+ * (Codegen.generate, que inclui a tabela de símbolos e o mem2reg),
+ * emissão do texto do LLVM-IR e, para comparar, o backend x86-64 inteiro
+ * (x86_64.Backend, da árvore sintática ao assembly).
+ * <p/>
+ * Uso: java llvm.PipelineBenchmark [-warmup=ms] [-time=ms] [-synthetic=NxMxK]... [-csv] [programa.java]...
+ * <p/>
+ * Cada fase roda repetidamente sobre a saída da fase anterior: primeiro
+ * por 'warmup' ms, para o JIT compilar o caminho quente, e depois por
+ * 'time' ms medidos. Para cada programa e fase são impressos a vazão
+ * (op/s), o tempo por operação e os bytes alocados por operação, lidos do
+ * contador de alocação da thread (com.sun.management.ThreadMXBean). Com
+ * -csv a saída é uma tabela para comparar execuções.
+ * <p/>
+ * Fica em um diretório separado (bench/) e no pacote llvm só para
+ * chegar às partes internas do Codegen.
+ */
+public final class PipelineBenchmark {
+
+    // Uma fase do compilador, aplicada ao programa já preparado pelas anteriores
+    private interface Phase {
+        String name();
+
+        Object run(Input input) throws Exception;
+    }
+
+    private static final class Input {
+        final String name;
+        final String source;
+        Program program;
+        Env env;
+        Module module;
+
+        Input(String name, String source) {
+            this.name = name;
+            this.source = source;
+        }
+    }
+
+    private static final Phase[] PHASES = {
+            new Phase() {
+                public String name() {
+                    return "parse";
+                }
+
+                public Object run(Input input) throws Exception {
+                    return parse(input.source);
+                }
+            },
+            new Phase() {
+                public String name() {
+                    return "typecheck";
+                }
+
+                public Object run(Input input) {
+                    return typeCheck(input.program);
+                }
+            },
+            new Phase() {
+                public String name() {
+                    return "symtab";
+                }
+
+                public Object run(Input input) {
+                    SymTab symTab = new SymTab();
+                    symTab.FillTabSymbol(input.program);
+                    return symTab;
+                }
+            },
+            new Phase() {
+                public String name() {
+                    return "codegen";
+                }
+
+                public Object run(Input input) {
+                    return new Codegen().generate(input.program, input.env);
+                }
+            },
+            new Phase() {
+                private final StringBuilder out = new StringBuilder();
+
+                public String name() {
+                    return "emit";
+                }
+
+                public Object run(Input input) throws Exception {
+                    out.setLength(0);
+                    input.module.emit(out);
+                    return out;
+                }
+            },
+            new Phase() {
+                private final StringBuilder out = new StringBuilder();
+
+                public String name() {
+                    return "x86-64";
+                }
+
+                public Object run(Input input) throws Exception {
+                    out.setLength(0);
+                    new x86_64.Backend().translate(input.program, out);
+                    return out;
+                }
+            },
+    };
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // evita que o JIT descarte o resultado das fases
+    private static int sink;
+
+    public static void main(String[] args) throws Exception {
+        long warmup = 1000;
+        long time = 2000;
+        boolean csv = false;
+        List<Input> inputs = new ArrayList<Input>();
+
+        for (String arg : args) {
+            if (arg.startsWith("-warmup=")) {
+                warmup = Long.parseLong(arg.substring("-warmup=".length()));
+            } else if (arg.startsWith("-time=")) {
+                time = Long.parseLong(arg.substring("-time=".length()));
+            } else if (arg.startsWith("-synthetic=")) {
+                String spec = arg.substring("-synthetic=".length());
+                inputs.add(new Input("sintético " + spec, SyntheticProgram.generate(spec)));
+            } else if (arg.equals("-csv")) {
+                csv = true;
+            } else {
+                String source = new String(Files.readAllBytes(Paths.get(arg)), "UTF-8");
+                inputs.add(new Input(Paths.get(arg).getFileName().toString(), source));
+            }
+        }
+        if (inputs.isEmpty()) {
+            System.err.println("Uso: java llvm.PipelineBenchmark [-warmup=ms] [-time=ms] [-synthetic=NxMxK]... [-csv] [programa.java]...");
+            System.exit(-1);
+        }
+
+        if (csv)
+            System.out.println("programa,fase,ops_por_s,ms_por_op,bytes_por_op");
+        else
+            System.out.printf("%-24s %-10s %12s %12s %14s%n", "programa", "fase", "op/s", "ms/op", "KB alocados/op");
+
+        for (Input input : inputs) {
+            for (Phase phase : PHASES) {
+                String result;
+                try {
+                    prepare(input, phase);
+                    result = measure(phase, input, warmup, time, csv);
+                } catch (Exception e) {
+                    result = csv ? "falhou,," : "falhou: " + e;
+                }
+                if (csv)
+                    System.out.println("\"" + input.name + "\"," + phase.name() + "," + result);
+                else
+                    System.out.printf("%-24s %-10s %s%n", input.name, phase.name(), result);
+            }
+        }
+    }
+
+    // Produz, uma vez, a entrada de que 'phase' precisa
+    private static void prepare(Input input, Phase phase) throws Exception {
+        if (input.program == null)
+            input.program = parse(input.source);
+        if (phase.name().equals("parse") || phase.name().equals("typecheck"))
+            return;
+        if (input.env == null) {
+            input.env = typeCheck(input.program);
+            if (input.env == null)
+                throw new IllegalStateException("erros de tipo");
+        }
+        if (phase.name().equals("emit") && input.module == null)
+            input.module = new Codegen().generate(input.program, input.env);
+    }
+
+    private static String measure(Phase phase, Input input, long warmup, long time, boolean csv) throws Exception {
+        long end = System.nanoTime() + warmup * 1000000L;
+        while (System.nanoTime() < end)
+            sink += phase.run(input).hashCode();
+
+        long thread = Thread.currentThread().getId();
+        long ops = 0;
+        long allocated = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        end = start + time * 1000000L;
+        long now;
+        do {
+            sink += phase.run(input).hashCode();
+            ops++;
+            now = System.nanoTime();
+        } while (now < end);
+        allocated = THREADS.getThreadAllocatedBytes(thread) - allocated;
+
+        double seconds = (now - start) / 1e9;
+        double opsPerSecond = ops / seconds;
+        double msPerOp = seconds * 1000 / ops;
+        double bytesPerOp = (double) allocated / ops;
+        if (csv)
+            return String.format(java.util.Locale.ROOT, "%.1f,%.4f,%.0f", opsPerSecond, msPerOp, bytesPerOp);
+        return String.format("%12.1f %12.4f %14.1f", opsPerSecond, msPerOp, bytesPerOp / 1024);
+    }
+
+    static Program parse(String source) throws Exception {
+        Lexer lexer = new Lexer(new PushbackReader(new StringReader(source)));
+        return SyntaxTreeGenerator.convert(new Parser(lexer).parse());
+    }
+
+    // Devolve null se houver erros de tipo (as mensagens são descartadas)
+    static Env typeCheck(Program program) {
+        ErrorEchoer err = new BenchError();
+        Env env = TypeChecker.TypeCheck(err, program);
+        return err.ErrorCount() == 0 ? env : null;
+    }
+
+    // ErrorEchoer que só conta; main.SimpleError não é visível fora do pacote main
+    private static final class BenchError implements ErrorEchoer {
+        private int errors;
+        private int warnings;
+
+        public void Print(Object[] msg) {
+        }
+
+        public void Error(syntaxtree.Absyn node, Object[] msg) {
+            errors++;
+        }
+
+        public void Warning(syntaxtree.Absyn node, Object[] msg) {
+            warnings++;
+        }
+
+        public int ErrorCount() {
+            return errors;
+        }
+
+        public int WarningCount() {
+            return warnings;
+        }
+
+        public void Reset() {
+            errors = 0;
+            warnings = 0;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package llvm;
+
+/**
+ * Gera programas MiniJava de tamanho controlado para o PipelineBenchmark:
+ * N classes com M métodos de K comandos cada.
+ * <p/>
+ * Uma em cada quatro classes começa uma nova hierarquia e as demais
+ * estendem a anterior, para que haja sobrescrita e chamadas virtuais.
+ * Os comandos alternam entre atribuições aritméticas, if/else, while,
+ * acesso a atributo e chamadas de método.
+ */
+final class SyntheticProgram {
+
+    private SyntheticProgram() {
+    }
+
+    // 'spec' no formato NxMxK, por exemplo 100x10x20
+    static String generate(String spec) {
+        String[] parts = spec.split("x");
+        if (parts.length != 3)
+            throw new IllegalArgumentException("esperado NxMxK: " + spec);
+        return generate(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+    }
+
+    static String generate(int classes, int methods, int statements) {
+        StringBuilder s = new StringBuilder();
+        s.append("class Synthetic {\n");
+        s.append("    public static void main(String[] args) {\n");
+        s.append("        System.out.println(new C0().m0(1, 2));\n");
+        s.append("    }\n");
+        s.append("}\n\n");
+
+        for (int c = 0; c < classes; c++) {
+            s.append("class C").append(c);
+            if (c % 4 != 0)
+                s.append(" extends C").append(c - 1);
+            s.append(" {\n");
+            s.append("    int f").append(c).append(";\n");
+            for (int m = 0; m < methods; m++)
+                method(s, c, m, methods, statements);
+            s.append("}\n\n");
+        }
+        return s.toString();
+    }
+
+    private static void method(StringBuilder s, int c, int m, int methods, int statements) {
+        String field = "f" + (c - c % 4);
+        s.append("    public int m").append(m).append("(int a, int b) {\n");
+        s.append("        int x;\n");
+        s.append("        int y;\n");
+        s.append("        x = a;\n");
+        s.append("        y = b;\n");
+        for (int k = 0; k < statements; k++) {
+            s.append("        ");
+            switch (k % 5) {
+                case 0:
+                    s.append("x = x + y * ").append(k + 2).append(" - 1;\n");
+                    break;
+                case 1:
+                    s.append("if (x < y) x = y - x; else y = x - y;\n");
+                    break;
+                case 2:
+                    s.append("while (y < ").append(k + 10).append(") { y = y + 1; x = x + 2; }\n");
+                    break;
+                case 3:
+                    s.append(field).append(" = ").append(field).append(" + x;\n");
+                    break;
+                default:
+                    s.append("y = this.m").append((m + 1) % methods).append("(x, ").append(field).append(");\n");
+                    break;
+            }
+        }
+        s.append("        return x + y;\n");
+        s.append("    }\n");
+    }
+}
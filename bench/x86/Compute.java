@@ -0,0 +1,172 @@
+// Programa que so calcula: crivo de Eratostenes, multiplicacao de
+// matrizes guardadas em vetores, fibonacci recursivo e chamadas virtuais
+// em um laco. Imprime poucos numeros, para que o tempo seja o do codigo
+// gerado e nao o da saida. Compilado pelo LLVM (clang -O2) e pelo
+// backend x86-64, as saidas tem de ser iguais.
+class Compute {
+    public static void main(String[] a) {
+        System.out.println(new Runner().Run(100));
+    }
+}
+
+class Runner {
+    public int Run(int rounds) {
+        int round;
+        int total;
+        Sieve sieve;
+        Matrix matrix;
+        Shape shape;
+
+        sieve = new Sieve();
+        matrix = new Matrix();
+        total = 0;
+        round = 0;
+        while (round < rounds) {
+            total = total + sieve.Count(200000);
+            total = total + matrix.Multiply(60);
+            total = total + this.Fib(22);
+            round = round + 1;
+        }
+        System.out.println(total);
+
+        shape = new Square();
+        total = shape.Sum(3000000);
+        System.out.println(total);
+        shape = new Circle();
+        total = shape.Sum(3000000);
+        System.out.println(total);
+        return rounds;
+    }
+
+    public int Fib(int n) {
+        int r;
+        if (n < 2)
+            r = n;
+        else
+            r = this.Fib(n - 1) + this.Fib(n - 2);
+        return r;
+    }
+}
+
+class Sieve {
+    public int Count(int n) {
+        int[] composite;
+        int i;
+        int j;
+        int count;
+
+        composite = new int[n];
+        count = 0;
+        i = 2;
+        while (i < n) {
+            if (composite[i] < 1) {
+                count = count + 1;
+                j = i + i;
+                while (j < n) {
+                    composite[j] = 1;
+                    j = j + i;
+                }
+            } else {
+            }
+            i = i + 1;
+        }
+        return count;
+    }
+}
+
+class Matrix {
+    public int Multiply(int n) {
+        int[] x;
+        int[] y;
+        int[] z;
+        int i;
+        int j;
+        int k;
+        int sum;
+        int trace;
+        int a;
+        int b;
+
+        x = new int[n * n];
+        y = new int[n * n];
+        z = new int[n * n];
+        a = 0;
+        b = 0;
+        i = 0;
+        while (i < n * n) {
+            x[i] = a;
+            y[i] = b;
+            a = a + 1;
+            if (6 < a)
+                a = 0;
+            else {
+            }
+            b = b + 1;
+            if (4 < b)
+                b = 0;
+            else {
+            }
+            i = i + 1;
+        }
+        i = 0;
+        while (i < n) {
+            j = 0;
+            while (j < n) {
+                sum = 0;
+                k = 0;
+                while (k < n) {
+                    sum = sum + x[i * n + k] * y[k * n + j];
+                    k = k + 1;
+                }
+                z[i * n + j] = sum;
+                j = j + 1;
+            }
+            i = i + 1;
+        }
+        trace = 0;
+        i = 0;
+        while (i < n) {
+            trace = trace + z[i * n + i];
+            i = i + 1;
+        }
+        return trace;
+    }
+}
+
+class Shape {
+    public int Area(int side) {
+        return 0;
+    }
+
+    public int Sum(int n) {
+        int i;
+        int side;
+        int total;
+
+        total = 0;
+        side = 0;
+        i = 0;
+        while (i < n) {
+            total = total + this.Area(side);
+            side = side + 1;
+            if (99 < side)
+                side = 0;
+            else {
+            }
+            i = i + 1;
+        }
+        return total;
+    }
+}
+
+class Square extends Shape {
+    public int Area(int side) {
+        return side * side;
+    }
+}
+
+class Circle extends Shape {
+    public int Area(int side) {
+        return 3 * side * side;
+    }
+}
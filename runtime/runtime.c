@@ -0,0 +1,429 @@
+/*
+ * runtime.c
+ *
+ * rotinas utilizadas pelo LLVM-IR gerado pelo compilador MiniJava.
+ *
+ * Segue o runtime.c distribuído em lib/projeto2.jar, mas sem o main()
+ * (o módulo gerado já define @main) e sem trocar os nomes para
+ * _boundCheck etc. no GCC, para que o IR possa chamar @boundCheck.
+ *
+ * Como ligar:
+ * $ clang teste.s runtime/runtime.c -o teste
+ *
+ * Ou, com o lli:
+ * $ clang -S -emit-llvm runtime/runtime.c -o runtime.ll
+ * $ lli -extra-module=runtime.ll teste.s
+ *
+ * Todo programa chama boundCheck e, sem -fprintf, printInt; os
+ * compilados com -farena ou -fgc tambem alocam pelas rotinas abaixo.
+ */
+#include <stdio.h>
+#include <stdlib.h>
+#include <sys/resource.h>
+
+/*
+ * Saida
+ *
+ * System.out.println vira uma chamada a printInt (a menos que o
+ * programa seja compilado com -fprintf). Os numeros sao formatados
+ * aqui, sem o printf, em um buffer que so e escrito quando enche e no
+ * fim do programa (atexit). As mensagens de erro do runtime chamam
+ * printFlush antes, para sairem depois do que o programa ja imprimiu;
+ * codigo C ligado ao programa que escreva em stdout precisa fazer o
+ * mesmo, ou o programa deve ser compilado com -fprintf.
+ */
+#define PRINT_BUFFER (1 << 16)
+#define PRINT_MAX 12            /* "-2147483648\n" */
+
+static char printBuffer[PRINT_BUFFER];
+static int printUsed = 0;
+static int printStarted = 0;
+
+/*
+ * printFlush
+ *
+ * escreve em stdout o que estiver no buffer de saida
+ */
+void printFlush(void)
+{
+    if ( printUsed > 0 )
+    {
+        fwrite(printBuffer, 1, printUsed, stdout);
+        printUsed = 0;
+    }
+    fflush(stdout);
+}
+
+/*
+ * printInt
+ *
+ * imprime um inteiro seguido de fim de linha, como printf("%d\n", value)
+ *
+ * entrada:
+ *  value: o inteiro
+ *
+ * saida:
+ *
+ */
+void printInt
+(
+    int value
+)
+{
+    char digits[PRINT_MAX];
+    unsigned int u = value < 0 ? 0u - (unsigned int) value : (unsigned int) value;
+    int n = 0;
+
+    if ( !printStarted )
+    {
+        printStarted = 1;
+        atexit(printFlush);
+    }
+    if ( printUsed + PRINT_MAX > PRINT_BUFFER )
+        printFlush();
+
+    do
+    {
+        digits[n++] = (char) ('0' + u % 10);
+        u /= 10;
+    } while ( u != 0 );
+    if ( value < 0 )
+        printBuffer[printUsed++] = '-';
+    while ( n > 0 )
+        printBuffer[printUsed++] = digits[--n];
+    printBuffer[printUsed++] = '\n';
+}
+
+/*
+ * boundCheck
+ *
+ * verifica se o indice esta dentro do vetor; termina
+ * o programa se nao estiver
+ *
+ * entrada:
+ *  arr: o vetor, cujo primeiro inteiro e o tamanho
+ *  idx: o indice acessado
+ *  line: a linha do acesso no fonte
+ *
+ * saida:
+ *
+ */
+void boundCheck
+(
+    int* arr, 
+    int idx, 
+    int line
+)
+{
+    int size = *arr;
+
+    if ( idx >= size || idx < 0 )
+    {
+        printFlush();
+        printf("Index out of bounds exception @ %d\n", line);
+        exit(-1);
+    }
+}
+
+/*
+ * Arena
+ *
+ * alocador dos programas compilados com -farena. Os objetos e vetores
+ * sao cortados em sequencia de blocos grandes, zerados pelo calloc e
+ * nunca devolvidos um a um. O caminho rapido fica no proprio IR:
+ *
+ *   p = arena.next; q = p + bytes;
+ *   if (q <= arena.limit) { arena.next = q; return p; }
+ *   return arenaAllocSlow(&arena, bytes);
+ *
+ * 'bytes' e sempre multiplo de 8, entao os enderecos ficam alinhados.
+ * O estado fica todo na struct, e as funcoes recebem a arena por
+ * ponteiro: para ter uma arena por thread basta declarar 'arena' como
+ * __thread aqui e como thread_local no IR (Codegen.ARENA).
+ *
+ * O layout da struct e o %arena declarado pelo Codegen.
+ */
+#define ARENA_CHUNK (1 << 20)
+
+typedef struct Chunk
+{
+    struct Chunk* next;
+    long pad;               /* mantem os dados alinhados em 16 bytes */
+} Chunk;
+
+typedef struct Arena
+{
+    char* next;             /* proximo byte livre do bloco atual */
+    char* limit;            /* fim do bloco atual */
+    Chunk* chunks;          /* todos os blocos, para arenaFree */
+} Arena;
+
+Arena arena = { 0, 0, 0 };
+
+/*
+ * arenaAllocSlow
+ *
+ * chamada pelo IR quando 'bytes' nao cabe no bloco atual
+ *
+ * entrada:
+ *  a: a arena
+ *  bytes: o tamanho pedido, multiplo de 8
+ *
+ * saida:
+ *  memoria zerada com 'bytes' bytes. Pedidos grandes ganham um bloco
+ *  so para eles e nao descartam o resto do bloco atual.
+ */
+char* arenaAllocSlow
+(
+    Arena* a,
+    int bytes
+)
+{
+    size_t size = bytes > ARENA_CHUNK / 4 ? (size_t) bytes : ARENA_CHUNK;
+    Chunk* chunk;
+    char* mem;
+
+    if ( bytes < 0 )
+    {
+        printFlush();
+        printf("Negative array size\n");
+        exit(-1);
+    }
+
+    chunk = calloc(1, sizeof(Chunk) + size);
+    if ( chunk == NULL )
+    {
+        printFlush();
+        printf("Out of memory\n");
+        exit(-1);
+    }
+    chunk->next = a->chunks;
+    a->chunks = chunk;
+
+    mem = (char*) (chunk + 1);
+    if ( size == ARENA_CHUNK )
+    {
+        a->next = mem + bytes;
+        a->limit = mem + size;
+    }
+    return mem;
+}
+
+/*
+ * arenaFree
+ *
+ * devolve todos os blocos da arena de uma vez
+ *
+ * entrada:
+ *  a: a arena
+ *
+ * saida:
+ *
+ */
+void arenaFree
+(
+    Arena* a
+)
+{
+    Chunk* chunk = a->chunks;
+
+    while ( chunk != NULL )
+    {
+        Chunk* next = chunk->next;
+        free(chunk);
+        chunk = next;
+    }
+    a->next = a->limit = 0;
+    a->chunks = 0;
+}
+
+/*
+ * Coletor de lixo
+ *
+ * usado pelos programas compilados com -fgc. Marca e varre, sem mover
+ * objetos. Cada bloco do gcAlloc tem um GcHeader escondido antes do
+ * objeto, e todos os blocos ficam em uma lista para a varredura.
+ *
+ * As raizes ficam na pilha de sombra: cada funcao que tem referencias
+ * vivas durante uma chamada empilha em gcTop um quadro
+ *
+ *   { GcFrame* anterior, int n, void* raiz[n] }
+ *
+ * e guarda nele cada referencia assim que ela e definida (ver
+ * llvm.ShadowStack). O mapa de cada classe (@.gcmap.<classe>) diz
+ * quantos atributos sao referencias e em que deslocamento estao;
+ * vetores de int nao tem mapa.
+ *
+ * A coleta roda quando o que foi alocado desde a ultima passa de
+ * gcThreshold, que depois dela vira o dobro do que sobreviveu (no
+ * minimo GC_MIN_HEAP). Com a variavel de ambiente MINIJAVA_GC_STATS o
+ * programa imprime, ao terminar, as coletas e o pico de memoria (RSS).
+ */
+#define GC_MIN_HEAP (1 << 20)
+
+typedef struct GcHeader
+{
+    struct GcHeader* next;  /* todos os blocos alocados */
+    int* map;               /* { n, deslocamento[n] } ou NULL */
+    int size;
+    int marked;
+} GcHeader;
+
+typedef struct GcFrame
+{
+    struct GcFrame* next;
+    int count;
+    void* roots[];
+} GcFrame;
+
+GcFrame* gcTop = 0;
+
+static GcHeader* gcObjects = 0;
+static size_t gcAllocated = 0;      /* bytes alocados desde a ultima coleta */
+static size_t gcLive = 0;           /* bytes que sobreviveram a ultima coleta */
+static size_t gcThreshold = GC_MIN_HEAP;
+static void** gcStack = 0;          /* objetos marcados ainda nao percorridos */
+static size_t gcStackSize = 0;
+static size_t gcStackCapacity = 0;
+static long gcCollections = 0;
+static size_t gcFreed = 0;
+static int gcStarted = 0;
+
+static void gcMark(void* object)
+{
+    GcHeader* header;
+
+    if ( object == NULL )
+        return;
+    header = (GcHeader*) object - 1;
+    if ( header->marked )
+        return;
+    header->marked = 1;
+
+    if ( header->map == NULL )
+        return;
+    if ( gcStackSize == gcStackCapacity )
+    {
+        gcStackCapacity = gcStackCapacity ? 2 * gcStackCapacity : 1024;
+        gcStack = realloc(gcStack, gcStackCapacity * sizeof(void*));
+        if ( gcStack == NULL )
+        {
+            printFlush();
+            printf("Out of memory\n");
+            exit(-1);
+        }
+    }
+    gcStack[gcStackSize++] = object;
+}
+
+/*
+ * gcCollect
+ *
+ * marca tudo o que e alcancavel a partir da pilha de sombra e libera
+ * o resto
+ */
+void gcCollect(void)
+{
+    GcFrame* frame;
+    GcHeader** link;
+    int i;
+
+    for ( frame = gcTop; frame != NULL; frame = frame->next )
+        for ( i = 0; i < frame->count; i++ )
+            gcMark(frame->roots[i]);
+
+    while ( gcStackSize > 0 )
+    {
+        char* object = gcStack[--gcStackSize];
+        int* map = ((GcHeader*) object - 1)->map;
+        for ( i = 1; i <= map[0]; i++ )
+            gcMark(*(void**) (object + map[i]));
+    }
+
+    gcLive = 0;
+    link = &gcObjects;
+    while ( *link != NULL )
+    {
+        GcHeader* header = *link;
+        if ( header->marked )
+        {
+            header->marked = 0;
+            gcLive += header->size;
+            link = &header->next;
+        }
+        else
+        {
+            *link = header->next;
+            gcFreed += header->size;
+            free(header);
+        }
+    }
+
+    gcAllocated = 0;
+    gcThreshold = 2 * gcLive > GC_MIN_HEAP ? 2 * gcLive : GC_MIN_HEAP;
+    gcCollections++;
+}
+
+static void gcReport(void)
+{
+    struct rusage usage;
+
+    getrusage(RUSAGE_SELF, &usage);
+    fprintf(stderr, "gc: %ld coletas, %lu bytes liberados, %lu bytes vivos, pico de RSS %ld KB\n",
+            gcCollections, (unsigned long) gcFreed, (unsigned long) (gcLive + gcAllocated), usage.ru_maxrss);
+}
+
+/*
+ * gcAlloc
+ *
+ * aloca um objeto ou vetor do coletor; pode disparar uma coleta
+ *
+ * entrada:
+ *  bytes: o tamanho do objeto
+ *  map: o mapa de referencias da classe, ou NULL para vetores
+ *
+ * saida:
+ *  memoria zerada com 'bytes' bytes
+ */
+void* gcAlloc
+(
+    int bytes,
+    int* map
+)
+{
+    GcHeader* header;
+
+    if ( !gcStarted )
+    {
+        gcStarted = 1;
+        if ( getenv("MINIJAVA_GC_STATS") != NULL )
+            atexit(gcReport);
+    }
+    if ( bytes < 0 )
+    {
+        printFlush();
+        printf("Negative array size\n");
+        exit(-1);
+    }
+    if ( gcAllocated + bytes > gcThreshold )
+        gcCollect();
+
+    header = calloc(1, sizeof(GcHeader) + bytes);
+    if ( header == NULL )
+    {
+        gcCollect();
+        header = calloc(1, sizeof(GcHeader) + bytes);
+        if ( header == NULL )
+        {
+            printFlush();
+            printf("Out of memory\n");
+            exit(-1);
+        }
+    }
+    header->map = map;
+    header->size = bytes;
+    header->next = gcObjects;
+    gcObjects = header;
+    gcAllocated += bytes;
+    return header + 1;
+}
@@ -0,0 +1,186 @@
+package jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Escreve um arquivo .class (JVMS, capítulo 4) sem biblioteca externa.
+ * <p/>
+ * A versão é a 50 (Java 6): sem StackMapTable a verificação por tipos
+ * falha e a JVM usa o verificador por inferência, o que poupa calcular
+ * os quadros de pilha de cada desvio. Só há as constantes que o
+ * gerador de código usa: Utf8, Integer, String, Class, Fieldref,
+ * Methodref e NameAndType, sem repetição.
+ */
+public final class ClassFile {
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_SUPER = 0x0020;
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 50;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final int access;
+    private final String name;
+    private final String superName;
+
+    // tabela de constantes já serializada; o índice 0 não é usado
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> constants = new HashMap<String, Integer>();
+    private int poolCount = 1;
+
+    private final List<int[]> fields = new ArrayList<int[]>();
+    private final List<Code> methods = new ArrayList<Code>();
+
+    // 'name' e 'superName' no formato interno (java/lang/Object)
+    public ClassFile(int access, String name, String superName) {
+        this.access = access;
+        this.name = name;
+        this.superName = superName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void field(int access, String name, String descriptor) {
+        fields.add(new int[]{access, utf8(name), utf8(descriptor)});
+    }
+
+    // Corpo de um novo método; é escrito junto com a classe
+    public Code method(int access, String name, String descriptor) {
+        Code code = new Code(this, access, utf8(name), utf8(descriptor), descriptor);
+        methods.add(code);
+        return code;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int thisClass = classRef(name);
+            int superClass = classRef(superName);
+            // os métodos ainda acrescentam constantes (nomes dos atributos)
+            List<byte[]> bodies = new ArrayList<byte[]>();
+            for (Code method : methods)
+                bodies.add(method.toByteArray());
+
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            poolBytes.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);      // interfaces
+            out.writeShort(fields.size());
+            for (int[] f : fields) {
+                out.writeShort(f[0]);
+                out.writeShort(f[1]);
+                out.writeShort(f[2]);
+                out.writeShort(0);
+            }
+            out.writeShort(methods.size());
+            for (byte[] body : bodies)
+                out.write(body);
+            out.writeShort(0);      // atributos da classe
+            out.flush();
+        } catch (IOException e) {
+            // ByteArrayOutputStream nunca lança IOException
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // ---- tabela de constantes ----
+
+    int utf8(String s) {
+        Integer index = constants.get("U" + s);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(CONSTANT_UTF8);
+            // o writeUTF já grava o UTF-8 modificado com o tamanho na frente, como a JVM espera
+            pool.writeUTF(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return add("U" + s);
+    }
+
+    int integer(int value) {
+        Integer index = constants.get("I" + value);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(CONSTANT_INTEGER);
+            pool.writeInt(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return add("I" + value);
+    }
+
+    int string(String s) {
+        return reference(CONSTANT_STRING, "S" + s, utf8(s), -1);
+    }
+
+    int classRef(String name) {
+        return reference(CONSTANT_CLASS, "C" + name, utf8(name), -1);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return reference(CONSTANT_FIELDREF, "F" + owner + "." + name + ":" + descriptor,
+                classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return reference(CONSTANT_METHODREF, "M" + owner + "." + name + descriptor,
+                classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return reference(CONSTANT_NAME_AND_TYPE, "N" + name + ":" + descriptor, utf8(name), utf8(descriptor));
+    }
+
+    // Constante que aponta para uma ou duas outras ('second' < 0 se for só uma)
+    private int reference(int tag, String key, int first, int second) {
+        Integer index = constants.get(key);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(first);
+            if (second >= 0)
+                pool.writeShort(second);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return add(key);
+    }
+
+    private int add(String key) {
+        if (poolCount == 0xFFFF)
+            throw new IllegalStateException("tabela de constantes cheia em " + name);
+        int index = poolCount++;
+        constants.put(key, index);
+        return index;
+    }
+}
@@ -0,0 +1,385 @@
+package jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Corpo de um método: bytecode, tabela de exceções e números de linha,
+ * gravados como o atributo Code do método.
+ * <p/>
+ * Os desvios apontam para Labels, resolvidos quando o rótulo é marcado
+ * (sempre com deslocamento de 16 bits). A altura da pilha é calculada
+ * instrução a instrução para o max_stack: cada rótulo guarda a altura
+ * com que é alcançado, e depois de um goto, return ou athrow a altura
+ * vem do próximo rótulo marcado.
+ */
+public final class Code {
+    public static final int ACONST_NULL = 1;
+    public static final int ICONST_0 = 3;
+    public static final int BIPUSH = 16;
+    public static final int SIPUSH = 17;
+    public static final int LDC = 18;
+    public static final int LDC_W = 19;
+    public static final int ILOAD = 21;
+    public static final int ALOAD = 25;
+    public static final int IALOAD = 46;
+    public static final int AALOAD = 50;
+    public static final int ISTORE = 54;
+    public static final int ASTORE = 58;
+    public static final int IASTORE = 79;
+    public static final int POP = 87;
+    public static final int DUP = 89;
+    public static final int IADD = 96;
+    public static final int ISUB = 100;
+    public static final int IMUL = 104;
+    public static final int IXOR = 130;
+    public static final int IFEQ = 153;
+    public static final int IFNE = 154;
+    public static final int IF_ICMPEQ = 159;
+    public static final int IF_ICMPNE = 160;
+    public static final int IF_ICMPLT = 161;
+    public static final int IF_ICMPGE = 162;
+    public static final int IF_ACMPEQ = 165;
+    public static final int IF_ACMPNE = 166;
+    public static final int GOTO = 167;
+    public static final int IRETURN = 172;
+    public static final int ARETURN = 176;
+    public static final int RETURN = 177;
+    public static final int GETSTATIC = 178;
+    public static final int PUTSTATIC = 179;
+    public static final int GETFIELD = 180;
+    public static final int PUTFIELD = 181;
+    public static final int INVOKEVIRTUAL = 182;
+    public static final int INVOKESPECIAL = 183;
+    public static final int INVOKESTATIC = 184;
+    public static final int NEW = 187;
+    public static final int NEWARRAY = 188;
+    public static final int ARRAYLENGTH = 190;
+    public static final int ATHROW = 191;
+    public static final int CHECKCAST = 192;
+
+    // operando do newarray
+    public static final int T_INT = 10;
+
+    private static final int MAX_CODE = 0xFFFF;
+
+    // Posição no código; os desvios para trás são resolvidos na hora, os para frente ao marcar
+    public static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private int[] pending = new int[2];     // posição do opcode de cada desvio ainda não resolvido
+        private int pendingCount;
+    }
+
+    private final ClassFile owner;
+    private final int access;
+    private final int name;
+    private final int descriptor;
+
+    private byte[] code = new byte[64];
+    private int length;
+    private int stack;
+    private int maxStack;
+    private int maxLocals;
+    private final List<int[]> lines = new ArrayList<int[]>();
+    private final List<Object[]> handlers = new ArrayList<Object[]>();
+
+    Code(ClassFile owner, int access, int name, int descriptor, String signature) {
+        this.owner = owner;
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+        // os parâmetros ocupam as primeiras variáveis locais
+        maxLocals = argumentSlots(signature) + ((access & ClassFile.ACC_STATIC) != 0 ? 0 : 1);
+    }
+
+    // Variáveis locais usadas pelo método, contando 'this' e os parâmetros
+    public void locals(int count) {
+        maxLocals = Math.max(maxLocals, count);
+    }
+
+    public int size() {
+        return length;
+    }
+
+    // ---- instruções ----
+
+    // Instrução sem operandos
+    public void op(int opcode) {
+        emit(opcode);
+        switch (opcode) {
+            case ACONST_NULL:
+            case DUP:
+                push(1);
+                break;
+            case IALOAD:
+            case AALOAD:
+            case POP:
+            case IADD:
+            case ISUB:
+            case IMUL:
+            case IXOR:
+            case IRETURN:
+            case ARETURN:
+            case ATHROW:
+                push(-1);
+                break;
+            case IASTORE:
+                push(-3);
+                break;
+            case RETURN:
+            case ARRAYLENGTH:
+                break;
+            default:
+                throw new IllegalArgumentException("opcode sem tratamento: " + opcode);
+        }
+    }
+
+    // Empilha a constante com a instrução mais curta
+    public void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            emit(ICONST_0 + value);
+        } else if (value == (byte) value) {
+            emit(BIPUSH);
+            emit(value);
+        } else if (value == (short) value) {
+            emit(SIPUSH);
+            emit16(value);
+        } else {
+            constant(owner.integer(value));
+            return;
+        }
+        push(1);
+    }
+
+    public void ldc(String s) {
+        constant(owner.string(s));
+    }
+
+    private void constant(int index) {
+        if (index < 256) {
+            emit(LDC);
+            emit(index);
+        } else {
+            emit(LDC_W);
+            emit16(index);
+        }
+        push(1);
+    }
+
+    // ILOAD, ALOAD, ISTORE ou ASTORE, na forma curta para as quatro primeiras variáveis
+    public void var(int opcode, int slot) {
+        if (slot < 4) {
+            // iload_0 = 26, aload_0 = 42, istore_0 = 59, astore_0 = 75
+            int base = opcode == ILOAD ? 26 : opcode == ALOAD ? 42 : opcode == ISTORE ? 59 : 75;
+            emit(base + slot);
+        } else {
+            emit(opcode);
+            emit(slot);
+        }
+        push(opcode == ILOAD || opcode == ALOAD ? 1 : -1);
+        maxLocals = Math.max(maxLocals, slot + 1);
+    }
+
+    // NEW, CHECKCAST
+    public void type(int opcode, String className) {
+        emit(opcode);
+        emit16(owner.classRef(className));
+        if (opcode == NEW)
+            push(1);
+    }
+
+    public void newarray(int type) {
+        emit(NEWARRAY);
+        emit(type);
+    }
+
+    // GETSTATIC, PUTSTATIC, GETFIELD, PUTFIELD
+    public void field(int opcode, String className, String name, String descriptor) {
+        emit(opcode);
+        emit16(owner.fieldRef(className, name, descriptor));
+        int size = typeSlots(descriptor, 0);
+        if (opcode == GETSTATIC)
+            push(size);
+        else if (opcode == PUTSTATIC)
+            push(-size);
+        else if (opcode == GETFIELD)
+            push(size - 1);
+        else
+            push(-size - 1);
+    }
+
+    // INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC
+    public void invoke(int opcode, String className, String name, String descriptor) {
+        emit(opcode);
+        emit16(owner.methodRef(className, name, descriptor));
+        int result = descriptor.charAt(descriptor.length() - 1) == 'V'
+                ? 0 : typeSlots(descriptor, descriptor.indexOf(')') + 1);
+        push(result - argumentSlots(descriptor) - (opcode == INVOKESTATIC ? 0 : 1));
+    }
+
+    // Desvio condicional (IFEQ... IF_ACMPNE) ou GOTO
+    public void jump(int opcode, Label target) {
+        if (opcode == IFEQ || opcode == IFNE)
+            push(-1);
+        else if (opcode != GOTO)
+            push(-2);
+        reach(target);
+
+        int at = length;
+        emit(opcode);
+        if (target.position >= 0) {
+            emit16(offset(target.position - at));
+        } else {
+            emit16(0);
+            if (target.pendingCount == target.pending.length)
+                target.pending = Arrays.copyOf(target.pending, 2 * target.pendingCount);
+            target.pending[target.pendingCount++] = at;
+        }
+    }
+
+    public void mark(Label label) {
+        if (label.position >= 0)
+            throw new IllegalStateException("rótulo marcado duas vezes");
+        label.position = length;
+        for (int i = 0; i < label.pendingCount; i++) {
+            int at = label.pending[i];
+            int offset = offset(length - at);
+            code[at + 1] = (byte) (offset >> 8);
+            code[at + 2] = (byte) offset;
+        }
+        label.pending = null;
+        // depois de um goto a altura só é conhecida pelos desvios para cá
+        if (label.stack >= 0)
+            stack = label.stack;
+        else
+            label.stack = stack;
+    }
+
+    // Exceções de 'type' (null: todas) lançadas entre 'start' e 'end' desviam para 'handler'
+    public void handler(Label start, Label end, Label handler, String type) {
+        handlers.add(new Object[]{start, end, handler, type});
+        // o tratador começa com a exceção na pilha
+        handler.stack = 1;
+        maxStack = Math.max(maxStack, 1);
+    }
+
+    // As próximas instruções são da linha 'line' do fonte
+    public void line(int line) {
+        int last = lines.size() - 1;
+        if (last >= 0 && lines.get(last)[1] == line)
+            return;
+        if (last >= 0 && lines.get(last)[0] == length)
+            lines.get(last)[1] = line;
+        else
+            lines.add(new int[]{length, line});
+    }
+
+    // ---- saída ----
+
+    byte[] toByteArray() {
+        if (length > MAX_CODE)
+            throw new IllegalStateException("método grande demais: " + length + " bytes de bytecode");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int codeAttribute = owner.utf8("Code");
+            int lineAttribute = lines.isEmpty() ? 0 : owner.utf8("LineNumberTable");
+            int[] catchTypes = new int[handlers.size()];
+            for (int i = 0; i < catchTypes.length; i++) {
+                String type = (String) handlers.get(i)[3];
+                catchTypes[i] = type == null ? 0 : owner.classRef(type);
+            }
+
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            int lineTable = lines.isEmpty() ? 0 : 8 + 4 * lines.size();
+            out.writeInt(12 + length + 8 * handlers.size() + lineTable);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(handlers.size());
+            for (int i = 0; i < catchTypes.length; i++) {
+                Object[] h = handlers.get(i);
+                out.writeShort(((Label) h[0]).position);
+                out.writeShort(((Label) h[1]).position);
+                out.writeShort(((Label) h[2]).position);
+                out.writeShort(catchTypes[i]);
+            }
+            if (lines.isEmpty()) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(lineAttribute);
+                out.writeInt(2 + 4 * lines.size());
+                out.writeShort(lines.size());
+                for (int[] l : lines) {
+                    out.writeShort(l[0]);
+                    out.writeShort(l[1]);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // ---- auxiliares ----
+
+    private void emit(int b) {
+        if (length == code.length)
+            code = Arrays.copyOf(code, 2 * length);
+        code[length++] = (byte) b;
+    }
+
+    private void emit16(int v) {
+        emit(v >> 8);
+        emit(v);
+    }
+
+    private void push(int delta) {
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    // A altura com que se chega a 'target' é a de agora
+    private void reach(Label target) {
+        if (target.stack < 0)
+            target.stack = stack;
+    }
+
+    private static int offset(int offset) {
+        if (offset != (short) offset)
+            throw new IllegalStateException("desvio longo demais: " + offset + " bytes");
+        return offset;
+    }
+
+    // Palavras ocupadas pelos parâmetros de um descritor de método
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            slots += typeSlots(descriptor, i);
+            while (descriptor.charAt(i) == '[')
+                i++;
+            i = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+        }
+        return slots;
+    }
+
+    // Palavras do tipo que começa em 'descriptor[i]': long e double ocupam duas
+    private static int typeSlots(String descriptor, int i) {
+        char c = descriptor.charAt(i);
+        return c == 'J' || c == 'D' ? 2 : 1;
+    }
+}
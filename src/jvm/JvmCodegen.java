@@ -0,0 +1,635 @@
+package jvm;
+
+import llvm.ClassNode;
+import llvm.Codegen;
+import llvm.MethodNode;
+import llvm.PassTimer;
+import llvm.SymTab;
+import llvmast.LlvmClassType;
+import llvmast.LlvmNamedValue;
+import llvmast.LlvmPointer;
+import llvmast.LlvmPrimitiveType;
+import llvmast.LlvmType;
+import llvmast.LlvmValue;
+import syntaxtree.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Gera bytecode da JVM em vez de LLVM-IR (-target=jvm), com a mesma
+ * tabela de símbolos (llvm.SymTab) do llvm.Codegen: um .class por classe do
+ * programa, que roda na própria JVM do compilador (run(), pelo
+ * Loader) ou pode ser gravado em disco (write()).
+ * <p/>
+ * Os tipos são os da JVM: int e boolean são I e Z, int[] é um vetor de
+ * int da JVM (o tamanho e a verificação de limites são dela) e cada
+ * objeto é uma instância da classe, com os métodos chamados por
+ * invokevirtual; o despacho e a desvirtualização ficam com o HotSpot,
+ * que também faz o inlining, a eliminação de verificações e o resto das
+ * otimizações que o LLVM faria.
+ * <p/>
+ * A classe principal ganha o System.out.println como o método estático
+ * '$print', que escreve em um PrintStream com buffer ('$out'),
+ * esvaziado no fim do main. Um índice fora do vetor imprime a mesma
+ * mensagem do boundCheck do runtime, com a linha tirada da
+ * LineNumberTable, e termina o programa com o mesmo código de saída.
+ */
+public final class JvmCodegen extends VisitorAdapter {
+    static final String PRINT = "$print";
+    static final String OUT = "$out";
+    private static final String PRINT_STREAM = "java/io/PrintStream";
+    private static final String OBJECT = "java/lang/Object";
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    // a recursão em cauda continua sendo chamada aqui (o TailRecursion é do
+    // LLVM-IR), e um quadro da JVM é maior que o do código nativo
+    private static final long STACK_SIZE = 1L << 30;
+
+    private final PassTimer timer;
+    private SymTab symTab;
+    private String mainClass;
+    private final Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+    private int bytecodeSize;
+
+    // estado do método sendo gerado
+    private ClassNode classEnv;
+    private MethodNode methodEnv;
+    private Code code;
+    private final Map<String, Integer> slots = new HashMap<String, Integer>();
+    private final Map<String, LlvmType> types = new HashMap<String, LlvmType>();
+
+    public JvmCodegen() {
+        this(new PassTimer());
+    }
+
+    // As fases entram em 'timer' (o do Codegen, na linha de comando)
+    public JvmCodegen(PassTimer timer) {
+        this.timer = timer;
+    }
+
+    public PassTimer getPassTimer() {
+        return timer;
+    }
+
+    public String getMainClass() {
+        return mainClass;
+    }
+
+    public int getClassCount() {
+        return classes.size();
+    }
+
+    // Bytes de bytecode nos corpos dos métodos
+    public int getBytecodeSize() {
+        return bytecodeSize;
+    }
+
+    // Nome (formato interno) -> conteúdo do .class, a classe principal primeiro
+    public Map<String, byte[]> translate(Program p) {
+        PassTimer.Mark mark = timer.start();
+        symTab = new SymTab();
+        symTab.FillTabSymbol(p);
+        timer.stop("symtab", mark);
+
+        mark = timer.start();
+        classes.clear();
+        bytecodeSize = 0;
+        p.accept(this);
+        timer.stop("jvm-codegen", mark);
+        return classes;
+    }
+
+    // Grava cada classe como 'directory'/<nome>.class; roda com 'java -cp directory <principal>'
+    // (com um -Xss maior se houver recursão profunda, ver STACK_SIZE)
+    public static void write(Map<String, byte[]> classes, String directory) throws IOException {
+        File dir = new File(directory);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("não foi possível criar " + directory);
+        for (Map.Entry<String, byte[]> c : classes.entrySet()) {
+            OutputStream out = new FileOutputStream(new File(dir, c.getKey() + ".class"));
+            try {
+                out.write(c.getValue());
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    // Carrega as classes em um Loader novo e chama o main de 'mainClass'
+    // em uma thread com pilha de STACK_SIZE bytes
+    public static void run(Map<String, byte[]> classes, String mainClass) throws Throwable {
+        final Method main = new Loader(classes).loadClass(mainClass).getMethod("main", String[].class);
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, new Runnable() {
+            public void run() {
+                try {
+                    main.invoke(null, (Object) new String[0]);
+                } catch (InvocationTargetException e) {
+                    failure[0] = e.getCause();
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        }, mainClass, STACK_SIZE);
+        thread.start();
+        thread.join();
+        if (failure[0] != null)
+            throw failure[0];
+    }
+
+    // ---- classes ----
+
+    public LlvmValue visit(Program n) {
+        n.mainClass.accept(this);
+        for (util.List<ClassDecl> c = n.classList; c != null; c = c.tail)
+            c.head.accept(this);
+        return null;
+    }
+
+    public LlvmValue visit(MainClass n) {
+        mainClass = n.className.s;
+        classEnv = symTab.classes.get(mainClass);
+        ClassFile file = new ClassFile(ClassFile.ACC_PUBLIC | ClassFile.ACC_SUPER, mainClass, OBJECT);
+        file.field(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, OUT, "L" + PRINT_STREAM + ";");
+        constructor(file, OBJECT);
+
+        // $print(int): System.out.println com a saída em buffer
+        code = file.method(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, PRINT, "(I)V");
+        code.field(Code.GETSTATIC, mainClass, OUT, "L" + PRINT_STREAM + ";");
+        code.var(Code.ILOAD, 0);
+        code.invoke(Code.INVOKEVIRTUAL, PRINT_STREAM, "println", "(I)V");
+        code.op(Code.RETURN);
+        bytecodeSize += code.size();
+
+        code = file.method(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, "main", "([Ljava/lang/String;)V");
+        code.locals(2);
+        slots.clear();
+        types.clear();
+
+        // $out = new PrintStream(new BufferedOutputStream(System.out, N), false)
+        code.type(Code.NEW, PRINT_STREAM);
+        code.op(Code.DUP);
+        code.type(Code.NEW, "java/io/BufferedOutputStream");
+        code.op(Code.DUP);
+        code.field(Code.GETSTATIC, "java/lang/System", "out", "L" + PRINT_STREAM + ";");
+        code.iconst(OUTPUT_BUFFER_SIZE);
+        code.invoke(Code.INVOKESPECIAL, "java/io/BufferedOutputStream", "<init>", "(Ljava/io/OutputStream;I)V");
+        code.iconst(0);
+        code.invoke(Code.INVOKESPECIAL, PRINT_STREAM, "<init>", "(Ljava/io/OutputStream;Z)V");
+        code.field(Code.PUTSTATIC, mainClass, OUT, "L" + PRINT_STREAM + ";");
+
+        Code.Label start = new Code.Label(), end = new Code.Label();
+        Code.Label bounds = new Code.Label(), other = new Code.Label();
+        code.mark(start);
+        n.stm.accept(this);
+        code.mark(end);
+        flush();
+        code.op(Code.RETURN);
+
+        // índice fora do vetor: a mensagem e o código de saída do boundCheck do runtime
+        code.handler(start, end, bounds, "java/lang/ArrayIndexOutOfBoundsException");
+        code.mark(bounds);
+        code.var(Code.ASTORE, 1);
+        flush();
+        code.field(Code.GETSTATIC, "java/lang/System", "out", "L" + PRINT_STREAM + ";");
+        code.type(Code.NEW, "java/lang/StringBuilder");
+        code.op(Code.DUP);
+        code.ldc("Index out of bounds exception @ ");
+        code.invoke(Code.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(Ljava/lang/String;)V");
+        code.var(Code.ALOAD, 1);
+        code.invoke(Code.INVOKEVIRTUAL, "java/lang/Throwable", "getStackTrace", "()[Ljava/lang/StackTraceElement;");
+        code.iconst(0);
+        code.op(Code.AALOAD);
+        code.invoke(Code.INVOKEVIRTUAL, "java/lang/StackTraceElement", "getLineNumber", "()I");
+        code.invoke(Code.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;");
+        code.invoke(Code.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;");
+        code.invoke(Code.INVOKEVIRTUAL, PRINT_STREAM, "println", "(Ljava/lang/String;)V");
+        code.iconst(-1);
+        code.invoke(Code.INVOKESTATIC, "java/lang/System", "exit", "(I)V");
+        code.op(Code.RETURN);
+
+        // qualquer outra exceção: esvazia o buffer e propaga
+        code.handler(start, end, other, null);
+        code.mark(other);
+        code.var(Code.ASTORE, 1);
+        flush();
+        code.var(Code.ALOAD, 1);
+        code.op(Code.ATHROW);
+        bytecodeSize += code.size();
+
+        classes.put(mainClass, file.toByteArray());
+        code = null;
+        classEnv = null;
+        return null;
+    }
+
+    private void flush() {
+        code.field(Code.GETSTATIC, mainClass, OUT, "L" + PRINT_STREAM + ";");
+        code.invoke(Code.INVOKEVIRTUAL, PRINT_STREAM, "flush", "()V");
+    }
+
+    public LlvmValue visit(ClassDeclSimple n) {
+        return visitClassDecl(n);
+    }
+
+    public LlvmValue visit(ClassDeclExtends n) {
+        return visitClassDecl(n);
+    }
+
+    private LlvmValue visitClassDecl(ClassDecl n) {
+        classEnv = symTab.classes.get(n.name.s);
+        ClassNode superClass = classEnv.getSuperClass();
+        String superName = superClass == null ? OBJECT : superClass.getName();
+        ClassFile file = new ClassFile(ClassFile.ACC_PUBLIC | ClassFile.ACC_SUPER, n.name.s, superName);
+
+        // só os atributos próprios; os herdados são achados pela JVM na superclasse
+        for (util.List<VarDecl> v = n.varList; v != null; v = v.tail)
+            file.field(0, v.head.name.s, descriptor(v.head.type.accept(this).type));
+        constructor(file, superName);
+
+        for (util.List<MethodDecl> m = n.methodList; m != null; m = m.tail)
+            method(file, m.head);
+
+        classes.put(n.name.s, file.toByteArray());
+        classEnv = null;
+        return null;
+    }
+
+    // Construtor sem parâmetros, que só chama o da superclasse
+    private void constructor(ClassFile file, String superName) {
+        Code init = file.method(ClassFile.ACC_PUBLIC, "<init>", "()V");
+        init.var(Code.ALOAD, 0);
+        init.invoke(Code.INVOKESPECIAL, superName, "<init>", "()V");
+        init.op(Code.RETURN);
+        bytecodeSize += init.size();
+    }
+
+    private void method(ClassFile file, MethodDecl n) {
+        methodEnv = classEnv.methods.get(n.name.s);
+        MethodNode root = root(classEnv, n.name.s);
+        code = file.method(ClassFile.ACC_PUBLIC, n.name.s, descriptor(root));
+        code.line(n.line);
+        slots.clear();
+        types.clear();
+
+        // 'this' é a variável 0, seguido dos parâmetros e das locais. Um
+        // parâmetro de tipo mais específico que o do método redefinido
+        // chega com o tipo de lá, e é convertido na entrada.
+        int slot = 1;
+        Iterator<LlvmValue> formals = methodEnv.getFormalList().iterator();
+        Iterator<LlvmValue> rootFormals = root.getFormalList().iterator();
+        formals.next();
+        rootFormals.next();
+        while (formals.hasNext()) {
+            LlvmValue f = formals.next();
+            LlvmType declared = rootFormals.next().type;
+            declare(f.toString().substring(1), f.type, slot);
+            if (declared != f.type) {
+                code.var(Code.ALOAD, slot);
+                code.type(Code.CHECKCAST, className(f.type));
+                code.var(Code.ASTORE, slot);
+            }
+            slot++;
+        }
+        // a JVM não deixa ler uma variável antes de escrever nela
+        for (util.List<VarDecl> v = n.locals; v != null; v = v.tail) {
+            LlvmType type = v.head.type.accept(this).type;
+            declare(v.head.name.s, type, slot);
+            if (isReference(type)) {
+                code.op(Code.ACONST_NULL);
+                code.var(Code.ASTORE, slot);
+            } else {
+                code.iconst(0);
+                code.var(Code.ISTORE, slot);
+            }
+            slot++;
+        }
+
+        for (util.List<Statement> s = n.body; s != null; s = s.tail)
+            statement(s.head);
+        code.line(n.returnExp.line);
+        n.returnExp.accept(this);
+        code.op(isReference(methodEnv.getReturnType()) ? Code.ARETURN : Code.IRETURN);
+        code.locals(slot);
+
+        bytecodeSize += code.size();
+        code = null;
+        methodEnv = null;
+    }
+
+    private void declare(String name, LlvmType type, int slot) {
+        slots.put(name, slot);
+        types.put(name, type);
+    }
+
+    // A primeira declaração de 'method' na hierarquia de 'c': o descritor
+    // dela vale para todas as redefinições, para que a JVM as ligue
+    private static MethodNode root(ClassNode c, String method) {
+        MethodNode root = c.resolveMethod(method);
+        for (ClassNode s = root.getOwner().getSuperClass(); s != null; s = s.getSuperClass()) {
+            MethodNode m = s.resolveMethod(method);
+            if (m == null)
+                break;
+            root = m;
+        }
+        return root;
+    }
+
+    // ---- tipos ----
+
+    private static boolean isReference(LlvmType type) {
+        return type instanceof LlvmPointer;
+    }
+
+    private static String className(LlvmType type) {
+        return ((LlvmClassType) ((LlvmPointer) type).content).name;
+    }
+
+    static String descriptor(LlvmType type) {
+        if (type == LlvmPrimitiveType.I32)
+            return "I";
+        if (type == LlvmPrimitiveType.I1)
+            return "Z";
+        if (type == Codegen.ARRAY_TYPE)
+            return "[I";
+        return "L" + className(type) + ";";
+    }
+
+    private static String descriptor(MethodNode m) {
+        StringBuilder d = new StringBuilder("(");
+        Iterator<LlvmValue> formals = m.getFormalList().iterator();
+        formals.next();
+        while (formals.hasNext())
+            d.append(descriptor(formals.next().type));
+        return d.append(')').append(descriptor(m.getReturnType())).toString();
+    }
+
+    private static LlvmValue value(LlvmType type) {
+        return new LlvmNamedValue(type.toString(), type);
+    }
+
+    public LlvmValue visit(IdentifierType n) {
+        return new LlvmNamedValue(n.name, LlvmPointer.get(LlvmClassType.get(n.name)));
+    }
+
+    public LlvmValue visit(IntArrayType n) {
+        return Codegen.INT_ARRAY_VALUE;
+    }
+
+    public LlvmValue visit(BooleanType n) {
+        return Codegen.BOOLEAN_VALUE;
+    }
+
+    public LlvmValue visit(IntegerType n) {
+        return Codegen.INT_VALUE;
+    }
+
+    // ---- comandos ----
+
+    private void statement(Statement s) {
+        code.line(s.line);
+        s.accept(this);
+    }
+
+    public LlvmValue visit(Block n) {
+        for (util.List<Statement> s = n.body; s != null; s = s.tail)
+            statement(s.head);
+        return null;
+    }
+
+    public LlvmValue visit(If n) {
+        Code.Label otherwise = new Code.Label(), end = new Code.Label();
+        branch(n.condition, otherwise, false);
+        statement(n.thenClause);
+        if (n.elseClause != null) {
+            code.jump(Code.GOTO, end);
+            code.mark(otherwise);
+            statement(n.elseClause);
+            code.mark(end);
+        } else {
+            code.mark(otherwise);
+        }
+        return null;
+    }
+
+    // O teste fica no fim, com um só desvio por volta
+    public LlvmValue visit(While n) {
+        Code.Label body = new Code.Label(), test = new Code.Label();
+        code.jump(Code.GOTO, test);
+        code.mark(body);
+        statement(n.body);
+        code.mark(test);
+        code.line(n.line);
+        branch(n.condition, body, true);
+        return null;
+    }
+
+    public LlvmValue visit(Print n) {
+        n.exp.accept(this);
+        code.invoke(Code.INVOKESTATIC, mainClass, PRINT, "(I)V");
+        return null;
+    }
+
+    public LlvmValue visit(Assign n) {
+        String name = n.var.s;
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            n.exp.accept(this);
+            code.var(isReference(types.get(name)) ? Code.ASTORE : Code.ISTORE, slot);
+        } else {
+            code.var(Code.ALOAD, 0);
+            n.exp.accept(this);
+            code.field(Code.PUTFIELD, classEnv.getName(), name, descriptor(fieldType(name)));
+        }
+        return null;
+    }
+
+    public LlvmValue visit(ArrayAssign n) {
+        load(n.var.s);
+        n.index.accept(this);
+        n.value.accept(this);
+        code.line(n.line);
+        code.op(Code.IASTORE);
+        return null;
+    }
+
+    // ---- condições ----
+
+    // Desvia para 'target' se 'e' valer 'when'; senão segue adiante
+    private void branch(Exp e, Code.Label target, boolean when) {
+        if (e instanceof True || e instanceof False) {
+            if ((e instanceof True) == when)
+                code.jump(Code.GOTO, target);
+        } else if (e instanceof Not) {
+            branch(((Not) e).exp, target, !when);
+        } else if (e instanceof And) {
+            And and = (And) e;
+            if (when) {
+                Code.Label skip = new Code.Label();
+                branch(and.lhs, skip, false);
+                branch(and.rhs, target, true);
+                code.mark(skip);
+            } else {
+                branch(and.lhs, target, false);
+                branch(and.rhs, target, false);
+            }
+        } else if (e instanceof LessThan) {
+            ((LessThan) e).lhs.accept(this);
+            ((LessThan) e).rhs.accept(this);
+            code.jump(when ? Code.IF_ICMPLT : Code.IF_ICMPGE, target);
+        } else if (e instanceof Equal) {
+            boolean reference = isReference(((Equal) e).lhs.accept(this).type);
+            ((Equal) e).rhs.accept(this);
+            if (reference)
+                code.jump(when ? Code.IF_ACMPEQ : Code.IF_ACMPNE, target);
+            else
+                code.jump(when ? Code.IF_ICMPEQ : Code.IF_ICMPNE, target);
+        } else {
+            e.accept(this);
+            code.jump(when ? Code.IFNE : Code.IFEQ, target);
+        }
+    }
+
+    // Valor 0 ou 1 de uma condição
+    private LlvmValue bool(Exp e) {
+        Code.Label no = new Code.Label(), end = new Code.Label();
+        branch(e, no, false);
+        code.iconst(1);
+        code.jump(Code.GOTO, end);
+        code.mark(no);
+        code.iconst(0);
+        code.mark(end);
+        return Codegen.BOOLEAN_VALUE;
+    }
+
+    public LlvmValue visit(And n) {
+        return bool(n);
+    }
+
+    public LlvmValue visit(LessThan n) {
+        return bool(n);
+    }
+
+    public LlvmValue visit(Equal n) {
+        return bool(n);
+    }
+
+    public LlvmValue visit(Not n) {
+        n.exp.accept(this);
+        code.iconst(1);
+        code.op(Code.IXOR);
+        return Codegen.BOOLEAN_VALUE;
+    }
+
+    // ---- expressões ----
+
+    public LlvmValue visit(IntegerLiteral n) {
+        code.iconst(n.value);
+        return Codegen.INT_VALUE;
+    }
+
+    public LlvmValue visit(True n) {
+        code.iconst(1);
+        return Codegen.BOOLEAN_VALUE;
+    }
+
+    public LlvmValue visit(False n) {
+        code.iconst(0);
+        return Codegen.BOOLEAN_VALUE;
+    }
+
+    public LlvmValue visit(Plus n) {
+        return arithmetic(n.lhs, n.rhs, Code.IADD);
+    }
+
+    public LlvmValue visit(Minus n) {
+        return arithmetic(n.lhs, n.rhs, Code.ISUB);
+    }
+
+    public LlvmValue visit(Times n) {
+        return arithmetic(n.lhs, n.rhs, Code.IMUL);
+    }
+
+    private LlvmValue arithmetic(Exp lhs, Exp rhs, int opcode) {
+        lhs.accept(this);
+        rhs.accept(this);
+        code.op(opcode);
+        return Codegen.INT_VALUE;
+    }
+
+    public LlvmValue visit(IdentifierExp n) {
+        return load(n.name.s);
+    }
+
+    // Empilha a variável 'name': local, parâmetro ou atributo (próprio ou herdado)
+    private LlvmValue load(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            LlvmType type = types.get(name);
+            code.var(isReference(type) ? Code.ALOAD : Code.ILOAD, slot);
+            return value(type);
+        }
+        LlvmType type = fieldType(name);
+        code.var(Code.ALOAD, 0);
+        code.field(Code.GETFIELD, classEnv.getName(), name, descriptor(type));
+        return value(type);
+    }
+
+    private LlvmType fieldType(String name) {
+        return classEnv.vars.get("%" + name).type;
+    }
+
+    public LlvmValue visit(This n) {
+        code.var(Code.ALOAD, 0);
+        return classEnv.getTypeValue();
+    }
+
+    public LlvmValue visit(ArrayLookup n) {
+        n.array.accept(this);
+        n.index.accept(this);
+        code.line(n.line);
+        code.op(Code.IALOAD);
+        return Codegen.INT_VALUE;
+    }
+
+    public LlvmValue visit(ArrayLength n) {
+        n.array.accept(this);
+        code.op(Code.ARRAYLENGTH);
+        return Codegen.INT_VALUE;
+    }
+
+    public LlvmValue visit(Call n) {
+        String className = className(n.object.accept(this).type);
+        MethodNode method = symTab.classes.get(className).resolveMethod(n.method.s);
+        MethodNode root = root(symTab.classes.get(className), n.method.s);
+        for (util.List<Exp> a = n.actuals; a != null; a = a.tail)
+            a.head.accept(this);
+        code.invoke(Code.INVOKEVIRTUAL, className, n.method.s, descriptor(root));
+        // a redefinição pode devolver um tipo mais específico que o do descritor
+        if (method.getReturnType() != root.getReturnType())
+            code.type(Code.CHECKCAST, className(method.getReturnType()));
+        return value(method.getReturnType());
+    }
+
+    public LlvmValue visit(NewArray n) {
+        n.size.accept(this);
+        code.newarray(Code.T_INT);
+        return Codegen.INT_ARRAY_VALUE;
+    }
+
+    public LlvmValue visit(NewObject n) {
+        String name = n.className.s;
+        code.type(Code.NEW, name);
+        code.op(Code.DUP);
+        code.invoke(Code.INVOKESPECIAL, name, "<init>", "()V");
+        return symTab.classes.get(name).getTypeValue();
+    }
+}
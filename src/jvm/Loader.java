@@ -0,0 +1,26 @@
+package jvm;
+
+import java.util.Map;
+
+/**
+ * Carrega na própria JVM as classes geradas, direto dos bytes, sem
+ * gravá-las em disco. As classes da biblioteca (java.lang...) vêm do
+ * carregador pai; as do programa só existem aqui, e o nome simples
+ * delas nunca coincide com o de uma classe da biblioteca.
+ */
+public final class Loader extends ClassLoader {
+    private final Map<String, byte[]> classes;
+
+    // 'classes': nome no formato interno -> conteúdo do .class
+    public Loader(Map<String, byte[]> classes) {
+        super(Loader.class.getClassLoader());
+        this.classes = classes;
+    }
+
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = classes.get(name.replace('.', '/'));
+        if (bytes == null)
+            throw new ClassNotFoundException(name);
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,432 @@
+package llvm;
+
+import llvm.ControlFlowGraph.BasicBlock;
+import llvmast.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remoção e elevação das chamadas ao boundCheck, com análise de intervalos.
+ * <p/>
+ * Roda depois do Mem2Reg, quando vetores e índices já são valores SSA.
+ * Cada índice é visto como base + constante (j - 1 é j com deslocamento
+ * -1) e cada inteiro recebe um limite inferior, calculado por ponto fixo
+ * sobre os phis, o que cobre as variáveis de indução dos laços.
+ * <p/>
+ * Uma verificação boundCheck(a, base + k) é removida quando o limite
+ * inferior prova base + k >= 0 e ela é dominada por:
+ * - uma verificação de 'a' com índice base + k', k <= k' (ou idêntica), ou
+ * - um desvio 'base + k' < a.length', k <= k' <= 0, do qual o bloco só é
+ *   alcançado pelo lado verdadeiro.
+ * <p/>
+ * Verificações invariantes no cabeçalho de um laço, antes de qualquer
+ * efeito colateral, vão para o pré-cabeçalho: o cabeçalho roda pelo
+ * menos uma vez a cada entrada no laço, então o programa falha no mesmo
+ * ponto e com a mesma mensagem.
+ * <p/>
+ * Leituras de um atributo de 'this' contam como o mesmo vetor quando a
+ * função não escreve no atributo nem chama outros métodos.
+ */
+class BoundsCheckElimination {
+    // funções do runtime e da libc, que não alteram atributos
+    static final Set<String> RUNTIME = new HashSet<String>(Arrays.asList(
+            "@printf", Codegen.PRINT_INT, "@malloc", "@calloc", Codegen.BOUND_CHECK, Codegen.ARENA_SLOW, ShadowStack.GC_ALLOC));
+
+    private static final long TOP = Long.MAX_VALUE;              // ainda não calculado (inalcançável)
+    private static final long BOTTOM = Integer.MIN_VALUE;        // sem limite conhecido
+    private static final long MAX_INT = Integer.MAX_VALUE;
+    private static final int WIDENING = 3;                       // quedas antes de desistir do limite
+
+    private boolean enabled = true;
+    // contadores compartilhados pelas threads da geração paralela
+    private final AtomicInteger checks = new AtomicInteger();
+    private final AtomicInteger removed = new AtomicInteger();
+    private final AtomicInteger hoisted = new AtomicInteger();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // verificações geradas pelo Codegen
+    public int getChecks() {
+        return checks.get();
+    }
+
+    public int getRemoved() {
+        return removed.get();
+    }
+
+    public int getHoisted() {
+        return hoisted.get();
+    }
+
+    void run(Module module) {
+        new FunctionPass() {
+            protected void apply(Function f) {
+                optimize(f);
+            }
+        }.run(module);
+    }
+
+    private void optimize(Function f) {
+        int count = 0;
+        for (BasicBlock b : f.getBlocks())
+            for (LlvmInstruction instr : b.instructions)
+                if (isCheck(instr))
+                    count++;
+        checks.addAndGet(count);
+        if (!enabled || count == 0)
+            return;
+
+        Analysis analysis = new Analysis(f);
+        analysis.hoist();
+        analysis.computeLowerBounds();
+        analysis.eliminate();
+    }
+
+    static boolean isCheck(LlvmInstruction instr) {
+        return instr instanceof LlvmCall && ((LlvmCall) instr).getFunctionName().equals(Codegen.BOUND_CHECK);
+    }
+
+    // Valor inteiro como base + deslocamento; base == null para constantes
+    private static class Linear {
+        final String base;
+        final long offset;
+
+        Linear(String base, long offset) {
+            this.base = base;
+            this.offset = offset;
+        }
+
+        boolean sameBase(Linear other) {
+            return base == null ? other.base == null : base.equals(other.base);
+        }
+    }
+
+    // Fato válido a partir de um ponto: base + offset < tamanho do vetor 'array'
+    private static class Bound {
+        final String array;
+        final Linear index;
+
+        Bound(String array, Linear index) {
+            this.array = array;
+            this.index = index;
+        }
+    }
+
+    // Estado da análise de uma função
+    private class Analysis {
+        private final Function function;
+        private final ControlFlowGraph cfg;
+        private final Set<String> storedFields = new HashSet<String>();
+        private boolean opaqueCalls;
+
+        private final Map<String, Long> lower = new HashMap<String, Long>();
+        private final Map<BasicBlock, List<LlvmValue[]>> lessThan = new HashMap<BasicBlock, List<LlvmValue[]>>();
+
+        Analysis(Function f) {
+            this.function = f;
+            this.cfg = f.cfg;
+            for (BasicBlock b : cfg.blocks)
+                for (LlvmInstruction instr : b.instructions) {
+                    if (instr instanceof LlvmStore) {
+                        String field = fieldKey(((LlvmStore) instr).address);
+                        if (field != null)
+                            storedFields.add(field);
+                    } else if (instr instanceof LlvmCall && !RUNTIME.contains(((LlvmCall) instr).getFunctionName())) {
+                        opaqueCalls = true;
+                    }
+                }
+        }
+
+        private LlvmInstruction definition(LlvmValue v) {
+            return function.definition(v);
+        }
+
+        // Nome do atributo de 'this' apontado por 'address', ou null
+        private String fieldKey(LlvmValue address) {
+            LlvmInstruction def = definition(address);
+            if (!(def instanceof LlvmGetElementPointer))
+                return null;
+            LlvmGetElementPointer gep = (LlvmGetElementPointer) def;
+            if (!gep.source.toString().equals("%this"))
+                return null;
+            return gep.source + gep.offsets.toString();
+        }
+
+        // Identidade do vetor: o atributo de onde foi lido, se ele não muda na função
+        private String arrayKey(LlvmValue v) {
+            LlvmInstruction def = definition(v);
+            if (def instanceof LlvmLoad && !opaqueCalls) {
+                String field = fieldKey(((LlvmLoad) def).address);
+                if (field != null && !storedFields.contains(field))
+                    return field;
+            }
+            return v.toString();
+        }
+
+        private Linear linear(LlvmValue v) {
+            if (v instanceof LlvmIntegerLiteral)
+                return new Linear(null, ((LlvmIntegerLiteral) v).value);
+
+            LlvmInstruction def = definition(v);
+            if (def instanceof LlvmPlus) {
+                LlvmPlus plus = (LlvmPlus) def;
+                if (plus.op2 instanceof LlvmIntegerLiteral)
+                    return shift(linear(plus.op1), ((LlvmIntegerLiteral) plus.op2).value);
+                if (plus.op1 instanceof LlvmIntegerLiteral)
+                    return shift(linear(plus.op2), ((LlvmIntegerLiteral) plus.op1).value);
+            } else if (def instanceof LlvmMinus) {
+                LlvmMinus minus = (LlvmMinus) def;
+                if (minus.op2 instanceof LlvmIntegerLiteral)
+                    return shift(linear(minus.op1), -(long) ((LlvmIntegerLiteral) minus.op2).value);
+            }
+            return new Linear(v.toString(), 0);
+        }
+
+        private Linear shift(Linear l, long c) {
+            return new Linear(l.base, l.offset + c);
+        }
+
+        // ---- elevação para o pré-cabeçalho ----
+
+        void hoist() {
+            for (BasicBlock header : cfg.blocks) {
+                Set<BasicBlock> body = ControlFlowGraph.loopBody(header);
+                if (body == null)
+                    continue;
+                BasicBlock preheader = ControlFlowGraph.preheader(header, body);
+                if (preheader == null)
+                    continue;
+
+                List<LlvmInstruction> moved = new ArrayList<LlvmInstruction>();
+                for (LlvmInstruction instr : header.instructions) {
+                    if (isCheck(instr) && invariant(instr, body)) {
+                        moved.add(instr);
+                    } else if (isCheck(instr) || instr instanceof LlvmStore || instr instanceof LlvmCall) {
+                        // a partir daqui a ordem das falhas e dos efeitos mudaria
+                        break;
+                    }
+                }
+                for (LlvmInstruction instr : moved)
+                    function.move(instr, preheader);
+                hoisted.addAndGet(moved.size());
+            }
+        }
+
+        private boolean invariant(LlvmInstruction instr, Set<BasicBlock> body) {
+            for (LlvmValue op : instr.getOperands()) {
+                BasicBlock b = function.block(op);
+                if (b != null && body.contains(b))
+                    return false;
+            }
+            return true;
+        }
+
+        // ---- limites inferiores ----
+
+        void computeLowerBounds() {
+            Map<String, Integer> drops = new HashMap<String, Integer>();
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (BasicBlock b : cfg.reversePostOrder)
+                    for (LlvmInstruction instr : b.instructions) {
+                        LlvmValue def = instr.getDefinition();
+                        if (!(def instanceof LlvmRegister) || def.type != LlvmPrimitiveType.I32)
+                            continue;
+                        String name = def.toString();
+                        long value = evaluate(instr, b);
+                        Long old = lower.get(name);
+                        if (old != null && value >= old)
+                            continue;
+                        if (old != null) {
+                            Integer n = drops.get(name);
+                            drops.put(name, n == null ? 1 : n + 1);
+                            if (n != null && n + 1 >= WIDENING)
+                                value = BOTTOM;
+                        }
+                        lower.put(name, value);
+                        changed = true;
+                    }
+            }
+        }
+
+        private long lowerBound(LlvmValue v) {
+            if (v instanceof LlvmIntegerLiteral)
+                return ((LlvmIntegerLiteral) v).value;
+            if (definition(v) == null)
+                return BOTTOM;  // parâmetro ou undef
+            Long l = lower.get(v.toString());
+            return l == null ? TOP : l;
+        }
+
+        private long evaluate(LlvmInstruction instr, BasicBlock b) {
+            if (instr instanceof LlvmPhi) {
+                long min = TOP;
+                for (LlvmValue v : ((LlvmPhi) instr).values)
+                    min = Math.min(min, lowerBound(v));
+                return min;
+            }
+            if (instr instanceof LlvmPlus) {
+                LlvmPlus plus = (LlvmPlus) instr;
+                if (plus.op2 instanceof LlvmIntegerLiteral)
+                    return add(plus.op1, ((LlvmIntegerLiteral) plus.op2).value, b);
+                if (plus.op1 instanceof LlvmIntegerLiteral)
+                    return add(plus.op2, ((LlvmIntegerLiteral) plus.op1).value, b);
+            } else if (instr instanceof LlvmMinus) {
+                LlvmMinus minus = (LlvmMinus) instr;
+                if (minus.op2 instanceof LlvmIntegerLiteral)
+                    return add(minus.op1, -(long) ((LlvmIntegerLiteral) minus.op2).value, b);
+            }
+            return BOTTOM;
+        }
+
+        // Limite de x + c; com c > 0 só vale se um desvio x < y impedir o overflow
+        private long add(LlvmValue x, long c, BasicBlock b) {
+            long l = lowerBound(x);
+            if (l == TOP)
+                return TOP;
+            if (c > 0 && !boundedAbove(x, MAX_INT - c, b))
+                return BOTTOM;
+            return Math.max(BOTTOM, l + c);
+        }
+
+        // Prova x <= max no bloco 'b' a partir dos desvios x < y que o dominam
+        private boolean boundedAbove(LlvmValue x, long max, BasicBlock b) {
+            for (LlvmValue[] fact : lessThan(b)) {
+                if (!LlvmInstruction.sameValue(fact[0], x))
+                    continue;
+                long limit = fact[1] instanceof LlvmIntegerLiteral ? ((LlvmIntegerLiteral) fact[1]).value : MAX_INT;
+                if (limit - 1 <= max)
+                    return true;
+            }
+            return false;
+        }
+
+        // Comparações x < y verdadeiras em 'b': condições dos desvios cujo lado
+        // verdadeiro é a única entrada de 'b' ou de um de seus dominadores
+        private List<LlvmValue[]> lessThan(BasicBlock b) {
+            List<LlvmValue[]> facts = lessThan.get(b);
+            if (facts != null)
+                return facts;
+
+            facts = new ArrayList<LlvmValue[]>();
+            for (BasicBlock d = b; ; d = d.idom) {
+                if (d.predecessors.size() == 1) {
+                    LlvmInstruction term = d.predecessors.get(0).getTerminator();
+                    if (term instanceof LlvmBranch) {
+                        LlvmBranch br = (LlvmBranch) term;
+                        if (br.cond != null && br.ifTrue.value.equals(d.label.value)
+                                && !br.ifFalse.value.equals(d.label.value))
+                            collect(br.cond, facts);
+                    }
+                }
+                if (d == d.idom)
+                    break;
+            }
+            lessThan.put(b, facts);
+            return facts;
+        }
+
+        private void collect(LlvmValue cond, List<LlvmValue[]> facts) {
+            LlvmInstruction def = definition(cond);
+            if (def instanceof LlvmAnd) {
+                collect(((LlvmAnd) def).op1, facts);
+                collect(((LlvmAnd) def).op2, facts);
+            } else if (def instanceof LlvmIcmp) {
+                LlvmIcmp icmp = (LlvmIcmp) def;
+                List<LlvmValue> ops = icmp.getOperands();
+                if (icmp.getCondition().equals("slt"))
+                    facts.add(new LlvmValue[]{ops.get(0), ops.get(1)});
+                else if (icmp.getCondition().equals("sgt"))
+                    facts.add(new LlvmValue[]{ops.get(1), ops.get(0)});
+            }
+        }
+
+        // ---- remoção ----
+
+        // Entrada da pilha do percurso: 'size' >= 0 marca o fim da subárvore
+        private class Frame {
+            final BasicBlock block;
+            final int size;
+
+            Frame(BasicBlock block, int size) {
+                this.block = block;
+                this.size = size;
+            }
+        }
+
+        void eliminate() {
+            List<Bound> checked = new ArrayList<Bound>();
+            Deque<Frame> work = new ArrayDeque<Frame>();
+            work.push(new Frame(cfg.blocks.get(0), -1));
+
+            while (!work.isEmpty()) {
+                Frame f = work.pop();
+                if (f.size >= 0) {
+                    while (checked.size() > f.size)
+                        checked.remove(checked.size() - 1);
+                    continue;
+                }
+                work.push(new Frame(f.block, checked.size()));
+
+                for (LlvmInstruction instr : new ArrayList<LlvmInstruction>(f.block.instructions)) {
+                    if (!isCheck(instr))
+                        continue;
+                    List<LlvmValue> args = ((LlvmCall) instr).args;
+                    Bound check = new Bound(arrayKey(args.get(0)), linear(args.get(1)));
+                    if (covered(check, checked, f.block)) {
+                        function.remove(instr);
+                        removed.incrementAndGet();
+                    } else {
+                        checked.add(check);
+                    }
+                }
+
+                for (int i = f.block.children.size() - 1; i >= 0; i--)
+                    work.push(new Frame(f.block.children.get(i), -1));
+            }
+        }
+
+        private boolean covered(Bound check, List<Bound> checked, BasicBlock b) {
+            for (Bound c : checked) {
+                if (!c.array.equals(check.array) || !c.index.sameBase(check.index))
+                    continue;
+                if (c.index.offset == check.index.offset)
+                    return true;
+                if (check.index.offset <= c.index.offset && nonNegative(check.index))
+                    return true;
+            }
+
+            for (LlvmValue[] fact : lessThan(b)) {
+                if (!isLength(fact[1], check.array))
+                    continue;
+                Linear x = linear(fact[0]);
+                if (x.sameBase(check.index) && x.offset <= 0 && check.index.offset <= x.offset
+                        && nonNegative(check.index))
+                    return true;
+            }
+            return false;
+        }
+
+        private boolean nonNegative(Linear index) {
+            if (index.base == null)
+                return index.offset >= 0;
+            Long l = lower.containsKey(index.base) ? lower.get(index.base) : Long.valueOf(BOTTOM);
+            return l != null && l != TOP && l + index.offset >= 0;
+        }
+
+        // 'v' é a leitura do tamanho (primeiro inteiro) do vetor 'array'?
+        private boolean isLength(LlvmValue v, String array) {
+            LlvmInstruction def = definition(v);
+            return def instanceof LlvmLoad && v.type == LlvmPrimitiveType.I32
+                    && arrayKey(((LlvmLoad) def).address).equals(array);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package llvm;
+
+import syntaxtree.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resumos (SHA-256) da árvore abstrata usados pelo cache incremental.
+ * <p/>
+ * A árvore é percorrida por reflexão: para cada nó entram o nome da
+ * classe e os campos públicos, em ordem alfabética, inclusive os tipos
+ * que a verificação de tipos anota nas expressões (Exp.type). Os números
+ * de linha ficam de fora, a não ser nos nós cujo código usa a linha (o
+ * acesso a vetor passa a linha para o boundCheck); assim, inserir linhas
+ * antes de uma classe não invalida o código dela.
+ * <p/>
+ * signature resume só o que a tabela de símbolos usa de cada classe do
+ * programa: nome, superclasse, atributos e assinaturas dos métodos. O
+ * código de uma classe depende das assinaturas de todas as outras (layout,
+ * vtable, chamadas desvirtualizadas), mas não do corpo dos seus métodos,
+ * a não ser dos que ela chama diretamente (ver IrCache).
+ */
+final class ClassFingerprint {
+    // nós em que a linha aparece no LLVM-IR (ver Codegen.elementAddress)
+    private static final Set<Class<?>> LINE_DEPENDENT = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            ArrayLookup.class, ArrayAssign.class));
+
+    private static final Map<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    // texto serializado da árvore; só é resumido no fim, de uma vez
+    private final StringBuilder text = new StringBuilder();
+    // nós no caminho atual, para nunca entrar em ciclo
+    private final Set<Object> path = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+    private ClassFingerprint() {
+    }
+
+    // Resumo da subárvore 'node' inteira (uma ClassDecl ou a MainClass)
+    static String of(Absyn node) {
+        ClassFingerprint f = new ClassFingerprint();
+        f.add(node);
+        return f.hex();
+    }
+
+    // Resumo do que a tabela de símbolos vê de todas as classes do programa, e das opções
+    static String signature(Program program, String options) {
+        ClassFingerprint f = new ClassFingerprint();
+        f.add(options);
+        f.add(program.mainClass.className);
+        for (util.List<ClassDecl> c = program.classList; c != null; c = c.tail) {
+            ClassDecl decl = c.head;
+            f.add(decl.name);
+            f.add(decl instanceof ClassDeclExtends ? ((ClassDeclExtends) decl).superClass : null);
+            f.add(decl.varList);
+            for (util.List<MethodDecl> m = decl.methodList; m != null; m = m.tail) {
+                f.add(m.head.name);
+                f.add(m.head.returnType);
+                f.add(m.head.formals);
+            }
+            f.add("}");
+        }
+        return f.hex();
+    }
+
+    // Resumo de uma sequência de textos (chaves do cache, conteúdo dos fragmentos)
+    static String combine(String... parts) {
+        ClassFingerprint f = new ClassFingerprint();
+        for (String part : parts)
+            f.add(part);
+        return f.hex();
+    }
+
+    private void add(String s) {
+        text.append(s).append('\0');
+    }
+
+    private void add(Object node) {
+        if (node == null) {
+            add("null");
+            return;
+        }
+        if (node instanceof String || node instanceof Number || node instanceof Boolean || node instanceof Character) {
+            text.append(node.getClass().getSimpleName()).append(':').append(node).append('\0');
+            return;
+        }
+        if (node instanceof util.List) {
+            // iterativo: as listas de comandos podem ser longas demais para a recursão
+            add("lista");
+            for (util.List<?> l = (util.List<?>) node; l != null; l = l.tail)
+                add(l.head);
+            add("fim");
+            return;
+        }
+        if (!path.add(node)) {
+            add("ciclo");
+            return;
+        }
+        Class<?> type = node.getClass();
+        add(type.getName());
+        boolean lines = LINE_DEPENDENT.contains(type);
+        for (Field field : fields(type)) {
+            if (field.getName().equals("row") || (!lines && field.getName().equals("line")))
+                continue;
+            add(field.getName());
+            try {
+                add(field.get(node));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        path.remove(node);
+    }
+
+    // campos públicos de instância, em ordem fixa
+    private static Field[] fields(Class<?> type) {
+        Field[] fields = FIELDS.get(type);
+        if (fields == null) {
+            List<Field> list = new ArrayList<Field>();
+            for (Field field : type.getFields())
+                if (!Modifier.isStatic(field.getModifiers()))
+                    list.add(field);
+            Collections.sort(list, new Comparator<Field>() {
+                public int compare(Field a, Field b) {
+                    return a.getName().compareTo(b.getName());
+                }
+            });
+            fields = list.toArray(new Field[list.size()]);
+            FIELDS.put(type, fields);
+        }
+        return fields;
+    }
+
+    private String hex() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder s = new StringBuilder();
+        for (byte b : digest.digest(text.toString().getBytes(StandardCharsets.UTF_8)))
+            s.append(String.format("%02x", b & 0xff));
+        return s.toString();
+    }
+}
@@ -0,0 +1,241 @@
+package llvm;
+
+import llvmast.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+public class ClassNode extends LlvmType {
+    // tipo do cabeçalho de todo objeto: ponteiro para a vtable da classe
+    static final LlvmType VTABLE_TYPE = LlvmPointer.get(LlvmPointer.get(LlvmPrimitiveType.I8));
+
+    private String name;
+    private LlvmNamedValue classReference;
+    private LlvmValue typeValue;
+    private FieldLayout layout;
+    private LlvmStructure structure;
+    private ClassNode superClass;
+    public List<ClassNode> subclasses;
+    public List<LlvmValue> varList;     // atributos, começando pelos herdados
+    public List<MethodNode> methodList;
+    public List<MethodNode> vtable;     // métodos visíveis na classe, na ordem das entradas da vtable
+    public Map<String, MethodNode> methods;
+    public Map<String, LlvmValue> vars;
+
+    // constructor
+    ClassNode(String nameClass, ClassNode superClass, List<LlvmValue> ownVars) {
+        this(nameClass, superClass, ownVars, true, false);
+    }
+
+    // reorderFields e packBooleans: ver FieldLayout
+    ClassNode(String nameClass, ClassNode superClass, List<LlvmValue> ownVars,
+              boolean reorderFields, boolean packBooleans) {
+        this.name = nameClass;
+        this.classReference = new LlvmNamedValue("%this", getClassPointer());
+        this.typeValue = new LlvmNamedValue(nameClass, getClassPointer());
+        this.superClass = superClass;
+        this.subclasses = new LinkedList<ClassNode>();
+        this.varList = new LinkedList<LlvmValue>();
+        this.methodList = new LinkedList<MethodNode>();
+        this.vtable = new ArrayList<MethodNode>();
+        this.methods = new HashMap<String, MethodNode>();
+        this.vars = new HashMap<String, LlvmValue>();
+
+        if (superClass != null) {
+            superClass.subclasses.add(this);
+            varList.addAll(superClass.varList);
+            vtable.addAll(superClass.vtable);
+        }
+        varList.addAll(ownVars);
+
+        // o primeiro campo é o cabeçalho com a vtable; os atributos da
+        // superclasse vêm antes, para que ela possa acessar a subclasse
+        for (LlvmValue val : varList) {
+            vars.put(val.toString(), val);
+        }
+        this.layout = new FieldLayout(superClass == null ? null : superClass.layout,
+                VTABLE_TYPE, ownVars, reorderFields, packBooleans);
+        this.structure = LlvmStructure.get(layout.types);
+    }
+
+    // getters
+    public String getName() {
+        return name;
+    }
+
+    public ClassNode getSuperClass() {
+        return superClass;
+    }
+
+    // os tipos são únicos (LlvmClassType.get, LlvmPointer.get); os valores abaixo
+    // são compartilhados por todas as instruções e não podem ser alterados
+    public LlvmClassType getClassType() {
+        return LlvmClassType.get(this.name);
+    }
+
+    public LlvmPointer getClassPointer() {
+        return LlvmPointer.get(getClassType());
+    }
+
+    public LlvmNamedValue getClassReference() {
+        return classReference;
+    }
+
+    // valor devolvido por visit(IdentifierType) para esta classe
+    public LlvmValue getTypeValue() {
+        return typeValue;
+    }
+
+    public LlvmStructure getStructure() {
+        return structure;
+    }
+
+    // Tamanho do objeto com os atributos na ordem em que foram declarados, sem empacotar
+    public int getDeclaredSize() {
+        List<LlvmType> typeList = new LinkedList<LlvmType>();
+        typeList.add(VTABLE_TYPE);
+        for (LlvmValue val : varList)
+            typeList.add(val.type);
+        return LlvmStructure.get(typeList).sizeByte;
+    }
+
+    public LlvmInstruction getClassDeclaration() {
+        return new LlvmInstruction() {
+            public String toString() {
+                return getClassType() + " = type" + getStructure();
+            }
+        };
+    }
+
+    public LlvmNamedValue getVtableReference() {
+        return new LlvmNamedValue("@.vtable." + name,
+                LlvmPointer.get(LlvmArray.get(vtable.size(), LlvmPointer.get(LlvmPrimitiveType.I8))));
+    }
+
+    // Tamanho da estrutura calculado pelo próprio LLVM (com o alinhamento dos campos)
+    public LlvmValue getSizeConstant() {
+        LlvmPointer pointer = getClassPointer();
+        return new LlvmNamedValue("ptrtoint (" + pointer + " getelementptr (" + pointer.content + ", " + pointer
+                + " null, i32 1) to i32)", LlvmPrimitiveType.I32);
+    }
+
+    public LlvmNamedValue getGcMapReference() {
+        return new LlvmNamedValue("@.gcmap." + name,
+                LlvmPointer.get(LlvmArray.get(getReferenceFields().size() + 1, LlvmPrimitiveType.I32)));
+    }
+
+    // @.gcmap.<classe> = constant [N+1 x i32] [i32 N, deslocamento dos N atributos que são referências]
+    public LlvmInstruction getGcMapDeclaration() {
+        List<Integer> fields = getReferenceFields();
+        String entries = "[i32 " + fields.size();
+        for (int field : fields) {
+            LlvmType type = getStructure().typeList.get(field);
+            entries += ", i32 ptrtoint (" + LlvmPointer.get(type) + " getelementptr (" + getClassType()
+                    + ", " + getClassPointer() + " null, i32 0, i32 " + field + ") to i32)";
+        }
+        entries += "]";
+        return new LlvmConstantDeclaration("@.gcmap." + name,
+                "constant " + LlvmArray.get(fields.size() + 1, LlvmPrimitiveType.I32) + " " + entries);
+    }
+
+    // índices na estrutura dos atributos que apontam para objetos ou vetores
+    private List<Integer> getReferenceFields() {
+        List<Integer> fields = new ArrayList<Integer>();
+        List<LlvmType> types = getStructure().typeList;
+        for (int i = 1; i < types.size(); i++)
+            if (ShadowStack.isReferenceType(types.get(i)))
+                fields.add(i);
+        return fields;
+    }
+
+    // @.vtable.<classe> = constant [N x i8 *] [ i8 * bitcast (<tipo> @__m_C to i8 *), ... ]
+    public LlvmInstruction getVtableDeclaration() {
+        LlvmType entryType = LlvmPointer.get(LlvmPrimitiveType.I8);
+        String entries;
+        if (vtable.isEmpty()) {
+            entries = "zeroinitializer";
+        } else {
+            entries = "[";
+            for (int i = 0; i < vtable.size(); i++) {
+                MethodNode m = vtable.get(i);
+                entries += entryType + " bitcast (" + LlvmPointer.get(m.getFunctionType()) + " " + m.getFunctionName() + " to " + entryType + ")";
+                if (i + 1 < vtable.size())
+                    entries += ", ";
+            }
+            entries += "]";
+        }
+        return new LlvmConstantDeclaration("@.vtable." + name,
+                "constant " + LlvmArray.get(vtable.size(), entryType) + " " + entries);
+    }
+
+    public void addMethod(MethodNode methodNode) {
+        methodList.add(methodNode);
+        methods.put(methodNode.getName(), methodNode);
+        methodNode.setOwner(this);
+
+        // sobrescrita ocupa a entrada do método da superclasse
+        for (int i = 0; i < vtable.size(); i++) {
+            if (vtable.get(i).getName().equals(methodNode.getName())) {
+                methodNode.setVtableIndex(i);
+                vtable.set(i, methodNode);
+                return;
+            }
+        }
+        methodNode.setVtableIndex(vtable.size());
+        vtable.add(methodNode);
+    }
+
+    // Método chamado por 'obj.name(...)' quando obj é desta classe (pode ser herdado)
+    public MethodNode resolveMethod(String name) {
+        for (ClassNode c = this; c != null; c = c.superClass) {
+            MethodNode m = c.methods.get(name);
+            if (m != null)
+                return m;
+        }
+        return null;
+    }
+
+    // Análise de hierarquia de classes: a chamada é monomórfica se
+    // nenhuma subclasse (direta ou indireta) sobrescreve o método
+    public boolean isMonomorphic(String method) {
+        for (ClassNode sub : subclasses) {
+            if (sub.methods.containsKey(method) || !sub.isMonomorphic(method))
+                return false;
+        }
+        return true;
+    }
+
+    // índices do cabeçalho (vtable) do objeto; lista compartilhada, não pode ser alterada
+    private static final List<LlvmValue> HEADER_OFFSET = Collections.unmodifiableList(
+            Arrays.<LlvmValue>asList(new LlvmIntegerLiteral(0), new LlvmIntegerLiteral(0)));
+
+    static List<LlvmValue> getHeaderOffset() {
+        return HEADER_OFFSET;
+    }
+
+    // Posição do atributo 'var' ("%nome"), próprio ou herdado; null se não existir
+    public FieldLayout.Slot getField(String var) {
+        return layout.slots.get(var);
+    }
+
+    // índices do getelementptr do atributo 'var'; lista compartilhada, não pode ser alterada
+    public List<LlvmValue> getOffset(String var) {
+        FieldLayout.Slot slot = layout.slots.get(var);
+        return slot == null ? HEADER_OFFSET : slot.offsets;
+    }
+
+    // Bit do atributo 'var' na sua palavra, se for um boolean empacotado; senão -1
+    public int getBit(String var) {
+        FieldLayout.Slot slot = layout.slots.get(var);
+        return slot == null ? -1 : slot.bit;
+    }
+
+    public String toString() {
+        return name;
+    }
+}
@@ -41,83 +41,652 @@ import llvmast.*;
 import semant.Env;
 import syntaxtree.*;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Codegen extends VisitorAdapter {
-    private List<LlvmInstruction> assembler;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    // int[]: ponteiro para o tamanho, seguido dos elementos (o formato do newArray do runtime.c)
+    public static final LlvmType ARRAY_TYPE = LlvmPointer.get(LlvmPrimitiveType.I32);
+    static final String BOUND_CHECK = "@boundCheck";
+    // System.out.println sem printf: printInt(int) do runtime/runtime.c, com a saída em buffer
+    static final String PRINT_INT = "@printInt";
+    // alocador por arena do runtime/runtime.c (-farena): { próximo byte livre, fim do bloco, blocos }
+    static final String ARENA = "@arena";
+    static final String ARENA_SLOW = "@arenaAllocSlow";
+    private static final LlvmType ARENA_TYPE = new LlvmClassType("arena") {
+        public String toString() {
+            return "%arena";
+        }
+    };
+    private static final int ARENA_ALIGN = 8;
+    // valores devolvidos pelos visit dos tipos (só o .type é usado); um só para cada tipo
+    public static final LlvmValue INT_ARRAY_VALUE = new LlvmNamedValue("int[]", ARRAY_TYPE);
+    public static final LlvmValue BOOLEAN_VALUE = new LlvmNamedValue("boolean", LlvmPrimitiveType.I1);
+    public static final LlvmValue INT_VALUE = new LlvmNamedValue("int", LlvmPrimitiveType.I32);
+    // mapa de ponteiros de uma classe para o coletor: quantidade, seguida dos deslocamentos
+    static final LlvmType GC_MAP_TYPE = LlvmPointer.get(LlvmPrimitiveType.I32);
+
+    private Module module;         // módulo (ou a parte de uma classe) sendo gerado
+    private Function function;     // função sendo gerada, bloco a bloco
     private Codegen codeGenerator;
 
     private SymTab symTab;
+    private ConstantFolder folder;
+    private BoundsCheckElimination checks;
+    private TailRecursion tailCalls;
+    private Inliner inliner;
+    private EscapeAnalysis escape;
+    private LoopOptimizer loops;
+    private ShadowStack shadowStack;
+    private int parallelism = 1;   // threads usadas para gerar as classes
+    private boolean arena;         // 'new' aloca na arena do runtime em vez de malloc/calloc
+    private boolean gc;            // 'new' aloca no coletor do runtime, com raízes na pilha de sombra
+    private boolean printf;        // System.out.println chama o printf em vez do printInt do runtime
+    private boolean reorderFields = true; // atributos reordenados para não deixar buracos (ver FieldLayout)
+    private boolean packBooleans;  // atributos boolean empacotados em bits
+    private String incremental;    // diretório do cache incremental (null = compilação completa)
+    private int incrementalUnits;
+    private int incrementalHits;
     private ClassNode classEnv;    // Aponta para a classe atualmente em uso em symTab
     private MethodNode methodEnv;    // Aponta para a metodo atualmente em uso em symTab
+    private FunctionContext context; // Registradores e labels da função sendo gerada
+    private PassTimer timer;       // tempo e memória de cada fase (compartilhado com os geradores das classes)
 
 
     public Codegen() {
-        assembler = new LinkedList<LlvmInstruction>();
+        module = new Module();
         symTab = new SymTab();
+        folder = new ConstantFolder();
+        checks = new BoundsCheckElimination();
+        tailCalls = new TailRecursion();
+        inliner = new Inliner();
+        escape = new EscapeAnalysis();
+        loops = new LoopOptimizer();
+        shadowStack = new ShadowStack();
+        timer = new PassTimer();
+    }
+
+    // Gerador de uma única classe, que compartilha a tabela de símbolos já preenchida
+    private Codegen(SymTab symTab, ConstantFolder folder, BoundsCheckElimination checks, TailRecursion tailCalls,
+                    PassTimer timer) {
+        this.module = new Module();
+        this.symTab = symTab;
+        this.folder = folder;
+        this.checks = checks;
+        this.tailCalls = tailCalls;
+        this.timer = timer;
+    }
+
+    // Número de threads do ForkJoinPool que gera as classes (1 = serial).
+    // A saída é a mesma em qualquer caso.
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // Aloca objetos e vetores na arena do runtime, com o caminho rápido no próprio IR
+    public void setArenaAllocation(boolean enabled) {
+        this.arena = enabled;
+    }
+
+    // Aloca objetos e vetores no coletor de lixo do runtime (tem precedência sobre a arena)
+    public void setGarbageCollection(boolean enabled) {
+        this.gc = enabled;
+        loops.setStrengthReduction(!enabled);
+        tailCalls.setMarking(!enabled);
+    }
+
+    // Imprime com printf("%d\n"), sem buffer, em vez do printInt do runtime: para
+    // programas ligados a código C que também escreve na saída padrão
+    public void setPrintf(boolean enabled) {
+        this.printf = enabled;
+    }
+
+    // Reordena os atributos de cada classe para diminuir o preenchimento (ligado por padrão)
+    public void setFieldReordering(boolean enabled) {
+        this.reorderFields = enabled;
+    }
+
+    // Guarda os atributos boolean de cada classe em bits de uma palavra i8
+    public void setBooleanPacking(boolean enabled) {
+        this.packBooleans = enabled;
+    }
+
+    // Reaproveita, entre compilações, o LLVM-IR das classes que não mudaram (ver IrCache)
+    public void setIncrementalCache(String dir) {
+        this.incremental = dir;
+    }
+
+    // Unidades (main e classes) procuradas no cache incremental e as encontradas
+    public int getCacheUnits() {
+        return incrementalUnits;
+    }
+
+    public int getCacheHits() {
+        return incrementalHits;
+    }
+
+    // Tempo e memória por fase e instruções geradas, acumulados em todos os programas traduzidos
+    public PassTimer getPassTimer() {
+        return timer;
+    }
+
+    // Uma linha por classe do último programa traduzido: bytes por objeto com o
+    // layout usado e com os atributos na ordem declarada
+    public List<String> getLayoutReport() {
+        List<String> report = new ArrayList<String>();
+        if (codeGenerator == null)
+            return report;
+        List<String> names = new ArrayList<String>(codeGenerator.symTab.classes.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            ClassNode c = codeGenerator.symTab.classes.get(name);
+            report.add(name + ": " + c.getStructure().sizeByte + " bytes por objeto ("
+                    + c.getDeclaredSize() + " na ordem declarada)");
+        }
+        return report;
+    }
+
+    // Funções com quadro na pilha de sombra e raízes nesses quadros
+    public int getGcFrames() {
+        return shadowStack.getFrames();
+    }
+
+    public int getGcRoots() {
+        return shadowStack.getRoots();
+    }
+
+    // Liga/desliga o constant folding (ligado por padrão)
+    public void setConstantFolding(boolean enabled) {
+        folder.setEnabled(enabled);
+    }
+
+    // Quantas instruções o constant folding deixou de emitir
+    public int getFoldedInstructions() {
+        return folder.getRemoved();
+    }
+
+    // Quantas multiplicações viraram shift
+    public int getStrengthReductions() {
+        return folder.getReduced();
+    }
+
+    // Liga/desliga a remoção das verificações de limite dos vetores (ligada por padrão)
+    public void setBoundsCheckElimination(boolean enabled) {
+        checks.setEnabled(enabled);
+    }
+
+    // Verificações de limite geradas, removidas e movidas para fora de laços
+    public int getBoundsChecks() {
+        return checks.getChecks();
+    }
+
+    public int getBoundsChecksRemoved() {
+        return checks.getRemoved();
+    }
+
+    public int getBoundsChecksHoisted() {
+        return checks.getHoisted();
+    }
+
+    // Liga/desliga a recursão em cauda como laço e a marcação 'tail' das chamadas (ligadas por padrão)
+    public void setTailCalls(boolean enabled) {
+        tailCalls.setEnabled(enabled);
+    }
+
+    // Chamadas recursivas trocadas por desvios e chamadas marcadas com tail/musttail
+    public int getTailRecursionsEliminated() {
+        return tailCalls.getEliminated();
+    }
+
+    public int getTailCallsMarked() {
+        return tailCalls.getMarked();
+    }
+
+    // Liga/desliga a troca dos objetos que não escapam da função por variáveis (ligada por padrão)
+    public void setEscapeAnalysis(boolean enabled) {
+        escape.setEnabled(enabled);
+    }
+
+    // Alocações de objetos eliminadas, no total e por função (nome no LLVM-IR)
+    public int getAllocationsEliminated() {
+        return escape.getEliminated();
+    }
+
+    public Map<String, Integer> getAllocationsEliminatedPerFunction() {
+        return escape.getEliminatedPerFunction();
+    }
+
+    // Liga/desliga a movimentação de código invariante e a redução de força nos laços (ligadas por padrão)
+    public void setLoopOptimization(boolean enabled) {
+        loops.setEnabled(enabled);
+    }
+
+    // Instruções levadas para fora de laços e endereços de vetor trocados por ponteiros incrementados
+    public int getLoopInvariantsHoisted() {
+        return loops.getHoisted();
+    }
+
+    public int getLoopAddressesReduced() {
+        return loops.getReduced();
+    }
+
+    // Tamanho máximo, em instruções, de um método expandido nas chamadas diretas (0 desliga)
+    public void setInlineBudget(int budget) {
+        inliner.setBudget(budget);
+    }
+
+    // Chamadas expandidas e tamanho do módulo (em instruções) antes e depois do inlining
+    public int getInlinedCalls() {
+        return inliner.getInlined();
+    }
+
+    public int getSizeBeforeInlining() {
+        return inliner.getSizeBefore();
+    }
+
+    public int getSizeAfterInlining() {
+        return inliner.getSizeAfter();
     }
 
     // Método de entrada do Codegen
     public String translate(Program p, Env env) {
-        codeGenerator = new Codegen();
+        StringBuilder r = new StringBuilder();
+        try {
+            translate(p, env, r);
+        } catch (IOException e) {
+            // StringBuilder nunca lança IOException
+            throw new UncheckedIOException(e);
+        }
+        return r.toString();
+    }
+
+    // Emite o módulo direto no arquivo 'outputFile', sem materializar a String inteira
+    public void translate(Program p, Env env, String outputFile) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(outputFile),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        Writer out = new BufferedWriter(Channels.newWriter(channel, "UTF-8"), OUTPUT_BUFFER_SIZE);
+        try {
+            translate(p, env, out);
+        } finally {
+            out.close();
+        }
+    }
 
-        // Preenchendo a Tabela de Símbolos
-        // Quem quiser usar 'env', apenas comente essa linha
-        codeGenerator.symTab.FillTabSymbol(p);
+    // Emite o módulo em 'out', instrução por instrução
+    public void translate(Program p, Env env, Appendable out) throws IOException {
+        if (incremental != null) {
+            translateIncremental(p, env, out);
+        } else {
+            Module module = generate(p, env);
+            timer.count(module);
+            PassTimer.Mark mark = timer.start();
+            module.emit(out);
+            timer.stop("emit", mark);
+        }
+    }
+
+    // Gera o módulo inteiro (tabela de símbolos, código, mem2reg e inlining), sem emitir o texto
+    Module generate(Program p, Env env) {
+        prepare(p);
 
         // Formato da String para o System.out.printlnijava "%d\n"
-        codeGenerator.assembler.add(new LlvmConstantDeclaration("@.formatting.string", "private constant [4 x i8] c\"%d\\0A\\00\""));
+        if (printf)
+            codeGenerator.module.add(formatString());
 
         // NOTA: sempre que X.accept(Y), então Y.visit(X);
         // NOTA: Logo, o comando abaixo irá chamar codeGenerator.visit(Program), linha 75
         p.accept(codeGenerator);
 
+        // Expande as chamadas diretas a métodos pequenos; precisa do módulo inteiro
+        PassTimer.Mark mark = timer.start();
+        inliner.run(codeGenerator.module, codeGenerator.symTab);
+        timer.stop("inline", mark);
+
+        // Objetos que não escapam: também dependem do inlining
+        mark = timer.start();
+        escape.run(codeGenerator.module);
+        timer.stop("escape", mark);
+
+        // Laços: depois do inlining, que traz as leituras de atributo para dentro deles
+        mark = timer.start();
+        loops.run(codeGenerator.module);
+        timer.stop("licm", mark);
+
+        mark = timer.start();
+        tailCalls.mark(codeGenerator.module);
+        timer.stop("tailcall", mark);
+
+        // Raízes do coletor: depende do código final de cada função
+        if (gc) {
+            mark = timer.start();
+            shadowStack.run(codeGenerator.module);
+            timer.stop("shadowstack", mark);
+        }
+
+        addDeclarations(codeGenerator.module);
+        return codeGenerator.module;
+    }
+
+    // Cria o codeGenerator com as opções deste Codegen e preenche a tabela de símbolos
+    private void prepare(Program p) {
+        codeGenerator = new Codegen();
+        codeGenerator.folder = folder;
+        codeGenerator.checks = checks;
+        codeGenerator.tailCalls = tailCalls;
+        codeGenerator.parallelism = parallelism;
+        codeGenerator.arena = arena;
+        codeGenerator.gc = gc;
+        codeGenerator.printf = printf;
+        codeGenerator.timer = timer;
+
+        // Preenchendo a Tabela de Símbolos
+        // Quem quiser usar 'env', apenas comente essa linha
+        PassTimer.Mark mark = timer.start();
+        codeGenerator.symTab.reorderFields = reorderFields;
+        codeGenerator.symTab.packBooleans = packBooleans;
+        codeGenerator.symTab.FillTabSymbol(p);
+        timer.stop("symtab", mark);
+    }
+
+    private static LlvmInstruction formatString() {
+        return new LlvmConstantDeclaration("@.formatting.string", "private constant [4 x i8] c\"%d\\0A\\00\"");
+    }
+
+    // Declarações das funções e variáveis do runtime e da libc, no fim do módulo
+    private void addDeclarations(Module module) {
         // Link do printf
         List<LlvmType> pts = new LinkedList<LlvmType>();
-        pts.add(new LlvmPointer(LlvmPrimitiveType.I8));
+        pts.add(LlvmPointer.get(LlvmPrimitiveType.I8));
         pts.add(LlvmPrimitiveType.DOTDOTDOT);
-        codeGenerator.assembler.add(new LlvmExternalDeclaration("@printf", LlvmPrimitiveType.I32, pts));
+        module.add(new LlvmExternalDeclaration("@printf", LlvmPrimitiveType.I32, pts));
         List<LlvmType> mallocpts = new LinkedList<LlvmType>();
         mallocpts.add(LlvmPrimitiveType.I32);
-        codeGenerator.assembler.add(new LlvmExternalDeclaration("@malloc", new LlvmPointer(LlvmPrimitiveType.I8), mallocpts));
+        module.add(new LlvmExternalDeclaration("@malloc", LlvmPointer.get(LlvmPrimitiveType.I8), mallocpts));
+        List<LlvmType> callocpts = new LinkedList<LlvmType>();
+        callocpts.add(LlvmPrimitiveType.I32);
+        callocpts.add(LlvmPrimitiveType.I32);
+        module.add(new LlvmExternalDeclaration("@calloc", LlvmPointer.get(LlvmPrimitiveType.I8), callocpts));
+
+        // boundCheck(int* arr, int idx, int line) do runtime/runtime.c
+        List<LlvmType> checkpts = new LinkedList<LlvmType>();
+        checkpts.add(ARRAY_TYPE);
+        checkpts.add(LlvmPrimitiveType.I32);
+        checkpts.add(LlvmPrimitiveType.I32);
+        module.add(new LlvmExternalDeclaration(BOUND_CHECK, LlvmPrimitiveType.VOID, checkpts));
+
+        if (!printf) {
+            // printInt(int value) do runtime/runtime.c
+            List<LlvmType> printpts = new LinkedList<LlvmType>();
+            printpts.add(LlvmPrimitiveType.I32);
+            module.add(new LlvmExternalDeclaration(PRINT_INT, LlvmPrimitiveType.VOID, printpts));
+        }
 
+        if (gc) {
+            // gcTop e gcAlloc(int bytes, int* mapa) do runtime/runtime.c
+            module.add(new LlvmConstantDeclaration(ShadowStack.GC_TOP, "external global i8 *"));
+            List<LlvmType> gcpts = new LinkedList<LlvmType>();
+            gcpts.add(LlvmPrimitiveType.I32);
+            gcpts.add(GC_MAP_TYPE);
+            module.add(new LlvmExternalDeclaration(ShadowStack.GC_ALLOC, LlvmPointer.get(LlvmPrimitiveType.I8), gcpts));
+        } else if (arena) {
+            // Arena arena e arenaAllocSlow(Arena*, int) do runtime/runtime.c
+            module.add(new LlvmConstantDeclaration(ARENA_TYPE.toString(), "type { i8 *, i8 *, i8 * }"));
+            module.add(new LlvmConstantDeclaration(ARENA, "external global " + ARENA_TYPE));
+            List<LlvmType> slowpts = new LinkedList<LlvmType>();
+            slowpts.add(LlvmPointer.get(ARENA_TYPE));
+            slowpts.add(LlvmPrimitiveType.I32);
+            module.add(new LlvmExternalDeclaration(ARENA_SLOW, LlvmPointer.get(LlvmPrimitiveType.I8), slowpts));
+        }
+    }
 
-        String r = new String();
-        for (LlvmInstruction instr : codeGenerator.assembler)
-            r += instr + "\n";
-        return r;
+    // Compilação incremental: a main e cada classe são uma unidade, cujo texto
+    // final fica no IrCache. Só são geradas as unidades que faltam no cache,
+    // mais as classes que elas chamam diretamente (o inliner precisa do corpo
+    // dos métodos delas); as outras vêm prontas do disco. A saída é igual à
+    // da compilação completa.
+    private void translateIncremental(Program p, Env env, Appendable out) throws IOException {
+        IrCache cache = new IrCache(Paths.get(incremental));
+        prepare(p);
+        SymTab table = codeGenerator.symTab;
+
+        // unidades na ordem do módulo: a main e as classes, como no código fonte
+        List<Absyn> decls = new ArrayList<Absyn>();
+        List<String> names = new ArrayList<String>();
+        decls.add(p.mainClass);
+        names.add(p.mainClass.className.s);
+        for (util.List<ClassDecl> c = p.classList; c != null; c = c.tail) {
+            decls.add(c.head);
+            names.add(c.head.name.s);
+        }
+
+        PassTimer.Mark mark = timer.start();
+        String signature = ClassFingerprint.signature(p, getOptions());
+        Map<String, String> hashes = new HashMap<String, String>();
+        for (int i = 0; i < decls.size(); i++)
+            hashes.put(names.get(i), ClassFingerprint.of(decls.get(i)));
+
+        String[] keys = new String[decls.size()];
+        String[] texts = new String[decls.size()];
+        List<ClassDecl> missing = new ArrayList<ClassDecl>();
+        for (int i = 0; i < decls.size(); i++) {
+            keys[i] = ClassFingerprint.combine(signature, hashes.get(names.get(i)));
+            texts[i] = cache.load(keys[i], hashes);
+            incrementalUnits++;
+            if (texts[i] != null)
+                incrementalHits++;
+            else if (i > 0)
+                missing.add((ClassDecl) decls.get(i));
+        }
+        timer.stop("cache", mark);
+
+        // gera as unidades que faltam; depois, as classes chamadas por elas que ainda não foram geradas
+        Map<String, Module> generated = new LinkedHashMap<String, Module>();
+        if (texts[0] == null) {
+            mark = timer.start();
+            p.mainClass.accept(codeGenerator);
+            timer.stop("codegen", mark);
+            optimize(codeGenerator.module);
+            generated.put(names.get(0), codeGenerator.module);
+        }
+        List<Module> parts = codeGenerator.translateClasses(missing);
+        for (int i = 0; i < missing.size(); i++)
+            generated.put(missing.get(i).name.s, parts.get(i));
+
+        Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+        List<ClassDecl> callees = new ArrayList<ClassDecl>();
+        for (Map.Entry<String, Module> unit : generated.entrySet()) {
+            Set<String> called = calledClasses(unit.getValue(), table);
+            dependencies.put(unit.getKey(), called);
+            for (String name : called) {
+                int i = names.indexOf(name);
+                if (i > 0 && !generated.containsKey(name) && !callees.contains(decls.get(i)))
+                    callees.add((ClassDecl) decls.get(i));
+            }
+        }
+        List<Module> units = new ArrayList<Module>(generated.values());
+        units.addAll(codeGenerator.translateClasses(callees));
+
+        mark = timer.start();
+        inliner.runParts(units, table);
+        timer.stop("inline", mark);
+        for (Module unit : generated.values()) {
+            mark = timer.start();
+            escape.run(unit);
+            timer.stop("escape", mark);
+            mark = timer.start();
+            loops.run(unit);
+            timer.stop("licm", mark);
+            mark = timer.start();
+            tailCalls.mark(unit);
+            timer.stop("tailcall", mark);
+            // Raízes do coletor: depende do código final de cada função
+            if (gc) {
+                mark = timer.start();
+                shadowStack.run(unit);
+                timer.stop("shadowstack", mark);
+            }
+            timer.count(unit);
+        }
+
+        mark = timer.start();
+        Module header = new Module();
+        if (printf)
+            header.add(formatString());
+        header.emit(out);
+        for (int i = 0; i < decls.size(); i++) {
+            if (texts[i] == null) {
+                StringBuilder text = new StringBuilder();
+                generated.get(names.get(i)).emit(text);
+                texts[i] = text.toString();
+                Map<String, String> deps = new HashMap<String, String>();
+                for (String name : dependencies.get(names.get(i)))
+                    deps.put(name, hashes.get(name));
+                cache.store(keys[i], deps, texts[i]);
+            }
+            out.append(texts[i]);
+        }
+        Module footer = new Module();
+        addDeclarations(footer);
+        footer.emit(out);
+        cache.flush();
+        timer.stop("emit", mark);
+    }
+
+    // Classes (com a declaração no programa) dos métodos chamados diretamente em 'module'
+    private static Set<String> calledClasses(Module module, SymTab table) {
+        Map<String, String> owners = new HashMap<String, String>();
+        for (ClassNode c : table.classes.values())
+            for (MethodNode m : c.methodList)
+                owners.put(m.getFunctionName(), c.getName());
+        Set<String> called = new TreeSet<String>();
+        for (Function f : module.getFunctions())
+            for (ControlFlowGraph.BasicBlock b : f.getBlocks())
+                for (LlvmInstruction instr : b.instructions)
+                    if (instr instanceof LlvmCall && owners.containsKey(((LlvmCall) instr).getFunctionName()))
+                        called.add(owners.get(((LlvmCall) instr).getFunctionName()));
+        return called;
+    }
+
+    // Opções que mudam o LLVM-IR gerado (parte da chave do cache incremental)
+    private String getOptions() {
+        return "fold=" + folder.isEnabled() + " bounds=" + checks.isEnabled() + " inline=" + inliner.getBudget()
+                + " escape=" + escape.isEnabled() + " licm=" + loops.isEnabled() + " tailcalls=" + tailCalls.isEnabled()
+                + " arena=" + arena + " gc=" + gc + " printf=" + printf + " reorder=" + reorderFields + " pack=" + packBooleans;
     }
 
     public LlvmValue visit(Program n) {
+        PassTimer.Mark mark = timer.start();
         n.mainClass.accept(this);
+        timer.stop("codegen", mark);
+
+        optimize(module);
 
+        List<ClassDecl> classes = new ArrayList<ClassDecl>();
         for (util.List<ClassDecl> c = n.classList; c != null; c = c.tail)
-            c.head.accept(this);
+            classes.add(c.head);
+        for (Module part : translateClasses(classes))
+            module.addAll(part);
 
         return null;
     }
 
+    // Gera cada classe no seu próprio Module, em paralelo se parallelism > 1.
+    // As partes voltam na ordem do código fonte, e como cada função tem o
+    // seu FunctionContext a saída não depende da ordem em que as classes terminam.
+    private List<Module> translateClasses(List<ClassDecl> classList) {
+        List<Module> parts = new ArrayList<Module>();
+        if (parallelism == 1 || classList.size() < 2) {
+            for (ClassDecl c : classList)
+                parts.add(translateClass(c));
+            return parts;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<Module>> tasks = new ArrayList<ForkJoinTask<Module>>();
+            for (final ClassDecl decl : classList) {
+                tasks.add(pool.submit(new Callable<Module>() {
+                    public Module call() {
+                        return translateClass(decl);
+                    }
+                }));
+            }
+            for (ForkJoinTask<Module> task : tasks)
+                parts.add(task.join());
+        } finally {
+            pool.shutdown();
+        }
+        return parts;
+    }
+
+    private Module translateClass(ClassDecl decl) {
+        Codegen worker = new Codegen(symTab, folder, checks, tailCalls, timer);
+        worker.arena = arena;
+        worker.gc = gc;
+        worker.printf = printf;
+        PassTimer.Mark mark = timer.start();
+        decl.accept(worker);
+        timer.stop("codegen", mark);
+        optimize(worker.module);
+        return worker.module;
+    }
+
+    private void optimize(Module module) {
+        // Promove as variáveis locais (allocas) para registradores SSA
+        PassTimer.Mark mark = timer.start();
+        Mem2Reg.run(module);
+        timer.stop("mem2reg", mark);
+        // Recursão em cauda vira laço: sem a chamada a si mesmo, o método vira folha para o inlining
+        mark = timer.start();
+        tailCalls.run(module);
+        timer.stop("tailrec", mark);
+        mark = timer.start();
+        checks.run(module);
+        timer.stop("bounds-elim", mark);
+    }
+
     public LlvmValue visit(MainClass n) {
 
         // definicao do main
-        assembler.add(new LlvmDefine("@main", LlvmPrimitiveType.I32, new LinkedList<LlvmValue>()));
-        assembler.add(new LlvmLabel(new LlvmLabelValue("entry")));
-        LlvmRegister R1 = new LlvmRegister(new LlvmPointer(LlvmPrimitiveType.I32));
-        assembler.add(new LlvmAlloca(R1, LlvmPrimitiveType.I32, new LinkedList<LlvmValue>()));
-        assembler.add(new LlvmStore(new LlvmIntegerLiteral(0), R1));
+        context = new FunctionContext();
+        function = new Function(new LlvmDefine("@main", LlvmPrimitiveType.I32, new LinkedList<LlvmValue>()));
+        function.startBlock(new LlvmLabelValue("entry"));
+        LlvmRegister R1 = context.newRegister(LlvmPointer.get(LlvmPrimitiveType.I32));
+        function.add(new LlvmAlloca(R1, LlvmPrimitiveType.I32, new LinkedList<LlvmValue>()));
+        function.add(new LlvmStore(new LlvmIntegerLiteral(0), R1));
 
         // Statement é uma classe abstrata
         // Portanto, o accept chamado é da classe que implementa Statement, por exemplo,  a classe "Print".
         n.stm.accept(this);
 
         // Final do Main
-        LlvmRegister R2 = new LlvmRegister(LlvmPrimitiveType.I32);
-        assembler.add(new LlvmLoad(R2, R1));
-        assembler.add(new LlvmRet(R2));
-        assembler.add(new LlvmCloseDefinition());
+        LlvmRegister R2 = context.newRegister(LlvmPrimitiveType.I32);
+        function.add(new LlvmLoad(R2, R1));
+        function.add(new LlvmRet(R2));
+        function.finish();
+        module.add(function);
+        function = null;
         return null;
     }
 
@@ -125,25 +694,33 @@ public class Codegen extends VisitorAdapter {
 
         LlvmValue v = n.exp.accept(this);
 
+        if (!printf) {
+            // chamada direta, sem varargs: o runtime formata e guarda no buffer de saída
+            List<LlvmValue> args = new LinkedList<LlvmValue>();
+            args.add(v);
+            function.add(new LlvmCall(null, LlvmPrimitiveType.VOID, PRINT_INT, args));
+            return null;
+        }
+
         // getelementptr:
-        LlvmRegister lhs = new LlvmRegister(new LlvmPointer(LlvmPrimitiveType.I8));
-        LlvmRegister src = new LlvmNamedValue("@.formatting.string", new LlvmPointer(new LlvmArray(4, LlvmPrimitiveType.I8)));
+        LlvmRegister lhs = context.newRegister(LlvmPointer.get(LlvmPrimitiveType.I8));
+        LlvmRegister src = new LlvmNamedValue("@.formatting.string", LlvmPointer.get(LlvmArray.get(4, LlvmPrimitiveType.I8)));
         List<LlvmValue> offsets = new LinkedList<LlvmValue>();
         offsets.add(new LlvmIntegerLiteral(0));
         offsets.add(new LlvmIntegerLiteral(0));
         List<LlvmType> pts = new LinkedList<LlvmType>();
-        pts.add(new LlvmPointer(LlvmPrimitiveType.I8));
+        pts.add(LlvmPointer.get(LlvmPrimitiveType.I8));
         List<LlvmValue> args = new LinkedList<LlvmValue>();
         args.add(lhs);
         args.add(v);
-        assembler.add(new LlvmGetElementPointer(lhs, src, offsets));
+        function.add(new LlvmGetElementPointer(lhs, src, offsets));
 
         pts = new LinkedList<LlvmType>();
-        pts.add(new LlvmPointer(LlvmPrimitiveType.I8));
+        pts.add(LlvmPointer.get(LlvmPrimitiveType.I8));
         pts.add(LlvmPrimitiveType.DOTDOTDOT);
 
         // printf:
-        assembler.add(new LlvmCall(new LlvmRegister(LlvmPrimitiveType.I32),
+        function.add(new LlvmCall(context.newRegister(LlvmPrimitiveType.I32),
                 LlvmPrimitiveType.I32,
                 pts,
                 "@printf",
@@ -161,33 +738,63 @@ public class Codegen extends VisitorAdapter {
     public LlvmValue visit(Plus n) {
         LlvmValue v1 = n.lhs.accept(this);
         LlvmValue v2 = n.rhs.accept(this);
-        LlvmRegister lhs = new LlvmRegister(LlvmPrimitiveType.I32);
-        assembler.add(new LlvmPlus(lhs, LlvmPrimitiveType.I32, v1, v2));
+        LlvmValue folded = folder.fold(ConstantFolder.PLUS, v1, v2);
+        if (folded != null)
+            return folded;
+        LlvmRegister lhs = context.newRegister(LlvmPrimitiveType.I32);
+        function.add(new LlvmPlus(lhs, LlvmPrimitiveType.I32, v1, v2));
         return lhs;
     }
 
     public LlvmValue visit(Minus n) {
         LlvmValue v1 = n.lhs.accept(this);
         LlvmValue v2 = n.rhs.accept(this);
-        LlvmRegister lhs = new LlvmRegister(LlvmPrimitiveType.I32);
-        assembler.add(new LlvmMinus(lhs, LlvmPrimitiveType.I32, v1, v2));
+        LlvmValue folded = folder.fold(ConstantFolder.MINUS, v1, v2);
+        if (folded != null)
+            return folded;
+        LlvmRegister lhs = context.newRegister(LlvmPrimitiveType.I32);
+        function.add(new LlvmMinus(lhs, LlvmPrimitiveType.I32, v1, v2));
         return lhs;
     }
 
     public LlvmValue visit(Times n) {
         LlvmValue v1 = n.lhs.accept(this);
         LlvmValue v2 = n.rhs.accept(this);
-        LlvmRegister lhs = new LlvmRegister(LlvmPrimitiveType.I32);
-        assembler.add(new LlvmTimes(lhs, LlvmPrimitiveType.I32, v1, v2));
+        LlvmValue folded = folder.fold(ConstantFolder.TIMES, v1, v2);
+        if (folded != null)
+            return folded;
+        LlvmRegister lhs = context.newRegister(LlvmPrimitiveType.I32);
+
+        // multiplicação por potência de 2 vira shift
+        int shift = folder.shiftAmount(v2);
+        if (shift < 0 && (shift = folder.shiftAmount(v1)) >= 0) {
+            v1 = v2;
+        }
+        if (shift >= 0) {
+            function.add(new LlvmShl(lhs, LlvmPrimitiveType.I32, v1, new LlvmIntegerLiteral(shift)));
+            return lhs;
+        }
+        function.add(new LlvmTimes(lhs, LlvmPrimitiveType.I32, v1, v2));
         return lhs;
     }
 
     public LlvmValue visit(ClassDeclSimple n) {
+        return visitClassDecl(n);
+    }
+
+    public LlvmValue visit(ClassDeclExtends n) {
+        return visitClassDecl(n);
+    }
+
+    private LlvmValue visitClassDecl(ClassDecl n) {
         // pega o nome atual da classe na tabela de símbolos
         classEnv = symTab.classes.get(n.name.s);
 
-        // declara a estrutura da classe
-        assembler.add(classEnv.getClassDeclaration());
+        // declara a estrutura da classe e a sua vtable
+        module.add(classEnv.getClassDeclaration());
+        module.add(classEnv.getVtableDeclaration());
+        if (gc)
+            module.add(classEnv.getGcMapDeclaration());
 
         // Percorre n.methodList visitando cada método
         for (util.List<MethodDecl> methodList = n.methodList; methodList != null; methodList = methodList.tail) {
@@ -197,45 +804,41 @@ public class Codegen extends VisitorAdapter {
         return null;
     }
 
-    // TODO
-    public LlvmValue visit(ClassDeclExtends n) {
-        return null;
-    }
-
     public LlvmValue visit(VarDecl n) {
         LlvmValue value = n.type.accept(this);
         LlvmNamedValue v;
         if (classEnv!= null && methodEnv != null) {
             String varName = "%" + classEnv.getName() + "." + methodEnv.getName() + ".";
             v = new LlvmNamedValue(varName + n.name.s + ".local", value.type);
-            assembler.add(new LlvmAlloca(v, value.type, new LinkedList<LlvmValue>()));
+            function.add(new LlvmAlloca(v, value.type, new LinkedList<LlvmValue>()));
         } else if (classEnv != null) {
             String varName = "%" + classEnv.getName() + ".";
             v= new LlvmNamedValue(varName+n.name.s, value.type);
-            assembler.add(new LlvmAlloca(v, value.type, new LinkedList<LlvmValue>()));
+            function.add(new LlvmAlloca(v, value.type, new LinkedList<LlvmValue>()));
         } else {
             v = new LlvmNamedValue("%" + n.name.s, value.type);
-            assembler.add(new LlvmAlloca(v, value.type, new LinkedList<LlvmValue>()));
+            function.add(new LlvmAlloca(v, value.type, new LinkedList<LlvmValue>()));
         }
         return v;
     }
 
     public LlvmValue visit(MethodDecl n) {
         methodEnv = classEnv.methods.get(n.name.s);
+        context = new FunctionContext();
 
         // define o método
-        assembler.add(methodEnv.getFunctionDefinition(classEnv));
+        function = new Function(methodEnv.getFunctionDefinition(classEnv));
 
         // label
-        assembler.add(new LlvmLabel(new LlvmLabelValue("entry")));
+        function.startBlock(new LlvmLabelValue("entry"));
 
         // aloca os Formals
         for (LlvmValue v : methodEnv.getFormalList()) {
             if (!v.toString().equals("%this")) {
                 String varName = "%" + classEnv.getName() + "." + methodEnv.getName() + ".";
-                LlvmRegister R1 = new LlvmRegister(varName+v.toString().substring(1)+".pmtr", new LlvmPointer(v.type));
-                assembler.add(new LlvmAlloca(R1, v.type, new LinkedList<LlvmValue>()));
-                assembler.add(new LlvmStore(v, R1));
+                LlvmRegister R1 = new LlvmRegister(varName+v.toString().substring(1)+".pmtr", LlvmPointer.get(v.type));
+                function.add(new LlvmAlloca(R1, v.type, new LinkedList<LlvmValue>()));
+                function.add(new LlvmStore(v, R1));
             }
         }
 
@@ -250,12 +853,15 @@ public class Codegen extends VisitorAdapter {
         }
 
         // retorno do método
-        LlvmValue returnValue = n.returnExp.accept(this);
-        assembler.add(new LlvmRet(returnValue));
-        assembler.add(new LlvmCloseDefinition());
+        LlvmValue returnValue = coerce(n.returnExp.accept(this), methodEnv.returnType);
+        function.add(new LlvmRet(returnValue));
+        function.finish();
+        module.add(function);
 
         // Limpa a tabela de símbolos temporária
         methodEnv = null;
+        function = null;
+        context = null;
         return null;
     }
 
@@ -264,19 +870,19 @@ public class Codegen extends VisitorAdapter {
     }
 
     public LlvmValue visit(IntArrayType n) {
-        return new LlvmNamedValue("int[]", new LlvmPointer(LlvmPrimitiveType.I32));
+        return INT_ARRAY_VALUE;
     }
 
     public LlvmValue visit(BooleanType n) {
-        return new LlvmNamedValue("boolean", LlvmPrimitiveType.I1);
+        return BOOLEAN_VALUE;
     }
 
     public LlvmValue visit(IntegerType n) {
-        return new LlvmNamedValue("int", LlvmPrimitiveType.I32);
+        return INT_VALUE;
     }
 
     public LlvmValue visit(IdentifierType n) {
-        return new LlvmNamedValue(n.name, symTab.classes.get(n.name).getClassPointer());
+        return symTab.classes.get(n.name).getTypeValue();
     }
 
     // Block contém uma lista de statements
@@ -288,99 +894,227 @@ public class Codegen extends VisitorAdapter {
     }
 
     public LlvmValue visit(If n) {
-        LlvmValue cmp = n.condition.accept(this);
-        LlvmLabelValue ifLabel = new LlvmLabelValue("ifLabel" + n.line);
-        LlvmLabelValue elseLabel = new LlvmLabelValue("elseLabel" + n.line);
-        LlvmLabelValue endLabel = new LlvmLabelValue("endLabel" + n.line);
+        int group = context.newLabelGroup();
+        LlvmLabelValue ifLabel = context.label("ifLabel", group);
+        LlvmLabelValue elseLabel = context.label("elseLabel", group);
+        LlvmLabelValue endLabel = context.label("endLabel", group);
 
-        assembler.add(new LlvmBranch(cmp, ifLabel, elseLabel));
-        assembler.add(new LlvmLabel(ifLabel));
+        branch(n.condition, ifLabel, elseLabel);
+        function.startBlock(ifLabel);
         n.thenClause.accept(this);
-        assembler.add(new LlvmBranch(endLabel));
+        function.add(new LlvmBranch(endLabel));
 
-        assembler.add(new LlvmLabel(elseLabel));
+        function.startBlock(elseLabel);
         if (n.elseClause != null) {
             n.elseClause.accept(this);
         }
-        assembler.add(new LlvmLabel(endLabel));
-        return cmp;
+        function.add(new LlvmBranch(endLabel));
+        function.startBlock(endLabel);
+        return null;
     }
 
     public LlvmValue visit(While n) {
-        LlvmValue cond = n.condition.accept(this);
-        LlvmLabelValue condLabel = new LlvmLabelValue("cond" + n.line);
-        LlvmLabelValue endWhile = new LlvmLabelValue("endWhile" + n.line);
-        LlvmLabelValue startBody = new LlvmLabelValue("startBody" + n.line);
-        assembler.add(new LlvmLabel(condLabel));
-        assembler.add(new LlvmBranch(cond, startBody, endWhile));
-        assembler.add(new LlvmLabel(startBody));
+        int group = context.newLabelGroup();
+        LlvmLabelValue condLabel = context.label("cond", group);
+        LlvmLabelValue endWhile = context.label("endWhile", group);
+        LlvmLabelValue startBody = context.label("startBody", group);
+        function.add(new LlvmBranch(condLabel));
+        function.startBlock(condLabel);
+
+        // a condição é reavaliada a cada volta
+        branch(n.condition, startBody, endWhile);
+        function.startBlock(startBody);
         n.body.accept(this);
-        assembler.add(new LlvmBranch(condLabel));
-        assembler.add(new LlvmLabel(endWhile));
-        return cond;
+        function.add(new LlvmBranch(condLabel));
+        function.startBlock(endWhile);
+        return null;
+    }
+
+    // Desvia para 'ifTrue' ou 'ifFalse' conforme 'cond', sem materializar o
+    // valor dos && e ! da condição: 'a && b' testa 'a' e só então 'b', e '!a'
+    // troca os destinos. As outras expressões são avaliadas e testadas.
+    private void branch(Exp cond, LlvmLabelValue ifTrue, LlvmLabelValue ifFalse) {
+        if (cond instanceof Not) {
+            branch(((Not) cond).exp, ifFalse, ifTrue);
+        } else if (cond instanceof And) {
+            And and = (And) cond;
+            LlvmLabelValue rhs = context.label("andRhs", context.newLabelGroup());
+            branch(and.lhs, rhs, ifFalse);
+            function.startBlock(rhs);
+            branch(and.rhs, ifTrue, ifFalse);
+        } else {
+            function.add(new LlvmBranch(cond.accept(this), ifTrue, ifFalse));
+        }
+    }
+
+    // Label do bloco em que o código está sendo emitido (o último aberto)
+    private LlvmLabelValue currentBlock() {
+        return function.getLastBlock().label;
     }
 
     public LlvmValue visit(Assign n) {
-        LlvmValue var = n.var.accept(this);
         LlvmValue exp = n.exp.accept(this);
-        // parametro método (formal)
-        String varName = classEnv.getName() + "." + methodEnv.getName() + ".";
-        if (methodEnv != null && methodEnv.hasFormal("%" + n.var.s)) {
-            LlvmValue val = methodEnv.formals.get("%" + n.var.s);
-            LlvmRegister R1 = new LlvmRegister("%" + varName + n.var.s + ".pmtr", new LlvmPointer(val.type));
-            assembler.add(new LlvmStore(exp, R1));
-        } else if (methodEnv != null && methodEnv.hasLocalVariable("%" + n.var.s)) { // local do método
-            LlvmRegister R2 = new LlvmRegister("%" + varName + n.var.s + ".local", new LlvmPointer(exp.type));
-            LlvmAlloca aux = new LlvmAlloca(R2, exp.type, new LinkedList<LlvmValue>());
-            assembler.add(new LlvmStore(exp, R2));
-
-        } else if (classEnv != null && classEnv.vars.containsKey("%" + n.var.s)) { // atributo da classe
-            LlvmRegister R3 = new LlvmRegister(exp.type);
-            assembler.add(new LlvmGetElementPointer(R3, classEnv.getClassReference(), classEnv.getOffset("%" + n.var.s)));
-            LlvmRegister R4 = new LlvmRegister(exp.type);
-            assembler.add(new LlvmBitcast(R4, exp, var.type));
-            assembler.add(new LlvmStore(R4, R3));
-        }
-        // local da superclasse
+        LlvmValue address = variableAddress(n.var.s);
+        if (address != null) {
+            LlvmType type = ((LlvmPointer) address.type).content;
+            int bit = packedBit(n.var.s);
+            if (bit >= 0)
+                exp = setBit(address, bit, exp);
+            function.add(new LlvmStore(coerce(exp, type), address));
+        }
         return null;
     }
 
+    // Palavra em 'address' com o bit 'bit' trocado por 'value' (i1)
+    private LlvmValue setBit(LlvmValue address, int bit, LlvmValue value) {
+        LlvmType type = FieldLayout.BOOLEAN_WORD;
+        LlvmRegister word = context.newRegister(type);
+        function.add(new LlvmLoad(word, address));
+        if (value instanceof LlvmBool) {
+            LlvmRegister result = context.newRegister(type);
+            if (((LlvmBool) value).val == LlvmBool.TRUE)
+                function.add(new LlvmOr(result, type, word, bitMask(bit, false)));
+            else
+                function.add(new LlvmAnd(result, type, word, bitMask(bit, true)));
+            return result;
+        }
+
+        LlvmRegister cleared = context.newRegister(type);
+        function.add(new LlvmAnd(cleared, type, word, bitMask(bit, true)));
+        LlvmRegister extended = context.newRegister(type);
+        function.add(new LlvmZext(extended, value, type));
+        LlvmValue shifted = extended;
+        if (bit > 0) {
+            LlvmRegister r = context.newRegister(type);
+            function.add(new LlvmShl(r, type, extended, new LlvmIntegerLiteral(bit)));
+            shifted = r;
+        }
+        LlvmRegister result = context.newRegister(type);
+        function.add(new LlvmOr(result, type, cleared, shifted));
+        return result;
+    }
+
+    // Bit 'bit' de 'word', como i1
+    private LlvmValue testBit(LlvmValue word, int bit) {
+        LlvmType type = FieldLayout.BOOLEAN_WORD;
+        LlvmRegister masked = context.newRegister(type);
+        function.add(new LlvmAnd(masked, type, word, bitMask(bit, false)));
+        LlvmRegister r = context.newRegister(LlvmPrimitiveType.I1);
+        function.add(new LlvmIcmp(r, LlvmIcmp.NE, type, masked, new LlvmIntegerLiteral(0)));
+        return r;
+    }
+
+    // Máscara de um bit da palavra (ou de todos menos ele), escrita com sinal para caber em i8
+    private static LlvmValue bitMask(int bit, boolean inverted) {
+        int mask = 1 << bit;
+        return new LlvmIntegerLiteral((byte) (inverted ? ~mask : mask));
+    }
+
     public LlvmValue visit(ArrayAssign n) {
+        LlvmRegister array = context.newRegister(ARRAY_TYPE);
+        function.add(new LlvmLoad(array, variableAddress(n.var.s)));
+        LlvmValue index = n.index.accept(this);
+        LlvmValue value = n.value.accept(this);
+
+        function.add(new LlvmStore(value, elementAddress(array, index, n.line)));
         return null;
     }
 
+    // Curto-circuito: o lado direito só é avaliado se o esquerdo for verdadeiro,
+    // e o resultado é um phi entre o false do esquerdo e o valor do direito
     public LlvmValue visit(And n) {
         LlvmValue v1 = n.lhs.accept(this);
+        LlvmBool known = folder.constant(v1);
+        if (known != null)
+            return known.val == LlvmBool.FALSE ? v1 : n.rhs.accept(this);
+
+        int group = context.newLabelGroup();
+        LlvmLabelValue rhsLabel = context.label("andRhs", group);
+        LlvmLabelValue endLabel = context.label("andEnd", group);
+        LlvmLabelValue lhsBlock = currentBlock();
+        function.add(new LlvmBranch(v1, rhsLabel, endLabel));
+
+        function.startBlock(rhsLabel);
         LlvmValue v2 = n.rhs.accept(this);
-        LlvmRegister lhs = new LlvmRegister(LlvmPrimitiveType.I1);
-        assembler.add(new LlvmAnd(lhs, LlvmPrimitiveType.I1, v1, v2));
+        // o lado direito pode ter aberto blocos (outro &&, uma chamada expandida)
+        LlvmLabelValue rhsBlock = currentBlock();
+        function.add(new LlvmBranch(endLabel));
+
+        function.startBlock(endLabel);
+        LlvmRegister lhs = context.newRegister(LlvmPrimitiveType.I1);
+        LlvmPhi phi = new LlvmPhi(lhs, LlvmPrimitiveType.I1);
+        phi.addIncoming(new LlvmBool(LlvmBool.FALSE), lhsBlock);
+        phi.addIncoming(v2, rhsBlock);
+        function.add(phi);
         return lhs;
     }
 
     public LlvmValue visit(LessThan n) {
         LlvmValue v1 = n.lhs.accept(this);
         LlvmValue v2 = n.rhs.accept(this);
-        LlvmRegister lhs = new LlvmRegister(LlvmPrimitiveType.I1);
-        assembler.add(new LlvmIcmp(lhs, LlvmIcmp.SLT, LlvmPrimitiveType.I32, v1, v2));
+        LlvmValue folded = folder.fold(ConstantFolder.LESS_THAN, v1, v2);
+        if (folded != null)
+            return folded;
+        LlvmRegister lhs = context.newRegister(LlvmPrimitiveType.I1);
+        function.add(new LlvmIcmp(lhs, LlvmIcmp.SLT, LlvmPrimitiveType.I32, v1, v2));
         return lhs;
     }
 
     public LlvmValue visit(Equal n) {
         LlvmValue v1 = n.lhs.accept(this);
         LlvmValue v2 = n.rhs.accept(this);
-        LlvmRegister lhs = new LlvmRegister(LlvmPrimitiveType.I1);
-        assembler.add(new LlvmIcmp(lhs, LlvmIcmp.EQ, LlvmPrimitiveType.I32, v1, v2));
+        LlvmValue folded = folder.fold(ConstantFolder.EQUAL, v1, v2);
+        if (folded != null)
+            return folded;
+        LlvmRegister lhs = context.newRegister(LlvmPrimitiveType.I1);
+        function.add(new LlvmIcmp(lhs, LlvmIcmp.EQ, v1.type, v1, v2));
         return lhs;
     }
 
     // Procura elemento no array
     public LlvmValue visit(ArrayLookup n) {
-        return null;
+        LlvmValue array = n.array.accept(this);
+        LlvmValue index = n.index.accept(this);
+
+        LlvmRegister value = context.newRegister(LlvmPrimitiveType.I32);
+        function.add(new LlvmLoad(value, elementAddress(array, index, n.line)));
+        return value;
+    }
+
+    // Endereço de array[index], depois de chamar o boundCheck do runtime.
+    // O vetor é um i32* cujo primeiro inteiro é o tamanho; o elemento i fica em i + 1.
+    private LlvmValue elementAddress(LlvmValue array, LlvmValue index, int line) {
+        List<LlvmValue> args = new LinkedList<LlvmValue>();
+        args.add(array);
+        args.add(index);
+        args.add(new LlvmIntegerLiteral(line));
+        function.add(new LlvmCall(null, LlvmPrimitiveType.VOID, BOUND_CHECK, args));
+
+        List<LlvmValue> offsets = new LinkedList<LlvmValue>();
+        offsets.add(plus(index, new LlvmIntegerLiteral(1)));
+        LlvmRegister address = context.newRegister(ARRAY_TYPE);
+        function.add(new LlvmGetElementPointer(address, array, offsets));
+        return address;
+    }
+
+    private LlvmValue plus(LlvmValue v1, LlvmValue v2) {
+        LlvmValue folded = folder.fold(ConstantFolder.PLUS, v1, v2);
+        if (folded != null)
+            return folded;
+
+        LlvmRegister lhs = context.newRegister(LlvmPrimitiveType.I32);
+        function.add(new LlvmPlus(lhs, LlvmPrimitiveType.I32, v1, v2));
+        return lhs;
     }
 
     // Retorna o tamanho do array
     public LlvmValue visit(ArrayLength n) {
-        return null;
+        LlvmValue array = n.array.accept(this);
+
+        // o tamanho fica no cabeçalho, antes do primeiro elemento
+        LlvmRegister length = context.newRegister(LlvmPrimitiveType.I32);
+        function.add(new LlvmLoad(length, array));
+        return length;
     }
 
     // Chamada de método
@@ -389,27 +1123,76 @@ public class Codegen extends VisitorAdapter {
         LlvmValue retType = n.type.accept(this);
         LlvmValue method = n.method.accept(this);
         List<LlvmValue> actuals = new LinkedList<LlvmValue>();
-        String name;
-
-        if (obj != null && obj.type instanceof LlvmPointer) {
-            LlvmPointer classPtr = (LlvmPointer) obj.type;
-            LlvmClassType classType = (LlvmClassType) classPtr.content;
-            ClassNode classNode = symTab.classes.get(classType.name);
-            MethodNode methodNode = classNode.methods.get(method.toString());
-            actuals.add(obj);
-            name = "@__" + method.toString() + "_" + classNode.toString();
-        } else {
-            name = method.toString();
+
+        if (obj == null || !(obj.type instanceof LlvmPointer)) {
+            for (util.List<Exp> actualList = n.actuals; actualList != null; actualList = actualList.tail) {
+                actuals.add(actualList.head.accept(this));
+            }
+            LlvmRegister reg = context.newRegister(retType.type);
+            function.add(new LlvmCall(reg, retType.type, method.toString(), actuals));
+            return reg;
         }
 
+        LlvmPointer classPtr = (LlvmPointer) obj.type;
+        LlvmClassType classType = (LlvmClassType) classPtr.content;
+        ClassNode classNode = symTab.classes.get(classType.name);
+        MethodNode methodNode = classNode.resolveMethod(method.toString());
+
+        // argumentos convertidos para os tipos dos parâmetros (subclasse -> superclasse)
+        Iterator<LlvmValue> formals = methodNode.getFormalList().iterator();
+        formals.next();
         for (util.List<Exp> actualList = n.actuals; actualList != null; actualList = actualList.tail) {
-            actuals.add(actualList.head.accept(this));
+            actuals.add(coerce(actualList.head.accept(this), formals.next().type));
         }
 
-        LlvmRegister reg = new LlvmRegister(retType.type);
-        assembler.add(new LlvmCall(reg, retType.type, name, actuals));
+        LlvmRegister reg = context.newRegister(methodNode.returnType);
+        if (classNode.isMonomorphic(methodNode.getName())) {
+            // nenhuma subclasse sobrescreve o método: chamada direta (desvirtualizada)
+            actuals.add(0, coerce(obj, methodNode.getOwner().getClassPointer()));
+            function.add(new LlvmCall(reg, methodNode.returnType, methodNode.getFunctionName(), actuals));
+        } else {
+            actuals.add(0, obj);
+            LlvmValue target = loadVirtualMethod(obj, methodNode);
+            function.add(new LlvmCall(reg, methodNode.returnType, target, actuals));
+        }
         return reg;
+    }
+
+    // Busca o ponteiro do método na vtable do objeto:
+    // cabeçalho -> vtable -> entrada 'vtableIndex' -> bitcast para o tipo da função
+    private LlvmValue loadVirtualMethod(LlvmValue obj, MethodNode methodNode) {
+        LlvmRegister header = context.newRegister(LlvmPointer.get(ClassNode.VTABLE_TYPE));
+        function.add(new LlvmGetElementPointer(header, obj, ClassNode.getHeaderOffset()));
+        LlvmRegister vtable = context.newRegister(ClassNode.VTABLE_TYPE);
+        function.add(new LlvmLoad(vtable, header));
+
+        List<LlvmValue> index = new LinkedList<LlvmValue>();
+        index.add(new LlvmIntegerLiteral(methodNode.getVtableIndex()));
+        LlvmRegister slot = context.newRegister(ClassNode.VTABLE_TYPE);
+        function.add(new LlvmGetElementPointer(slot, vtable, index));
+        LlvmRegister entry = context.newRegister(LlvmPointer.get(LlvmPrimitiveType.I8));
+        function.add(new LlvmLoad(entry, slot));
+
+        // o 'this' da chamada tem o tipo estático do objeto
+        List<LlvmType> types = new LinkedList<LlvmType>();
+        types.add(obj.type);
+        for (LlvmValue formal : methodNode.getFormalList().subList(1, methodNode.getFormalList().size())) {
+            types.add(formal.type);
+        }
+        LlvmPointer functionType = LlvmPointer.get(new LlvmFunctionType(methodNode.returnType, types));
+        LlvmRegister target = context.newRegister(functionType);
+        function.add(new LlvmBitcast(target, entry, functionType));
+        return target;
+    }
 
+    // Converte ponteiros de classe para o tipo esperado (ex.: subclasse usada como superclasse)
+    private LlvmValue coerce(LlvmValue value, LlvmType type) {
+        if (value == null || !(value.type instanceof LlvmPointer) || !(type instanceof LlvmPointer)
+                || value.type == type)
+            return value;
+        LlvmRegister cast = context.newRegister(type);
+        function.add(new LlvmBitcast(cast, value, type));
+        return cast;
     }
 
     public LlvmValue visit(True n) {
@@ -421,308 +1204,199 @@ public class Codegen extends VisitorAdapter {
     }
 
     public LlvmValue visit(IdentifierExp n) {
-        LlvmRegister r = new LlvmRegister(n.type.accept(this).type);
-        String name = "%" + n.name.s;
-        if (classEnv != null) {
-            // verifica se a variável da expressão é local do método
-            String varName = "%" + classEnv.getName() + "." + methodEnv.getName() + ".";
-            if (methodEnv.vars.containsKey(name)) {
-                LlvmValue local = methodEnv.vars.get(name);
-                LlvmNamedValue value = new LlvmNamedValue(new LlvmPointer(local.type) + " " + varName + local.toString().substring(1) +  ".local", r.type);
-                assembler.add(new LlvmLoad(r, value));
-                return r;
-            }
-
-            // verifica se a variável da expressão é parâmetro do método
-            else if (methodEnv.formals.containsKey(name)) {
-                LlvmValue local = methodEnv.formals.get(name);
-                LlvmNamedValue value = new LlvmNamedValue(new LlvmPointer(local.type) + " " + varName + local.toString().substring(1) + ".pmtr", r.type);
-                assembler.add(new LlvmLoad(r, value));
-                return r;
-            }
-
-            // verifica se a variável é da classe
-            else if (classEnv.vars.containsKey(name)) {
-                LlvmValue local = classEnv.vars.get(name);
-                LlvmRegister addr = new LlvmRegister(LlvmPrimitiveType.I32);
-                assembler.add(new LlvmGetElementPointer(addr, classEnv.getClassReference(), classEnv.getOffset("%" + name)));
-                LlvmNamedValue value = new LlvmNamedValue(addr.name, new LlvmPointer(r.type));
-                assembler.add(new LlvmLoad(r, value));
-                return r;
-            }
-
-            // TODO: verifica se a variável é de alguma superclasse
+        LlvmValue address = variableAddress(n.name.s);
+        if (address == null)
+            return null;
+
+        LlvmRegister r = context.newRegister(((LlvmPointer) address.type).content);
+        function.add(new LlvmLoad(r, address));
+        int bit = packedBit(n.name.s);
+        return bit >= 0 ? testBit(r, bit) : r;
+    }
+
+    // Endereço da variável 'name' visível no método atual: local, parâmetro ou
+    // atributo da classe (ou de alguma superclasse). Devolve null se não existir.
+    private LlvmValue variableAddress(String var) {
+        if (classEnv == null)
+            return null;
+
+        String name = "%" + var;
+        String varName = "%" + classEnv.getName() + "." + methodEnv.getName() + ".";
+        if (methodEnv.vars.containsKey(name)) {
+            LlvmType type = methodEnv.vars.get(name).type;
+            return new LlvmNamedValue(varName + var + ".local", LlvmPointer.get(type));
+        } else if (methodEnv.formals.containsKey(name)) {
+            LlvmType type = methodEnv.formals.get(name).type;
+            return new LlvmNamedValue(varName + var + ".pmtr", LlvmPointer.get(type));
+        }
+        FieldLayout.Slot field = classEnv.getField(name);
+        if (field != null) {
+            LlvmRegister addr = context.newRegister(LlvmPointer.get(field.type));
+            function.add(new LlvmGetElementPointer(addr, classEnv.getClassReference(), field.offsets));
+            return addr;
         }
         return null;
+    }
 
+    // Bit de 'var' se ela for um atributo boolean empacotado (e não uma local ou
+    // parâmetro de mesmo nome); senão -1
+    private int packedBit(String var) {
+        String name = "%" + var;
+        if (methodEnv.vars.containsKey(name) || methodEnv.formals.containsKey(name))
+            return -1;
+        return classEnv.getBit(name);
     }
 
     public LlvmValue visit(This n) {
-        return new LlvmNamedValue("%this", new LlvmPointer(new LlvmClassType(classEnv.getName())));
+        return classEnv.getClassReference();
     }
 
     public LlvmValue visit(NewArray n) {
         LlvmValue size = n.size.accept(this);
-        int size_int = Integer.valueOf(size.toString());
-        LlvmValue lhs = new LlvmRegister(new LlvmArray(size_int, LlvmPrimitiveType.I32));
-        assembler.add(new LlvmMalloc(lhs, LlvmPrimitiveType.I32, size));
-        return lhs;
-    }
-
-    public LlvmValue visit(NewObject n) {
-        ClassNode clazz = symTab.classes.get(n.className.s);
-        LlvmRegister lhs = new LlvmRegister(clazz.getClassPointer());
-        assembler.add(new LlvmMalloc(lhs, clazz.getStructure(), clazz.getClassType().toString()));
-        return lhs;
-    }
-
-    public LlvmValue visit(Not n) {
-        return null;
-    }
-
-    public LlvmValue visit(Identifier n) {
-        return new LlvmNamedValue(n.s, LlvmPrimitiveType.I32);
-    }
-}
-
-
-/**********************************************************************************/
-/* === Tabela de Símbolos ==== 
- * 
- * 
- */
-
-/**********************************************************************************/
-
-class SymTab extends VisitorAdapter {
-    public Map<String, ClassNode> classes;
-    private ClassNode classEnv;    //aponta para a classe em uso
-
-    public LlvmValue FillTabSymbol(Program n) {
-        n.accept(this);
-        return null;
-    }
-
-    public LlvmValue visit(Program n) {
-        n.mainClass.accept(this);
-
-        for (util.List<ClassDecl> c = n.classList; c != null; c = c.tail)
-            c.head.accept(this);
-
-        return null;
-    }
-
-    public LlvmValue visit(MainClass n) {
-        classes = new HashMap<String, ClassNode>();
-        classes.put(n.className.s, new ClassNode(n.className.s, null, null));
-        return null;
-    }
-
-    public LlvmValue visit(ClassDeclSimple n) {
-        // percorre a lista de variáveis para ver os tipos
-        List<LlvmType> typeList = new LinkedList<LlvmType>();
-        List<LlvmValue> varList = new LinkedList<LlvmValue>();
-        LlvmValue val;
-        for (util.List<VarDecl> v = n.varList; v != null; v = v.tail) {
-            val = v.head.accept(this);
-            typeList.add(val.type);
-            varList.add(val);
-        }
-
-        classEnv = new ClassNode(n.name.s, new LlvmStructure(typeList), varList);
-        classes.put(n.name.s, classEnv);
-
-        // Percorre n.methodList visitando cada método
-        for (util.List<MethodDecl> methodList = n.methodList; methodList != null; methodList = methodList.tail) {
-            methodList.head.accept(this);
-        }
-
-        return null;
-    }
-
-    public LlvmValue visit(ClassDeclExtends n) {
-        return null;
-    }
-
-    public LlvmValue visit(VarDecl n) {
-        LlvmValue value = n.type.accept(this);
-        LlvmNamedValue v = new LlvmNamedValue("%" + n.name.s, value.type);
-        return v;
-    }
-
-    public LlvmValue visit(Formal n) {
-        return new LlvmNamedValue("%" + n.name.s, n.type.accept(this).type);
-    }
-
-    public LlvmValue visit(MethodDecl n) {
-        LlvmType returnType = n.returnType.accept(this).type;
-        List<LlvmValue> args = new LinkedList<LlvmValue>();
-        List<LlvmValue> vars = new LinkedList<LlvmValue>();
-        args.add(classEnv.getClassReference());
-
-        for (util.List<Formal> formals = n.formals; formals != null; formals = formals.tail) {
-            LlvmValue formal = formals.head.accept(this);
-            args.add(formal);
-        }
-
-        for (util.List<VarDecl> varList = n.locals; varList != null; varList = varList.tail) {
-            LlvmValue var = varList.head.accept(this);
-            vars.add(var);
-        }
-
-        classEnv.addMethod(new MethodNode(n.name.s, args, vars, returnType));
-        return null;
-    }
-
-    public LlvmValue visit(IdentifierType n) {
-        return new LlvmNamedValue(n.name, new LlvmPointer(new LlvmClassType(
-                n.name)));
-    }
 
-    public LlvmValue visit(IntArrayType n) {
-        return new LlvmNamedValue("int[]", new LlvmPointer(
-                LlvmPrimitiveType.I32));
-    }
-
-    public LlvmValue visit(BooleanType n) {
-        return new LlvmNamedValue("boolean", LlvmPrimitiveType.I1);
-    }
-
-    public LlvmValue visit(IntegerType n) {
-        return new LlvmNamedValue("int", LlvmPrimitiveType.I32);
-    }
-}
-
-class ClassNode extends LlvmType {
-    private String name;
-    private LlvmStructure structure;
-    public List<LlvmValue> varList;
-    public List<MethodNode> methodList;
-    public Map<String, MethodNode> methods;
-    public Map<String, LlvmValue> vars;
-
-    // constructor
-    ClassNode(String nameClass, LlvmStructure classType, List<LlvmValue> varList) {
-        this.name = nameClass;
-        this.structure = classType;
-        this.varList = varList;
-        this.methodList = new LinkedList<MethodNode>();
-        this.methods = new HashMap<String, MethodNode>();
-        this.vars = new HashMap<String, LlvmValue>();
-
-        if (varList != null) {
-            for (LlvmValue val : varList) {
-                vars.put(val.toString(), val);
+        LlvmValue memory;
+        if (gc) {
+            // vetores de int não têm ponteiros para o coletor seguir
+            LlvmValue count = plus(size, new LlvmIntegerLiteral(1));
+            LlvmValue bytes;
+            if (count instanceof LlvmIntegerLiteral) {
+                bytes = new LlvmIntegerLiteral(((LlvmIntegerLiteral) count).value * 4);
+            } else {
+                LlvmRegister shifted = context.newRegister(LlvmPrimitiveType.I32);
+                function.add(new LlvmShl(shifted, LlvmPrimitiveType.I32, count, new LlvmIntegerLiteral(2)));
+                bytes = shifted;
             }
+            memory = gcAllocate(bytes, new LlvmNamedValue("null", GC_MAP_TYPE));
+        } else if (arena) {
+            // (size + 1) * 4 bytes arredondados para múltiplo de 8: (size * 4 + 11) & -8
+            LlvmValue bytes;
+            if (size instanceof LlvmIntegerLiteral) {
+                bytes = new LlvmIntegerLiteral((((LlvmIntegerLiteral) size).value * 4 + 11) & -ARENA_ALIGN);
+            } else {
+                LlvmRegister words = context.newRegister(LlvmPrimitiveType.I32);
+                function.add(new LlvmShl(words, LlvmPrimitiveType.I32, size, new LlvmIntegerLiteral(2)));
+                LlvmRegister rounded = context.newRegister(LlvmPrimitiveType.I32);
+                function.add(new LlvmAnd(rounded, LlvmPrimitiveType.I32,
+                        plus(words, new LlvmIntegerLiteral(4 + ARENA_ALIGN - 1)), new LlvmIntegerLiteral(-ARENA_ALIGN)));
+                bytes = rounded;
+            }
+            // os blocos da arena vêm zerados do calloc e nunca são reaproveitados
+            memory = arenaAllocate(bytes);
+        } else {
+            // calloc zera os elementos; um inteiro a mais para o tamanho
+            List<LlvmValue> args = new LinkedList<LlvmValue>();
+            args.add(plus(size, new LlvmIntegerLiteral(1)));
+            args.add(new LlvmIntegerLiteral(4));
+            LlvmRegister call = context.newRegister(LlvmPointer.get(LlvmPrimitiveType.I8));
+            function.add(new LlvmCall(call, call.type, "@calloc", args));
+            memory = call;
         }
-    }
-
-    // getters
-    public String getName() {
-        return name;
-    }
-
-    public LlvmClassType getClassType() {
-        return new LlvmClassType(this.name);
-    }
-
-    public LlvmPointer getClassPointer() {
-        return new LlvmPointer(new LlvmClassType(this.name));
-    }
 
-    public LlvmNamedValue getClassReference() {
-        return new LlvmNamedValue("%this", new LlvmPointer(getClassType()));
+        LlvmRegister array = context.newRegister(ARRAY_TYPE);
+        function.add(new LlvmBitcast(array, memory, ARRAY_TYPE));
+        function.add(new LlvmStore(size, array));
+        return array;
     }
 
-    public LlvmStructure getStructure() {
-        return structure;
-    }
+    public LlvmValue visit(NewObject n) {
+        ClassNode clazz = symTab.classes.get(n.className.s);
+        LlvmRegister lhs = context.newRegister(clazz.getClassPointer());
+        if (gc) {
+            LlvmRegister map = context.newRegister(GC_MAP_TYPE);
+            function.add(new LlvmBitcast(map, clazz.getGcMapReference(), GC_MAP_TYPE));
+            function.add(new LlvmBitcast(lhs, gcAllocate(clazz.getSizeConstant(), map), lhs.type));
+        } else if (arena) {
+            int bytes = (clazz.getStructure().sizeByte + ARENA_ALIGN - 1) & -ARENA_ALIGN;
+            function.add(new LlvmBitcast(lhs, arenaAllocate(new LlvmIntegerLiteral(bytes)), lhs.type));
+        } else {
+            function.add(new LlvmMalloc(lhs, clazz.getStructure(), clazz.getClassType().toString()));
+        }
 
-    public LlvmInstruction getClassDeclaration() {
-        return new LlvmInstruction() {
-            public String toString() {
-                return getClassType() + " = type" + getStructure();
-            }
-        };
+        // instala a vtable da classe no cabeçalho do objeto
+        LlvmRegister header = context.newRegister(LlvmPointer.get(ClassNode.VTABLE_TYPE));
+        function.add(new LlvmGetElementPointer(header, lhs, ClassNode.getHeaderOffset()));
+        LlvmRegister vtable = context.newRegister(ClassNode.VTABLE_TYPE);
+        function.add(new LlvmBitcast(vtable, clazz.getVtableReference(), ClassNode.VTABLE_TYPE));
+        function.add(new LlvmStore(vtable, header));
+        return lhs;
     }
 
-    public void addMethod(MethodNode methodNode) {
-        methodList.add(methodNode);
-        methods.put(methodNode.getName(), methodNode);
+    // Caminho rápido da arena: avança o ponteiro 'próximo' se 'bytes' (múltiplo de 8)
+    // cabe no bloco atual; senão chama arenaAllocSlow, que pega um bloco novo
+    private LlvmValue arenaAllocate(LlvmValue bytes) {
+        LlvmType bytePtr = LlvmPointer.get(LlvmPrimitiveType.I8);
+        LlvmNamedValue state = new LlvmNamedValue(ARENA, LlvmPointer.get(ARENA_TYPE));
+        int group = context.newLabelGroup();
+        LlvmLabelValue fast = context.label("allocFast", group);
+        LlvmLabelValue slow = context.label("allocSlow", group);
+        LlvmLabelValue end = context.label("allocEnd", group);
+
+        LlvmRegister nextAddr = context.newRegister(LlvmPointer.get(bytePtr));
+        function.add(new LlvmGetElementPointer(nextAddr, state, fieldOffset(0)));
+        LlvmRegister next = context.newRegister(bytePtr);
+        function.add(new LlvmLoad(next, nextAddr));
+        LlvmRegister limitAddr = context.newRegister(LlvmPointer.get(bytePtr));
+        function.add(new LlvmGetElementPointer(limitAddr, state, fieldOffset(1)));
+        LlvmRegister limit = context.newRegister(bytePtr);
+        function.add(new LlvmLoad(limit, limitAddr));
+        List<LlvmValue> offset = new LinkedList<LlvmValue>();
+        offset.add(bytes);
+        LlvmRegister bumped = context.newRegister(bytePtr);
+        function.add(new LlvmGetElementPointer(bumped, next, offset));
+        LlvmRegister fits = context.newRegister(LlvmPrimitiveType.I1);
+        function.add(new LlvmIcmp(fits, LlvmIcmp.ULE, bytePtr, bumped, limit));
+        function.add(new LlvmBranch(fits, fast, slow));
+
+        function.startBlock(fast);
+        function.add(new LlvmStore(bumped, nextAddr));
+        function.add(new LlvmBranch(end));
+
+        function.startBlock(slow);
+        List<LlvmValue> args = new LinkedList<LlvmValue>();
+        args.add(state);
+        args.add(bytes);
+        LlvmRegister fresh = context.newRegister(bytePtr);
+        function.add(new LlvmCall(fresh, bytePtr, ARENA_SLOW, args));
+        function.add(new LlvmBranch(end));
+
+        function.startBlock(end);
+        LlvmRegister memory = context.newRegister(bytePtr);
+        LlvmPhi phi = new LlvmPhi(memory, bytePtr);
+        phi.addIncoming(next, fast);
+        phi.addIncoming(fresh, slow);
+        function.add(phi);
+        return memory;
+    }
+
+    // Memória zerada do coletor; pode disparar uma coleta
+    private LlvmValue gcAllocate(LlvmValue bytes, LlvmValue map) {
+        List<LlvmValue> args = new LinkedList<LlvmValue>();
+        args.add(bytes);
+        args.add(map);
+        LlvmRegister memory = context.newRegister(LlvmPointer.get(LlvmPrimitiveType.I8));
+        function.add(new LlvmCall(memory, memory.type, ShadowStack.GC_ALLOC, args));
+        return memory;
     }
 
-    public List<LlvmValue> getOffset(String var) {
+    // índices do campo 'field' de uma estrutura apontada
+    private static List<LlvmValue> fieldOffset(int field) {
         List<LlvmValue> offsets = new LinkedList<LlvmValue>();
-        int count = 0;
-        for (LlvmValue v : this.varList) {
-            if (v.toString().equals(var)) {
-                break;
-            }
-            count++;
-        }
         offsets.add(new LlvmIntegerLiteral(0));
-        offsets.add(new LlvmIntegerLiteral(count));
+        offsets.add(new LlvmIntegerLiteral(field));
         return offsets;
     }
-}
-
-class MethodNode extends LlvmType {
-    private String name;
-    private List<LlvmValue> formalList;
-    private List<LlvmValue> varList;
-    Map<String, LlvmValue> formals;
-    Map<String, LlvmValue> vars;
-    LlvmType returnType;
-
-    public MethodNode(String name, List<LlvmValue> formalList,
-                      List<LlvmValue> varList, LlvmType returnType) {
-        super();
-        this.name = name;
-        this.formalList = formalList;
-        this.varList = varList;
-        this.returnType = returnType;
-
-        this.vars = new HashMap<String, LlvmValue>();
-        for (LlvmValue v : varList) {
-            this.vars.put(v.toString(), v);
-        }
-
-        this.formals = new HashMap<String, LlvmValue>();
-        for (LlvmValue f : formalList) {
-            this.formals.put(f.toString(), f);
-        }
-    }
 
-    public String getName() {
-        return this.name;
-    }
-
-    public List<LlvmValue> getFormalList() {
-        return this.formalList;
-    }
-
-    public List<LlvmValue> getVarList() {
-        return this.varList;
-    }
-
-    public boolean hasFormal(String formal) {
-        return this.formals.containsKey(formal);
-    }
-
-    public LlvmInstruction getFunctionDefinition(ClassNode classEnv) {
-        return new LlvmDefine(getFunctionName(classEnv), returnType, formalList);
-    }
-
-    public String getFunctionName(ClassNode classEnv) {
-        return "@__" + this.name + "_" + classEnv.getName();
+    public LlvmValue visit(Not n) {
+        LlvmValue v = n.exp.accept(this);
+        LlvmValue folded = folder.not(v);
+        if (folded != null)
+            return folded;
+        LlvmRegister lhs = context.newRegister(LlvmPrimitiveType.I1);
+        function.add(new LlvmIcmp(lhs, LlvmIcmp.EQ, LlvmPrimitiveType.I1, v, new LlvmBool(LlvmBool.FALSE)));
+        return lhs;
     }
 
-    public boolean hasLocalVariable(String var) {
-        return this.vars.containsKey(var);
+    public LlvmValue visit(Identifier n) {
+        return new LlvmNamedValue(n.s, LlvmPrimitiveType.I32);
     }
-
 }
-
-
-
-
@@ -0,0 +1,147 @@
+package llvm;
+
+import llvmast.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Avaliação em tempo de compilação das operações binárias
+ * (Plus, Minus, Times, LessThan e Equal).
+ * <p/>
+ * Quando os dois operandos são literais o resultado é calculado com a
+ * semântica de 'int' do Java (overflow em complemento de dois). Também
+ * aplica identidades como x+0, x*1 e x*0. Os operandos já foram
+ * avaliados pelo Codegen, então descartar um deles não perde efeitos
+ * colaterais.
+ * <p/>
+ * O && e o ! não passam por fold: o Codegen consulta constant() no
+ * operando da esquerda para decidir o desvio (false && x nem avalia x).
+ * <p/>
+ * Pode ser desligado; conta quantas instruções deixaram de ser emitidas.
+ */
+class ConstantFolder {
+    static final int PLUS = 0;
+    static final int MINUS = 1;
+    static final int TIMES = 2;
+    static final int LESS_THAN = 3;
+    static final int EQUAL = 4;
+
+    private boolean enabled = true;
+    // contadores compartilhados pelas threads da geração paralela
+    private final AtomicInteger removed = new AtomicInteger();
+    private final AtomicInteger reduced = new AtomicInteger();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // instruções que deixaram de ser emitidas
+    public int getRemoved() {
+        return removed.get();
+    }
+
+    // multiplicações trocadas por shift
+    public int getReduced() {
+        return reduced.get();
+    }
+
+    // Devolve o valor da operação se ela não precisar de instrução; senão null
+    public LlvmValue fold(int op, LlvmValue v1, LlvmValue v2) {
+        if (!enabled || v1 == null || v2 == null)
+            return null;
+        LlvmValue result = evaluate(op, v1, v2);
+        if (result != null)
+            removed.incrementAndGet();
+        return result;
+    }
+
+    private LlvmValue evaluate(int op, LlvmValue v1, LlvmValue v2) {
+        boolean literals = v1 instanceof LlvmIntegerLiteral && v2 instanceof LlvmIntegerLiteral;
+        switch (op) {
+            case PLUS:
+                if (literals)
+                    return new LlvmIntegerLiteral(intValue(v1) + intValue(v2));
+                if (isInt(v1, 0))
+                    return v2;
+                if (isInt(v2, 0))
+                    return v1;
+                return null;
+            case MINUS:
+                if (literals)
+                    return new LlvmIntegerLiteral(intValue(v1) - intValue(v2));
+                if (isInt(v2, 0))
+                    return v1;
+                if (LlvmInstruction.sameValue(v1, v2))
+                    return new LlvmIntegerLiteral(0);
+                return null;
+            case TIMES:
+                if (literals)
+                    return new LlvmIntegerLiteral(intValue(v1) * intValue(v2));
+                if (isInt(v1, 0) || isInt(v2, 0))
+                    return new LlvmIntegerLiteral(0);
+                if (isInt(v1, 1))
+                    return v2;
+                if (isInt(v2, 1))
+                    return v1;
+                return null;
+            case LESS_THAN:
+                if (literals)
+                    return bool(intValue(v1) < intValue(v2));
+                if (LlvmInstruction.sameValue(v1, v2))
+                    return bool(false);
+                return null;
+            case EQUAL:
+                if (literals)
+                    return bool(intValue(v1) == intValue(v2));
+                if (v1 instanceof LlvmBool && v2 instanceof LlvmBool)
+                    return bool(((LlvmBool) v1).val == ((LlvmBool) v2).val);
+                if (LlvmInstruction.sameValue(v1, v2))
+                    return bool(true);
+                return null;
+        }
+        return null;
+    }
+
+    // Se 'v' for um literal boolean, devolve ele; senão null (também com o folding desligado).
+    // Cada resposta conta como uma instrução que deixa de ser emitida.
+    public LlvmBool constant(LlvmValue v) {
+        if (!enabled || !(v instanceof LlvmBool))
+            return null;
+        removed.incrementAndGet();
+        return (LlvmBool) v;
+    }
+
+    // !v, se 'v' for literal; senão null
+    public LlvmValue not(LlvmValue v) {
+        LlvmBool b = constant(v);
+        return b == null ? null : bool(b.val == LlvmBool.FALSE);
+    }
+
+    // Se 'v' for literal potência de 2 (>= 2), devolve o expoente; senão -1.
+    // Usado para trocar x * 2^k por x << k.
+    public int shiftAmount(LlvmValue v) {
+        if (!enabled || !(v instanceof LlvmIntegerLiteral))
+            return -1;
+        int value = intValue(v);
+        if (value < 2 || Integer.bitCount(value) != 1)
+            return -1;
+        reduced.incrementAndGet();
+        return Integer.numberOfTrailingZeros(value);
+    }
+
+    private static int intValue(LlvmValue v) {
+        return ((LlvmIntegerLiteral) v).value;
+    }
+
+    private static boolean isInt(LlvmValue v, int value) {
+        return v instanceof LlvmIntegerLiteral && intValue(v) == value;
+    }
+
+    private static LlvmBool bool(boolean b) {
+        return new LlvmBool(b ? LlvmBool.TRUE : LlvmBool.FALSE);
+    }
+}
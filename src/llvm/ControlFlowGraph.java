@@ -0,0 +1,235 @@
+package llvm;
+
+import llvmast.*;
+
+import java.util.*;
+
+/**
+ * Grafo de fluxo de controle de uma função: os blocos, na ordem do
+ * código, montados pelo Function enquanto o Codegen gera a função.
+ * <p/>
+ * Cada bloco começa em um label e termina em um LlvmBranch ou LlvmRet.
+ * analyze() calcula as arestas a partir desses desvios, descarta os
+ * blocos inalcançáveis a partir da entrada e calcula a árvore de
+ * dominadores (Cooper, Harvey e Kennedy) e as fronteiras de dominância,
+ * usadas pelo Mem2Reg.
+ */
+class ControlFlowGraph {
+
+    static class BasicBlock {
+        LlvmLabelValue label;
+        List<LlvmInstruction> instructions = new ArrayList<LlvmInstruction>();
+        List<BasicBlock> predecessors = new ArrayList<BasicBlock>();
+        List<BasicBlock> successors = new ArrayList<BasicBlock>();
+
+        BasicBlock idom;
+        List<BasicBlock> children = new ArrayList<BasicBlock>();
+        Set<BasicBlock> frontier = new LinkedHashSet<BasicBlock>();
+        int order; // posição na pós-ordem reversa
+
+        BasicBlock(LlvmLabelValue label) {
+            this.label = label;
+        }
+
+        LlvmInstruction getTerminator() {
+            if (instructions.isEmpty())
+                return null;
+            LlvmInstruction last = instructions.get(instructions.size() - 1);
+            return isTerminator(last) ? last : null;
+        }
+
+        public String toString() {
+            return label.toString();
+        }
+    }
+
+    // blocos alcançáveis, na ordem do código; o primeiro é a entrada
+    List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+    // os mesmos blocos em pós-ordem reversa
+    List<BasicBlock> reversePostOrder;
+
+    // Recalcula arestas, blocos alcançáveis e dominadores depois de uma
+    // mudança nos desvios. Falha se um bloco não termina em desvio, se um
+    // label se repete ou se um desvio vai para um label que não existe.
+    void analyze() {
+        Map<String, BasicBlock> byName = new HashMap<String, BasicBlock>();
+        for (BasicBlock b : blocks) {
+            if (byName.put(b.label.value, b) != null)
+                throw new IllegalStateException("label repetido: " + b.label);
+            b.predecessors.clear();
+            b.successors.clear();
+            b.idom = null;
+            b.children.clear();
+            b.frontier.clear();
+        }
+
+        for (BasicBlock b : blocks) {
+            LlvmInstruction term = b.getTerminator();
+            if (term == null)
+                throw new IllegalStateException("bloco sem desvio no fim: " + b.label);
+            if (term instanceof LlvmBranch) {
+                LlvmBranch br = (LlvmBranch) term;
+                for (LlvmLabelValue target : br.cond == null ? Arrays.asList(br.ifTrue) : Arrays.asList(br.ifTrue, br.ifFalse)) {
+                    BasicBlock succ = byName.get(target.value);
+                    if (succ == null)
+                        throw new IllegalStateException("desvio para um label que não existe: " + target);
+                    if (!b.successors.contains(succ)) {
+                        b.successors.add(succ);
+                        succ.predecessors.add(b);
+                    }
+                }
+            }
+        }
+
+        reversePostOrder = reversePostOrder(blocks.get(0));
+
+        // descarta os blocos inalcançáveis e as arestas que saem deles
+        Set<BasicBlock> reachable = new HashSet<BasicBlock>(reversePostOrder);
+        blocks.retainAll(reachable);
+        Set<String> labels = new HashSet<String>();
+        for (BasicBlock b : blocks) {
+            b.predecessors.retainAll(reachable);
+            labels.add(b.label.value);
+        }
+        // os phis perdem as entradas desses blocos
+        for (BasicBlock b : blocks)
+            for (LlvmInstruction instr : b.instructions)
+                if (instr instanceof LlvmPhi) {
+                    LlvmPhi phi = (LlvmPhi) instr;
+                    for (int i = phi.labels.size() - 1; i >= 0; i--)
+                        if (!labels.contains(phi.labels.get(i).value)) {
+                            phi.labels.remove(i);
+                            phi.values.remove(i);
+                        }
+                }
+
+        computeDominators();
+        computeFrontiers();
+    }
+
+    static boolean isTerminator(LlvmInstruction instr) {
+        return instr instanceof LlvmBranch || instr instanceof LlvmRet;
+    }
+
+    // Blocos do laço natural cujo cabeçalho é 'header' (os que alcançam uma
+    // aresta de volta sem passar pelo cabeçalho), ou null se não for cabeçalho
+    static Set<BasicBlock> loopBody(BasicBlock header) {
+        Set<BasicBlock> body = null;
+        for (BasicBlock latch : header.predecessors) {
+            if (!dominates(header, latch))
+                continue;
+            if (body == null) {
+                body = new HashSet<BasicBlock>();
+                body.add(header);
+            }
+            Deque<BasicBlock> work = new ArrayDeque<BasicBlock>();
+            if (body.add(latch))
+                work.add(latch);
+            while (!work.isEmpty())
+                for (BasicBlock p : work.poll().predecessors)
+                    if (body.add(p))
+                        work.add(p);
+        }
+        return body;
+    }
+
+    // Único predecessor de fora do laço, que só desvia para o cabeçalho, ou null
+    static BasicBlock preheader(BasicBlock header, Set<BasicBlock> body) {
+        BasicBlock preheader = null;
+        for (BasicBlock p : header.predecessors) {
+            if (body.contains(p))
+                continue;
+            if (preheader != null)
+                return null;
+            preheader = p;
+        }
+        return preheader != null && preheader.successors.size() == 1 ? preheader : null;
+    }
+
+    static boolean dominates(BasicBlock a, BasicBlock b) {
+        for (BasicBlock d = b; ; d = d.idom) {
+            if (d == a)
+                return true;
+            if (d == d.idom)
+                return false;
+        }
+    }
+
+    private static List<BasicBlock> reversePostOrder(BasicBlock entry) {
+        List<BasicBlock> post = new ArrayList<BasicBlock>();
+        Set<BasicBlock> visited = new HashSet<BasicBlock>();
+        Deque<BasicBlock> stack = new ArrayDeque<BasicBlock>();
+        Deque<Iterator<BasicBlock>> iterators = new ArrayDeque<Iterator<BasicBlock>>();
+
+        visited.add(entry);
+        stack.push(entry);
+        iterators.push(entry.successors.iterator());
+        while (!stack.isEmpty()) {
+            Iterator<BasicBlock> it = iterators.peek();
+            if (it.hasNext()) {
+                BasicBlock succ = it.next();
+                if (visited.add(succ)) {
+                    stack.push(succ);
+                    iterators.push(succ.successors.iterator());
+                }
+            } else {
+                post.add(stack.pop());
+                iterators.pop();
+            }
+        }
+
+        Collections.reverse(post);
+        for (int i = 0; i < post.size(); i++)
+            post.get(i).order = i;
+        return post;
+    }
+
+    private void computeDominators() {
+        BasicBlock entry = blocks.get(0);
+        entry.idom = entry;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock b : reversePostOrder) {
+                if (b == entry)
+                    continue;
+                BasicBlock newIdom = null;
+                for (BasicBlock p : b.predecessors) {
+                    if (p.idom == null)
+                        continue;
+                    newIdom = newIdom == null ? p : intersect(p, newIdom);
+                }
+                if (newIdom != b.idom) {
+                    b.idom = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        for (BasicBlock b : blocks)
+            if (b != entry)
+                b.idom.children.add(b);
+    }
+
+    private static BasicBlock intersect(BasicBlock a, BasicBlock b) {
+        while (a != b) {
+            while (a.order > b.order)
+                a = a.idom;
+            while (b.order > a.order)
+                b = b.idom;
+        }
+        return a;
+    }
+
+    private void computeFrontiers() {
+        for (BasicBlock b : blocks) {
+            if (b.predecessors.size() < 2)
+                continue;
+            for (BasicBlock p : b.predecessors) {
+                for (BasicBlock runner = p; runner != b.idom; runner = runner.idom)
+                    runner.frontier.add(b);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package llvm;
+
+import llvm.ControlFlowGraph.BasicBlock;
+import llvmast.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Análise de escape dos objetos criados com 'new', com substituição dos
+ * que não escapam por variáveis escalares.
+ * <p/>
+ * Roda depois do inlining, que é quando os métodos chamados em um objeto
+ * recém-criado (new A().get()) viram acessos diretos aos atributos. A
+ * análise é só dentro da função: um objeto não escapa quando todos os
+ * usos do ponteiro são getelementptr de um atributo (índices constantes,
+ * ver FieldLayout) e cada endereço desses só é usado por load e store,
+ * nunca como valor guardado. Qualquer outro uso (argumento de chamada,
+ * phi, ret, store do próprio ponteiro, comparação) conta como escape.
+ * <p/>
+ * Cada atributo usado de um objeto que não escapa vira um alloca na
+ * entrada, zerado no ponto da alocação (como o coletor e a arena
+ * entregam a memória), e o Mem2Reg transforma esses allocas em valores
+ * SSA; a alocação some. Com -farena a alocação tem caminho rápido e
+ * lento no próprio IR e fica como está.
+ */
+class EscapeAnalysis {
+    // o que fica sem uso depois da troca: endereços e conversões
+    private static final Set<Class<? extends LlvmInstruction>> DEAD = new HashSet<Class<? extends LlvmInstruction>>(
+            Arrays.<Class<? extends LlvmInstruction>>asList(LlvmBitcast.class, LlvmGetElementPointer.class));
+
+    private boolean enabled = true;
+    private final AtomicInteger eliminated = new AtomicInteger();
+    // alocações eliminadas por função, na ordem em que apareceram
+    private final Map<String, Integer> perFunction = new LinkedHashMap<String, Integer>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getEliminated() {
+        return eliminated.get();
+    }
+
+    // Função -> alocações eliminadas nela (só as que tiveram alguma)
+    public Map<String, Integer> getEliminatedPerFunction() {
+        synchronized (perFunction) {
+            return new LinkedHashMap<String, Integer>(perFunction);
+        }
+    }
+
+    void run(Module module) {
+        if (!enabled)
+            return;
+        new FunctionPass() {
+            protected void apply(Function f) {
+                optimize(f);
+            }
+        }.run(module);
+    }
+
+    private void optimize(Function f) {
+        boolean allocates = false;
+        for (BasicBlock b : f.getBlocks())
+            for (LlvmInstruction instr : b.instructions)
+                if (instr instanceof LlvmMalloc || isGcAlloc(instr))
+                    allocates = true;
+        if (!allocates)
+            return;
+
+        int n = 0;
+        for (BasicBlock b : f.getBlocks())
+            for (LlvmInstruction instr : new ArrayList<LlvmInstruction>(b.instructions)) {
+                LlvmValue object = allocatedObject(f, instr);
+                if (object != null && !escapes(f, object)) {
+                    replace(f, instr, object);
+                    n++;
+                }
+            }
+        if (n == 0)
+            return;
+
+        eliminated.addAndGet(n);
+        synchronized (perFunction) {
+            perFunction.put(f.getName(), n);
+        }
+        // os allocas dos atributos viram valores SSA; sobram os bitcasts da vtable
+        Mem2Reg.promote(f);
+        f.removeDead(DEAD);
+    }
+
+    private static boolean isGcAlloc(LlvmInstruction instr) {
+        return instr instanceof LlvmCall && ((LlvmCall) instr).getFunctionName().equals(ShadowStack.GC_ALLOC);
+    }
+
+    // Objeto criado por 'instr' (malloc, ou bitcast do gcAlloc), ou null
+    private static LlvmValue allocatedObject(Function f, LlvmInstruction instr) {
+        if (instr instanceof LlvmMalloc && ((LlvmMalloc) instr).type instanceof LlvmStructure)
+            return instr.getDefinition();
+        if (instr instanceof LlvmBitcast) {
+            LlvmBitcast cast = (LlvmBitcast) instr;
+            LlvmInstruction source = f.definition(cast.source);
+            if (isGcAlloc(source) && f.users(cast.source).size() == 1 && isObjectType(cast.lhs.type))
+                return cast.lhs;
+        }
+        return null;
+    }
+
+    private static boolean isObjectType(LlvmType type) {
+        return type instanceof LlvmPointer && ((LlvmPointer) type).content instanceof LlvmClassType;
+    }
+
+    private static boolean escapes(Function f, LlvmValue object) {
+        for (LlvmInstruction user : f.users(object)) {
+            if (!(user instanceof LlvmGetElementPointer))
+                return true;
+            LlvmGetElementPointer gep = (LlvmGetElementPointer) user;
+            if (!LlvmInstruction.sameValue(gep.source, object) || gep.offsets.size() != 2)
+                return true;
+            for (LlvmValue offset : gep.offsets)
+                if (!(offset instanceof LlvmIntegerLiteral))
+                    return true;
+            for (LlvmInstruction access : f.users(gep.lhs)) {
+                if (access instanceof LlvmLoad)
+                    continue;
+                if (access instanceof LlvmStore && !LlvmInstruction.sameValue(((LlvmStore) access).content, gep.lhs))
+                    continue;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Troca os atributos de 'object' por allocas e tira a alocação 'instr'
+    private static void replace(Function f, LlvmInstruction instr, LlvmValue object) {
+        BasicBlock at = f.block(instr);
+        int position = at.instructions.indexOf(instr) + 1;
+        Map<String, LlvmRegister> fields = new TreeMap<String, LlvmRegister>();
+        for (LlvmInstruction user : new ArrayList<LlvmInstruction>(f.users(object))) {
+            LlvmGetElementPointer gep = (LlvmGetElementPointer) user;
+            String index = gep.offsets.get(1).toString();
+            LlvmRegister slot = fields.get(index);
+            if (slot == null) {
+                LlvmType type = ((LlvmPointer) gep.lhs.type).content;
+                slot = new LlvmRegister(object + ".field" + index, gep.lhs.type);
+                fields.put(index, slot);
+                f.insert(f.getEntry(), 0, new LlvmAlloca(slot, type, new ArrayList<LlvmValue>()));
+                if (at == f.getEntry())
+                    position++;
+                f.insert(at, position++, new LlvmStore(zero(type), slot));
+            }
+            f.replaceAllUses(gep.lhs, slot);
+            f.remove(gep);
+        }
+
+        f.remove(instr);
+        if (instr instanceof LlvmBitcast) {
+            // o gcAlloc e o mapa de ponteiros da classe
+            LlvmInstruction call = f.definition(((LlvmBitcast) instr).source);
+            List<LlvmValue> args = new ArrayList<LlvmValue>(call.getOperands());
+            f.remove(call);
+            for (LlvmValue arg : args) {
+                LlvmInstruction def = f.definition(arg);
+                if (def instanceof LlvmBitcast && f.unused(def))
+                    f.remove(def);
+            }
+        }
+    }
+
+    private static LlvmValue zero(LlvmType type) {
+        if (type instanceof LlvmPointer)
+            return new LlvmNamedValue("null", type);
+        if (type == LlvmPrimitiveType.I1)
+            return new LlvmBool(LlvmBool.FALSE);
+        LlvmIntegerLiteral zero = new LlvmIntegerLiteral(0);
+        zero.type = type;
+        return zero;
+    }
+}
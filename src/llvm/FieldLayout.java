@@ -0,0 +1,137 @@
+package llvm;
+
+import llvmast.*;
+
+import java.util.*;
+
+/**
+ * Posição dos atributos de uma classe na sua estrutura.
+ * <p/>
+ * A estrutura começa com o cabeçalho (vtable) e os atributos da
+ * superclasse, nas mesmas posições que têm na estrutura dela, para que os
+ * métodos herdados continuem valendo para um objeto da subclasse. Os
+ * atributos próprios vêm depois e, com 'reorder', são reordenados para
+ * não deixar buracos de alinhamento: a cada passo entra o atributo de
+ * maior alinhamento que começa exatamente na posição atual, e só quando
+ * nenhum começa sem preenchimento entra o maior que restou. Os empates
+ * ficam na ordem da declaração.
+ * <p/>
+ * Com 'packBooleans' os atributos boolean próprios da classe dividem
+ * palavras i8, um bit para cada (até 8 por palavra), em vez de um byte
+ * cada. Quem lê e escreve esses atributos precisa usar o bit (ver
+ * Codegen.visit(IdentifierExp) e visit(Assign)).
+ * <p/>
+ * O índice 'slots' é montado uma vez, na tabela de símbolos, e não muda
+ * mais: inclui os atributos herdados e guarda a lista de índices do
+ * getelementptr de cada atributo, que todos os acessos compartilham.
+ */
+class FieldLayout {
+    // palavra que guarda os atributos boolean empacotados
+    static final LlvmType BOOLEAN_WORD = LlvmPrimitiveType.I8;
+    private static final int WORD_BITS = 8;
+
+    // Posição de um atributo: índice na estrutura, tipo do campo e, para um
+    // boolean empacotado, o bit na palavra (senão -1)
+    static class Slot {
+        final int index;
+        final int bit;
+        final LlvmType type;
+        final List<LlvmValue> offsets;  // i32 0, i32 index (imutável)
+
+        Slot(int index, int bit, LlvmType type) {
+            this.index = index;
+            this.bit = bit;
+            this.type = type;
+            this.offsets = Collections.unmodifiableList(Arrays.<LlvmValue>asList(
+                    new LlvmIntegerLiteral(0), new LlvmIntegerLiteral(index)));
+        }
+    }
+
+    // campo ainda sem posição: um atributo ou uma palavra de booleans
+    private static class Field {
+        final LlvmType type;
+        final boolean packed;
+        final List<String> names = new ArrayList<String>();
+
+        Field(LlvmType type, boolean packed) {
+            this.type = type;
+            this.packed = packed;
+        }
+    }
+
+    final List<LlvmType> types = new ArrayList<LlvmType>();
+    final Map<String, Slot> slots;
+
+    FieldLayout(FieldLayout parent, LlvmType header, List<LlvmValue> ownVars, boolean reorder, boolean packBooleans) {
+        Map<String, Slot> slots = new HashMap<String, Slot>();
+        if (parent == null) {
+            types.add(header);
+        } else {
+            types.addAll(parent.types);
+            slots.putAll(parent.slots);
+        }
+
+        List<Field> fields = new ArrayList<Field>();
+        Field word = null;
+        for (LlvmValue v : ownVars) {
+            if (packBooleans && v.type == LlvmPrimitiveType.I1) {
+                if (word == null || word.names.size() == WORD_BITS) {
+                    word = new Field(BOOLEAN_WORD, true);
+                    fields.add(word);
+                }
+                word.names.add(v.toString());
+            } else {
+                Field f = new Field(v.type, false);
+                f.names.add(v.toString());
+                fields.add(f);
+            }
+        }
+
+        // campos por alinhamento, do maior para o menor, cada fila na ordem da declaração
+        TreeMap<Integer, Deque<Field>> byAlignment = new TreeMap<Integer, Deque<Field>>(Collections.<Integer>reverseOrder());
+        for (Field f : fields) {
+            int alignment = reorder ? LlvmStructure.alignmentOf(f.type) : 1;
+            if (!byAlignment.containsKey(alignment))
+                byAlignment.put(alignment, new ArrayDeque<Field>());
+            byAlignment.get(alignment).add(f);
+        }
+
+        // os atributos próprios podem ocupar o preenchimento do fim da superclasse
+        int offset = end(types);
+        while (!byAlignment.isEmpty()) {
+            Field f = next(byAlignment, offset);
+            offset = LlvmStructure.align(offset, LlvmStructure.alignmentOf(f.type)) + LlvmStructure.sizeOf(f.type);
+
+            int index = types.size();
+            types.add(f.type);
+            for (int bit = 0; bit < f.names.size(); bit++)
+                // um atributo da subclasse esconde o de mesmo nome da superclasse
+                slots.put(f.names.get(bit), new Slot(index, f.packed ? bit : -1, f.type));
+        }
+        this.slots = Collections.unmodifiableMap(slots);
+    }
+
+    // Tira o próximo campo a partir de 'offset': o de maior alinhamento que não
+    // precisa de preenchimento ou, se nenhum, o de maior alinhamento
+    private static Field next(TreeMap<Integer, Deque<Field>> byAlignment, int offset) {
+        Map.Entry<Integer, Deque<Field>> chosen = byAlignment.firstEntry();
+        for (Map.Entry<Integer, Deque<Field>> e : byAlignment.entrySet()) {
+            if (offset % e.getKey() == 0) {
+                chosen = e;
+                break;
+            }
+        }
+        Field f = chosen.getValue().poll();
+        if (chosen.getValue().isEmpty())
+            byAlignment.remove(chosen.getKey());
+        return f;
+    }
+
+    // Fim do último campo, antes do preenchimento que arredonda o tamanho da estrutura
+    private static int end(List<LlvmType> types) {
+        int end = 0;
+        for (LlvmType t : types)
+            end = LlvmStructure.align(end, LlvmStructure.alignmentOf(t)) + LlvmStructure.sizeOf(t);
+        return end;
+    }
+}
@@ -0,0 +1,285 @@
+package llvm;
+
+import llvm.ControlFlowGraph.BasicBlock;
+import llvmast.*;
+
+import java.util.*;
+
+/**
+ * Uma função como grafo: o LlvmDefine, os blocos do ControlFlowGraph, o
+ * bloco de cada instrução e, para cada registrador, a instrução que o
+ * define (use-def) e as que o usam (def-use).
+ * <p/>
+ * O Codegen monta o grafo enquanto gera a função (startBlock e add) e o
+ * fecha com finish(); daí até a emissão todos os passos trabalham nele,
+ * sem voltar a uma lista. As alterações feitas por aqui mantêm as
+ * cadeias certas. Um passo que mexe direto nas instruções ou nos blocos
+ * (replaceOperand da instrução, listas dos blocos, desvios) chama
+ * update() no fim, que recalcula o CFG e as cadeias.
+ * <p/>
+ * Registradores são identificados pelo nome, como em
+ * LlvmInstruction.sameValue. Os parâmetros não têm definição nem bloco.
+ */
+final class Function {
+    final LlvmDefine define;
+    final ControlFlowGraph cfg = new ControlFlowGraph();
+
+    private final Map<String, LlvmInstruction> defs = new HashMap<String, LlvmInstruction>();
+    private final Map<LlvmInstruction, BasicBlock> blocks = new IdentityHashMap<LlvmInstruction, BasicBlock>();
+    // um usuário aparece uma vez para cada operando que lê o registrador
+    private final Map<String, List<LlvmInstruction>> users = new HashMap<String, List<LlvmInstruction>>();
+
+    Function(LlvmDefine define) {
+        this.define = define;
+    }
+
+    String getName() {
+        return define.name;
+    }
+
+    List<BasicBlock> getBlocks() {
+        return cfg.blocks;
+    }
+
+    BasicBlock getEntry() {
+        return cfg.blocks.get(0);
+    }
+
+    // ---- construção ----
+
+    // Abre um bloco novo no fim da função; o anterior, se não terminou em
+    // um desvio, cai nele (ganha um 'br label' explícito)
+    void startBlock(LlvmLabelValue label) {
+        BasicBlock last = getLastBlock();
+        if (last != null && last.getTerminator() == null)
+            last.instructions.add(new LlvmBranch(label));
+        cfg.blocks.add(new BasicBlock(label));
+    }
+
+    // Acrescenta 'instr' no fim do último bloco aberto
+    void add(LlvmInstruction instr) {
+        BasicBlock last = getLastBlock();
+        if (last == null || last.getTerminator() != null)
+            throw new IllegalStateException("instrução fora de um bloco em " + define.name + ": " + instr);
+        last.instructions.add(instr);
+    }
+
+    // Bloco aberto por último (onde o Codegen está emitindo), ou null
+    BasicBlock getLastBlock() {
+        return cfg.blocks.isEmpty() ? null : cfg.blocks.get(cfg.blocks.size() - 1);
+    }
+
+    // Fim da geração: calcula o CFG e as cadeias
+    void finish() {
+        update();
+    }
+
+    // Recalcula o CFG (arestas, blocos alcançáveis, dominadores) e as cadeias
+    void update() {
+        cfg.analyze();
+        defs.clear();
+        blocks.clear();
+        users.clear();
+        for (BasicBlock b : cfg.blocks)
+            for (LlvmInstruction instr : b.instructions)
+                link(instr, b);
+    }
+
+    // Instruções fora dos labels
+    int size() {
+        int size = 0;
+        for (BasicBlock b : cfg.blocks)
+            size += b.instructions.size();
+        return size;
+    }
+
+    // Acrescenta a 'out' o texto da função: define, labels, instruções e '}'
+    void toList(List<LlvmInstruction> out) {
+        out.add(define);
+        for (BasicBlock b : cfg.blocks) {
+            out.add(new LlvmLabel(b.label));
+            out.addAll(b.instructions);
+        }
+        out.add(new LlvmCloseDefinition());
+    }
+
+    // ---- consultas ----
+
+    // Instrução que define 'v', ou null (constante, parâmetro, global)
+    LlvmInstruction definition(LlvmValue v) {
+        return v instanceof LlvmRegister ? defs.get(v.toString()) : null;
+    }
+
+    // Bloco onde 'v' é definido, ou null se vem de fora da função
+    BasicBlock block(LlvmValue v) {
+        LlvmInstruction def = definition(v);
+        return def == null ? null : blocks.get(def);
+    }
+
+    BasicBlock block(LlvmInstruction instr) {
+        return blocks.get(instr);
+    }
+
+    // Instruções que leem 'v' (lista somente leitura, com repetições)
+    List<LlvmInstruction> users(LlvmValue v) {
+        List<LlvmInstruction> list = v instanceof LlvmRegister ? users.get(v.toString()) : null;
+        return list == null ? Collections.<LlvmInstruction>emptyList() : Collections.unmodifiableList(list);
+    }
+
+    // A instrução define um registrador que ninguém lê?
+    boolean unused(LlvmInstruction instr) {
+        LlvmValue def = instr.getDefinition();
+        return def instanceof LlvmRegister && users(def).isEmpty();
+    }
+
+    // ---- alterações ----
+
+    // Insere 'instr' na posição 'index' de 'b'
+    void insert(BasicBlock b, int index, LlvmInstruction instr) {
+        b.instructions.add(index, instr);
+        link(instr, b);
+    }
+
+    // Insere 'instr' no fim de 'b', antes do desvio
+    void append(BasicBlock b, LlvmInstruction instr) {
+        insert(b, b.instructions.size() - 1, instr);
+    }
+
+    // Tira 'instr' da função; os usos do registrador que ela define ficam com quem chamou
+    void remove(LlvmInstruction instr) {
+        BasicBlock b = blocks.remove(instr);
+        if (b == null)
+            return;
+        b.instructions.remove(instr);
+        LlvmValue def = instr.getDefinition();
+        if (def instanceof LlvmRegister && defs.get(def.toString()) == instr)
+            defs.remove(def.toString());
+        for (LlvmValue op : instr.getOperands())
+            if (op instanceof LlvmRegister) {
+                List<LlvmInstruction> list = users.get(op.toString());
+                removeIdentical(list, instr);
+            }
+    }
+
+    // Leva 'instr' para o fim de 'b', antes do desvio
+    void move(LlvmInstruction instr, BasicBlock b) {
+        BasicBlock from = blocks.get(instr);
+        from.instructions.remove(instr);
+        b.instructions.add(b.instructions.size() - 1, instr);
+        blocks.put(instr, b);
+    }
+
+    // Divide 'b' antes da posição 'index': o resto vai para um bloco novo
+    // logo depois dele, e 'b' termina desviando para lá. Os phis dos
+    // sucessores passam a nomear o bloco novo; as arestas acompanham, mas
+    // os dominadores não são recalculados.
+    BasicBlock split(BasicBlock b, int index, LlvmLabelValue label) {
+        BasicBlock next = new BasicBlock(label);
+        List<LlvmInstruction> tail = b.instructions.subList(index, b.instructions.size());
+        next.instructions.addAll(tail);
+        tail.clear();
+        for (LlvmInstruction instr : next.instructions)
+            blocks.put(instr, next);
+
+        for (BasicBlock succ : b.successors) {
+            for (LlvmInstruction instr : succ.instructions)
+                if (instr instanceof LlvmPhi) {
+                    List<LlvmLabelValue> labels = ((LlvmPhi) instr).labels;
+                    for (int i = 0; i < labels.size(); i++)
+                        if (labels.get(i).value.equals(b.label.value))
+                            labels.set(i, label);
+                }
+            succ.predecessors.set(succ.predecessors.indexOf(b), next);
+        }
+        next.successors.addAll(b.successors);
+        next.predecessors.add(b);
+        b.successors.clear();
+        b.successors.add(next);
+        insert(b, b.instructions.size(), new LlvmBranch(label));
+        cfg.blocks.add(cfg.blocks.indexOf(b) + 1, next);
+        return next;
+    }
+
+    // Troca, em 'instr', os usos de 'from' por 'to'
+    void replaceOperand(LlvmInstruction instr, LlvmValue from, LlvmValue to) {
+        int n = 0;
+        for (LlvmValue op : instr.getOperands())
+            if (LlvmInstruction.sameValue(op, from))
+                n++;
+        if (n == 0)
+            return;
+        instr.replaceOperand(from, to);
+        List<LlvmInstruction> old = users.get(from.toString());
+        for (int i = 0; i < n; i++)
+            removeIdentical(old, instr);
+        if (to instanceof LlvmRegister)
+            for (int i = 0; i < n; i++)
+                usersOf(to.toString()).add(instr);
+    }
+
+    // Troca todos os usos de 'from' por 'to'
+    void replaceAllUses(LlvmValue from, LlvmValue to) {
+        if (!(from instanceof LlvmRegister) || LlvmInstruction.sameValue(from, to))
+            return;
+        List<LlvmInstruction> list = users.get(from.toString());
+        if (list == null)
+            return;
+        for (LlvmInstruction user : new ArrayList<LlvmInstruction>(new LinkedHashSet<LlvmInstruction>(list)))
+            replaceOperand(user, from, to);
+    }
+
+    // Tira as instruções sem uso que 'removable' aceita, e as que ficam sem uso depois delas
+    int removeDead(Set<Class<? extends LlvmInstruction>> removable) {
+        Deque<LlvmInstruction> work = new ArrayDeque<LlvmInstruction>();
+        for (BasicBlock b : cfg.blocks)
+            for (LlvmInstruction instr : b.instructions)
+                if (removable.contains(instr.getClass()) && unused(instr))
+                    work.add(instr);
+
+        int removed = 0;
+        while (!work.isEmpty()) {
+            LlvmInstruction instr = work.poll();
+            if (!blocks.containsKey(instr) || !unused(instr))
+                continue;
+            List<LlvmValue> operands = new ArrayList<LlvmValue>(instr.getOperands());
+            remove(instr);
+            removed++;
+            for (LlvmValue op : operands) {
+                LlvmInstruction def = definition(op);
+                if (def != null && removable.contains(def.getClass()) && unused(def))
+                    work.add(def);
+            }
+        }
+        return removed;
+    }
+
+    private void link(LlvmInstruction instr, BasicBlock b) {
+        blocks.put(instr, b);
+        LlvmValue def = instr.getDefinition();
+        if (def instanceof LlvmRegister)
+            defs.put(def.toString(), instr);
+        for (LlvmValue op : instr.getOperands())
+            if (op instanceof LlvmRegister)
+                usersOf(op.toString()).add(instr);
+    }
+
+    private List<LlvmInstruction> usersOf(String name) {
+        List<LlvmInstruction> list = users.get(name);
+        if (list == null) {
+            list = new ArrayList<LlvmInstruction>();
+            users.put(name, list);
+        }
+        return list;
+    }
+
+    // remove pela identidade: instruções diferentes podem ter o mesmo texto
+    private static void removeIdentical(List<LlvmInstruction> list, LlvmInstruction instr) {
+        if (list == null)
+            return;
+        for (int i = 0; i < list.size(); i++)
+            if (list.get(i) == instr) {
+                list.remove(i);
+                return;
+            }
+    }
+}
@@ -0,0 +1,32 @@
+package llvm;
+
+import llvmast.LlvmLabelValue;
+import llvmast.LlvmRegister;
+import llvmast.LlvmType;
+
+/**
+ * Nomes gerados dentro de uma função: registradores temporários e labels.
+ * <p/>
+ * O Codegen cria um contexto no início do main e de cada método, então a
+ * numeração é densa (%tmp0, %tmp1, ...) e não depende do que foi gerado
+ * antes. Como nada é estático, o compilador pode gerar várias funções ao
+ * mesmo tempo e ser chamado várias vezes na mesma JVM.
+ */
+class FunctionContext {
+    private int registers;
+    private int labels;
+
+    // Novo registrador temporário do tipo dado
+    LlvmRegister newRegister(LlvmType type) {
+        return new LlvmRegister("%tmp" + registers++, type);
+    }
+
+    // Número para um grupo de labels de um mesmo comando (ifLabel3, elseLabel3, endLabel3)
+    int newLabelGroup() {
+        return labels++;
+    }
+
+    LlvmLabelValue label(String prefix, int group) {
+        return new LlvmLabelValue(prefix + group);
+    }
+}
@@ -0,0 +1,18 @@
+package llvm;
+
+/**
+ * Passo de otimização aplicado a cada função do módulo, isoladamente.
+ * <p/>
+ * O passo altera o grafo da função (Function) no lugar; as declarações
+ * globais do módulo não são vistas.
+ */
+abstract class FunctionPass {
+
+    protected abstract void apply(Function f);
+
+    // Aplica o passo em todas as funções do módulo
+    void run(Module module) {
+        for (Function f : module.getFunctions())
+            apply(f);
+    }
+}
@@ -0,0 +1,220 @@
+package llvm;
+
+import llvm.ControlFlowGraph.BasicBlock;
+import llvmast.*;
+
+import java.util.*;
+
+/**
+ * Expansão em linha (inlining) das chamadas diretas a métodos folha.
+ * <p/>
+ * Roda sobre o módulo inteiro, depois do Mem2Reg e da remoção das
+ * verificações de limite, porque o método chamado pode ser de outra
+ * classe. O grafo de chamadas sai das instruções LlvmCall de cada
+ * função; os candidatos são os métodos da tabela de símbolos que:
+ * - são folha: não chamam nenhum método, só o runtime;
+ * - têm no máximo 'budget' instruções (labels não contam);
+ * - têm um único 'ret' e nenhum alloca.
+ * <p/>
+ * Só as chamadas desvirtualizadas (call @__m_C, ver Codegen.visit(Call))
+ * são expandidas; as que passam pela vtable chamam um registrador e não
+ * têm destino conhecido. Na expansão, o bloco do chamador é dividido na
+ * chamada (Function.split): os blocos do método são copiados entre os
+ * dois pedaços, com registradores e labels renomeados (sufixo .callN),
+ * os parâmetros viram os argumentos, o 'ret' vira um desvio para o
+ * pedaço de baixo (return.callN) e os usos do resultado passam a usar o
+ * valor retornado. Os phis que citavam o bloco dividido passam a citar o
+ * último pedaço dele.
+ * <p/>
+ * O método continua no módulo, porque a vtable ainda aponta para ele.
+ */
+class Inliner {
+    static final int DEFAULT_BUDGET = 12;
+
+    private int budget = DEFAULT_BUDGET;
+    private int inlined;
+    private int sizeBefore;
+    private int sizeAfter;
+
+    // Tamanho máximo, em instruções, de um método expandido (0 desliga o inlining)
+    public int getBudget() {
+        return budget;
+    }
+
+    public void setBudget(int budget) {
+        this.budget = budget;
+    }
+
+    // Chamadas expandidas
+    public int getInlined() {
+        return inlined;
+    }
+
+    // Instruções do módulo antes e depois do inlining
+    public int getSizeBefore() {
+        return sizeBefore;
+    }
+
+    public int getSizeAfter() {
+        return sizeAfter;
+    }
+
+    void run(Module module, SymTab symTab) {
+        runParts(Collections.singletonList(module), symTab);
+    }
+
+    // Expande as chamadas em cada parte do módulo; os métodos expandidos podem
+    // vir de qualquer parte. No modo incremental (ver IrCache) as partes são só
+    // as classes regeneradas e as que elas chamam diretamente.
+    void runParts(List<Module> parts, SymTab symTab) {
+        int size = 0;
+        for (Module part : parts)
+            size += part.size();
+        sizeBefore += size;
+        if (budget <= 0) {
+            sizeAfter += size;
+            return;
+        }
+
+        final Map<String, Function> leaves = findLeaves(parts, symTab);
+        for (Module part : parts) {
+            if (!leaves.isEmpty()) {
+                new FunctionPass() {
+                    protected void apply(Function f) {
+                        inline(f, leaves);
+                    }
+                }.run(part);
+            }
+            sizeAfter += part.size();
+        }
+    }
+
+    // Métodos da tabela de símbolos que podem ser expandidos, pelo nome da função
+    private Map<String, Function> findLeaves(List<Module> parts, SymTab symTab) {
+        Set<String> methods = new HashSet<String>();
+        for (ClassNode c : symTab.classes.values())
+            for (MethodNode m : c.methodList)
+                methods.add(m.getFunctionName());
+
+        // todas as funções do módulo
+        Map<String, Function> functions = new HashMap<String, Function>();
+        for (Module part : parts)
+            for (Function f : part.getFunctions())
+                functions.put(f.getName(), f);
+
+        Map<String, Function> leaves = new HashMap<String, Function>();
+        for (Function f : functions.values())
+            if (methods.contains(f.getName()) && canInline(f, methods, functions))
+                leaves.put(f.getName(), f);
+        return leaves;
+    }
+
+    private boolean canInline(Function f, Set<String> methods, Map<String, Function> functions) {
+        int size = 0;
+        int returns = 0;
+        for (BasicBlock b : f.getBlocks())
+            for (LlvmInstruction instr : b.instructions) {
+                size++;
+                if (instr instanceof LlvmRet) {
+                    returns++;
+                } else if (instr instanceof LlvmCall) {
+                    // chamada pela vtable ou para outra função do módulo: não é folha
+                    String name = ((LlvmCall) instr).getFunctionName();
+                    if (!name.startsWith("@") || methods.contains(name) || functions.containsKey(name))
+                        return false;
+                } else if (instr instanceof LlvmAlloca || instr.copy(IDENTITY) == null) {
+                    return false;
+                }
+            }
+        return returns == 1 && size <= budget;
+    }
+
+    // Expande as chamadas a 'leaves' no corpo de uma função
+    private void inline(Function f, Map<String, Function> leaves) {
+        int sites = 0;
+        for (BasicBlock block : new ArrayList<BasicBlock>(f.getBlocks())) {
+            BasicBlock b = block;
+            int i = 0;
+            while (i < b.instructions.size()) {
+                LlvmInstruction instr = b.instructions.get(i);
+                Function callee = instr instanceof LlvmCall ? leaves.get(((LlvmCall) instr).getFunctionName()) : null;
+                if (callee == null) {
+                    i++;
+                    continue;
+                }
+                // o resto do bloco continua no pedaço de baixo
+                b = expand(f, b, i, (LlvmCall) instr, callee, ".call" + sites++);
+                i = 0;
+                inlined++;
+            }
+        }
+        // as arestas dos blocos copiados e os dominadores
+        if (sites > 0)
+            f.update();
+    }
+
+    // Copia o corpo de 'callee' no lugar da chamada 'call', a instrução 'index'
+    // de 'b'; devolve o bloco com o que vinha depois da chamada
+    private BasicBlock expand(Function f, BasicBlock b, int index, LlvmCall call, Function callee,
+                              final String suffix) {
+        final Map<String, LlvmValue> values = new HashMap<String, LlvmValue>();
+        for (int i = 0; i < callee.define.args.size(); i++)
+            values.put(((LlvmRegister) callee.define.args.get(i)).name, call.args.get(i));
+        for (BasicBlock cb : callee.getBlocks())
+            for (LlvmInstruction instr : cb.instructions) {
+                LlvmValue def = instr.getDefinition();
+                if (def instanceof LlvmRegister) {
+                    String name = ((LlvmRegister) def).name;
+                    values.put(name, new LlvmRegister(name + suffix, def.type));
+                }
+            }
+
+        LlvmRenaming renaming = new LlvmRenaming() {
+            public LlvmValue value(LlvmValue v) {
+                if (v instanceof LlvmRegister && values.containsKey(((LlvmRegister) v).name))
+                    return values.get(((LlvmRegister) v).name);
+                return v;
+            }
+
+            public LlvmLabelValue label(LlvmLabelValue label) {
+                return new LlvmLabelValue(label.value + suffix);
+            }
+        };
+
+        // o bloco do chamador termina na chamada e desvia para a entrada do método
+        LlvmLabelValue end = new LlvmLabelValue("return" + suffix);
+        BasicBlock rest = f.split(b, index, end);
+        f.remove(b.getTerminator());
+        f.insert(b, b.instructions.size(), new LlvmBranch(renaming.label(callee.getEntry().label)));
+        f.remove(call);
+
+        LlvmValue returned = null;
+        int position = f.getBlocks().indexOf(rest);
+        for (BasicBlock cb : callee.getBlocks()) {
+            BasicBlock copy = new BasicBlock(renaming.label(cb.label));
+            f.getBlocks().add(position++, copy);
+            for (LlvmInstruction instr : cb.instructions) {
+                if (instr instanceof LlvmRet) {
+                    returned = renaming.value(((LlvmRet) instr).v);
+                    f.insert(copy, copy.instructions.size(), new LlvmBranch(end));
+                } else {
+                    f.insert(copy, copy.instructions.size(), instr.copy(renaming));
+                }
+            }
+        }
+        if (call.lhs != null)
+            f.replaceAllUses(call.lhs, returned);
+        return rest;
+    }
+
+    // usada só para saber se a instrução sabe se copiar
+    private static final LlvmRenaming IDENTITY = new LlvmRenaming() {
+        public LlvmValue value(LlvmValue v) {
+            return v;
+        }
+
+        public LlvmLabelValue label(LlvmLabelValue label) {
+            return label;
+        }
+    };
+}
@@ -0,0 +1,180 @@
+package llvm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Cache em disco do LLVM-IR de cada classe, para a compilação incremental
+ * (-fincremental=dir, ver Codegen.translateIncremental).
+ * <p/>
+ * Os fragmentos ficam em dir/objects/<resumo do texto>.ll, endereçados
+ * pelo conteúdo: versões ou programas diferentes que geram o mesmo código
+ * dividem o arquivo. O índice dir/index liga a chave de cada classe ao
+ * seu fragmento, um registro por linha:
+ * <pre>
+ *   chave fragmento classe=resumo classe=resumo ...
+ * </pre>
+ * A chave resume a assinatura do programa e as opções
+ * (ClassFingerprint.signature) junto com a declaração da classe. As
+ * dependências são as classes dos métodos chamados diretamente, que o
+ * inliner pode ter copiado, com o resumo da declaração de cada uma
+ * quando o fragmento foi gerado; a entrada só vale se nenhuma mudou.
+ * <p/>
+ * O índice é lido mapeado em memória na abertura e só recebe registros
+ * no fim (o último de cada chave vale); quando os registros velhos
+ * passam do dobro dos válidos ele é reescrito. Fragmentos sem uso não
+ * são apagados: para limpar o cache basta apagar o diretório.
+ */
+class IrCache {
+    private static final String INDEX = "index";
+    private static final String OBJECTS = "objects";
+    private static final int COMPACT_MIN_RECORDS = 64;
+
+    // fragmento de uma classe e as declarações das quais ele depende
+    static class Entry {
+        final String fragment;
+        final Map<String, String> dependencies;
+
+        Entry(String fragment, Map<String, String> dependencies) {
+            this.fragment = fragment;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final Path dir;
+    private final Path objects;
+    private final Path index;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final StringBuilder pending = new StringBuilder();
+    private int records;
+
+    IrCache(Path dir) throws IOException {
+        this.dir = dir;
+        this.objects = dir.resolve(OBJECTS);
+        this.index = dir.resolve(INDEX);
+        Files.createDirectories(objects);
+        read();
+        if (records > COMPACT_MIN_RECORDS && records > 2 * entries.size())
+            compact();
+    }
+
+    // Texto guardado para 'key', se as declarações de que ele depende ainda
+    // têm os resumos 'hashes' (classe -> resumo); senão null
+    String load(String key, Map<String, String> hashes) throws IOException {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        for (Map.Entry<String, String> dep : entry.dependencies.entrySet())
+            if (!dep.getValue().equals(hashes.get(dep.getKey())))
+                return null;
+        try {
+            return new String(Files.readAllBytes(objects.resolve(entry.fragment + ".ll")), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // Guarda 'text' para 'key'; o índice só é gravado no flush
+    void store(String key, Map<String, String> dependencies, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        String fragment = ClassFingerprint.combine(text);
+        Path object = objects.resolve(fragment + ".ll");
+        if (!Files.exists(object)) {
+            // escreve ao lado e renomeia: quem ler nunca vê um fragmento pela metade
+            Path tmp = Files.createTempFile(objects, fragment, ".tmp");
+            Files.write(tmp, bytes);
+            Files.move(tmp, object, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        Entry entry = new Entry(fragment, new TreeMap<String, String>(dependencies));
+        entries.put(key, entry);
+        records++;
+        pending.append(format(key, entry));
+    }
+
+    // Acrescenta ao índice os registros novos
+    void flush() throws IOException {
+        if (pending.length() == 0)
+            return;
+        FileChannel channel = FileChannel.open(index,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            FileLock lock = channel.lock();
+            try {
+                ByteBuffer buffer = StandardCharsets.UTF_8.encode(pending.toString());
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            } finally {
+                lock.release();
+            }
+        } finally {
+            channel.close();
+        }
+        pending.setLength(0);
+    }
+
+    private void read() throws IOException {
+        if (!Files.exists(index))
+            return;
+        FileChannel channel = FileChannel.open(index, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CharBuffer text = StandardCharsets.UTF_8.decode(map);
+            int start = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') {
+                    parse(text.subSequence(start, i).toString());
+                    start = i + 1;
+                }
+            }
+            // uma linha sem '\n' no fim é um registro interrompido: fica de fora
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void parse(String line) {
+        String[] fields = line.split(" ");
+        if (fields.length < 2)
+            return;
+        Map<String, String> dependencies = new TreeMap<String, String>();
+        for (int i = 2; i < fields.length; i++) {
+            int eq = fields[i].indexOf('=');
+            if (eq < 0)
+                return;
+            dependencies.put(fields[i].substring(0, eq), fields[i].substring(eq + 1));
+        }
+        entries.put(fields[0], new Entry(fields[1], dependencies));
+        records++;
+    }
+
+    private static String format(String key, Entry entry) {
+        StringBuilder s = new StringBuilder();
+        s.append(key).append(' ').append(entry.fragment);
+        for (Map.Entry<String, String> dep : entry.dependencies.entrySet())
+            s.append(' ').append(dep.getKey()).append('=').append(dep.getValue());
+        return s.append('\n').toString();
+    }
+
+    // Reescreve o índice só com os registros válidos
+    private void compact() throws IOException {
+        StringBuilder s = new StringBuilder();
+        for (Map.Entry<String, Entry> e : entries.entrySet())
+            s.append(format(e.getKey(), e.getValue()));
+        Path tmp = Files.createTempFile(dir, INDEX, ".tmp");
+        Files.write(tmp, s.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = entries.size();
+    }
+}
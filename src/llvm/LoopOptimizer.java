@@ -0,0 +1,385 @@
+package llvm;
+
+import llvm.ControlFlowGraph.BasicBlock;
+import llvmast.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Movimentação de código invariante para fora dos laços (LICM) e redução
+ * de força dos endereços de vetor indexados pela variável de indução.
+ * <p/>
+ * Roda depois do inlining, quando os getters já viraram leituras de
+ * atributo dentro dos laços. Os laços são tratados do mais interno para o
+ * mais externo, e só os que têm pré-cabeçalho (ver ControlFlowGraph).
+ * <p/>
+ * Vão para o pré-cabeçalho as instruções cujos operandos são definidos
+ * fora do laço:
+ * - aritmética, comparações, getelementptr e bitcast, que nunca falham;
+ * - leituras de atributo (getelementptr %obj, 0, k) quando o laço não
+ *   escreve no atributo k desse tipo nem chama métodos; como os atributos
+ *   herdados ficam na mesma posição da subclasse, a chave é só o índice e
+ *   o tipo do campo;
+ * - leituras do tamanho de um vetor quando o laço não cria vetores.
+ * Elementos de vetor nunca são o mesmo endereço de um atributo ou de um
+ * tamanho: são outras alocações e o índice já passou pelo boundCheck.
+ * Uma leitura só é antecipada se não pode falhar (atributo de %this) ou se
+ * roda em toda volta que sai do laço (o bloco domina todas as saídas).
+ * Instruções iguais levadas para o mesmo pré-cabeçalho viram uma só.
+ * <p/>
+ * Depois, em cada laço com uma única aresta de volta, o endereço
+ * getelementptr a, i + c, com 'a' invariante e i = phi [i0, pré], [i + k,
+ * volta], vira um ponteiro próprio do laço, que começa em a + i0 + c e
+ * anda k elementos por volta. Os acessos com o mesmo vetor e deslocamento
+ * dividem o ponteiro, e as somas de índice que ficam sem uso saem. Com o
+ * coletor (-fgc) essa parte não roda: a pilha de sombra só reconhece
+ * ponteiros derivados calculados a partir do objeto na mesma volta.
+ */
+class LoopOptimizer {
+    private static final String UNKNOWN = "?";
+    private static final String LENGTH = "length";
+
+    // instruções que nunca falham nem têm efeito colateral
+    private static final Set<Class<? extends LlvmInstruction>> PURE = new HashSet<Class<? extends LlvmInstruction>>(
+            Arrays.<Class<? extends LlvmInstruction>>asList(LlvmPlus.class, LlvmMinus.class, LlvmTimes.class,
+                    LlvmShl.class, LlvmAnd.class, LlvmOr.class, LlvmIcmp.class, LlvmZext.class, LlvmBitcast.class,
+                    LlvmGetElementPointer.class));
+
+    private boolean enabled = true;
+    private boolean reduce = true;
+    // contadores compartilhados pelas threads da geração incremental
+    private final AtomicInteger hoisted = new AtomicInteger();
+    private final AtomicInteger reduced = new AtomicInteger();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // Redução de força dos endereços de vetor (desligada com o coletor)
+    public void setStrengthReduction(boolean reduce) {
+        this.reduce = reduce;
+    }
+
+    // Instruções levadas para fora de laços (sem contar as repetidas, que somem)
+    public int getHoisted() {
+        return hoisted.get();
+    }
+
+    // Endereços de vetor trocados por ponteiros incrementados
+    public int getReduced() {
+        return reduced.get();
+    }
+
+    void run(Module module) {
+        if (!enabled)
+            return;
+        new FunctionPass() {
+            protected void apply(Function f) {
+                optimize(f);
+            }
+        }.run(module);
+    }
+
+    private void optimize(Function f) {
+        Loops loops = new Loops(f);
+        if (loops.list.isEmpty())
+            return;
+        for (Loop loop : loops.list)
+            loops.hoist(loop);
+        if (reduce)
+            for (Loop loop : loops.list)
+                loops.reduce(loop);
+        // somas de índice e endereços que ficaram sem uso
+        f.removeDead(PURE);
+    }
+
+    // Texto da instrução sem o registrador definido: iguais calculam o mesmo valor
+    private static String expression(LlvmInstruction instr) {
+        String s = instr.toString();
+        return s.substring(s.indexOf(" = ") + 3);
+    }
+
+    private static class Loop {
+        final BasicBlock header;
+        final Set<BasicBlock> body;
+        final BasicBlock preheader;
+
+        Loop(BasicBlock header, Set<BasicBlock> body, BasicBlock preheader) {
+            this.header = header;
+            this.body = body;
+            this.preheader = preheader;
+        }
+    }
+
+    // Laços de uma função, do mais interno para o mais externo
+    private class Loops {
+        private final Function f;
+        private final List<Loop> list = new ArrayList<Loop>();
+        // expressões já levadas a cada pré-cabeçalho
+        private final Map<BasicBlock, Map<String, LlvmValue>> available = new HashMap<BasicBlock, Map<String, LlvmValue>>();
+
+        Loops(Function f) {
+            this.f = f;
+            for (BasicBlock header : f.getBlocks()) {
+                Set<BasicBlock> body = ControlFlowGraph.loopBody(header);
+                if (body == null)
+                    continue;
+                BasicBlock preheader = ControlFlowGraph.preheader(header, body);
+                if (preheader != null)
+                    list.add(new Loop(header, body, preheader));
+            }
+            // os internos primeiro: o que sai deles ainda pode sair do laço de fora
+            Collections.sort(list, new Comparator<Loop>() {
+                public int compare(Loop a, Loop b) {
+                    return a.body.size() - b.body.size();
+                }
+            });
+        }
+
+        private boolean invariant(LlvmValue v, Loop loop) {
+            BasicBlock b = f.block(v);
+            return b == null || !loop.body.contains(b);
+        }
+
+        // ---- movimentação de código invariante ----
+
+        void hoist(Loop loop) {
+            Set<String> written = writtenMemory(loop);
+            List<BasicBlock> exits = new ArrayList<BasicBlock>();
+            for (BasicBlock b : loop.body)
+                for (BasicBlock s : b.successors)
+                    if (!loop.body.contains(s) && !exits.contains(b))
+                        exits.add(b);
+
+            Map<String, LlvmValue> done = available.get(loop.preheader);
+            if (done == null) {
+                done = new HashMap<String, LlvmValue>();
+                available.put(loop.preheader, done);
+            }
+
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (BasicBlock b : f.cfg.reversePostOrder) {
+                    if (!loop.body.contains(b))
+                        continue;
+                    for (LlvmInstruction instr : new ArrayList<LlvmInstruction>(b.instructions)) {
+                        if (!movable(instr, b, loop, written, exits))
+                            continue;
+                        changed = true;
+                        String expr = expression(instr);
+                        LlvmValue same = done.get(expr);
+                        if (same != null) {
+                            f.replaceAllUses(instr.getDefinition(), same);
+                            f.remove(instr);
+                            continue;
+                        }
+                        done.put(expr, instr.getDefinition());
+                        f.move(instr, loop.preheader);
+                        hoisted.incrementAndGet();
+                    }
+                }
+            }
+        }
+
+        private boolean movable(LlvmInstruction instr, BasicBlock b, Loop loop, Set<String> written,
+                                List<BasicBlock> exits) {
+            if (!(instr.getDefinition() instanceof LlvmRegister))
+                return false;
+            for (LlvmValue op : instr.getOperands())
+                if (!invariant(op, loop))
+                    return false;
+            if (PURE.contains(instr.getClass()))
+                return true;
+            if (!(instr instanceof LlvmLoad) || written.contains(UNKNOWN))
+                return false;
+
+            LlvmValue address = ((LlvmLoad) instr).address;
+            String key = memoryKey(address, instr.getDefinition().type);
+            if (key == null || written.contains(key))
+                return false;
+            LlvmInstruction gep = f.definition(address);
+            if (gep instanceof LlvmGetElementPointer && ((LlvmGetElementPointer) gep).source.toString().equals("%this"))
+                return true;
+            // pode falhar (null): só se a leitura acontece de qualquer jeito antes de sair do laço
+            if (exits.isEmpty())
+                return false;
+            for (BasicBlock exit : exits)
+                if (!ControlFlowGraph.dominates(b, exit))
+                    return false;
+            return true;
+        }
+
+        // Chave da posição de memória lida ou escrita em 'address' com valores
+        // do tipo 'type': atributo, tamanho de vetor, elemento (null) ou UNKNOWN
+        private String memoryKey(LlvmValue address, LlvmType type) {
+            LlvmInstruction def = f.definition(address);
+            if (def instanceof LlvmGetElementPointer) {
+                LlvmGetElementPointer gep = (LlvmGetElementPointer) def;
+                if (gep.source.type == Codegen.ARRAY_TYPE)
+                    return null;
+                if (gep.source instanceof LlvmRegister && gep.offsets.size() == 2)
+                    return gep.offsets.get(1) + " " + type;
+                return UNKNOWN;
+            }
+            return address.type == Codegen.ARRAY_TYPE ? LENGTH : UNKNOWN;
+        }
+
+        // Posições que o laço pode alterar; UNKNOWN se não dá para saber
+        private Set<String> writtenMemory(Loop loop) {
+            Set<String> written = new HashSet<String>();
+            for (BasicBlock b : loop.body)
+                for (LlvmInstruction instr : b.instructions) {
+                    if (instr instanceof LlvmStore) {
+                        LlvmStore store = (LlvmStore) instr;
+                        LlvmInstruction def = f.definition(store.address);
+                        // os atributos da arena (@arena) nunca são lidos de dentro de um laço
+                        if (def instanceof LlvmGetElementPointer && !(((LlvmGetElementPointer) def).source instanceof LlvmRegister))
+                            continue;
+                        String key = memoryKey(store.address, store.content.type);
+                        if (key != null)
+                            written.add(key);
+                    } else if (instr instanceof LlvmCall
+                            && !BoundsCheckElimination.RUNTIME.contains(((LlvmCall) instr).getFunctionName())) {
+                        written.add(UNKNOWN);
+                    }
+                }
+            return written;
+        }
+
+        // ---- redução de força ----
+
+        void reduce(Loop loop) {
+            BasicBlock latch = null;
+            for (BasicBlock p : loop.header.predecessors) {
+                if (!loop.body.contains(p))
+                    continue;
+                if (latch != null)
+                    return;
+                latch = p;
+            }
+
+            // variáveis de indução: phi [início, pré-cabeçalho], [i + passo, volta]
+            Map<String, LlvmPhi> inductions = new HashMap<String, LlvmPhi>();
+            Map<String, Integer> steps = new HashMap<String, Integer>();
+            for (LlvmInstruction instr : loop.header.instructions) {
+                if (!(instr instanceof LlvmPhi))
+                    break;
+                LlvmPhi phi = (LlvmPhi) instr;
+                if (phi.type != LlvmPrimitiveType.I32 || phi.values.size() != 2)
+                    continue;
+                int back = phi.labels.get(0).value.equals(latch.label.value) ? 0 : 1;
+                Long step = offset(phi.values.get(back), phi.lhs.toString());
+                if (step != null && step != 0 && step == step.intValue()) {
+                    inductions.put(phi.lhs.toString(), phi);
+                    steps.put(phi.lhs.toString(), step.intValue());
+                }
+            }
+            if (inductions.isEmpty())
+                return;
+
+            // endereços a + i + c, agrupados por vetor, variável e deslocamento
+            Map<String, List<LlvmGetElementPointer>> groups = new LinkedHashMap<String, List<LlvmGetElementPointer>>();
+            Map<String, Long> offsets = new HashMap<String, Long>();
+            for (BasicBlock b : f.cfg.reversePostOrder) {
+                if (!loop.body.contains(b))
+                    continue;
+                for (LlvmInstruction instr : b.instructions) {
+                    if (!(instr instanceof LlvmGetElementPointer))
+                        continue;
+                    LlvmGetElementPointer gep = (LlvmGetElementPointer) instr;
+                    if (gep.source.type != Codegen.ARRAY_TYPE || gep.offsets.size() != 1 || !invariant(gep.source, loop))
+                        continue;
+                    for (String iv : inductions.keySet()) {
+                        Long c = offset(gep.offsets.get(0), iv);
+                        if (c == null || c != c.intValue())
+                            continue;
+                        String key = gep.source + " " + iv + " " + c;
+                        List<LlvmGetElementPointer> group = groups.get(key);
+                        if (group == null) {
+                            group = new ArrayList<LlvmGetElementPointer>();
+                            groups.put(key, group);
+                            offsets.put(key, c);
+                        }
+                        group.add(gep);
+                        break;
+                    }
+                }
+            }
+
+            int n = 0;
+            for (Map.Entry<String, List<LlvmGetElementPointer>> e : groups.entrySet()) {
+                LlvmGetElementPointer first = e.getValue().get(0);
+                String iv = e.getKey().split(" ")[1];
+                LlvmPhi phi = inductions.get(iv);
+                int back = phi.labels.get(0).value.equals(latch.label.value) ? 0 : 1;
+                long c = offsets.get(e.getKey());
+                String name = "%" + loop.header.label.value + ".ptr" + n++;
+
+                // início: a + i0 + c, no pré-cabeçalho
+                LlvmValue init = phi.values.get(1 - back);
+                LlvmValue index;
+                if (init instanceof LlvmIntegerLiteral) {
+                    index = new LlvmIntegerLiteral((int) (((LlvmIntegerLiteral) init).value + c));
+                } else if (c == 0) {
+                    index = init;
+                } else {
+                    LlvmRegister sum = new LlvmRegister(name + ".index", LlvmPrimitiveType.I32);
+                    f.append(loop.preheader, new LlvmPlus(sum, LlvmPrimitiveType.I32, init, new LlvmIntegerLiteral((int) c)));
+                    index = sum;
+                }
+                LlvmRegister start = new LlvmRegister(name + ".start", Codegen.ARRAY_TYPE);
+                f.append(loop.preheader, new LlvmGetElementPointer(start, first.source, indexList(index)));
+
+                // o ponteiro anda junto com a variável de indução
+                LlvmRegister pointer = new LlvmRegister(name, Codegen.ARRAY_TYPE);
+                LlvmRegister next = new LlvmRegister(name + ".next", Codegen.ARRAY_TYPE);
+                LlvmPhi ptrPhi = new LlvmPhi(pointer, Codegen.ARRAY_TYPE);
+                ptrPhi.addIncoming(start, loop.preheader.label);
+                ptrPhi.addIncoming(next, latch.label);
+                f.insert(loop.header, 0, ptrPhi);
+                f.append(latch, new LlvmGetElementPointer(next, pointer, indexList(new LlvmIntegerLiteral(steps.get(iv)))));
+
+                for (LlvmGetElementPointer gep : e.getValue()) {
+                    f.replaceAllUses(gep.lhs, pointer);
+                    f.remove(gep);
+                    reduced.incrementAndGet();
+                }
+            }
+        }
+
+        // 'v' como iv + constante, ou null
+        private Long offset(LlvmValue v, String iv) {
+            if (v instanceof LlvmRegister && v.toString().equals(iv))
+                return 0L;
+            LlvmInstruction def = f.definition(v);
+            if (def instanceof LlvmPlus) {
+                LlvmPlus plus = (LlvmPlus) def;
+                if (plus.op2 instanceof LlvmIntegerLiteral)
+                    return shift(offset(plus.op1, iv), ((LlvmIntegerLiteral) plus.op2).value);
+                if (plus.op1 instanceof LlvmIntegerLiteral)
+                    return shift(offset(plus.op2, iv), ((LlvmIntegerLiteral) plus.op1).value);
+            } else if (def instanceof LlvmMinus) {
+                LlvmMinus minus = (LlvmMinus) def;
+                if (minus.op2 instanceof LlvmIntegerLiteral)
+                    return shift(offset(minus.op1, iv), -(long) ((LlvmIntegerLiteral) minus.op2).value);
+            }
+            return null;
+        }
+
+        private Long shift(Long offset, long c) {
+            return offset == null ? null : offset + c;
+        }
+
+        private List<LlvmValue> indexList(LlvmValue index) {
+            List<LlvmValue> offsets = new LinkedList<LlvmValue>();
+            offsets.add(index);
+            return offsets;
+        }
+    }
+}
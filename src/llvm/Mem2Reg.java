@@ -0,0 +1,259 @@
+package llvm;
+
+import llvm.ControlFlowGraph.BasicBlock;
+import llvmast.*;
+
+import java.util.*;
+
+/**
+ * Promoção de memória para registradores (equivalente ao 'opt -mem2reg').
+ * <p/>
+ * O Codegen cria um 'alloca' para cada variável local, parâmetro (.pmtr)
+ * e temporário do main, e acessa essas variáveis só com load/store. Este
+ * passo reescreve, função por função, os allocas promovíveis em
+ * registradores SSA: insere LlvmPhi nas fronteiras de dominância dos
+ * blocos que fazem 'store' e troca cada 'load' pelo valor que chega
+ * até ele (algoritmo de Cytron et al.).
+ * <p/>
+ * Um alloca é promovível quando é escalar e só aparece como endereço
+ * de load/store.
+ */
+class Mem2Reg {
+
+    // Aplica o passo em todas as funções do módulo
+    static void run(Module module) {
+        new FunctionPass() {
+            protected void apply(Function f) {
+                promote(f);
+            }
+        }.run(module);
+    }
+
+    // Promove os allocas de uma função
+    static void promote(Function f) {
+        Map<String, LlvmAlloca> allocas = findPromotable(f.cfg);
+        if (allocas.isEmpty())
+            return;
+
+        new Mem2Reg(f.cfg, allocas).rename();
+        // as instruções foram alteradas direto, sem passar pelo Function
+        f.update();
+    }
+
+    private static Map<String, LlvmAlloca> findPromotable(ControlFlowGraph cfg) {
+        Map<String, LlvmAlloca> allocas = new LinkedHashMap<String, LlvmAlloca>();
+        Set<String> rejected = new HashSet<String>();
+
+        for (BasicBlock b : cfg.blocks) {
+            for (LlvmInstruction instr : b.instructions) {
+                if (instr instanceof LlvmAlloca) {
+                    LlvmAlloca alloca = (LlvmAlloca) instr;
+                    String name = alloca.lhs.toString();
+                    if (!alloca.numbers.isEmpty() || !(alloca.lhs instanceof LlvmRegister)
+                            || allocas.put(name, alloca) != null)
+                        rejected.add(name);
+                }
+            }
+        }
+
+        // qualquer uso que não seja endereço de load/store impede a promoção
+        for (BasicBlock b : cfg.blocks) {
+            for (LlvmInstruction instr : b.instructions) {
+                for (LlvmValue op : instr.getOperands()) {
+                    if (!(op instanceof LlvmRegister))
+                        continue;
+                    String name = op.toString();
+                    if (!allocas.containsKey(name))
+                        continue;
+                    boolean isAddress = (instr instanceof LlvmLoad && op == ((LlvmLoad) instr).address)
+                            || (instr instanceof LlvmStore && op == ((LlvmStore) instr).address
+                            && !LlvmInstruction.sameValue(((LlvmStore) instr).content, op));
+                    if (!isAddress)
+                        rejected.add(name);
+                }
+            }
+        }
+
+        allocas.keySet().removeAll(rejected);
+        return allocas;
+    }
+
+    private final ControlFlowGraph cfg;
+    private final Map<String, LlvmAlloca> allocas;
+
+    // phis inseridos em cada bloco, indexados pelo alloca que representam
+    private final Map<BasicBlock, Map<String, LlvmPhi>> phis = new HashMap<BasicBlock, Map<String, LlvmPhi>>();
+    // valor atual de cada variável durante a renomeação
+    private final Map<String, Deque<LlvmValue>> stacks = new HashMap<String, Deque<LlvmValue>>();
+    // registrador de cada load removido -> valor que o substitui
+    private final Map<String, LlvmValue> replacements = new HashMap<String, LlvmValue>();
+
+    private Mem2Reg(ControlFlowGraph cfg, Map<String, LlvmAlloca> allocas) {
+        this.cfg = cfg;
+        this.allocas = allocas;
+        for (BasicBlock b : cfg.blocks)
+            phis.put(b, new LinkedHashMap<String, LlvmPhi>());
+        for (String name : allocas.keySet())
+            stacks.put(name, new ArrayDeque<LlvmValue>());
+        placePhis();
+    }
+
+    private void placePhis() {
+        for (Map.Entry<String, LlvmAlloca> e : allocas.entrySet()) {
+            String name = e.getKey();
+            LlvmType type = e.getValue().type;
+
+            Deque<BasicBlock> work = new ArrayDeque<BasicBlock>();
+            for (BasicBlock b : cfg.blocks)
+                for (LlvmInstruction instr : b.instructions)
+                    if (instr instanceof LlvmStore && ((LlvmStore) instr).address.toString().equals(name)) {
+                        work.add(b);
+                        break;
+                    }
+
+            Set<BasicBlock> placed = new HashSet<BasicBlock>();
+            while (!work.isEmpty()) {
+                BasicBlock b = work.poll();
+                for (BasicBlock df : b.frontier) {
+                    if (placed.add(df)) {
+                        LlvmRegister lhs = new LlvmRegister(name + "." + df.label, type);
+                        phis.get(df).put(name, new LlvmPhi(lhs, type));
+                        work.add(df);
+                    }
+                }
+            }
+        }
+    }
+
+    // Entrada da pilha de renomeação: 'sizes' != null marca o fim da subárvore de 'block'
+    private static class Frame {
+        BasicBlock block;
+        Map<String, Integer> sizes;
+
+        Frame(BasicBlock block, Map<String, Integer> sizes) {
+            this.block = block;
+            this.sizes = sizes;
+        }
+    }
+
+    private void rename() {
+        // percorre a árvore de dominadores em pré-ordem, empilhando os valores
+        Deque<Frame> work = new ArrayDeque<Frame>();
+        work.push(new Frame(cfg.blocks.get(0), null));
+
+        while (!work.isEmpty()) {
+            Frame f = work.pop();
+            if (f.sizes != null) {
+                // fim da subárvore: desempilha o que ela definiu
+                for (Map.Entry<String, Integer> e : f.sizes.entrySet()) {
+                    Deque<LlvmValue> stack = stacks.get(e.getKey());
+                    while (stack.size() > e.getValue())
+                        stack.pop();
+                }
+                continue;
+            }
+
+            Map<String, Integer> sizes = new HashMap<String, Integer>();
+            for (Map.Entry<String, Deque<LlvmValue>> e : stacks.entrySet())
+                sizes.put(e.getKey(), e.getValue().size());
+            work.push(new Frame(f.block, sizes));
+
+            renameBlock(f.block);
+
+            for (int i = f.block.children.size() - 1; i >= 0; i--)
+                work.push(new Frame(f.block.children.get(i), null));
+        }
+
+        // os phis do Codegen (&&) podem citar loads de um bloco renomeado
+        // depois do deles, que não domina o bloco do phi
+        for (BasicBlock b : cfg.blocks)
+            for (LlvmInstruction instr : b.instructions)
+                if (instr instanceof LlvmPhi)
+                    for (LlvmValue op : new ArrayList<LlvmValue>(instr.getOperands())) {
+                        LlvmValue repl = op instanceof LlvmRegister ? replacements.get(op.toString()) : null;
+                        if (repl != null)
+                            instr.replaceOperand(op, repl);
+                    }
+
+        // insere os phis logo após os labels
+        for (BasicBlock b : cfg.blocks)
+            b.instructions.addAll(0, phis.get(b).values());
+
+        removeDeadPhis();
+    }
+
+    private void renameBlock(BasicBlock b) {
+        for (Map.Entry<String, LlvmPhi> e : phis.get(b).entrySet())
+            stacks.get(e.getKey()).push(e.getValue().lhs);
+
+        for (Iterator<LlvmInstruction> it = b.instructions.iterator(); it.hasNext(); ) {
+            LlvmInstruction instr = it.next();
+            for (LlvmValue op : new ArrayList<LlvmValue>(instr.getOperands())) {
+                LlvmValue repl = op instanceof LlvmRegister ? replacements.get(op.toString()) : null;
+                if (repl != null)
+                    instr.replaceOperand(op, repl);
+            }
+
+            if (instr instanceof LlvmAlloca && allocas.containsKey(((LlvmAlloca) instr).lhs.toString())) {
+                it.remove();
+            } else if (instr instanceof LlvmLoad && allocas.containsKey(((LlvmLoad) instr).address.toString())) {
+                LlvmLoad load = (LlvmLoad) instr;
+                replacements.put(load.lhs.toString(), current(load.address.toString()));
+                it.remove();
+            } else if (instr instanceof LlvmStore && allocas.containsKey(((LlvmStore) instr).address.toString())) {
+                LlvmStore store = (LlvmStore) instr;
+                stacks.get(store.address.toString()).push(store.content);
+                it.remove();
+            }
+        }
+
+        for (BasicBlock succ : b.successors)
+            for (Map.Entry<String, LlvmPhi> e : phis.get(succ).entrySet())
+                e.getValue().addIncoming(current(e.getKey()), b.label);
+    }
+
+    private LlvmValue current(String name) {
+        Deque<LlvmValue> stack = stacks.get(name);
+        if (stack.isEmpty())
+            return new LlvmNamedValue("undef", allocas.get(name).type);
+        return stack.peek();
+    }
+
+    // Remove phis cujo resultado nunca é usado (ou só por outros phis mortos)
+    private void removeDeadPhis() {
+        Map<String, LlvmPhi> byName = new HashMap<String, LlvmPhi>();
+        for (BasicBlock b : cfg.blocks)
+            for (LlvmPhi phi : phis.get(b).values())
+                byName.put(phi.lhs.toString(), phi);
+
+        // um phi está vivo se for usado por uma instrução comum (ou por um phi
+        // que já veio do Codegen) ou por outro phi vivo
+        Set<LlvmPhi> live = new HashSet<LlvmPhi>();
+        Deque<LlvmPhi> work = new ArrayDeque<LlvmPhi>();
+        for (BasicBlock b : cfg.blocks)
+            for (LlvmInstruction instr : b.instructions)
+                if (!(instr instanceof LlvmPhi) || !isInserted((LlvmPhi) instr, byName))
+                    for (LlvmValue op : instr.getOperands()) {
+                        LlvmPhi phi = op instanceof LlvmRegister ? byName.get(op.toString()) : null;
+                        if (phi != null && live.add(phi))
+                            work.add(phi);
+                    }
+        while (!work.isEmpty())
+            for (LlvmValue op : work.poll().values) {
+                LlvmPhi phi = op instanceof LlvmRegister ? byName.get(op.toString()) : null;
+                if (phi != null && live.add(phi))
+                    work.add(phi);
+            }
+
+        for (BasicBlock b : cfg.blocks)
+            for (Iterator<LlvmInstruction> it = b.instructions.iterator(); it.hasNext(); ) {
+                LlvmInstruction instr = it.next();
+                if (instr instanceof LlvmPhi && isInserted((LlvmPhi) instr, byName) && !live.contains(instr))
+                    it.remove();
+            }
+    }
+
+    private static boolean isInserted(LlvmPhi phi, Map<String, LlvmPhi> byName) {
+        return byName.get(phi.lhs.toString()) == phi;
+    }
+}
@@ -0,0 +1,100 @@
+package llvm;
+
+import llvmast.*;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+public class MethodNode extends LlvmType {
+    private String name;
+    private ClassNode owner;        // classe que define o método
+    private int vtableIndex;
+    private List<LlvmValue> formalList;
+    private List<LlvmValue> varList;
+    Map<String, LlvmValue> formals;
+    Map<String, LlvmValue> vars;
+    LlvmType returnType;
+    private LlvmFunctionType functionType;
+
+    public MethodNode(String name, List<LlvmValue> formalList,
+                      List<LlvmValue> varList, LlvmType returnType) {
+        super();
+        this.name = name;
+        this.formalList = formalList;
+        this.varList = varList;
+        this.returnType = returnType;
+
+        this.vars = new HashMap<String, LlvmValue>();
+        for (LlvmValue v : varList) {
+            this.vars.put(v.toString(), v);
+        }
+
+        this.formals = new HashMap<String, LlvmValue>();
+        List<LlvmType> types = new LinkedList<LlvmType>();
+        for (LlvmValue f : formalList) {
+            this.formals.put(f.toString(), f);
+            types.add(f.type);
+        }
+        this.functionType = new LlvmFunctionType(returnType, types);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public ClassNode getOwner() {
+        return owner;
+    }
+
+    void setOwner(ClassNode owner) {
+        this.owner = owner;
+    }
+
+    public int getVtableIndex() {
+        return vtableIndex;
+    }
+
+    void setVtableIndex(int vtableIndex) {
+        this.vtableIndex = vtableIndex;
+    }
+
+    // tipo da função, com o 'this' da classe que a define
+    public LlvmFunctionType getFunctionType() {
+        return functionType;
+    }
+
+    public List<LlvmValue> getFormalList() {
+        return this.formalList;
+    }
+
+    public List<LlvmValue> getVarList() {
+        return this.varList;
+    }
+
+    public LlvmType getReturnType() {
+        return this.returnType;
+    }
+
+    public boolean hasFormal(String formal) {
+        return this.formals.containsKey(formal);
+    }
+
+    public LlvmDefine getFunctionDefinition(ClassNode classEnv) {
+        return new LlvmDefine(getFunctionName(classEnv), returnType, formalList);
+    }
+
+    public String getFunctionName(ClassNode classEnv) {
+        return "@__" + this.name + "_" + classEnv.getName();
+    }
+
+    public String getFunctionName() {
+        return getFunctionName(owner);
+    }
+
+    public boolean hasLocalVariable(String var) {
+        return this.vars.containsKey(var);
+    }
+
+}
@@ -0,0 +1,76 @@
+package llvm;
+
+import llvmast.LlvmDefine;
+import llvmast.LlvmInstruction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Um módulo (ou uma parte dele, como as instruções de uma classe): as
+ * declarações globais e as funções, na ordem em que são emitidas.
+ * <p/>
+ * As funções ficam como grafo (Function) da geração até a emissão; só
+ * emit() e toList() voltam ao texto linear.
+ */
+final class Module {
+    // declarações globais; o LlvmDefine de cada função marca a posição dela
+    private final List<LlvmInstruction> items = new ArrayList<LlvmInstruction>();
+    private final List<Function> functions = new ArrayList<Function>();
+    private final Map<LlvmDefine, Function> byDefine = new IdentityHashMap<LlvmDefine, Function>();
+
+    // Declaração global (tipo, vtable, constante, função externa)
+    void add(LlvmInstruction global) {
+        items.add(global);
+    }
+
+    void add(Function f) {
+        items.add(f.define);
+        functions.add(f);
+        byDefine.put(f.define, f);
+    }
+
+    // Acrescenta tudo o que está em 'other', na mesma ordem
+    void addAll(Module other) {
+        for (LlvmInstruction item : other.items) {
+            Function f = other.byDefine.get(item);
+            if (f != null)
+                add(f);
+            else
+                add(item);
+        }
+    }
+
+    List<Function> getFunctions() {
+        return functions;
+    }
+
+    // Instruções dentro das funções, sem contar os labels
+    int size() {
+        int size = 0;
+        for (Function f : functions)
+            size += f.size();
+        return size;
+    }
+
+    void emit(Appendable out) throws IOException {
+        for (LlvmInstruction instr : toList())
+            instr.emit(out);
+    }
+
+    // O texto do módulo como lista de instruções, com os labels e o '}' de cada função
+    List<LlvmInstruction> toList() {
+        List<LlvmInstruction> list = new ArrayList<LlvmInstruction>();
+        for (LlvmInstruction item : items) {
+            Function f = byDefine.get(item);
+            if (f != null)
+                f.toList(list);
+            else
+                list.add(item);
+        }
+        return list;
+    }
+}
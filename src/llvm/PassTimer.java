@@ -0,0 +1,185 @@
+package llvm;
+
+import llvmast.LlvmInstruction;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+
+/**
+ * Tempo e memória gastos em cada fase da compilação (-time-passes).
+ * <p/>
+ * Cada fase é medida entre start() e stop(): tempo de relógio (nanoTime)
+ * e bytes alocados pela thread atual, lidos do contador da JVM
+ * (com.sun.management.ThreadMXBean; -1 onde não houver). As medidas de
+ * uma mesma fase se somam, inclusive as das threads que geram as classes
+ * em paralelo (-j), e por isso a soma das fases pode passar do tempo
+ * total. O custo é de duas leituras de relógio e do contador por fase,
+ * e as fases são poucas por programa: fica sempre ligado.
+ * <p/>
+ * Também conta as instruções do módulo final por classe do llvmast. No
+ * modo incremental só entram as unidades geradas, não as lidas do cache.
+ */
+public final class PassTimer {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION = THREADS instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+
+    // Início de uma medida
+    public static final class Mark {
+        private final long nanos;
+        private final long bytes;
+
+        private Mark(long nanos, long bytes) {
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+    }
+
+    // Acumulado de uma fase
+    public static final class Pass {
+        public final String name;
+        long nanos;
+        long bytes;
+        int runs;
+
+        private Pass(String name) {
+            this.name = name;
+        }
+
+        public double getMillis() {
+            return nanos / 1e6;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public int getRuns() {
+            return runs;
+        }
+    }
+
+    // fases na ordem em que apareceram pela primeira vez
+    private final Map<String, Pass> passes = new LinkedHashMap<String, Pass>();
+    private final Map<Class<?>, int[]> instructions = new IdentityHashMap<Class<?>, int[]>();
+
+    public Mark start() {
+        return new Mark(System.nanoTime(), allocated());
+    }
+
+    public void stop(String name, Mark mark) {
+        long nanos = System.nanoTime() - mark.nanos;
+        long bytes = ALLOCATION ? allocated() - mark.bytes : -1;
+        synchronized (passes) {
+            Pass pass = passes.get(name);
+            if (pass == null) {
+                pass = new Pass(name);
+                passes.put(name, pass);
+            }
+            pass.nanos += nanos;
+            pass.bytes += bytes;
+            pass.runs++;
+        }
+    }
+
+    // Conta as instruções de 'module' por classe
+    void count(Module module) {
+        synchronized (instructions) {
+            for (LlvmInstruction instr : module.toList()) {
+                int[] n = instructions.get(instr.getClass());
+                if (n == null) {
+                    n = new int[1];
+                    instructions.put(instr.getClass(), n);
+                }
+                n[0]++;
+            }
+        }
+    }
+
+    public List<Pass> getPasses() {
+        synchronized (passes) {
+            return new ArrayList<Pass>(passes.values());
+        }
+    }
+
+    // Instruções por nome simples da classe, em ordem alfabética
+    public SortedMap<String, Integer> getInstructionCounts() {
+        SortedMap<String, Integer> counts = new TreeMap<String, Integer>();
+        synchronized (instructions) {
+            for (Map.Entry<Class<?>, int[]> e : instructions.entrySet()) {
+                // classes anônimas (as declarações de tipo das classes) contam pela superclasse
+                Class<?> type = e.getKey();
+                while (type.isAnonymousClass())
+                    type = type.getSuperclass();
+                Integer n = counts.get(type.getSimpleName());
+                counts.put(type.getSimpleName(), e.getValue()[0] + (n == null ? 0 : n));
+            }
+        }
+        return counts;
+    }
+
+    // Tabela para a saída de erro; as porcentagens são do tempo da fase "total", se houver
+    public String report() {
+        List<Pass> list = getPasses();
+        long total = 0;
+        for (Pass p : list)
+            total = p.name.equals("total") ? p.nanos : total;
+        if (total == 0)
+            for (Pass p : list)
+                total += p.nanos;
+
+        StringBuilder s = new StringBuilder();
+        s.append(String.format("%10s %7s %14s %6s  %s%n", "ms", "%", "KB alocados", "vezes", "fase"));
+        for (Pass p : list) {
+            s.append(String.format("%10.3f %6.1f%% %14s %6d  %s%n", p.getMillis(),
+                    total == 0 ? 0.0 : 100.0 * p.nanos / total,
+                    p.bytes < 0 ? "-" : String.format("%.1f", p.bytes / 1024.0), p.runs, p.name));
+        }
+        for (Map.Entry<String, Integer> e : getInstructionCounts().entrySet())
+            s.append(String.format("%10d instruções %s%n", e.getValue(), e.getKey()));
+        return s.toString();
+    }
+
+    // O mesmo relatório em JSON:
+    // {"passes": [{"name": ..., "ms": ..., "bytes": ..., "runs": ...}, ...], "instructions": {"LlvmCall": n, ...}}
+    public String toJson() {
+        StringBuilder s = new StringBuilder();
+        s.append("{\n  \"passes\": [");
+        String sep = "\n";
+        for (Pass p : getPasses()) {
+            s.append(sep).append("    {\"name\": ").append(quote(p.name))
+                    .append(", \"ms\": ").append(String.format(Locale.ROOT, "%.3f", p.getMillis()))
+                    .append(", \"bytes\": ").append(p.bytes)
+                    .append(", \"runs\": ").append(p.runs).append('}');
+            sep = ",\n";
+        }
+        s.append("\n  ],\n  \"instructions\": {");
+        sep = "\n";
+        for (Map.Entry<String, Integer> e : getInstructionCounts().entrySet()) {
+            s.append(sep).append("    ").append(quote(e.getKey())).append(": ").append(e.getValue());
+            sep = ",\n";
+        }
+        return s.append("\n  }\n}\n").toString();
+    }
+
+    private static String quote(String s) {
+        StringBuilder q = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\')
+                q.append('\\').append(c);
+            else if (c < 0x20)
+                q.append(String.format("\\u%04x", (int) c));
+            else
+                q.append(c);
+        }
+        return q.append('"').toString();
+    }
+
+    private static long allocated() {
+        if (!ALLOCATION)
+            return 0;
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,274 @@
+package llvm;
+
+import llvm.ControlFlowGraph.BasicBlock;
+import llvmast.*;
+
+import java.util.*;
+
+/**
+ * Raízes do coletor de lixo (-fgc) em uma pilha de sombra.
+ * <p/>
+ * Roda no fim, depois do mem2reg e do inlining, quando as variáveis já
+ * são registradores SSA. Em cada função, calcula (por liveness) quais
+ * referências continuam vivas depois de algum ponto de coleta: uma
+ * chamada de método ou do gcAlloc. Só essas ganham uma posição no
+ * quadro da função, um alloca na entrada com o formato que o runtime
+ * espera:
+ * <pre>
+ *   { i8 * anterior, i32 n, T1 raiz1, ..., Tn raizn }
+ * </pre>
+ * O quadro é empilhado em @gcTop na entrada e desempilhado antes de cada
+ * 'ret'. Cada referência é guardada na sua posição logo depois de
+ * definida (os parâmetros, na entrada). Como o coletor não move objetos,
+ * não é preciso recarregar nada depois da chamada.
+ * <p/>
+ * Ponteiros derivados (getelementptr e bitcast de um objeto) contam como
+ * uso do objeto de origem. Referências são os ponteiros para classes, os
+ * vetores (int[]) e o resultado do gcAlloc; um 'undef' dessas variáveis
+ * vira null, para o coletor nunca ler lixo.
+ */
+class ShadowStack {
+    static final String GC_TOP = "@gcTop";
+    static final String GC_ALLOC = "@gcAlloc";
+
+    // funções do runtime e da libc que nunca disparam uma coleta
+    private static final Set<String> NO_COLLECTION = new HashSet<String>(Arrays.asList(
+            "@printf", Codegen.PRINT_INT, "@malloc", "@calloc", Codegen.BOUND_CHECK));
+
+    private static final LlvmType BYTE_PTR = LlvmPointer.get(LlvmPrimitiveType.I8);
+
+    private int frames;
+    private int roots;
+
+    // Funções que ganharam um quadro e total de raízes nesses quadros
+    public int getFrames() {
+        return frames;
+    }
+
+    public int getRoots() {
+        return roots;
+    }
+
+    void run(Module module) {
+        new FunctionPass() {
+            protected void apply(Function f) {
+                insertRoots(f);
+            }
+        }.run(module);
+    }
+
+    static boolean isReferenceType(LlvmType type) {
+        return type instanceof LlvmPointer && (((LlvmPointer) type).content instanceof LlvmClassType
+                || type == Codegen.ARRAY_TYPE);
+    }
+
+    private static boolean isSafepoint(LlvmInstruction instr) {
+        return instr instanceof LlvmCall && !NO_COLLECTION.contains(((LlvmCall) instr).getFunctionName());
+    }
+
+    // função sendo tratada, com a definição de cada registrador
+    private Function function;
+    // referências usadas na função, pelo nome
+    private final Map<String, LlvmValue> references = new HashMap<String, LlvmValue>();
+
+    private void insertRoots(Function f) {
+        ControlFlowGraph cfg = f.cfg;
+        function = f;
+        references.clear();
+        for (BasicBlock b : cfg.blocks)
+            for (LlvmInstruction instr : b.instructions)
+                nullUndefinedReferences(instr);
+
+        // referências vivas depois de algum ponto de coleta
+        Set<String> saved = new LinkedHashSet<String>();
+        Map<BasicBlock, Set<String>> liveOut = liveness(cfg);
+        for (BasicBlock b : cfg.blocks) {
+            Set<String> live = new HashSet<String>(liveOut.get(b));
+            for (int i = b.instructions.size() - 1; i >= 0; i--) {
+                LlvmInstruction instr = b.instructions.get(i);
+                LlvmValue def = instr.getDefinition();
+                if (def instanceof LlvmRegister)
+                    live.remove(((LlvmRegister) def).name);
+                if (isSafepoint(instr))
+                    saved.addAll(live);
+                if (!(instr instanceof LlvmPhi))
+                    addUses(instr, live);
+            }
+        }
+        if (saved.isEmpty())
+            return;
+
+        List<LlvmValue> values = new ArrayList<LlvmValue>();
+        for (String name : saved)
+            values.add(references.get(name));
+
+        frames++;
+        roots += values.size();
+        buildFrame(cfg, values);
+        // os blocos ganharam listas novas de instruções
+        f.update();
+    }
+
+    // Monta o quadro na entrada, guarda cada raiz depois da sua definição e
+    // desempilha o quadro antes de cada 'ret'
+    private void buildFrame(ControlFlowGraph cfg, List<LlvmValue> values) {
+        List<LlvmType> types = new ArrayList<LlvmType>();
+        types.add(BYTE_PTR);
+        types.add(LlvmPrimitiveType.I32);
+        for (LlvmValue v : values)
+            types.add(v.type);
+        LlvmStructure frameType = LlvmStructure.get(types);
+        LlvmNamedValue top = new LlvmNamedValue(GC_TOP, LlvmPointer.get(BYTE_PTR));
+
+        List<LlvmInstruction> prologue = new ArrayList<LlvmInstruction>();
+        LlvmRegister frame = new LlvmRegister("%gc.frame", LlvmPointer.get(frameType));
+        prologue.add(new LlvmAlloca(frame, frameType, new LinkedList<LlvmValue>()));
+        LlvmRegister previous = new LlvmRegister("%gc.previous", BYTE_PTR);
+        prologue.add(new LlvmLoad(previous, top));
+        prologue.add(new LlvmStore(previous, field(prologue, frame, 0, "%gc.link", BYTE_PTR)));
+        prologue.add(new LlvmStore(new LlvmIntegerLiteral(values.size()),
+                field(prologue, frame, 1, "%gc.count", LlvmPrimitiveType.I32)));
+
+        Map<String, LlvmValue> slots = new HashMap<String, LlvmValue>();
+        List<LlvmInstruction> parameters = new ArrayList<LlvmInstruction>();
+        for (int i = 0; i < values.size(); i++) {
+            LlvmValue v = values.get(i);
+            LlvmValue slot = field(prologue, frame, i + 2, "%gc.root" + i, v.type);
+            prologue.add(new LlvmStore(new LlvmNamedValue("null", v.type), slot));
+            String name = ((LlvmRegister) v).name;
+            slots.put(name, slot);
+            if (function.definition(v) == null)
+                parameters.add(new LlvmStore(v, slot));
+        }
+        LlvmRegister link = new LlvmRegister("%gc.frame.ptr", BYTE_PTR);
+        prologue.add(new LlvmBitcast(link, frame, BYTE_PTR));
+        prologue.add(new LlvmStore(link, top));
+        prologue.addAll(parameters);
+
+        for (BasicBlock b : cfg.blocks) {
+            List<LlvmInstruction> instructions = new ArrayList<LlvmInstruction>();
+            List<LlvmInstruction> afterPhis = new ArrayList<LlvmInstruction>();
+            boolean phis = true;
+            for (LlvmInstruction instr : b.instructions) {
+                if (phis && !(instr instanceof LlvmPhi)) {
+                    instructions.addAll(afterPhis);
+                    phis = false;
+                }
+                if (instr instanceof LlvmRet)
+                    instructions.add(new LlvmStore(previous, top));
+                instructions.add(instr);
+                LlvmValue def = instr.getDefinition();
+                if (def instanceof LlvmRegister && slots.containsKey(((LlvmRegister) def).name)) {
+                    LlvmStore store = new LlvmStore(def, slots.get(((LlvmRegister) def).name));
+                    // os phis precisam ficar juntos no início do bloco
+                    (phis ? afterPhis : instructions).add(store);
+                }
+            }
+            b.instructions = instructions;
+        }
+        cfg.blocks.get(0).instructions.addAll(0, prologue);
+    }
+
+    // getelementptr do campo 'index' do quadro
+    private static LlvmValue field(List<LlvmInstruction> out, LlvmRegister frame, int index, String name, LlvmType type) {
+        List<LlvmValue> offsets = new LinkedList<LlvmValue>();
+        offsets.add(new LlvmIntegerLiteral(0));
+        offsets.add(new LlvmIntegerLiteral(index));
+        LlvmRegister address = new LlvmRegister(name, LlvmPointer.get(type));
+        out.add(new LlvmGetElementPointer(address, frame, offsets));
+        return address;
+    }
+
+    // Referências vivas na saída de cada bloco. O uso de um phi conta
+    // como uso no fim do predecessor de onde o valor vem.
+    private Map<BasicBlock, Set<String>> liveness(ControlFlowGraph cfg) {
+        Map<BasicBlock, Set<String>> liveIn = new HashMap<BasicBlock, Set<String>>();
+        Map<BasicBlock, Set<String>> liveOut = new HashMap<BasicBlock, Set<String>>();
+        for (BasicBlock b : cfg.blocks) {
+            liveIn.put(b, new HashSet<String>());
+            liveOut.put(b, new HashSet<String>());
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            // pós-ordem: os sucessores costumam ser visitados antes
+            for (int i = cfg.reversePostOrder.size() - 1; i >= 0; i--) {
+                BasicBlock b = cfg.reversePostOrder.get(i);
+                Set<String> out = liveOut.get(b);
+                for (BasicBlock succ : b.successors) {
+                    out.addAll(liveIn.get(succ));
+                    for (LlvmInstruction instr : succ.instructions) {
+                        if (!(instr instanceof LlvmPhi))
+                            break;
+                        LlvmPhi phi = (LlvmPhi) instr;
+                        for (int k = 0; k < phi.labels.size(); k++)
+                            if (phi.labels.get(k).value.equals(b.label.value))
+                                addUse(phi.values.get(k), out);
+                    }
+                }
+
+                Set<String> in = new HashSet<String>(out);
+                for (int k = b.instructions.size() - 1; k >= 0; k--) {
+                    LlvmInstruction instr = b.instructions.get(k);
+                    LlvmValue def = instr.getDefinition();
+                    if (def instanceof LlvmRegister)
+                        in.remove(((LlvmRegister) def).name);
+                    if (!(instr instanceof LlvmPhi))
+                        addUses(instr, in);
+                }
+                if (liveIn.get(b).addAll(in))
+                    changed = true;
+            }
+        }
+        return liveOut;
+    }
+
+    private void addUses(LlvmInstruction instr, Set<String> live) {
+        for (LlvmValue v : instr.getOperands())
+            addUse(v, live);
+    }
+
+    private void addUse(LlvmValue v, Set<String> live) {
+        LlvmValue base = base(v);
+        if (isReference(base)) {
+            String name = ((LlvmRegister) base).name;
+            references.put(name, base);
+            live.add(name);
+        }
+    }
+
+    // objeto de onde vem um ponteiro derivado
+    private LlvmValue base(LlvmValue v) {
+        while (v instanceof LlvmRegister) {
+            LlvmInstruction def = function.definition(v);
+            if (def instanceof LlvmGetElementPointer)
+                v = ((LlvmGetElementPointer) def).source;
+            else if (def instanceof LlvmBitcast)
+                v = ((LlvmBitcast) def).source;
+            else
+                break;
+        }
+        return v;
+    }
+
+    private boolean isReference(LlvmValue v) {
+        if (!(v instanceof LlvmRegister))
+            return false;
+        String name = ((LlvmRegister) v).name;
+        if (!name.startsWith("%"))
+            return false;
+        LlvmInstruction def = function.definition(v);
+        if (def instanceof LlvmCall && ((LlvmCall) def).getFunctionName().equals(GC_ALLOC))
+            return true;
+        return isReferenceType(v.type);
+    }
+
+    // O Mem2Reg lê 'undef' de variável não inicializada; para o coletor ela vale null.
+    // Cada leitura do Mem2Reg cria o seu próprio LlvmNamedValue, então renomear não afeta outros usos.
+    private static void nullUndefinedReferences(LlvmInstruction instr) {
+        for (LlvmValue v : instr.getOperands())
+            if (v instanceof LlvmNamedValue && ((LlvmNamedValue) v).name.equals("undef") && isReferenceType(v.type))
+                ((LlvmNamedValue) v).name = "null";
+    }
+}
@@ -0,0 +1,134 @@
+package llvm;
+
+import llvmast.*;
+import syntaxtree.*;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**********************************************************************************/
+/* === Tabela de Símbolos ==== 
+ * 
+ * 
+ */
+
+/**********************************************************************************/
+
+public class SymTab extends VisitorAdapter {
+    public Map<String, ClassNode> classes;
+    private ClassNode classEnv;    //aponta para a classe em uso
+    private Map<String, ClassDecl> classDecls;
+    boolean reorderFields = true;  // ver FieldLayout
+    boolean packBooleans;
+
+    public LlvmValue FillTabSymbol(Program n) {
+        n.accept(this);
+        return null;
+    }
+
+    public LlvmValue visit(Program n) {
+        n.mainClass.accept(this);
+
+        // a superclasse precisa estar na tabela antes das suas subclasses,
+        // independente da ordem em que aparecem no código
+        classDecls = new HashMap<String, ClassDecl>();
+        for (util.List<ClassDecl> c = n.classList; c != null; c = c.tail)
+            classDecls.put(c.head.name.s, c.head);
+
+        for (util.List<ClassDecl> c = n.classList; c != null; c = c.tail)
+            declareClass(c.head);
+
+        return null;
+    }
+
+    private void declareClass(ClassDecl n) {
+        if (classes.containsKey(n.name.s))
+            return;
+        if (n instanceof ClassDeclExtends) {
+            ClassDecl superClass = classDecls.get(((ClassDeclExtends) n).superClass.s);
+            if (superClass != null)
+                declareClass(superClass);
+        }
+        n.accept(this);
+    }
+
+    public LlvmValue visit(MainClass n) {
+        classes = new HashMap<String, ClassNode>();
+        classes.put(n.className.s, new ClassNode(n.className.s, null, new LinkedList<LlvmValue>()));
+        return null;
+    }
+
+    public LlvmValue visit(ClassDeclSimple n) {
+        return visitClassDecl(n, null);
+    }
+
+    public LlvmValue visit(ClassDeclExtends n) {
+        return visitClassDecl(n, classes.get(n.superClass.s));
+    }
+
+    private LlvmValue visitClassDecl(ClassDecl n, ClassNode superClass) {
+        // percorre a lista de variáveis para ver os tipos
+        List<LlvmValue> varList = new LinkedList<LlvmValue>();
+        for (util.List<VarDecl> v = n.varList; v != null; v = v.tail) {
+            varList.add(v.head.accept(this));
+        }
+
+        classEnv = new ClassNode(n.name.s, superClass, varList, reorderFields, packBooleans);
+        classes.put(n.name.s, classEnv);
+
+        // Percorre n.methodList visitando cada método
+        for (util.List<MethodDecl> methodList = n.methodList; methodList != null; methodList = methodList.tail) {
+            methodList.head.accept(this);
+        }
+
+        return null;
+    }
+
+    public LlvmValue visit(VarDecl n) {
+        LlvmValue value = n.type.accept(this);
+        LlvmNamedValue v = new LlvmNamedValue("%" + n.name.s, value.type);
+        return v;
+    }
+
+    public LlvmValue visit(Formal n) {
+        return new LlvmNamedValue("%" + n.name.s, n.type.accept(this).type);
+    }
+
+    public LlvmValue visit(MethodDecl n) {
+        LlvmType returnType = n.returnType.accept(this).type;
+        List<LlvmValue> args = new LinkedList<LlvmValue>();
+        List<LlvmValue> vars = new LinkedList<LlvmValue>();
+        args.add(classEnv.getClassReference());
+
+        for (util.List<Formal> formals = n.formals; formals != null; formals = formals.tail) {
+            LlvmValue formal = formals.head.accept(this);
+            args.add(formal);
+        }
+
+        for (util.List<VarDecl> varList = n.locals; varList != null; varList = varList.tail) {
+            LlvmValue var = varList.head.accept(this);
+            vars.add(var);
+        }
+
+        classEnv.addMethod(new MethodNode(n.name.s, args, vars, returnType));
+        return null;
+    }
+
+    public LlvmValue visit(IdentifierType n) {
+        return new LlvmNamedValue(n.name, LlvmPointer.get(LlvmClassType.get(n.name)));
+    }
+
+    public LlvmValue visit(IntArrayType n) {
+        return Codegen.INT_ARRAY_VALUE;
+    }
+
+    public LlvmValue visit(BooleanType n) {
+        return Codegen.BOOLEAN_VALUE;
+    }
+
+    public LlvmValue visit(IntegerType n) {
+        return Codegen.INT_VALUE;
+    }
+}
@@ -0,0 +1,385 @@
+package llvm;
+
+import llvm.ControlFlowGraph.BasicBlock;
+import llvmast.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chamadas em posição de cauda.
+ * <p/>
+ * run: a chamada de um método a ele mesmo (chamada direta, ver
+ * Codegen.visit(Call)) cujo resultado é o que o método devolve vira um
+ * desvio para o começo do corpo, e a recursão vira um laço. Os
+ * parâmetros que mudam entre as chamadas ganham phis no cabeçalho novo
+ * (%tailrec), e a entrada fica só com os allocas e o desvio para ele.
+ * Entre a chamada e o ret só podem estar desvios incondicionais e phis,
+ * como no fim de um if/else do Codegen. Também contam:
+ * <ul>
+ * <li>o resultado somado ou multiplicado por outro valor (n * fac(n - 1)):
+ * o laço leva um acumulador, que começa com 0 ou 1 e entra em cada ret;</li>
+ * <li>o resultado ignorado quando todo ret do método devolve a mesma
+ * constante (os métodos "void" de MiniJava, que devolvem 0 ou true).</li>
+ * </ul>
+ * Roda por classe, logo depois do Mem2Reg, antes do inlining.
+ * <p/>
+ * mark: no fim, as chamadas que sobraram em posição de cauda (resultado
+ * devolvido sem mudança) ganham 'tail', e 'musttail' quando o ret vem
+ * logo depois e os tipos batem com os do método. Com -fgc não se marca
+ * nada: o chamado lê o quadro do chamador pela pilha de sombra.
+ */
+class TailRecursion {
+    static final String HEADER = "tailrec";
+
+    private boolean enabled = true;
+    private boolean marking = true;
+    private final AtomicInteger eliminated = new AtomicInteger();
+    private final AtomicInteger marked = new AtomicInteger();
+
+    // Uma chamada recursiva que vira desvio
+    private static final class Site {
+        final LlvmCall call;
+        LlvmInstruction accumulate; // add/mul do resultado com outro valor, ou null
+        Exit exit;
+
+        Site(LlvmCall call) {
+            this.call = call;
+        }
+    }
+
+    // Caminho do fim de um bloco até o ret, só por desvios incondicionais e phis
+    private static final class Exit {
+        BasicBlock first;  // primeiro bloco depois do desvio (null se o ret é no próprio bloco)
+        LlvmValue value;   // o valor seguido, com o nome que tem no ret
+        LlvmRet ret;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setMarking(boolean marking) {
+        this.marking = marking;
+    }
+
+    public int getEliminated() {
+        return eliminated.get();
+    }
+
+    public int getMarked() {
+        return marked.get();
+    }
+
+    void run(Module module) {
+        if (!enabled)
+            return;
+        new FunctionPass() {
+            protected void apply(Function f) {
+                eliminate(f);
+            }
+        }.run(module);
+    }
+
+    void mark(Module module) {
+        if (!enabled || !marking)
+            return;
+        new FunctionPass() {
+            protected void apply(Function f) {
+                markCalls(f);
+            }
+        }.run(module);
+    }
+
+    // ---- recursão em cauda ----
+
+    private void eliminate(Function f) {
+        LlvmDefine define = f.define;
+        boolean recursive = false;
+        for (BasicBlock b : f.getBlocks())
+            for (LlvmInstruction instr : b.instructions)
+                recursive |= isSelfCall(instr, define);
+        if (!recursive)
+            return;
+
+        LlvmValue constant = constantReturn(f, define);
+        List<Site> sites = new ArrayList<Site>();
+        Class<?> op = null;
+        for (BasicBlock b : f.getBlocks())
+            for (LlvmInstruction instr : b.instructions) {
+                if (!isSelfCall(instr, define))
+                    continue;
+                Site s = site(f, b, (LlvmCall) instr, constant);
+                if (s == null)
+                    continue;
+                // um acumulador só: as chamadas com a outra operação ficam
+                if (s.accumulate != null) {
+                    if (op == null)
+                        op = s.accumulate.getClass();
+                    else if (op != s.accumulate.getClass())
+                        continue;
+                }
+                sites.add(s);
+            }
+        if (sites.isEmpty())
+            return;
+
+        transform(f, define, sites, op);
+        eliminated.addAndGet(sites.size());
+        // os blocos que só o desvio alcançava somem, com as entradas dos phis
+        f.update();
+    }
+
+    private static boolean isSelfCall(LlvmInstruction instr, LlvmDefine define) {
+        return instr instanceof LlvmCall && ((LlvmCall) instr).getFunctionName().equals(define.name);
+    }
+
+    // A constante que todo ret devolve (seguindo os phis; as chamadas
+    // recursivas devolvem o mesmo), ou null
+    private static LlvmValue constantReturn(Function f, LlvmDefine define) {
+        LlvmValue constant = null;
+        Deque<LlvmValue> work = new ArrayDeque<LlvmValue>();
+        Set<String> seen = new HashSet<String>();
+        for (BasicBlock b : f.getBlocks())
+            if (b.getTerminator() instanceof LlvmRet)
+                work.add(((LlvmRet) b.getTerminator()).v);
+        while (!work.isEmpty()) {
+            LlvmValue v = work.poll();
+            if (v instanceof LlvmIntegerLiteral || v instanceof LlvmBool) {
+                if (constant == null)
+                    constant = v;
+                else if (!constant.toString().equals(v.toString()))
+                    return null;
+                continue;
+            }
+            LlvmInstruction def = f.definition(v);
+            if (def instanceof LlvmPhi) {
+                if (seen.add(v.toString()))
+                    work.addAll(((LlvmPhi) def).values);
+            } else if (!isSelfCall(def, define)) {
+                return null;
+            }
+        }
+        return constant;
+    }
+
+    // A chamada 'call' de 'b' está em posição de cauda? null se não
+    private static Site site(Function f, BasicBlock b, LlvmCall call, LlvmValue constant) {
+        int i = b.instructions.indexOf(call);
+        List<LlvmInstruction> after = b.instructions.subList(i + 1, b.instructions.size() - 1);
+        Site s = new Site(call);
+        LlvmValue value = call.lhs;
+        if (after.size() == 1 && other(after.get(0), call.lhs) != null && f.users(call.lhs).size() == 1) {
+            s.accumulate = after.get(0);
+            value = s.accumulate.getDefinition();
+        } else if (!after.isEmpty()) {
+            return null;
+        }
+
+        s.exit = exit(b, value);
+        if (s.exit == null)
+            return null;
+        if (LlvmInstruction.sameValue(s.exit.ret.v, s.exit.value)) {
+            // o valor só pode chegar ao ret: o desvio tira as entradas de 'b' do primeiro bloco
+            for (LlvmInstruction user : f.users(value))
+                if (user != s.exit.ret && !(user instanceof LlvmPhi && f.block(user) == s.exit.first))
+                    return null;
+            return s;
+        }
+        if (s.accumulate == null && constant != null && s.exit.ret.v.toString().equals(constant.toString())
+                && f.users(call.lhs).isEmpty())
+            return s;
+        return null;
+    }
+
+    // O outro operando de um add/mul que usa 'v' uma vez, ou null
+    private static LlvmValue other(LlvmInstruction instr, LlvmValue v) {
+        LlvmValue op1, op2;
+        if (instr instanceof LlvmPlus) {
+            op1 = ((LlvmPlus) instr).op1;
+            op2 = ((LlvmPlus) instr).op2;
+        } else if (instr instanceof LlvmTimes) {
+            op1 = ((LlvmTimes) instr).op1;
+            op2 = ((LlvmTimes) instr).op2;
+        } else {
+            return null;
+        }
+        if (LlvmInstruction.sameValue(op1, v) == LlvmInstruction.sameValue(op2, v))
+            return null;
+        return LlvmInstruction.sameValue(op1, v) ? op2 : op1;
+    }
+
+    private static Exit exit(BasicBlock b, LlvmValue value) {
+        Exit e = new Exit();
+        e.value = value;
+        Set<BasicBlock> seen = new HashSet<BasicBlock>();
+        BasicBlock from = b;
+        while (true) {
+            LlvmInstruction term = from.getTerminator();
+            if (term instanceof LlvmRet) {
+                e.ret = (LlvmRet) term;
+                return e;
+            }
+            if (((LlvmBranch) term).cond != null)
+                return null;
+            BasicBlock next = from.successors.get(0);
+            if (!seen.add(next))
+                return null;
+            if (e.first == null)
+                e.first = next;
+            LlvmValue carried = null;
+            for (LlvmInstruction instr : next.instructions) {
+                if (ControlFlowGraph.isTerminator(instr))
+                    break;
+                if (!(instr instanceof LlvmPhi))
+                    return null;
+                LlvmPhi phi = (LlvmPhi) instr;
+                for (int k = 0; k < phi.values.size(); k++)
+                    if (phi.labels.get(k).value.equals(from.label.value) && LlvmInstruction.sameValue(phi.values.get(k), e.value)) {
+                        if (carried != null)
+                            return null;
+                        carried = phi.lhs;
+                    }
+            }
+            if (carried != null)
+                e.value = carried;
+            from = next;
+        }
+    }
+
+    private static void transform(Function f, LlvmDefine define, List<Site> sites, Class<?> op) {
+        // a entrada fica com os allocas; o resto vira o cabeçalho do laço
+        BasicBlock entry = f.getEntry();
+        int k = 0;
+        while (entry.instructions.get(k) instanceof LlvmAlloca)
+            k++;
+        BasicBlock header = f.split(entry, k, new LlvmLabelValue(HEADER));
+        int phis = 0;
+
+        // parâmetros que alguma chamada muda
+        for (int i = 0; i < define.args.size(); i++) {
+            LlvmValue param = define.args.get(i);
+            boolean changes = false;
+            for (Site s : sites)
+                changes |= !LlvmInstruction.sameValue(s.call.args.get(i), param);
+            if (!changes)
+                continue;
+            LlvmRegister current = new LlvmRegister(param + "." + HEADER, param.type);
+            f.replaceAllUses(param, current);
+            LlvmPhi phi = new LlvmPhi(current, param.type);
+            phi.addIncoming(param, entry.label);
+            for (Site s : sites)
+                phi.addIncoming(s.call.args.get(i), f.block(s.call).label);
+            f.insert(header, phis++, phi);
+        }
+
+        if (op != null) {
+            LlvmType type = define.resultType;
+            LlvmRegister acc = new LlvmRegister("%" + HEADER + ".acc", type);
+            LlvmPhi phi = new LlvmPhi(acc, type);
+            phi.addIncoming(new LlvmIntegerLiteral(op == LlvmTimes.class ? 1 : 0), entry.label);
+            int n = 0;
+            for (Site s : sites) {
+                BasicBlock b = f.block(s.call);
+                LlvmValue next = acc;
+                if (s.accumulate != null) {
+                    LlvmRegister r = new LlvmRegister("%" + HEADER + ".acc" + n++, type);
+                    f.append(b, operation(op, r, acc, other(s.accumulate, s.call.lhs)));
+                    next = r;
+                }
+                phi.addIncoming(next, b.label);
+            }
+            f.insert(header, phis, phi);
+        }
+
+        for (Site s : sites) {
+            BasicBlock b = f.block(s.call);
+            if (s.exit.first != null)
+                for (LlvmInstruction instr : new ArrayList<LlvmInstruction>(s.exit.first.instructions))
+                    if (instr instanceof LlvmPhi)
+                        removeIncoming(f, s.exit.first, (LlvmPhi) instr, b.label);
+            f.remove(b.getTerminator());
+            if (s.accumulate != null)
+                f.remove(s.accumulate);
+            f.remove(s.call);
+            f.insert(b, b.instructions.size(), new LlvmBranch(header.label));
+        }
+
+        // cada ret que sobrou devolve o acumulado combinado com o que devolvia
+        if (op != null) {
+            LlvmRegister acc = (LlvmRegister) header.instructions.get(phis).getDefinition();
+            int n = 0;
+            for (BasicBlock b : f.getBlocks())
+                if (b.getTerminator() instanceof LlvmRet) {
+                    LlvmRet ret = (LlvmRet) b.getTerminator();
+                    LlvmRegister r = new LlvmRegister("%" + HEADER + ".ret" + n++, acc.type);
+                    f.append(b, operation(op, r, acc, ret.v));
+                    f.replaceOperand(ret, ret.v, r);
+                }
+        }
+    }
+
+    private static LlvmInstruction operation(Class<?> op, LlvmRegister lhs, LlvmValue op1, LlvmValue op2) {
+        if (op == LlvmTimes.class)
+            return new LlvmTimes(lhs, lhs.type, op1, op2);
+        return new LlvmPlus(lhs, lhs.type, op1, op2);
+    }
+
+    // Tira de 'phi' a entrada de 'label' (passando pelo Function, para os usos ficarem certos)
+    private static void removeIncoming(Function f, BasicBlock b, LlvmPhi phi, LlvmLabelValue label) {
+        int index = b.instructions.indexOf(phi);
+        f.remove(phi);
+        for (int i = phi.labels.size() - 1; i >= 0; i--)
+            if (phi.labels.get(i).value.equals(label.value)) {
+                phi.labels.remove(i);
+                phi.values.remove(i);
+            }
+        f.insert(b, index, phi);
+    }
+
+    // ---- marcação ----
+
+    private void markCalls(Function f) {
+        LlvmDefine define = f.define;
+        boolean calls = false;
+        for (BasicBlock b : f.getBlocks())
+            for (LlvmInstruction instr : b.instructions) {
+                // o chamado poderia receber o endereço de uma variável do quadro
+                if (instr instanceof LlvmAlloca)
+                    return;
+                calls |= instr instanceof LlvmCall;
+            }
+        if (!calls)
+            return;
+
+        int n = 0;
+        for (BasicBlock b : f.getBlocks()) {
+            int last = b.instructions.size() - 2;
+            if (last < 0 || !(b.instructions.get(last) instanceof LlvmCall))
+                continue;
+            LlvmCall call = (LlvmCall) b.instructions.get(last);
+            if (call.lhs == null)
+                continue;
+            Exit exit = exit(b, call.lhs);
+            if (exit == null || !LlvmInstruction.sameValue(exit.ret.v, exit.value))
+                continue;
+            call.tail = exit.first == null && sameSignature(call, define) ? "musttail" : "tail";
+            n++;
+        }
+        marked.addAndGet(n);
+    }
+
+    // musttail exige o mesmo tipo de retorno e os mesmos tipos de parâmetros
+    private static boolean sameSignature(LlvmCall call, LlvmDefine define) {
+        if (!call.type.toString().equals(define.resultType.toString()) || call.args.size() != define.args.size())
+            return false;
+        for (int i = 0; i < call.args.size(); i++)
+            if (!call.args.get(i).type.toString().equals(define.args.get(i).type.toString()))
+                return false;
+        return true;
+    }
+}
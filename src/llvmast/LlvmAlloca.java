@@ -11,6 +11,18 @@ public  class LlvmAlloca extends LlvmInstruction{
 	this.numbers = numbers;
     }
 
+    public LlvmValue getDefinition(){
+	return lhs;
+    }
+
+    public List<LlvmValue> getOperands(){
+	return numbers;
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	replace(numbers, from, to);
+    }
+
     public String toString(){
 	String nrs = "";
 	for(LlvmValue v : numbers)
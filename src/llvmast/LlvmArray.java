@@ -1,14 +1,39 @@
 package llvmast;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 public class LlvmArray extends LlvmType{
-    public int length;
-    public LlvmType content;
+    private static final ConcurrentMap<LlvmArray, LlvmArray> INTERNED = new ConcurrentHashMap<LlvmArray, LlvmArray>();
+
+    public final int length;
+    public final LlvmType content;
+    private String text;
     
-    public LlvmArray(int length, LlvmType content){
+    private LlvmArray(int length, LlvmType content){
 	this.length = length;
 	this.content = content;
     }
 
+    // Vetor de 'length' elementos 'content'; a mesma instância para os mesmos argumentos
+    public static LlvmArray get(int length, LlvmType content){
+	LlvmArray key = new LlvmArray(length, content);
+	LlvmArray type = INTERNED.putIfAbsent(key, key);
+	return type == null ? key : type;
+    }
+
+    // só para a tabela: os tipos apontados já são únicos, então comparam por referência
+    public boolean equals(Object o){
+	return o instanceof LlvmArray && ((LlvmArray) o).length == length && ((LlvmArray) o).content == content;
+    }
+
+    public int hashCode(){
+	return 31 * length + System.identityHashCode(content);
+    }
+
     public String toString(){
-	return "[" + length + " x " + content + "]";
+	if (text == null)
+	    text = "[" + length + " x " + content + "]";
+	return text;
     }
-}
\ No newline at end of file
+}
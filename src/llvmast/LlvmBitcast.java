@@ -11,6 +11,22 @@ public class LlvmBitcast extends LlvmInstruction{
 	this.toType = toType;
     }
     
+    public LlvmValue getDefinition(){
+	return lhs;
+    }
+
+    public List<LlvmValue> getOperands(){
+	return Collections.singletonList(source);
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	source = replace(source, from, to);
+    }
+
+    public LlvmInstruction copy(LlvmRenaming r){
+	return new LlvmBitcast(r.value(lhs), r.value(source), toType);
+    }
+
     public String toString(){
     	return "  " + lhs + " = bitcast " + source.type + " " + source +" to " + toType;
     }
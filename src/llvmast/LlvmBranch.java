@@ -1,4 +1,5 @@
 package llvmast;
+import java.util.*;
 public  class LlvmBranch extends LlvmInstruction{
 
     public LlvmLabelValue ifTrue = null;
@@ -16,6 +17,22 @@ public  class LlvmBranch extends LlvmInstruction{
     	this.cond = cond;
     }
 
+    public List<LlvmValue> getOperands(){
+	if (cond == null)
+	    return Collections.emptyList();
+	return Collections.singletonList(cond);
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	cond = replace(cond, from, to);
+    }
+
+    public LlvmInstruction copy(LlvmRenaming r){
+	if (cond == null)
+	    return new LlvmBranch(r.label(ifTrue));
+	return new LlvmBranch(r.value(cond), r.label(ifTrue), r.label(ifFalse));
+    }
+
     public String toString(){
 		if (cond == null && ifTrue != null) {
 			return " " + "br label %" + ifTrue;
@@ -6,32 +6,72 @@ public  class LlvmCall extends LlvmInstruction{
     public LlvmType type;
     public LlvmPointer fnType = null;
     public List<LlvmType> fnTypeList = null;
-    public String fnName;
+    // @nome na chamada direta; na chamada pela vtable, o registrador com o
+    // ponteiro da função. É um operando como os argumentos.
+    public LlvmValue function;
     public List<LlvmValue> args;
+    public String tail = null; // "tail" ou "musttail" (ver llvm.TailRecursion), ou null
 
-    public LlvmCall(LlvmRegister lhs, LlvmType type, LlvmPointer fnType, String fnName, List<LlvmValue> args){
+    public LlvmCall(LlvmRegister lhs, LlvmType type, LlvmValue function, List<LlvmValue> args){
 	this.lhs = lhs;
 	this.type = type;
-	this.fnType = fnType;
-	this.fnName = fnName;
+	this.function = function;
 	this.args = args;
     }
 
+    public LlvmCall(LlvmRegister lhs, LlvmType type, LlvmPointer fnType, String fnName, List<LlvmValue> args){
+	this(lhs, type, function(fnName, type, args), args);
+	this.fnType = fnType;
+    }
+
     public LlvmCall(LlvmRegister lhs, LlvmType type, String fnName, List<LlvmValue> args){
-	this.lhs = lhs;
-	this.type = type;
-	this.fnName = fnName;
-	this.args = args;
+	this(lhs, type, function(fnName, type, args), args);
     }
 
     public LlvmCall(LlvmRegister lhs, LlvmType type, List<LlvmType> fnType, String fnName, List<LlvmValue> args) {
-    	this.lhs = lhs;
-    	this.type = type;
+    	this(lhs, type, function(fnName, type, args), args);
     	this.fnTypeList = fnType;
-    	this.fnName = fnName;
-    	this.args = args;	
     	}
 
+    // Função chamada pelo nome, com o tipo tirado dos argumentos
+    private static LlvmValue function(String fnName, LlvmType type, List<LlvmValue> args){
+	List<LlvmType> types = new ArrayList<LlvmType>(args.size());
+	for (LlvmValue arg : args)
+	    types.add(arg.type);
+	return new LlvmNamedValue(fnName, LlvmPointer.get(new LlvmFunctionType(type, types)));
+    }
+
+    // Nome da função chamada ('@f'), ou do registrador na chamada indireta
+    public String getFunctionName(){
+	return function.toString();
+    }
+
+	public LlvmValue getDefinition(){
+		return lhs;
+	}
+
+	public List<LlvmValue> getOperands(){
+		List<LlvmValue> operands = new ArrayList<LlvmValue>(args.size() + 1);
+		operands.add(function);
+		operands.addAll(args);
+		return operands;
+	}
+
+	public void replaceOperand(LlvmValue from, LlvmValue to){
+		function = replace(function, from, to);
+		replace(args, from, to);
+	}
+
+	public LlvmInstruction copy(LlvmRenaming r){
+		LlvmRegister result = lhs == null ? null : (LlvmRegister) r.value(lhs);
+		LlvmCall copy = new LlvmCall(result, type, r.value(function), copy(args, r));
+		copy.fnType = fnType;
+		copy.fnTypeList = fnTypeList;
+		// a cópia pode não estar mais logo antes do ret
+		copy.tail = "musttail".equals(tail) ? "tail" : tail;
+		return copy;
+	}
+
 	public String toString(){
 
 	String arguments = "";
@@ -51,13 +91,18 @@ public  class LlvmCall extends LlvmInstruction{
 		    if(i+1<fnTypeList.size()) 
 			fnTypeResult = fnTypeResult + ", ";
 		}
-		fnTypeResult += ")*";
+		// desde o LLVM 3.7 o call leva o tipo da função, não o ponteiro para ela
+		fnTypeResult += ")";
 	} else 
 	{
 		if (fnType != null)
 			fnTypeResult = fnType.toString();
 	}
 
-	return "  " + lhs + " = " + "call " + type + " " + fnTypeResult + " " + fnName +  "(" + arguments + ")"; 
+	// chamadas void não têm resultado
+	String result = lhs == null ? "  " : "  " + lhs + " = ";
+	if (tail != null)
+		result = result + tail + " ";
+	return result + "call " + type + " " + fnTypeResult + " " + function +  "(" + arguments + ")"; 
     }
 }
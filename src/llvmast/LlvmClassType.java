@@ -1,13 +1,33 @@
 package llvmast;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 public class LlvmClassType extends LlvmType {
-	public String name;
+	private static final ConcurrentMap<String, LlvmClassType> INTERNED = new ConcurrentHashMap<String, LlvmClassType>();
+
+	public final String name;
+	private final String text;
 	
-	public LlvmClassType(String name) {
+	// use LlvmClassType.get; o construtor fica para tipos com nome próprio (ex.: %arena)
+	protected LlvmClassType(String name) {
 		this.name = name;
+		this.text = "%class." + name;
+	}
+
+	// Tipo da classe 'name'; a mesma instância para o mesmo nome
+	public static LlvmClassType get(String name) {
+		LlvmClassType type = INTERNED.get(name);
+		if (type == null) {
+			type = new LlvmClassType(name);
+			LlvmClassType old = INTERNED.putIfAbsent(name, type);
+			if (old != null)
+				type = old;
+		}
+		return type;
 	}
 
 	public String toString() {
-		return "%class."+name;
+		return text;
 	}
 }
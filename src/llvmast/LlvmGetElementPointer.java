@@ -11,6 +11,26 @@ public class LlvmGetElementPointer extends LlvmInstruction{
 	this.offsets = offsets;
     }
     
+    public LlvmValue getDefinition(){
+	return lhs;
+    }
+
+    public List<LlvmValue> getOperands(){
+	List<LlvmValue> operands = new ArrayList<LlvmValue>(offsets.size() + 1);
+	operands.add(source);
+	operands.addAll(offsets);
+	return operands;
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	source = replace(source, from, to);
+	replace(offsets, from, to);
+    }
+
+    public LlvmInstruction copy(LlvmRenaming r){
+	return new LlvmGetElementPointer(r.value(lhs), r.value(source), copy(offsets, r));
+    }
+
     public String toString(){
 	String ps = "";
 	for(int i = 0; i<offsets.size(); i++){
@@ -19,7 +39,9 @@ public class LlvmGetElementPointer extends LlvmInstruction{
 		ps = ps + ", ";
 
 	}
-	return "  " + lhs + " = getelementptr " + source.type + " " + source +", " + ps;
+	// sintaxe do LLVM 3.7+, com o tipo apontado explícito (como no load)
+	LlvmType element = ((LlvmPointer) source.type).content;
+	return "  " + lhs + " = getelementptr " + element + ", " + source.type + " " + source +", " + ps;
     }
 
 }
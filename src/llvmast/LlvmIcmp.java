@@ -1,8 +1,10 @@
 package llvmast;
+import java.util.*;
 public  class LlvmIcmp extends LlvmInstruction{
     
 	private LlvmRegister lhs;
 	private String condition;
+	private int conditionCode;
 	private LlvmType type;
 	private LlvmValue op1;
 	private LlvmValue op2;
@@ -20,6 +22,7 @@ public  class LlvmIcmp extends LlvmInstruction{
 	
     public LlvmIcmp(LlvmRegister lhs,  int conditionCode, LlvmType type, LlvmValue op1, LlvmValue op2){
     	this.lhs = lhs;
+    	this.conditionCode = conditionCode;
     	this.type = type;
     	this.op1 = op1;
     	this.op2 = op2;
@@ -39,6 +42,27 @@ public  class LlvmIcmp extends LlvmInstruction{
     	
     }
 
+    public String getCondition(){
+	return condition;
+    }
+
+    public LlvmValue getDefinition(){
+	return lhs;
+    }
+
+    public List<LlvmValue> getOperands(){
+	return Arrays.asList(op1, op2);
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	op1 = replace(op1, from, to);
+	op2 = replace(op2, from, to);
+    }
+
+    public LlvmInstruction copy(LlvmRenaming r){
+	return new LlvmIcmp((LlvmRegister) r.value(lhs), conditionCode, type, r.value(op1), r.value(op2));
+    }
+
     public String toString(){
 		return " " + lhs + " = icmp " + condition + " " + type + " " + op1 + ", " + op2;
     }
@@ -1,3 +1,63 @@
 package llvmast;
+import java.io.IOException;
+import java.util.*;
 public abstract class LlvmInstruction{
-}
\ No newline at end of file
+
+    // Escreve a instrução (e a quebra de linha) direto em 'out',
+    // sem concatenar com o restante do módulo
+    public void emit(Appendable out) throws IOException{
+	out.append(toString()).append('\n');
+    }
+
+    // Registrador definido pela instrução, se houver
+    public LlvmValue getDefinition(){
+	return null;
+    }
+
+    // Valores lidos pela instrução
+    public List<LlvmValue> getOperands(){
+	return Collections.emptyList();
+    }
+
+    // Troca todos os usos de 'from' por 'to'
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+    }
+
+    // Cópia da instrução com os registradores e labels trocados por 'r',
+    // usada pelo inliner. Devolve null se a instrução não pode ser copiada.
+    public LlvmInstruction copy(LlvmRenaming r){
+	return null;
+    }
+
+    // Registradores são comparados pelo nome: o Codegen recria o mesmo
+    // registrador (ex.: variáveis locais) em vários pontos
+    public static boolean sameValue(LlvmValue a, LlvmValue b){
+	if (a == b)
+	    return true;
+	if (a instanceof LlvmRegister && b instanceof LlvmRegister)
+	    return ((LlvmRegister) a).name.equals(((LlvmRegister) b).name);
+	return false;
+    }
+
+    protected static LlvmValue replace(LlvmValue v, LlvmValue from, LlvmValue to){
+	return v != null && sameValue(v, from) ? to : v;
+    }
+
+    // só escreve na lista quando troca algo: as listas de índices dos
+    // atributos (ClassNode.getOffset) são compartilhadas e imutáveis
+    protected static void replace(List<LlvmValue> values, LlvmValue from, LlvmValue to){
+	for (ListIterator<LlvmValue> it = values.listIterator(); it.hasNext(); ) {
+	    LlvmValue v = it.next();
+	    LlvmValue r = replace(v, from, to);
+	    if (r != v)
+		it.set(r);
+	}
+    }
+
+    protected static List<LlvmValue> copy(List<LlvmValue> values, LlvmRenaming r){
+	List<LlvmValue> copy = new LinkedList<LlvmValue>();
+	for (LlvmValue v : values)
+	    copy.add(r.value(v));
+	return copy;
+    }
+}
@@ -2,6 +2,10 @@ package llvmast;
 public class LlvmLabel extends LlvmInstruction{
     public LlvmLabelValue label;
     public LlvmLabel(LlvmLabelValue label){this.label = label;}
+
+    public LlvmInstruction copy(LlvmRenaming r){
+	return new LlvmLabel(r.label(label));
+    }
     public String toString(){
 	return label+":";
     }
@@ -1,4 +1,5 @@
 package llvmast;
+import java.util.*;
 public class LlvmLoad extends LlvmInstruction{
     public LlvmValue lhs;
     public LlvmValue address; // includes its type
@@ -8,7 +9,23 @@ public class LlvmLoad extends LlvmInstruction{
 	this.address=address;
     }
     
+    public LlvmValue getDefinition(){
+	return lhs;
+    }
+
+    public List<LlvmValue> getOperands(){
+	return Collections.singletonList(address);
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	address = replace(address, from, to);
+    }
+
+    public LlvmInstruction copy(LlvmRenaming r){
+	return new LlvmLoad(r.value(lhs), r.value(address));
+    }
+
     public String toString(){
-	return "  " + lhs + " = load " + address.type + ", " + address;
+	return "  " + lhs + " = load " + lhs.type + ", " + address.type + " " + address;
     }
 }
@@ -5,16 +5,12 @@ public  class LlvmMalloc extends LlvmInstruction{
     public LlvmType type;
     public LlvmValue nElements;
     
-    // Armazena o tamanho do último objeto. 
-    // Útil para pegar o Lenght do vetor 
-    public static LlvmValue lastArraySize = null;
-
     
     private int size; 
     private LlvmRegister lhsTimes;
     private LlvmRegister lhsCall;
     
-	String times, call, bitcast;
+	private String className;
 
 	/**
 	 * 
@@ -25,14 +21,14 @@ public  class LlvmMalloc extends LlvmInstruction{
 	 * @param size
 	 */
 	public LlvmMalloc(LlvmValue lhs, LlvmValue size){
-		call = new String();
-		bitcast = new String();
-
-		LlvmValue lhsCall = new  LlvmRegister(LlvmPrimitiveType.I8);
+		this.lhs = lhs;
+		this.type = LlvmPrimitiveType.I32;
+		this.nElements = size;
+		this.size = 1;
 
-		// Malloc de <size> bytes
-		call = "  " + lhsCall + " = call i8* @malloc ( i32 "+ size + ")\n";  
-		bitcast = "  " + lhs + " = bitcast i8* " + lhsCall + " to i32*\n";
+		// temporários nomeados a partir do lhs, que já é único na função
+		lhsTimes = new LlvmRegister(lhs + ".bytes", LlvmPrimitiveType.I32);
+		lhsCall = new LlvmRegister(lhs + ".mem", LlvmPointer.get(LlvmPrimitiveType.I8));
 	}
 	
 	
@@ -71,36 +67,55 @@ public  class LlvmMalloc extends LlvmInstruction{
 		this.lhs = lhs;
 		this.type = type;
 		this.nElements = nElements;
+		this.className = className;
 		this.size = 0;
-		this.lastArraySize = null;
 		
 		// calculando o tamanho do malloc (em Bytes)
 		if ( type instanceof LlvmStructure ){
 			size = ((LlvmStructure) type).sizeByte;
 		} else {
-			this.nElements = null;
 			if ( type == LlvmPrimitiveType.I32 ){
 				size = 4;
-				this.lastArraySize = nElements;
 			} else { 
 				// Se é um bool
 				size = 1;
 			}
 		}		
 		
-		lhsTimes = new LlvmRegister(LlvmPrimitiveType.I32);
-		lhsCall = new  LlvmRegister(LlvmPrimitiveType.I8);
-
-		times = new String("  " + lhsTimes + " = mul i32 " + size + ", " + nElements + "\n");
-		call = new String("  " + lhsCall + " = call i8* @malloc ( i32 "+ lhsTimes + ")\n");
-		if (className == null)
-			bitcast = new String("  " + lhs + " = bitcast i8* " + lhsCall + " to " + type + "*");
-		else
-			bitcast = new String("  " + lhs + " = bitcast i8* " + lhsCall + " to " + className + "*");
+		// temporários nomeados a partir do lhs, que já é único na função
+		lhsTimes = new LlvmRegister(lhs + ".bytes", LlvmPrimitiveType.I32);
+		lhsCall = new LlvmRegister(lhs + ".mem", LlvmPointer.get(LlvmPrimitiveType.I8));
 	}    
-	
+
+    public LlvmValue getDefinition(){
+	return lhs;
+    }
+
+    public List<LlvmValue> getOperands(){
+	return Collections.singletonList(nElements);
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	nElements = replace(nElements, from, to);
+    }
+
+    // O texto é montado só na emissão, depois que os passes
+    // de otimização já reescreveram os operandos
+    public LlvmInstruction copy(LlvmRenaming r){
+	// só objetos: os outros construtores não guardam como foram chamados
+	if (className == null)
+	    return null;
+	return new LlvmMalloc(r.value(lhs), type, className);
+    }
+
     public String toString(){
+	String times = "  " + lhsTimes + " = mul i32 " + size + ", " + nElements + "\n";
+	String call = "  " + lhsCall + " = call i8* @malloc ( i32 "+ lhsTimes + ")\n";
+	String bitcast;
+	if (className == null)
+		bitcast = "  " + lhs + " = bitcast i8* " + lhsCall + " to " + type + "*";
+	else
+		bitcast = "  " + lhs + " = bitcast i8* " + lhsCall + " to " + className + "*";
 	return times + call  + bitcast;
     }
 }
-	
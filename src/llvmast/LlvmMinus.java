@@ -1,4 +1,5 @@
 package llvmast;
+import java.util.*;
 public  class LlvmMinus extends LlvmInstruction{
 	
 	public LlvmRegister lhs;
@@ -12,6 +13,23 @@ public  class LlvmMinus extends LlvmInstruction{
 		this.op2 = op2;	
     }
 
+    public LlvmValue getDefinition(){
+	return lhs;
+    }
+
+    public List<LlvmValue> getOperands(){
+	return Arrays.asList(op1, op2);
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	op1 = replace(op1, from, to);
+	op2 = replace(op2, from, to);
+    }
+
+    public LlvmInstruction copy(LlvmRenaming r){
+	return new LlvmMinus((LlvmRegister) r.value(lhs), type, r.value(op1), r.value(op2));
+    }
+
     public String toString() {
 		return "  " + lhs + " = sub " + type + " " + op1 + ", " + op2;
     }
@@ -0,0 +1,36 @@
+package llvmast;
+import java.util.*;
+
+public class LlvmOr extends LlvmInstruction {
+	public LlvmRegister lhs;
+	public LlvmType type;
+	public LlvmValue op1, op2;
+	
+	public LlvmOr(LlvmRegister lhs, LlvmType type, LlvmValue op1, LlvmValue op2){
+		this.lhs = lhs;
+		this.type = type;
+		this.op1 = op1;
+		this.op2 = op2;	
+    }
+
+    public LlvmValue getDefinition(){
+	return lhs;
+    }
+
+    public List<LlvmValue> getOperands(){
+	return Arrays.asList(op1, op2);
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	op1 = replace(op1, from, to);
+	op2 = replace(op2, from, to);
+    }
+
+    public LlvmInstruction copy(LlvmRenaming r){
+	return new LlvmOr((LlvmRegister) r.value(lhs), type, r.value(op1), r.value(op2));
+    }
+
+    public String toString() {
+		return "  " + lhs + " = or " + type + " " + op1 + ", " + op2;
+    }
+}
@@ -0,0 +1,54 @@
+package llvmast;
+import java.util.*;
+public class LlvmPhi extends LlvmInstruction{
+    public LlvmRegister lhs;
+    public LlvmType type;
+    public List<LlvmValue> values;
+    public List<LlvmLabelValue> labels;
+
+    public LlvmPhi(LlvmRegister lhs, LlvmType type){
+	this(lhs, type, new ArrayList<LlvmValue>(), new ArrayList<LlvmLabelValue>());
+    }
+
+    public LlvmPhi(LlvmRegister lhs, LlvmType type, List<LlvmValue> values, List<LlvmLabelValue> labels){
+	this.lhs = lhs;
+	this.type = type;
+	this.values = values;
+	this.labels = labels;
+    }
+
+    // Acrescenta o valor que chega pelo bloco 'label'
+    public void addIncoming(LlvmValue value, LlvmLabelValue label){
+	values.add(value);
+	labels.add(label);
+    }
+
+    public LlvmValue getDefinition(){
+	return lhs;
+    }
+
+    public List<LlvmValue> getOperands(){
+	return values;
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	replace(values, from, to);
+    }
+
+    public LlvmInstruction copy(LlvmRenaming r){
+	List<LlvmLabelValue> incoming = new ArrayList<LlvmLabelValue>();
+	for (LlvmLabelValue l : labels)
+	    incoming.add(r.label(l));
+	return new LlvmPhi((LlvmRegister) r.value(lhs), type, copy(values, r), incoming);
+    }
+
+    public String toString(){
+	String incoming = "";
+	for(int i = 0; i<values.size(); i++){
+	    incoming = incoming + "[ " + values.get(i) + ", %" + labels.get(i) + " ]";
+	    if(i+1<values.size())
+		incoming = incoming + ", ";
+	}
+	return "  " + lhs + " = phi " + type + " " + incoming;
+    }
+}
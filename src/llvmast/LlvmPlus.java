@@ -1,4 +1,5 @@
 package llvmast;
+import java.util.*;
 
 public class LlvmPlus extends LlvmInstruction {
 	public LlvmRegister lhs;
@@ -13,6 +14,23 @@ public class LlvmPlus extends LlvmInstruction {
 		this.op2 = op2;
 	}
 
+	public LlvmValue getDefinition(){
+		return lhs;
+	}
+
+	public List<LlvmValue> getOperands(){
+		return Arrays.asList(op1, op2);
+	}
+
+	public void replaceOperand(LlvmValue from, LlvmValue to){
+		op1 = replace(op1, from, to);
+		op2 = replace(op2, from, to);
+	}
+
+	public LlvmInstruction copy(LlvmRenaming r){
+		return new LlvmPlus((LlvmRegister) r.value(lhs), type, r.value(op1), r.value(op2));
+	}
+
 	public String toString() {
 		return "  " + lhs + " = add " + type + " " + op1 + ", " + op2;
 	}
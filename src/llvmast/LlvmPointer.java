@@ -1,13 +1,22 @@
 package llvmast;
 
 public class LlvmPointer extends LlvmType{
-    public LlvmType content;
+    public final LlvmType content;
+    private String text;
     
-    public LlvmPointer(LlvmType content){
+    // use LlvmPointer.get: um único ponteiro para cada tipo apontado
+    LlvmPointer(LlvmType content){
 	this.content = content;
     }
 
+    // Ponteiro para 'content'; a mesma instância para o mesmo 'content'
+    public static LlvmPointer get(LlvmType content){
+	return content.pointer();
+    }
+
 	public String toString(){
-	return content + " *";
+	if (text == null)
+	    text = content + " *";
+	return text;
     }
-}
\ No newline at end of file
+}
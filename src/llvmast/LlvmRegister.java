@@ -3,24 +3,14 @@ package llvmast;
 
 public class LlvmRegister extends LlvmValue{
 	public String name;
-	static int numberReg = 0;
-	
-	public LlvmRegister(LlvmType type){
-		this.type = type;
-		this.name = "%tmp"+numberReg++;
-
-	}
 
+	// Os temporários (%tmpN) são numerados por função em llvm.FunctionContext
 	public LlvmRegister(String name, LlvmType type){
 		this.type = type;
 		this.name = name;
 
 	}
 
-	public static void rewind(){
-		numberReg = 0;
-	}
-
 	public String toString(){
 		return name; 
 	}
@@ -0,0 +1,10 @@
+package llvmast;
+
+// Troca de nomes usada ao copiar instruções de uma função para outra
+// (ver LlvmInstruction.copy): cada registrador e label da cópia passa por aqui
+public interface LlvmRenaming{
+
+    LlvmValue value(LlvmValue v);
+
+    LlvmLabelValue label(LlvmLabelValue label);
+}
@@ -1,10 +1,23 @@
 package llvmast;
+import java.util.*;
 public class LlvmRet extends LlvmInstruction{
     public LlvmValue v;
     public LlvmRet(LlvmValue v){
 	this.v = v;
     }
 
+    public List<LlvmValue> getOperands(){
+	return Collections.singletonList(v);
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	v = replace(v, from, to);
+    }
+
+    public LlvmInstruction copy(LlvmRenaming r){
+	return new LlvmRet(r.value(v));
+    }
+
     public String toString(){
 	return "  ret " + v.type + " " + v;
     }
@@ -1,4 +1,5 @@
 package llvmast;
+import java.util.*;
 public class LlvmStore extends LlvmInstruction{
     public LlvmValue content; 
     public LlvmValue address; 
@@ -8,6 +9,19 @@ public class LlvmStore extends LlvmInstruction{
 	this.address=address;
     }
     
+    public List<LlvmValue> getOperands(){
+	return Arrays.asList(content, address);
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	content = replace(content, from, to);
+	address = replace(address, from, to);
+    }
+
+    public LlvmInstruction copy(LlvmRenaming r){
+	return new LlvmStore(r.value(content), r.value(address));
+    }
+
     public String toString(){
     	return "  store " + content.type + " " + content + ", " + address.type + " " + address;
     }
@@ -1,40 +1,85 @@
 package llvmast;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import syntaxtree.VarDecl;
 public class LlvmStructure extends LlvmType{
-    public int sizeByte;
-    public List<LlvmType> typeList;
+    private static final ConcurrentMap<List<LlvmType>, LlvmStructure> INTERNED = new ConcurrentHashMap<List<LlvmType>, LlvmStructure>();
+
+    public final int sizeByte;
+    public final int alignment;
+    public final List<LlvmType> typeList;
+    private String text;
+
+    // Estrutura com os campos 'typeList'; a mesma instância para os mesmos campos
+    public static LlvmStructure get(List<LlvmType> typeList){
+	LlvmStructure type = INTERNED.get(typeList);
+	if (type == null){
+		type = new LlvmStructure(Collections.unmodifiableList(new ArrayList<LlvmType>(typeList)));
+		LlvmStructure old = INTERNED.putIfAbsent(type.typeList, type);
+		if (old != null)
+			type = old;
+	}
+	return type;
+    }
     
-    public LlvmStructure(List<LlvmType> typeList){
+    private LlvmStructure(List<LlvmType> typeList){
     	this.typeList = typeList;
     	
-    	// Fazendo a contagem do tamanho da estrutura, caso precise de Malloc
+    	// Fazendo a contagem do tamanho da estrutura, caso precise de Malloc.
+    	// Cada campo começa no próximo múltiplo do seu alinhamento e o total é
+    	// arredondado para o maior deles, como no layout do LLVM para x86-64
+	int size = 0;
+	int alignment = 1;
 	for (LlvmType T : typeList){
-		if ( T instanceof LlvmPointer ){ 
-			sizeByte += 8;
-		} else {
-			if ( T instanceof LlvmPrimitiveType){
-				if (T.toString().equals("i32")){
-					sizeByte += 4;
-				} else {
-					sizeByte += 1;
-				}	
-			}
-		}
+		size = align(size, alignmentOf(T)) + sizeOf(T);
+		alignment = Math.max(alignment, alignmentOf(T));
 	}
+	this.alignment = alignment;
+	this.sizeByte = align(size, alignment);
+    }
+
+    // Tamanho em bytes de um valor do tipo T dentro de uma estrutura
+    public static int sizeOf(LlvmType T){
+	if (T instanceof LlvmPointer)
+		return 8;
+	if (T instanceof LlvmStructure)
+		return ((LlvmStructure) T).sizeByte;
+	if (T instanceof LlvmArray)
+		return ((LlvmArray) T).length * sizeOf(((LlvmArray) T).content);
+	if (T == LlvmPrimitiveType.I32)
+		return 4;
+	if (T == LlvmPrimitiveType.I1 || T == LlvmPrimitiveType.I8)
+		return 1;
+	return 0;
+    }
+
+    public static int alignmentOf(LlvmType T){
+	if (T instanceof LlvmStructure)
+		return ((LlvmStructure) T).alignment;
+	if (T instanceof LlvmArray)
+		return alignmentOf(((LlvmArray) T).content);
+	return Math.max(1, sizeOf(T));
+    }
+
+    // Primeiro múltiplo de 'alignment' a partir de 'offset'
+    public static int align(int offset, int alignment){
+	return (offset + alignment - 1) / alignment * alignment;
     }
     
     public String toString() {
+    	if (text != null)
+    		return text;
     	if (typeList.isEmpty())
-    		return "{ }";
+    		return text = "{ }";
     	
     	String S = "{ " + typeList.get(0);
 		for (int i = 1; i < typeList.size(); i++){
 			S += ", "+typeList.get(i).toString();
 		}
     	S += " }";
-    	return S;
+    	return text = S;
     }
     
 }
@@ -1,2 +1,17 @@
 package llvmast;
-public abstract class LlvmType{}
\ No newline at end of file
+public abstract class LlvmType{
+    // ponteiro para este tipo, criado uma vez só (ver LlvmPointer.get)
+    private volatile LlvmPointer pointer;
+
+    LlvmPointer pointer(){
+	LlvmPointer p = pointer;
+	if (p == null){
+	    synchronized (this){
+		if (pointer == null)
+		    pointer = new LlvmPointer(this);
+		p = pointer;
+	    }
+	}
+	return p;
+    }
+}
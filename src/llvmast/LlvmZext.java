@@ -0,0 +1,34 @@
+package llvmast;
+import  java.util.*;
+public class LlvmZext extends LlvmInstruction{
+    public LlvmValue lhs;
+    public LlvmValue source;
+    public LlvmType toType;
+
+    public LlvmZext(LlvmValue lhs, LlvmValue source, LlvmType toType){
+	this.lhs = lhs;
+	this.source = source;
+	this.toType = toType;
+    }
+    
+    public LlvmValue getDefinition(){
+	return lhs;
+    }
+
+    public List<LlvmValue> getOperands(){
+	return Collections.singletonList(source);
+    }
+
+    public void replaceOperand(LlvmValue from, LlvmValue to){
+	source = replace(source, from, to);
+    }
+
+    public LlvmInstruction copy(LlvmRenaming r){
+	return new LlvmZext(r.value(lhs), r.value(source), toType);
+    }
+
+    public String toString(){
+    	return "  " + lhs + " = zext " + source.type + " " + source +" to " + toType;
+    }
+
+}
@@ -0,0 +1,97 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Cliente do CompileServer com a mesma linha de comando do Main.
+ * <p/>
+ * Uso: java main.CompileClient [-socket=caminho] [opções] entrada.java [saida.s]
+ * <p/>
+ * Manda o pedido ao servidor, grava o LLVM-IR (ou o assembly) devolvido
+ * em 'saida.s' (padrão 'output.s') e repassa as mensagens para a saída
+ * de erro.
+ * Também aceita 'STATS' e 'QUIT' no lugar da entrada.
+ */
+public final class CompileClient {
+
+    public static void main(String[] args) {
+        String socket = CompileServer.DEFAULT_SOCKET;
+        StringBuilder request = new StringBuilder("COMPILE");
+        String input = null;
+        String output = "output.s";
+
+        for (String arg : args) {
+            if (arg.startsWith("-socket=")) {
+                socket = arg.substring("-socket=".length());
+            } else if (arg.startsWith("-")) {
+                request.append('\t').append(arg);
+            } else if (input == null) {
+                input = arg;
+            } else {
+                output = arg;
+            }
+        }
+
+        if (input == null) {
+            System.err.println("Uso: java main.CompileClient [-socket=caminho] [opções] entrada.java [saida.s]");
+            System.exit(-1);
+        }
+        if (input.equals("STATS") || input.equals("QUIT")) {
+            request = new StringBuilder(input);
+            output = null;
+        } else {
+            request.append('\t').append(new File(input).getAbsolutePath());
+        }
+
+        int status = 0;
+        try {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(UnixDomainSocketAddress.of(socket));
+                Writer out = Channels.newWriter(channel, "UTF-8");
+                out.write(request + "\n");
+                out.flush();
+
+                BufferedReader in = new BufferedReader(Channels.newReader(channel, "UTF-8"));
+                String[] header = in.readLine().split(" ");
+                String ir = read(in, Integer.parseInt(header[1]));
+                String messages = read(in, Integer.parseInt(header[2]));
+
+                System.err.print(messages);
+                if (!header[0].equals("OK")) {
+                    status = -1;
+                } else if (output != null) {
+                    Files.write(Paths.get(output), ir.getBytes("UTF-8"));
+                }
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            status = -1;
+        }
+        System.exit(status);
+    }
+
+    private static String read(Reader in, int length) throws IOException {
+        char[] buffer = new char[length];
+        int n = 0;
+        while (n < length) {
+            int r = in.read(buffer, n, length - n);
+            if (r < 0)
+                throw new IOException("resposta incompleta do servidor");
+            n += r;
+        }
+        return new String(buffer);
+    }
+}
@@ -0,0 +1,258 @@
+package main;
+
+import llvm.Codegen;
+import llvm.PassTimer;
+import semant.Env;
+import syntaxtree.Program;
+import x86_64.Backend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compilador residente: atende vários pedidos de compilação na mesma
+ * JVM, sem pagar a partida da JVM e o JIT frio a cada arquivo.
+ * <p/>
+ * Uso: java main/Main -server [-warmup=N] [socket | -]
+ * <p/>
+ * Escuta no socket Unix dado (padrão: CompileServer.DEFAULT_SOCKET) ou,
+ * com '-', lê os pedidos da entrada padrão e responde na saída padrão.
+ * <p/>
+ * Protocolo, uma linha por pedido:
+ * <pre>
+ *   COMPILE opção... entrada.java     (campos separados por tab)
+ *   STATS
+ *   QUIT
+ * </pre>
+ * Toda resposta é 'OK n m' ou 'ERR n m' seguida de n caracteres de
+ * LLVM-IR (ou assembly, com -target=x86-64) e m caracteres de mensagens
+ * (o que a linha de comando imprimiria na saída de erro). O caminho da
+ * entrada é relativo ao diretório do servidor; o CompileClient manda
+ * sempre o caminho absoluto.
+ * <p/>
+ * Os pedidos são atendidos um de cada vez. A latência de cada COMPILE é
+ * medida depois dos primeiros N pedidos (aquecimento) e os percentis
+ * são devolvidos por STATS e impressos ao sair.
+ * <p/>
+ * Com -target=x86-64 rode a JVM com -XX:+DisableExplicitGC: o RegAlloc
+ * chama System.gc() (ver x86_64.Backend).
+ */
+public final class CompileServer {
+    static final String DEFAULT_SOCKET = System.getProperty("java.io.tmpdir") + "/minijava-compiler.sock";
+
+    private static final int DEFAULT_WARMUP = 50;
+
+    private final int warmup;
+    private int requests;
+    private final List<Long> latencies = new ArrayList<Long>();
+    private boolean running = true;
+
+    CompileServer(int warmup) {
+        this.warmup = warmup;
+    }
+
+    public static void main(String[] args) {
+        int warmup = DEFAULT_WARMUP;
+        String socket = DEFAULT_SOCKET;
+        for (String arg : args) {
+            if (arg.startsWith("-warmup=")) {
+                warmup = Integer.parseInt(arg.substring("-warmup=".length()));
+            } else {
+                socket = arg;
+            }
+        }
+
+        CompileServer server = new CompileServer(warmup);
+        try {
+            if (socket.equals("-")) {
+                server.serve(new InputStreamReader(System.in, "UTF-8"), new OutputStreamWriter(System.out, "UTF-8"));
+            } else {
+                server.listen(Paths.get(socket));
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            e.printStackTrace();
+        }
+        System.err.print(server.report());
+        System.exit(0);
+    }
+
+    // Atende as conexões do socket, uma de cada vez, até receber QUIT
+    void listen(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.bind(UnixDomainSocketAddress.of(path));
+            System.err.println("servidor ouvindo em " + path);
+            while (running) {
+                SocketChannel client = channel.accept();
+                try {
+                    serve(Channels.newReader(client, "UTF-8"), Channels.newWriter(client, "UTF-8"));
+                } catch (IOException e) {
+                    // cliente desconectou no meio do pedido; continua atendendo os outros
+                    System.err.println(e.getMessage());
+                } finally {
+                    client.close();
+                }
+            }
+        } finally {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    // Lê pedidos de 'in' até o fim da entrada ou QUIT
+    void serve(Reader in, Writer out) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        Writer writer = new BufferedWriter(out);
+        String line;
+        while (running && (line = reader.readLine()) != null) {
+            if (line.isEmpty())
+                continue;
+            String[] fields = line.split("\t");
+            if (fields[0].equals("COMPILE")) {
+                compile(Arrays.copyOfRange(fields, 1, fields.length), writer);
+            } else if (fields[0].equals("STATS")) {
+                respond(writer, "OK", "", report());
+            } else if (fields[0].equals("QUIT")) {
+                running = false;
+                respond(writer, "OK", "", "");
+            } else {
+                respond(writer, "ERR", "", "pedido desconhecido: " + fields[0] + "\n");
+            }
+        }
+        writer.flush();
+    }
+
+    private void compile(String[] args, Writer writer) throws IOException {
+        long start = System.nanoTime();
+
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(messages, true, "UTF-8");
+        StringBuilder ir = new StringBuilder();
+        boolean ok = false;
+        try {
+            ok = compile(args, ir, err);
+        } catch (Throwable e) {
+            err.println(e.getMessage());
+            e.printStackTrace(err);
+        }
+        err.flush();
+
+        long elapsed = System.nanoTime() - start;
+        if (++requests > warmup)
+            latencies.add(elapsed);
+
+        respond(writer, ok ? "OK" : "ERR", ok ? ir : "", messages.toString("UTF-8"));
+    }
+
+    // Compila como a linha de comando; devolve false se houver erros de tipo
+    private static boolean compile(String[] args, StringBuilder ir, PrintStream err) throws Exception {
+        // o Codegen só guarda as opções; a tabela de símbolos é refeita a cada programa
+        Codegen codegen = new Codegen();
+        PassTimer timer = codegen.getPassTimer();
+        PassTimer.Mark total = timer.start();
+        boolean stats = false;
+        boolean x86 = false;
+        String timePasses = null;
+        String input = null;
+        for (String arg : args) {
+            if (!Main.parseOption(codegen, arg)) {
+                input = arg;
+            } else if (arg.equals("-stats")) {
+                stats = true;
+            } else if (arg.equals(Main.JVM)) {
+                // a resposta é texto; o bytecode roda na JVM de quem compila
+                err.println("-target=jvm só na linha de comando");
+                return false;
+            } else if (arg.startsWith("-target=")) {
+                x86 = arg.equals(Main.X86_64);
+            } else if (arg.startsWith("-time-passes")) {
+                timePasses = arg;
+            }
+        }
+        if (input == null) {
+            err.println("nenhum arquivo de entrada");
+            return false;
+        }
+
+        Program program;
+        InputStream stream = new FileInputStream(input);
+        try {
+            program = Main.parse(stream, timer);
+        } finally {
+            stream.close();
+        }
+
+        Env env = Main.typeCheck(program, input, err, timer);
+        if (env == null)
+            return false;
+
+        if (x86) {
+            Backend backend = new Backend(timer);
+            backend.translate(program, ir);
+            if (stats)
+                Main.printStats(backend, err);
+        } else {
+            codegen.translate(program, env, ir);
+            if (stats)
+                Main.printStats(codegen, err);
+        }
+        timer.stop("total", total);
+        if (timePasses != null)
+            Main.printTimePasses(timer, timePasses, err);
+        return true;
+    }
+
+    private static void respond(Writer writer, String status, CharSequence ir, String messages) throws IOException {
+        writer.write(status + " " + ir.length() + " " + messages.length() + "\n");
+        writer.append(ir);
+        writer.write(messages);
+        writer.flush();
+    }
+
+    // Percentis da latência dos pedidos medidos (depois do aquecimento)
+    String report() {
+        StringBuilder r = new StringBuilder();
+        r.append(requests).append(" pedidos, ").append(Math.min(requests, warmup)).append(" de aquecimento\n");
+        if (latencies.isEmpty())
+            return r.toString();
+
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++)
+            sorted[i] = latencies.get(i);
+        Arrays.sort(sorted);
+
+        for (int p : new int[]{50, 90, 99}) {
+            r.append(String.format("p%d: %.3f ms\n", p, percentile(sorted, p) / 1e6));
+        }
+        r.append(String.format("max: %.3f ms\n", sorted[sorted.length - 1] / 1e6));
+        return r.toString();
+    }
+
+    // percentil pelo método do posto mais próximo
+    private static long percentile(long[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
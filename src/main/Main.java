@@ -0,0 +1,274 @@
+package main;
+
+import errors.ErrorEchoer;
+import jvm.JvmCodegen;
+import llvm.Codegen;
+import llvm.PassTimer;
+import minijava.lexer.Lexer;
+import minijava.node.Start;
+import minijava.parser.Parser;
+import semant.Env;
+import semant.TypeChecker;
+import syntaxtree.Program;
+import util.conversor.SyntaxTreeGenerator;
+import x86_64.Backend;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PushbackReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ponto de entrada do compilador.
+ * <p/>
+ * Uso: java main/Main [opções] [entrada.java] [saida.s]
+ * <p/>
+ * Sem argumentos lê o programa da entrada padrão; sem o segundo
+ * argumento escreve o LLVM-IR em 'output.s'.
+ * <p/>
+ * Com -target=x86-64 a saída é assembly x86-64 do GNU as, gerado sem o
+ * LLVM (ver x86_64.Backend), para ligar com 'gcc saida.s runtime/runtime.c'.
+ * As opções -f são do LLVM-IR e não mudam esse código.
+ * <p/>
+ * Com -target=jvm o programa vira bytecode da JVM (ver jvm.JvmCodegen):
+ * sem o segundo argumento ele roda na hora, dentro da JVM do compilador;
+ * com ele, as classes são gravadas no diretório 'saida', para rodar com
+ * 'java -cp saida Principal'.
+ * <p/>
+ * Opções:
+ * -fno-fold   desliga o constant folding
+ * -fno-bounds-elim  mantém todas as verificações de limite dos vetores
+ * -finline-budget=N expande chamadas diretas a métodos folha de até N instruções (padrão: 12)
+ * -fno-inline mesmo que -finline-budget=0
+ * -fno-escape mantém no heap os objetos que não escapam do método (depois do inlining)
+ * -fno-licm   não tira código invariante dos laços nem troca os índices dos vetores por ponteiros
+ * -fno-tail-calls mantém a recursão em cauda como chamada e não marca as chamadas com tail
+ * -farena     aloca objetos e vetores na arena do runtime/runtime.c (padrão: malloc/calloc)
+ * -fgc        aloca no coletor de lixo do runtime/runtime.c, com raízes na pilha de sombra
+ * -fprintf    imprime com printf, sem buffer, em vez do printInt do runtime/runtime.c
+ * -fno-reorder-fields mantém os atributos na ordem declarada, em vez de reordenar para tirar o preenchimento
+ * -fpack-booleans guarda os atributos boolean de cada classe em bits de uma palavra
+ * -fincremental=DIR guarda em DIR o LLVM-IR de cada classe e reaproveita o das que não mudaram
+ * -target=x86-64 gera assembly x86-64 em vez de LLVM-IR (padrão: -target=llvm)
+ * -target=jvm roda o programa na JVM, ou grava os .class no diretório de saída
+ * -j[N]       gera as classes em paralelo com N threads (padrão: uma por núcleo)
+ * -stats      imprime na saída de erro as estatísticas dos otimizadores
+ * -time-passes[=arquivo.json] imprime o tempo e a memória de cada fase na saída de erro
+ *             ou, com o arquivo, grava o relatório em JSON (ver llvm.PassTimer)
+ * <p/>
+ * Com '-server' como primeiro argumento o compilador fica residente
+ * (ver CompileServer).
+ */
+public final class Main {
+    static final String X86_64 = "-target=x86-64";
+    static final String JVM = "-target=jvm";
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("-server")) {
+            CompileServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        try {
+            Codegen codegen = new Codegen();
+            PassTimer timer = codegen.getPassTimer();
+            PassTimer.Mark total = timer.start();
+            boolean stats = false;
+            boolean x86 = false;
+            boolean jvm = false;
+            String timePasses = null;
+
+            List<String> files = new ArrayList<String>();
+            for (String arg : args) {
+                if (!parseOption(codegen, arg)) {
+                    files.add(arg);
+                } else if (arg.equals("-stats")) {
+                    stats = true;
+                } else if (arg.startsWith("-target=")) {
+                    x86 = arg.equals(X86_64);
+                    jvm = arg.equals(JVM);
+                } else if (arg.startsWith("-time-passes")) {
+                    timePasses = arg;
+                }
+            }
+            args = files.toArray(new String[files.size()]);
+
+            String inputName = args.length == 0 ? "stdin" : args[0];
+            String outputName = args.length < 2 ? "output.s" : args[1];
+
+            InputStream input = args.length == 0 ? System.in : new FileInputStream(args[0]);
+            Program program = parse(input, timer);
+
+            // a árvore concreta não é mais necessária
+            System.gc();
+
+            Env env = typeCheck(program, inputName, System.err, timer);
+            if (env == null) {
+                System.exit(-1);
+            }
+
+            // a saída é escrita direto no arquivo, sem montar a String inteira
+            Map<String, byte[]> classes = null;
+            JvmCodegen jvmCodegen = null;
+            if (jvm) {
+                jvmCodegen = new JvmCodegen(timer);
+                classes = jvmCodegen.translate(program);
+                if (args.length >= 2) {
+                    JvmCodegen.write(classes, outputName);
+                }
+                if (stats) {
+                    printStats(jvmCodegen, System.err);
+                }
+            } else if (x86) {
+                Backend backend = new Backend(timer);
+                backend.translate(program, outputName);
+                if (stats) {
+                    printStats(backend, System.err);
+                }
+            } else {
+                codegen.translate(program, env, outputName);
+                if (stats) {
+                    printStats(codegen, System.err);
+                }
+            }
+            timer.stop("total", total);
+            if (timePasses != null) {
+                printTimePasses(timer, timePasses, System.err);
+            }
+
+            program = null;
+            env = null;
+            System.gc();
+
+            if (jvm && args.length < 2) {
+                JvmCodegen.run(classes, jvmCodegen.getMainClass());
+            }
+        } catch (Throwable e) {
+            System.err.println(e.getMessage());
+            e.printStackTrace();
+        }
+        System.exit(0);
+    }
+
+    // Aplica em 'codegen' a opção 'arg'; devolve false se 'arg' não for uma opção
+    static boolean parseOption(Codegen codegen, String arg) {
+        if (arg.equals("-fno-fold")) {
+            codegen.setConstantFolding(false);
+        } else if (arg.equals("-fno-bounds-elim")) {
+            codegen.setBoundsCheckElimination(false);
+        } else if (arg.equals("-fgc")) {
+            codegen.setGarbageCollection(true);
+        } else if (arg.equals("-fno-reorder-fields")) {
+            codegen.setFieldReordering(false);
+        } else if (arg.equals("-fpack-booleans")) {
+            codegen.setBooleanPacking(true);
+        } else if (arg.equals("-fprintf")) {
+            codegen.setPrintf(true);
+        } else if (arg.equals("-farena")) {
+            codegen.setArenaAllocation(true);
+        } else if (arg.equals("-fno-escape")) {
+            codegen.setEscapeAnalysis(false);
+        } else if (arg.equals("-fno-licm")) {
+            codegen.setLoopOptimization(false);
+        } else if (arg.equals("-fno-tail-calls")) {
+            codegen.setTailCalls(false);
+        } else if (arg.equals("-fno-inline")) {
+            codegen.setInlineBudget(0);
+        } else if (arg.startsWith("-finline-budget=")) {
+            codegen.setInlineBudget(Integer.parseInt(arg.substring("-finline-budget=".length())));
+        } else if (arg.startsWith("-fincremental=")) {
+            codegen.setIncrementalCache(arg.substring("-fincremental=".length()));
+        } else if (arg.startsWith("-j")) {
+            codegen.setParallelism(arg.length() == 2
+                    ? Runtime.getRuntime().availableProcessors()
+                    : Integer.parseInt(arg.substring(2)));
+        } else if (arg.startsWith("-target=") && !arg.equals(X86_64) && !arg.equals(JVM)
+                && !arg.equals("-target=llvm")) {
+            throw new IllegalArgumentException("alvo desconhecido: " + arg.substring("-target=".length()));
+        } else if (!arg.equals("-stats") && !arg.equals("-time-passes") && !arg.startsWith("-time-passes=")
+                && !arg.startsWith("-target=")) {
+            return false;
+        }
+        return true;
+    }
+
+    // Análise léxica e sintática, até a árvore abstrata
+    static Program parse(InputStream input, PassTimer timer) throws Exception {
+        PassTimer.Mark mark = timer.start();
+        Lexer lexer = new Lexer(new PushbackReader(new InputStreamReader(input)));
+        Parser parser = new Parser(lexer);
+        Start start = parser.parse();
+        timer.stop("parse", mark);
+
+        mark = timer.start();
+        Program program = SyntaxTreeGenerator.convert(start);
+        timer.stop("convert", mark);
+        return program;
+    }
+
+    // Verificação de tipos; imprime os erros em 'err' e devolve null se houver algum
+    static Env typeCheck(Program program, String inputName, PrintStream err, PassTimer timer) {
+        ErrorEchoer echoer = new SimpleError(err, inputName);
+        PassTimer.Mark mark = timer.start();
+        Env env = TypeChecker.TypeCheck(echoer, program);
+        timer.stop("typecheck", mark);
+
+        if (echoer.ErrorCount() != 0) {
+            echoer.Print(new Object[]{echoer.ErrorCount() + " erros", echoer.WarningCount() + " avisos"});
+            return null;
+        }
+        return env;
+    }
+
+    static void printStats(Codegen codegen, PrintStream err) {
+        err.println(codegen.getFoldedInstructions() + " instruções removidas pelo constant folding");
+        err.println(codegen.getStrengthReductions() + " multiplicações trocadas por shift");
+        err.println(codegen.getBoundsChecksRemoved() + " de " + codegen.getBoundsChecks()
+                + " verificações de limite removidas, " + codegen.getBoundsChecksHoisted() + " movidas para fora de laços");
+        err.println(codegen.getInlinedCalls() + " chamadas expandidas (inlining), módulo de "
+                + codegen.getSizeBeforeInlining() + " para " + codegen.getSizeAfterInlining() + " instruções");
+        err.println(codegen.getAllocationsEliminated() + " alocações de objetos eliminadas (não escapam)");
+        for (Map.Entry<String, Integer> e : codegen.getAllocationsEliminatedPerFunction().entrySet())
+            err.println("    " + e.getKey() + ": " + e.getValue());
+        err.println(codegen.getLoopInvariantsHoisted() + " instruções movidas para fora de laços, "
+                + codegen.getLoopAddressesReduced() + " endereços de vetor trocados por ponteiros incrementados");
+        err.println(codegen.getTailRecursionsEliminated() + " chamadas recursivas em cauda trocadas por laço, "
+                + codegen.getTailCallsMarked() + " chamadas marcadas com tail");
+        err.println(codegen.getGcFrames() + " funções com quadro na pilha de sombra, " + codegen.getGcRoots() + " raízes");
+        if (codegen.getCacheUnits() > 0)
+            err.println(codegen.getCacheHits() + " de " + codegen.getCacheUnits() + " unidades reaproveitadas do cache incremental");
+        for (String line : codegen.getLayoutReport())
+            err.println(line);
+    }
+
+    static void printStats(JvmCodegen jvm, PrintStream err) {
+        err.println(jvm.getClassCount() + " classes da JVM, " + jvm.getBytecodeSize() + " bytes de bytecode");
+    }
+
+    static void printStats(Backend backend, PrintStream err) {
+        err.println(backend.getFunctions() + " funções em x86-64, " + backend.getInstructions() + " instruções, "
+                + backend.getSpills() + " temporários na pilha (spill)");
+    }
+
+    // '-time-passes' imprime a tabela em 'err'; '-time-passes=arquivo' grava o JSON
+    static void printTimePasses(PassTimer timer, String option, PrintStream err) throws IOException {
+        int eq = option.indexOf('=');
+        if (eq < 0) {
+            err.print(timer.report());
+            return;
+        }
+        FileOutputStream out = new FileOutputStream(option.substring(eq + 1));
+        try {
+            out.write(timer.toJson().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package x86_64;
+
+import assem.Instr;
+import canon.BasicBlocks;
+import canon.Canon;
+import canon.TraceSchedule;
+import llvm.PassTimer;
+import reg_alloc.RegAlloc;
+import syntaxtree.MethodDecl;
+import syntaxtree.Program;
+import tree.Stm;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Backend x86-64 (-target=x86-64): gera assembly do GNU as direto da
+ * árvore sintática, sem LLVM, para ligar com o runtime:
+ * <p/>
+ * $ gcc saida.s runtime/runtime.c -o saida
+ * <p/>
+ * Cada método passa pelas fases do Appel com as classes do
+ * lib/projeto2.jar: Translate (árvore sintática -> tree), procEntryExit1,
+ * Canon.linearize, BasicBlocks e TraceSchedule, seleção de instruções
+ * (Codegen, para assem), procEntryExit2, alocação de registradores por
+ * coloração de grafo (reg_alloc.RegAlloc, com spill e coalescing) e
+ * procEntryExit3. Nenhuma das otimizações do LLVM-IR (inlining, BCE,
+ * LICM...) roda aqui: o objetivo é compilar rápido.
+ * <p/>
+ * O RegAlloc chama System.gc() a cada rodada; no compilador residente e
+ * nos benchmarks a JVM roda com -XX:+DisableExplicitGC, senão essa
+ * chamada domina o tempo de compilação.
+ */
+public final class Backend {
+    // Tabela estática de arestas do reg_alloc.Edge, que o jar nunca esvazia
+    private static final Field EDGES;
+
+    static {
+        try {
+            EDGES = Class.forName("reg_alloc.Edge").getDeclaredField("edges");
+            EDGES.setAccessible(true);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final PassTimer timer;
+    private int functions;
+    private int instructions;
+    private int spills;
+
+    public Backend() {
+        this(new PassTimer());
+    }
+
+    // As fases entram em 'timer' (o do Codegen, na linha de comando)
+    public Backend(PassTimer timer) {
+        this.timer = timer;
+    }
+
+    public PassTimer getPassTimer() {
+        return timer;
+    }
+
+    public int getFunctions() {
+        return functions;
+    }
+
+    public int getInstructions() {
+        return instructions;
+    }
+
+    // Temporários que não couberam em registradores
+    public int getSpills() {
+        return spills;
+    }
+
+    public String translate(Program p) {
+        StringBuilder r = new StringBuilder();
+        try {
+            translate(p, r);
+        } catch (IOException e) {
+            // StringBuilder nunca lança IOException
+            throw new UncheckedIOException(e);
+        }
+        return r.toString();
+    }
+
+    public void translate(Program p, String outputFile) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(outputFile),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        Writer out = new BufferedWriter(Channels.newWriter(channel, "UTF-8"));
+        try {
+            translate(p, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void translate(Program p, Appendable out) throws IOException {
+        PassTimer.Mark mark = timer.start();
+        Layout layout = new Layout(p);
+        Translate translate = new Translate(layout);
+        timer.stop("x86-layout", mark);
+
+        out.append("\t.text\n\t.globl main\n");
+        compile(translate, translate.main(p.mainClass), out);
+        for (Layout.ClassLayout c : layout.classes.values())
+            for (String method : c.vtable)
+                if (c.owners.get(method).equals(c.name)) {
+                    MethodDecl m = c.methods.get(method);
+                    mark = timer.start();
+                    tree.Exp body = translate.method(c, m);
+                    timer.stop("x86-translate", mark);
+                    compile(translate, body, out);
+                }
+
+        // as vtables têm endereços de funções: relocações, fora do .rodata
+        mark = timer.start();
+        out.append("\n\t.section .data.rel.ro\n\t.p2align 3\n");
+        for (Layout.ClassLayout c : layout.classes.values()) {
+            out.append(c.vtableLabel()).append(":\n");
+            for (String method : c.vtable)
+                out.append("\t.quad ").append(c.methodLabel(method)).append('\n');
+        }
+        out.append("\n\t.section .note.GNU-stack,\"\",@progbits\n");
+        timer.stop("x86-emit", mark);
+    }
+
+    // Da árvore do corpo até o texto da função
+    private void compile(Translate translate, tree.Exp body, Appendable out) throws IOException {
+        Frame64 frame = translate.getFrame();
+
+        PassTimer.Mark mark = timer.start();
+        Stm stm = frame.procEntryExit1(body);
+        util.List<Stm> stms = new TraceSchedule(new BasicBlocks(Canon.linearize(stm))).stms;
+        timer.stop("x86-canon", mark);
+
+        mark = timer.start();
+        util.List<Instr> instrs = frame.procEntryExit2(frame.codegen(stms));
+        timer.stop("x86-select", mark);
+
+        mark = timer.start();
+        RegAlloc allocation = new RegAlloc(frame, instrs);
+        forgetEdges();
+        timer.stop("x86-regalloc", mark);
+
+        mark = timer.start();
+        Frame64.Procedure proc = (Frame64.Procedure) frame.procEntryExit3(allocation.instrs, allocation);
+        out.append('\n');
+        proc.print(out, allocation);
+        timer.stop("x86-emit", mark);
+
+        functions++;
+        for (util.List<Instr> i = allocation.instrs; i != null; i = i.tail)
+            instructions++;
+        spills += frame.getLocals();
+    }
+
+    // As arestas de um grafo de interferência já alocado nunca mais são
+    // consultadas (os nós são de cada função), mas ficariam presas na tabela
+    // estática: no compilador residente ela cresceria a cada pedido.
+    private static void forgetEdges() {
+        try {
+            ((java.util.Map<?, ?>) EDGES.get(null)).clear();
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package x86_64;
+
+import assem.Instr;
+import assem.OPER;
+import temp.Label;
+import temp.Temp;
+import tree.BINOP;
+import tree.CALL;
+import tree.CJUMP;
+import tree.CONST;
+import tree.EXPSTM;
+import tree.Exp;
+import tree.JUMP;
+import tree.LABEL;
+import tree.MEM;
+import tree.MOVE;
+import tree.NAME;
+import tree.SEQ;
+import tree.Stm;
+import tree.TEMP;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Seleção de instruções x86-64 por Maximal Munch, da árvore canônica
+ * (Canon + TraceSchedule) para o assem.
+ * <p/>
+ * A árvore não tem tipos, e a largura de cada operação sai do lugar:
+ * <p/>
+ * - o que está dentro de um MEM é endereço e usa 64 bits, com o modo
+ * disp(base,índice,escala) sempre que o formato permite;
+ * <p/>
+ * - PointerPlus é aritmética de ponteiro, em 64 bits, e todo outro
+ * BINOP fora de um MEM é aritmética de int, feita em 32 bits
+ * (`S0/`D0, ver Frame64.format). Como as instruções de 32 bits zeram a
+ * metade de cima, um int em registrador tem sempre os 32 bits de cima em
+ * zero, e um índice já conferido (0 <= i < tamanho) vale como índice de
+ * 64 bits no endereço;
+ * <p/>
+ * - MEM é uma palavra de 8 bytes e IntMem um int de 4 (os elementos dos
+ * vetores);
+ * <p/>
+ * - CJUMP compara em 32 bits, menos EQ/NE entre dois valores sem
+ * constante, que podem ser ponteiros e comparam os 64.
+ */
+final class Codegen {
+    private static final String[] JUMPS = new String[10];
+
+    static {
+        JUMPS[CJUMP.EQ] = "je";
+        JUMPS[CJUMP.NE] = "jne";
+        JUMPS[CJUMP.LT] = "jl";
+        JUMPS[CJUMP.LE] = "jle";
+        JUMPS[CJUMP.GT] = "jg";
+        JUMPS[CJUMP.GE] = "jge";
+        JUMPS[CJUMP.ULT] = "jb";
+        JUMPS[CJUMP.ULE] = "jbe";
+        JUMPS[CJUMP.UGT] = "ja";
+        JUMPS[CJUMP.UGE] = "jae";
+    }
+
+    private final List<Instr> instrs = new ArrayList<Instr>();
+
+    util.List<Instr> codegen(util.List<Stm> stms) {
+        for (util.List<Stm> s = stms; s != null; s = s.tail)
+            if (!fallsThrough(s))
+                munchStm(s.head);
+        util.List<Instr> result = null;
+        for (int i = instrs.size() - 1; i >= 0; i--)
+            result = new util.List<Instr>(instrs.get(i), result);
+        return result;
+    }
+
+    // JUMP para o rótulo que vem logo depois (o BasicBlocks fecha todo bloco com um)
+    private static boolean fallsThrough(util.List<Stm> s) {
+        return s.head instanceof JUMP && ((JUMP) s.head).exp instanceof NAME && s.tail != null
+                && s.tail.head instanceof LABEL && ((LABEL) s.tail.head).label == ((NAME) ((JUMP) s.head).exp).label;
+    }
+
+    private void emit(Instr instr) {
+        instrs.add(instr);
+    }
+
+    private void emit(String assem, util.List<Temp> dst, util.List<Temp> src) {
+        emit(new OPER("\t" + assem, dst, src));
+    }
+
+    private void move(Temp dst, Temp src) {
+        emit(new assem.MOVE("\tmovq `s0, `d0", dst, src));
+    }
+
+    private static util.List<Temp> list(Temp... temps) {
+        util.List<Temp> result = null;
+        for (int i = temps.length - 1; i >= 0; i--)
+            result = new util.List<Temp>(temps[i], result);
+        return result;
+    }
+
+    private static util.List<Label> labels(Label... labels) {
+        util.List<Label> result = null;
+        for (int i = labels.length - 1; i >= 0; i--)
+            result = new util.List<Label>(labels[i], result);
+        return result;
+    }
+
+    // constante que cabe no imediato de 32 bits com sinal
+    private static boolean immediate(Exp e) {
+        return e instanceof CONST && ((CONST) e).value == (int) ((CONST) e).value;
+    }
+
+    // ---- comandos ----
+
+    private void munchStm(Stm s) {
+        if (s instanceof SEQ) {
+            munchStm(((SEQ) s).left);
+            munchStm(((SEQ) s).right);
+        } else if (s instanceof LABEL) {
+            Label label = ((LABEL) s).label;
+            emit(new assem.LABEL(label + ":", label));
+        } else if (s instanceof JUMP) {
+            JUMP jump = (JUMP) s;
+            if (jump.exp instanceof NAME)
+                emit(new OPER("\tjmp `j0", null, null, jump.targets));
+            else
+                emit(new OPER("\tjmp *`s0", null, list(munchExp(jump.exp)), jump.targets));
+        } else if (s instanceof CJUMP) {
+            munchCJump((CJUMP) s);
+        } else if (s instanceof MOVE) {
+            munchMove((MOVE) s);
+        } else if (s instanceof EXPSTM) {
+            Exp e = ((EXPSTM) s).exp;
+            if (e instanceof CALL)
+                munchCall((CALL) e);
+            else
+                munchExp(e);
+        } else {
+            throw new IllegalArgumentException("comando inesperado: " + s.getClass().getName());
+        }
+    }
+
+    private void munchCJump(CJUMP j) {
+        int op = j.op;
+        Exp left = j.left, right = j.right;
+        if (immediate(left) && !immediate(right)) {
+            // a constante fica à direita: a < b é o mesmo que b > a
+            Exp t = left;
+            left = right;
+            right = t;
+            op = swap(op);
+        }
+        boolean wide = (op == CJUMP.EQ || op == CJUMP.NE) && !immediate(right);
+        String cmp = wide ? "cmpq" : "cmpl";
+        String s0 = wide ? "`s0" : "`S0", s1 = wide ? "`s1" : "`S1";
+
+        Temp l = munchExp(left);
+        if (immediate(right))
+            emit(cmp + " $" + ((CONST) right).value + ", " + s0, null, list(l));
+        else
+            emit(cmp + " " + s1 + ", " + s0, null, list(l, munchExp(right)));
+        // o TraceSchedule põe o rótulo do falso logo depois
+        emit(new OPER("\t" + JUMPS[op] + " `j0", null, null, labels(j.ifTrue, j.ifFalse)));
+    }
+
+    private static int swap(int op) {
+        if (op == CJUMP.LT) return CJUMP.GT;
+        if (op == CJUMP.GT) return CJUMP.LT;
+        if (op == CJUMP.LE) return CJUMP.GE;
+        if (op == CJUMP.GE) return CJUMP.LE;
+        if (op == CJUMP.ULT) return CJUMP.UGT;
+        if (op == CJUMP.UGT) return CJUMP.ULT;
+        if (op == CJUMP.ULE) return CJUMP.UGE;
+        if (op == CJUMP.UGE) return CJUMP.ULE;
+        return op;
+    }
+
+    private void munchMove(MOVE m) {
+        if (m.dst instanceof MEM) {
+            store((MEM) m.dst, m.src);
+            return;
+        }
+        Temp dst = ((TEMP) m.dst).temp;
+        Exp src = m.src;
+        if (src instanceof CALL) {
+            munchCall((CALL) src);
+            move(dst, Frame64.RAX);
+        } else if (src instanceof TEMP) {
+            move(dst, ((TEMP) src).temp);
+        } else if (src instanceof CONST || src instanceof MEM || src instanceof NAME) {
+            // direto no destino, sem temporário intermediário
+            load(dst, src);
+        } else {
+            move(dst, munchExp(src));
+        }
+    }
+
+    private void store(MEM mem, Exp value) {
+        boolean word = !(mem instanceof IntMem);
+        // o imediato do movq é estendido com sinal: só constantes positivas mantêm o int zerado em cima
+        if (immediate(value) && (!word || ((CONST) value).value >= 0)) {
+            Address a = address(mem.exp, 0);
+            emit((word ? "movq $" : "movl $") + ((CONST) value).value + ", " + a.text, null, a.temps);
+            return;
+        }
+        Temp v = munchExp(value);
+        Address a = address(mem.exp, 1);
+        emit((word ? "movq `s0, " : "movl `S0, ") + a.text, null, new util.List<Temp>(v, a.temps));
+    }
+
+    // ---- expressões ----
+
+    private Temp munchExp(Exp e) {
+        if (e instanceof TEMP)
+            return ((TEMP) e).temp;
+        if (e instanceof CALL) {
+            munchCall((CALL) e);
+            Temp t = new Temp();
+            move(t, Frame64.RAX);
+            return t;
+        }
+        if (e instanceof BINOP)
+            return munchBinop((BINOP) e);
+        Temp t = new Temp();
+        load(t, e);
+        return t;
+    }
+
+    // Constante, endereço de rótulo ou leitura de memória em 'dst'
+    private void load(Temp dst, Exp e) {
+        if (e instanceof CONST) {
+            long value = ((CONST) e).value;
+            if (value == 0)
+                emit("xorl `D0, `D0", list(dst), null);
+            else
+                emit("movl $" + (int) value + ", `D0", list(dst), null);
+        } else if (e instanceof NAME) {
+            emit("leaq " + ((NAME) e).label + "(%rip), `d0", list(dst), null);
+        } else if (e instanceof MEM) {
+            Address a = address(((MEM) e).exp, 0);
+            emit((e instanceof IntMem ? "movl " + a.text + ", `D0" : "movq " + a.text + ", `d0"), list(dst), a.temps);
+        } else {
+            move(dst, munchExp(e));
+        }
+    }
+
+    private Temp munchBinop(BINOP b) {
+        Temp t = new Temp();
+        if (b instanceof PointerPlus) {
+            // endereço tirado de um MEM pelo Canon
+            Address a = address(b, 0);
+            emit("leaq " + a.text + ", `d0", list(t), a.temps);
+            return t;
+        }
+        Temp l = munchExp(b.left);
+        if (b.binop == BINOP.PLUS || (b.binop == BINOP.MINUS && immediate(b.right))) {
+            // leal soma sem destruir os operandos
+            if (immediate(b.right)) {
+                long c = ((CONST) b.right).value;
+                emit("leal " + (b.binop == BINOP.PLUS ? c : -c) + "(`s0), `D0", list(t), list(l));
+            } else {
+                emit("leal (`s0,`s1), `D0", list(t), list(l, munchExp(b.right)));
+            }
+            return t;
+        }
+        if (b.binop == BINOP.TIMES && immediate(b.right)) {
+            emit("imull $" + ((CONST) b.right).value + ", `S0, `D0", list(t), list(l));
+            return t;
+        }
+
+        String op;
+        if (b.binop == BINOP.MINUS) op = "subl";
+        else if (b.binop == BINOP.TIMES) op = "imull";
+        else if (b.binop == BINOP.AND) op = "andl";
+        else if (b.binop == BINOP.OR) op = "orl";
+        else if (b.binop == BINOP.XOR) op = "xorl";
+        else if (b.binop == BINOP.LSHIFT) op = "shll";
+        else throw new IllegalArgumentException("operação inesperada: " + b.binop);
+
+        if (immediate(b.right)) {
+            move(t, l);
+            emit(op + " $" + ((CONST) b.right).value + ", `D0", list(t), list(t));
+        } else {
+            Temp r = munchExp(b.right);
+            move(t, l);
+            emit(op + " `S1, `D0", list(t), list(t, r));
+        }
+        return t;
+    }
+
+    // Argumentos em registradores (e o que passar de seis na pilha) e o call.
+    // O Canon já tirou as chamadas de dentro dos argumentos.
+    private void munchCall(CALL c) {
+        List<Exp> args = new ArrayList<Exp>();
+        for (util.List<Exp> a = c.args; a != null; a = a.tail)
+            args.add(a.head);
+
+        // a pilha precisa estar alinhada em 16 bytes no call
+        int stacked = Math.max(0, args.size() - Frame64.ARGUMENTS.length);
+        int pad = stacked % 2;
+        if (pad != 0)
+            emit("subq $8, %rsp", null, null);
+        for (int i = args.size() - 1; i >= Frame64.ARGUMENTS.length; i--) {
+            if (immediate(args.get(i)))
+                emit("pushq $" + ((CONST) args.get(i)).value, null, null);
+            else
+                emit("pushq `s0", null, list(munchExp(args.get(i))));
+        }
+
+        util.List<Temp> uses = null;
+        for (int i = Math.min(args.size(), Frame64.ARGUMENTS.length) - 1; i >= 0; i--) {
+            Temp register = Frame64.ARGUMENTS[i];
+            Exp arg = args.get(i);
+            if (arg instanceof CONST || arg instanceof MEM || arg instanceof NAME)
+                load(register, arg);
+            else
+                move(register, munchExp(arg));
+            uses = new util.List<Temp>(register, uses);
+        }
+
+        util.List<Temp> defs = list(Frame64.CALLER_SAVED);
+        if (c.func instanceof NAME)
+            emit("call " + ((NAME) c.func).label, defs, uses);
+        else
+            emit("call *`s0", defs, new util.List<Temp>(munchExp(c.func), uses));
+        if (stacked > 0)
+            emit("addq $" + Layout.WORD * (stacked + pad) + ", %rsp", null, null);
+    }
+
+    // ---- endereços ----
+
+    // Operando de memória; os temporários entram em src a partir da posição 'first'
+    private static final class Address {
+        final String text;
+        final util.List<Temp> temps;
+
+        Address(String text, util.List<Temp> temps) {
+            this.text = text;
+            this.temps = temps;
+        }
+    }
+
+    private Address address(Exp e, int first) {
+        if (e instanceof NAME)
+            return new Address(((NAME) e).label + "(%rip)", null);
+
+        long disp = 0;
+        if (e instanceof BINOP && ((BINOP) e).binop == BINOP.PLUS && immediate(((BINOP) e).right)) {
+            disp = ((CONST) ((BINOP) e).right).value;
+            e = ((BINOP) e).left;
+        }
+        String prefix = disp == 0 ? "" : Long.toString(disp);
+
+        if (e instanceof BINOP && ((BINOP) e).binop == BINOP.PLUS) {
+            BINOP sum = (BINOP) e;
+            Exp index = sum.right;
+            int scale = 1;
+            if (index instanceof BINOP && immediate(((BINOP) index).right)) {
+                BINOP scaled = (BINOP) index;
+                long c = ((CONST) scaled.right).value;
+                if (scaled.binop == BINOP.TIMES && (c == 1 || c == 2 || c == 4 || c == 8)) {
+                    scale = (int) c;
+                    index = scaled.left;
+                } else if (scaled.binop == BINOP.LSHIFT && c >= 0 && c <= 3) {
+                    scale = 1 << c;
+                    index = scaled.left;
+                }
+            }
+            Temp base = munchExp(sum.left);
+            Temp i = munchExp(index);
+            return new Address(prefix + "(`s" + first + ",`s" + (first + 1) + "," + scale + ")", list(base, i));
+        }
+        return new Address(prefix + "(`s" + first + ")", list(munchExp(e)));
+    }
+}
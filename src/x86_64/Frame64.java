@@ -0,0 +1,342 @@
+package x86_64;
+
+import assem.Instr;
+import assem.OPER;
+import frame.Access;
+import frame.Frame;
+import frame.Proc;
+import temp.Label;
+import temp.Temp;
+import temp.TempMap;
+import tree.CONST;
+import tree.Exp;
+import tree.MEM;
+import tree.MOVE;
+import tree.SEQ;
+import tree.Stm;
+import tree.TEMP;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Quadro de ativação do System V x86-64, com %rbp como apontador de
+ * quadro.
+ * <p/>
+ * Os parâmetros chegam em %rdi, %rsi, %rdx, %rcx, %r8 e %r9 (o 'this'
+ * é o primeiro), o resto na pilha, acima do endereço de retorno; o
+ * procEntryExit1 copia todos para temporários. As variáveis locais são
+ * temporários e só o RegAlloc pede posições na pilha, para os que não
+ * couberem em registradores. O prólogo e o epílogo só são montados depois
+ * da alocação (procEntryExit3), quando se sabe quantas posições foram
+ * pedidas e quais registradores preservados pelo chamado foram usados:
+ * esses são guardados abaixo das posições, em vez de copiados para
+ * temporários como no livro.
+ * <p/>
+ * O %rsp não é temporário: aparece escrito nas instruções, e por isso
+ * não está em registers() e nunca é escolhido pelo alocador.
+ */
+final class Frame64 extends Frame {
+    static final Temp RAX = new Temp(), RBX = new Temp(), RCX = new Temp(), RDX = new Temp(),
+            RSI = new Temp(), RDI = new Temp(), RBP = new Temp(), R8 = new Temp(), R9 = new Temp(),
+            R10 = new Temp(), R11 = new Temp(), R12 = new Temp(), R13 = new Temp(), R14 = new Temp(),
+            R15 = new Temp();
+
+    static final Temp[] ARGUMENTS = {RDI, RSI, RDX, RCX, R8, R9};
+    // destruídos por qualquer chamada: ficam como definidos pelo 'call'
+    static final Temp[] CALLER_SAVED = {RAX, RCX, RDX, RSI, RDI, R8, R9, R10, R11};
+    private static final Temp[] CALLEE_SAVED = {RBX, R12, R13, R14, R15};
+
+    private static final Map<Temp, String> NAMES = new HashMap<Temp, String>();
+    // nome da parte baixa, de 32 bits, de cada registrador
+    private static final Map<String, String> LOW = new HashMap<String, String>();
+    private static final util.List<Temp> REGISTERS;
+
+    static {
+        String[] names = {"rax", "rbx", "rcx", "rdx", "rsi", "rdi", "rbp", "r8", "r9",
+                "r10", "r11", "r12", "r13", "r14", "r15"};
+        String[] low = {"eax", "ebx", "ecx", "edx", "esi", "edi", "ebp", "r8d", "r9d",
+                "r10d", "r11d", "r12d", "r13d", "r14d", "r15d"};
+        Temp[] temps = {RAX, RBX, RCX, RDX, RSI, RDI, RBP, R8, R9, R10, R11, R12, R13, R14, R15};
+        util.List<Temp> registers = null;
+        for (int i = temps.length - 1; i >= 0; i--) {
+            NAMES.put(temps[i], "%" + names[i]);
+            LOW.put("%" + names[i], "%" + low[i]);
+            registers = new util.List<Temp>(temps[i], registers);
+        }
+        REGISTERS = registers;
+    }
+
+    private int locals;     // palavras pedidas abaixo de %rbp
+
+    private Frame64(Label name) {
+        this.name = name;
+    }
+
+    // Quadro de 'name' com 'count' parâmetros, todos copiados para temporários
+    static Frame64 create(Label name, int count) {
+        util.List<Boolean> formals = null;
+        for (int i = 0; i < count; i++)
+            formals = new util.List<Boolean>(false, formals);
+        return (Frame64) new Frame64(null).newFrame(name, formals);
+    }
+
+    public Frame newFrame(Label name, util.List<Boolean> formals) {
+        Frame64 frame = new Frame64(name);
+        List<Access> accesses = new ArrayList<Access>();
+        for (util.List<Boolean> f = formals; f != null; f = f.tail)
+            accesses.add(f.head ? frame.allocLocal(true) : new InReg(new Temp()));
+        for (int i = accesses.size() - 1; i >= 0; i--)
+            frame.formals = new util.List<Access>(accesses.get(i), frame.formals);
+        return frame;
+    }
+
+    public Access allocLocal(boolean escape) {
+        if (!escape)
+            return new InReg(new Temp());
+        locals++;
+        return new InFrame(-Layout.WORD * locals);
+    }
+
+    // Posições na pilha pedidas até agora (as do alocador são spills)
+    int getLocals() {
+        return locals;
+    }
+
+    public int wordsize() {
+        return Layout.WORD;
+    }
+
+    public Temp FP() {
+        return RBP;
+    }
+
+    public Temp RV() {
+        return RAX;
+    }
+
+    public Exp externalCall(String name, util.List<Exp> args) {
+        return new tree.CALL(new tree.NAME(new Label(name)), args);
+    }
+
+    // Copia os parâmetros para os temporários do quadro e o valor de 'body' para %rax
+    public Stm procEntryExit1(Exp body) {
+        Stm result = new MOVE(new TEMP(RAX), body);
+        List<Stm> moves = new ArrayList<Stm>();
+        int i = 0;
+        for (util.List<Access> f = formals; f != null; f = f.tail, i++) {
+            Exp incoming = i < ARGUMENTS.length
+                    ? new TEMP(ARGUMENTS[i])
+                    // acima do %rbp guardado e do endereço de retorno
+                    : new MEM(new PointerPlus(new TEMP(RBP),
+                    new CONST(2 * Layout.WORD + Layout.WORD * (i - ARGUMENTS.length))));
+            moves.add(new MOVE(f.head.exp(new TEMP(RBP)), incoming));
+        }
+        for (int j = moves.size() - 1; j >= 0; j--)
+            result = new SEQ(moves.get(j), result);
+        return result;
+    }
+
+    // O valor de retorno está vivo na saída
+    public util.List<Instr> procEntryExit2(util.List<Instr> body) {
+        Instr sink = new OPER("", null, new util.List<Temp>(RAX, null));
+        if (body == null)
+            return new util.List<Instr>(sink, null);
+        util.List<Instr> last = body;
+        while (last.tail != null)
+            last = last.tail;
+        last.tail = new util.List<Instr>(sink, null);
+        return body;
+    }
+
+    public Proc procEntryExit3(util.List<Instr> body) {
+        return procEntryExit3(body, this);
+    }
+
+    // Prólogo e epílogo de 'body' já alocado: 'allocation' dá o registrador de cada temporário
+    Proc procEntryExit3(util.List<Instr> body, TempMap allocation) {
+        List<String> saved = new ArrayList<String>();
+        for (Temp register : CALLEE_SAVED) {
+            String name = NAMES.get(register);
+            for (util.List<Instr> i = body; i != null && !saved.contains(name); i = i.tail)
+                for (util.List<Temp> d = i.head.def(); d != null; d = d.tail)
+                    if (name.equals(allocation.tempMap(d.head))) {
+                        saved.add(name);
+                        break;
+                    }
+        }
+
+        // %rsp fica alinhado em 16 bytes depois do push do %rbp
+        int words = locals + saved.size();
+        int size = (Layout.WORD * words + 15) & -16;
+
+        List<String> prologue = new ArrayList<String>();
+        List<String> epilogue = new ArrayList<String>();
+        prologue.add("pushq %rbp");
+        prologue.add("movq %rsp, %rbp");
+        if (size > 0)
+            prologue.add("subq $" + size + ", %rsp");
+        for (int i = 0; i < saved.size(); i++) {
+            String slot = -Layout.WORD * (locals + i + 1) + "(%rbp)";
+            prologue.add("movq " + saved.get(i) + ", " + slot);
+            epilogue.add("movq " + slot + ", " + saved.get(i));
+        }
+        epilogue.add("leave");
+        epilogue.add("ret");
+        return new Procedure(name.toString(), instructions(prologue), body, instructions(epilogue));
+    }
+
+    private static util.List<Instr> instructions(List<String> lines) {
+        util.List<Instr> result = null;
+        for (int i = lines.size() - 1; i >= 0; i--)
+            result = new util.List<Instr>(new OPER("\t" + lines.get(i), null, null), result);
+        return result;
+    }
+
+    public util.List<Instr> codegen(util.List<Stm> stms) {
+        return new Codegen().codegen(stms);
+    }
+
+    public util.List<Temp> registers() {
+        return REGISTERS;
+    }
+
+    // Só os registradores têm nome; os outros temporários vêm do alocador
+    public String tempMap(Temp temp) {
+        return NAMES.get(temp);
+    }
+
+    // Texto de 'instr' com os registradores de 'map'. Além dos `s0, `d0 e `j0
+    // do Instr.format, `S0 e `D0 dão o nome de 32 bits (%eax em vez de %rax).
+    static String format(Instr instr, TempMap map) {
+        String assem = instr.assem;
+        StringBuilder r = new StringBuilder(assem.length() + 16);
+        for (int i = 0; i < assem.length(); i++) {
+            char c = assem.charAt(i);
+            if (c != '`') {
+                r.append(c);
+                continue;
+            }
+            char kind = assem.charAt(++i);
+            if (kind == '`') {
+                r.append('`');
+                continue;
+            }
+            int n = Character.digit(assem.charAt(++i), 10);
+            switch (kind) {
+                case 's':
+                case 'S':
+                    r.append(register(nth(instr.use(), n), map, kind == 'S'));
+                    break;
+                case 'd':
+                case 'D':
+                    r.append(register(nth(instr.def(), n), map, kind == 'D'));
+                    break;
+                case 'j':
+                    util.List<Label> labels = instr.jumps().labels;
+                    for (int k = 0; k < n; k++)
+                        labels = labels.tail;
+                    r.append(labels.head);
+                    break;
+                default:
+                    throw new IllegalArgumentException("formato inválido: " + assem);
+            }
+        }
+        return r.toString();
+    }
+
+    private static Temp nth(util.List<Temp> list, int n) {
+        for (int k = 0; k < n; k++)
+            list = list.tail;
+        return list.head;
+    }
+
+    private static String register(Temp temp, TempMap map, boolean low) {
+        String name = map.tempMap(temp);
+        return low ? LOW.get(name) : name;
+    }
+
+    // Variável em uma posição da pilha, a 'offset' bytes de %rbp
+    static final class InFrame extends Access {
+        final int offset;
+
+        InFrame(int offset) {
+            this.offset = offset;
+        }
+
+        public Exp exp(Exp fp) {
+            return new MEM(new PointerPlus(fp, new CONST(offset)));
+        }
+    }
+
+    static final class InReg extends Access {
+        final Temp temp;
+
+        InReg(Temp temp) {
+            this.temp = temp;
+        }
+
+        public Exp exp(Exp fp) {
+            return new TEMP(temp);
+        }
+    }
+
+    // Uma função pronta para a saída: rótulo, prólogo, corpo alocado e epílogo
+    static final class Procedure extends Proc {
+        private final String label;
+        private final util.List<Instr> prologue, body, epilogue;
+
+        Procedure(String label, util.List<Instr> prologue, util.List<Instr> body, util.List<Instr> epilogue) {
+            this.label = label;
+            this.prologue = prologue;
+            this.body = body;
+            this.epilogue = epilogue;
+        }
+
+        public String getHeader() {
+            return "\t.p2align 4\n" + label + ":\n";
+        }
+
+        public util.List<Instr> getBody() {
+            return body;
+        }
+
+        public util.List<Instr> getPrologue() {
+            return prologue;
+        }
+
+        public String getFooter() {
+            return "";
+        }
+
+        public util.List<Instr> getEpilogue() {
+            return epilogue;
+        }
+
+        public void print(PrintStream out, TempMap map) {
+            try {
+                print((Appendable) out, map);
+            } catch (IOException e) {
+                // o PrintStream guarda o erro em vez de lançar
+                throw new AssertionError(e);
+            }
+        }
+
+        void print(Appendable out, TempMap map) throws IOException {
+            out.append(getHeader());
+            for (util.List<util.List<Instr>> part = new util.List<util.List<Instr>>(prologue,
+                    new util.List<util.List<Instr>>(body, new util.List<util.List<Instr>>(epilogue, null)));
+                 part != null; part = part.tail)
+                for (util.List<Instr> i = part.head; i != null; i = i.tail) {
+                    String text = format(i.head, map);
+                    if (text.length() > 0)
+                        out.append(text).append('\n');
+                }
+            out.append(getFooter());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package x86_64;
+
+import tree.Exp;
+import tree.MEM;
+import tree.MOVE;
+import tree.Stm;
+
+/**
+ * Um int de 32 bits na memória: os elementos dos vetores. O MEM comum é
+ * uma palavra de 8 bytes (ver Codegen).
+ * <p/>
+ * O Canon refaz os nós com build(), que aqui devolve outro IntMem para
+ * a largura não se perder. O MOVE.build refaz o destino como MEM, e por
+ * isso a escrita em um IntMem é um Store.
+ */
+final class IntMem extends MEM {
+    IntMem(Exp exp) {
+        super(exp);
+    }
+
+    public Exp build(util.List<Exp> kids) {
+        return new IntMem(kids.head);
+    }
+
+    // MOVE(IntMem(address), value)
+    static final class Store extends MOVE {
+        Store(Exp address, Exp value) {
+            super(new IntMem(address), value);
+        }
+
+        public Stm build(util.List<Exp> kids) {
+            return new Store(kids.head, kids.tail.head);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package x86_64;
+
+import syntaxtree.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disposição das classes no backend x86-64, calculada direto da árvore
+ * sintática (a tabela do semant não guarda os métodos herdados, e a do
+ * llvm é do pacote llvm).
+ * <p/>
+ * Todo valor ocupa uma palavra de 8 bytes. O objeto começa pelo ponteiro
+ * da vtable, seguido dos atributos, os herdados primeiro. A vtable tem
+ * uma entrada por método visível na classe: as herdadas na posição da
+ * superclasse (trocadas pela redefinição, se houver) e depois as novas.
+ */
+final class Layout {
+    static final int WORD = 8;
+
+    static final class ClassLayout {
+        final String name;
+        final ClassLayout base;
+        final List<String> fields = new ArrayList<String>();
+        final Map<String, Type> fieldTypes = new HashMap<String, Type>();
+        final List<String> vtable = new ArrayList<String>();
+        // método -> declaração visível na classe e classe que a declarou
+        final Map<String, MethodDecl> methods = new HashMap<String, MethodDecl>();
+        final Map<String, String> owners = new HashMap<String, String>();
+        final List<ClassLayout> subclasses = new ArrayList<ClassLayout>();
+
+        ClassLayout(String name, ClassLayout base) {
+            this.name = name;
+            this.base = base;
+            if (base != null) {
+                fields.addAll(base.fields);
+                fieldTypes.putAll(base.fieldTypes);
+                vtable.addAll(base.vtable);
+                methods.putAll(base.methods);
+                owners.putAll(base.owners);
+                base.subclasses.add(this);
+            }
+        }
+
+        // Deslocamento do atributo no objeto, depois do ponteiro da vtable; um
+        // atributo que esconde o da superclasse é o último com o nome
+        int fieldOffset(String field) {
+            return WORD * (fields.lastIndexOf(field) + 1);
+        }
+
+        int vtableOffset(String method) {
+            return WORD * vtable.indexOf(method);
+        }
+
+        String vtableLabel() {
+            return ".vtable." + name;
+        }
+
+        // Rótulo da implementação de 'method' vista nesta classe
+        String methodLabel(String method) {
+            return label(owners.get(method), method);
+        }
+
+        // Alguma subclasse troca a implementação de 'method'? Se não, a chamada pode ser direta
+        boolean overridden(String method) {
+            for (ClassLayout sub : subclasses)
+                if (!sub.owners.get(method).equals(owners.get(method)) || sub.overridden(method))
+                    return true;
+            return false;
+        }
+
+        int size() {
+            return WORD * (fields.size() + 1);
+        }
+    }
+
+    final String mainClass;
+    final Map<String, ClassLayout> classes = new LinkedHashMap<String, ClassLayout>();
+    private final Map<String, ClassDecl> declarations = new HashMap<String, ClassDecl>();
+
+    Layout(Program p) {
+        mainClass = p.mainClass.className.s;
+        classes.put(mainClass, new ClassLayout(mainClass, null));
+
+        // a superclasse entra antes das subclasses, em qualquer ordem do código
+        for (util.List<ClassDecl> c = p.classList; c != null; c = c.tail)
+            declarations.put(c.head.name.s, c.head);
+        for (util.List<ClassDecl> c = p.classList; c != null; c = c.tail)
+            declare(c.head.name.s);
+    }
+
+    // Mesmo nome de função que o LLVM-IR gera: __<método>_<classe>
+    static String label(String className, String method) {
+        return "__" + method + "_" + className;
+    }
+
+    ClassLayout get(String name) {
+        return classes.get(name);
+    }
+
+    // A classe principal já está na tabela e também pode ser estendida
+    private ClassLayout declare(String name) {
+        ClassLayout c = classes.get(name);
+        if (c != null)
+            return c;
+
+        ClassDecl n = declarations.get(name);
+        ClassLayout base = null;
+        if (n instanceof ClassDeclExtends)
+            base = declare(((ClassDeclExtends) n).superClass.s);
+
+        c = new ClassLayout(n.name.s, base);
+        for (util.List<VarDecl> v = n.varList; v != null; v = v.tail) {
+            c.fields.add(v.head.name.s);
+            c.fieldTypes.put(v.head.name.s, v.head.type);
+        }
+        for (util.List<MethodDecl> m = n.methodList; m != null; m = m.tail) {
+            String method = m.head.name.s;
+            if (!c.vtable.contains(method))
+                c.vtable.add(method);
+            c.methods.put(method, m.head);
+            c.owners.put(method, c.name);
+        }
+        classes.put(c.name, c);
+        return c;
+    }
+}
@@ -0,0 +1,22 @@
+package x86_64;
+
+import tree.BINOP;
+import tree.Exp;
+
+/**
+ * Soma de um ponteiro com um deslocamento, em 64 bits. O BINOP comum é
+ * aritmética de int, em 32 bits (ver Codegen).
+ * <p/>
+ * Dentro de um MEM a diferença não aparece, mas o Canon tira o endereço
+ * para um temporário quando o outro lado do MOVE tem uma chamada, e aí
+ * a soma precisa continuar sendo de ponteiro; build() preserva a classe.
+ */
+final class PointerPlus extends BINOP {
+    PointerPlus(Exp pointer, Exp offset) {
+        super(PLUS, pointer, offset);
+    }
+
+    public Exp build(util.List<Exp> kids) {
+        return new PointerPlus(kids.head, kids.tail.head);
+    }
+}
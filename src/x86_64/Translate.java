@@ -0,0 +1,379 @@
+package x86_64;
+
+import llvmast.LlvmValue;
+import syntaxtree.*;
+import temp.Label;
+import temp.Temp;
+import tree.BINOP;
+import tree.CALL;
+import tree.CJUMP;
+import tree.CONST;
+import tree.ESEQ;
+import tree.EXPSTM;
+import tree.JUMP;
+import tree.LABEL;
+import tree.MEM;
+import tree.MOVE;
+import tree.NAME;
+import tree.SEQ;
+import tree.Stm;
+import tree.TEMP;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tradução da árvore sintática para a árvore intermediária (pacote tree)
+ * de um método por vez, como no capítulo 7 do Appel.
+ * <p/>
+ * Os visit() deixam o resultado em 'exp' ou 'stm' e devolvem null (o
+ * Visitor do projeto devolve LlvmValue). Condições viram desvios direto
+ * com cond(), sem passar por um valor 0/1, e o valor de uma expressão
+ * booleana só é materializado quando é guardado ou passado adiante.
+ * <p/>
+ * Parâmetros e variáveis locais são temporários; atributos são MEM a
+ * partir do 'this' (ver Layout). Vetores são um int de tamanho seguido
+ * dos elementos, int também, em uma área de 8 + 4n bytes do calloc: o
+ * tamanho ocupa uma palavra, para os elementos ficarem alinhados. Cada
+ * acesso confere o índice no próprio código e só chama o boundCheck do
+ * runtime para imprimir o erro e terminar.
+ */
+final class Translate extends VisitorAdapter {
+    static final String PRINT_INT = "printInt";
+    static final String BOUND_CHECK = "boundCheck";
+    static final String CALLOC = "calloc";
+
+    private final Layout layout;
+    private Layout.ClassLayout current;
+    private Frame64 frame;
+    private Temp self;
+    private final Map<String, Temp> variables = new HashMap<String, Temp>();
+    private final Map<String, Type> types = new HashMap<String, Type>();
+
+    // resultado do último visit
+    private tree.Exp exp;
+    private Stm stm;
+
+    Translate(Layout layout) {
+        this.layout = layout;
+    }
+
+    Frame64 getFrame() {
+        return frame;
+    }
+
+    // Corpo do main, que devolve 0
+    tree.Exp main(MainClass n) {
+        begin(layout.get(n.className.s), new Label("main"), 0);
+        return new ESEQ(statement(n.stm), new CONST(0));
+    }
+
+    // Corpo de um método, com o valor de retorno no fim
+    tree.Exp method(Layout.ClassLayout c, MethodDecl n) {
+        begin(c, new Label(Layout.label(c.name, n.name.s)), 1 + size(n.formals));
+
+        util.List<frame.Access> formals = frame.formals;
+        self = ((Frame64.InReg) formals.head).temp;
+        formals = formals.tail;
+        for (util.List<Formal> f = n.formals; f != null; f = f.tail, formals = formals.tail)
+            declare(f.head.name.s, f.head.type, ((Frame64.InReg) formals.head).temp);
+        for (util.List<VarDecl> v = n.locals; v != null; v = v.tail)
+            declare(v.head.name.s, v.head.type, new Temp());
+
+        Stm body = null;
+        for (util.List<Statement> s = n.body; s != null; s = s.tail)
+            body = seq(body, statement(s.head));
+        tree.Exp result = expression(n.returnExp);
+        return body == null ? result : new ESEQ(body, result);
+    }
+
+    private void begin(Layout.ClassLayout c, Label name, int formals) {
+        current = c;
+        frame = Frame64.create(name, formals);
+        self = null;
+        variables.clear();
+        types.clear();
+    }
+
+    private void declare(String name, Type type, Temp temp) {
+        variables.put(name, temp);
+        types.put(name, type);
+    }
+
+    private static int size(util.List<?> list) {
+        return list == null ? 0 : list.size();
+    }
+
+    private static Stm seq(Stm a, Stm b) {
+        if (a == null)
+            return b;
+        return b == null ? a : new SEQ(a, b);
+    }
+
+    private static Stm seq(Stm... stms) {
+        Stm r = null;
+        for (Stm s : stms)
+            r = seq(r, s);
+        return r;
+    }
+
+    private tree.Exp expression(Exp e) {
+        e.accept(this);
+        return exp;
+    }
+
+    private Stm statement(Statement s) {
+        s.accept(this);
+        // um bloco vazio não gera nada; o Canon descarta o EXPSTM(CONST)
+        return stm == null ? new EXPSTM(new CONST(0)) : stm;
+    }
+
+    // ---- condições ----
+
+    // Desvia para 't' se 'e' for verdadeira e para 'f' se não
+    private Stm cond(Exp e, Label t, Label f) {
+        if (e instanceof True)
+            return new JUMP(t);
+        if (e instanceof False)
+            return new JUMP(f);
+        if (e instanceof Not)
+            return cond(((Not) e).exp, f, t);
+        if (e instanceof And) {
+            Label right = new Label();
+            return seq(cond(((And) e).lhs, right, f), new LABEL(right), cond(((And) e).rhs, t, f));
+        }
+        if (e instanceof LessThan)
+            return new CJUMP(CJUMP.LT, expression(((LessThan) e).lhs), expression(((LessThan) e).rhs), t, f);
+        if (e instanceof Equal)
+            return new CJUMP(CJUMP.EQ, expression(((Equal) e).lhs), expression(((Equal) e).rhs), t, f);
+        return new CJUMP(CJUMP.NE, expression(e), new CONST(0), t, f);
+    }
+
+    // Valor 0/1 de uma condição
+    private tree.Exp bool(Exp e) {
+        Temp r = new Temp();
+        Label t = new Label(), f = new Label(), end = new Label();
+        return new ESEQ(seq(cond(e, t, f),
+                new LABEL(t), new MOVE(new TEMP(r), new CONST(1)), new JUMP(end),
+                new LABEL(f), new MOVE(new TEMP(r), new CONST(0)),
+                new LABEL(end)), new TEMP(r));
+    }
+
+    // ---- variáveis, atributos e vetores ----
+
+    private tree.Exp variable(String name) {
+        Temp t = variables.get(name);
+        if (t != null)
+            return new TEMP(t);
+        return new MEM(new PointerPlus(new TEMP(self), new CONST(current.fieldOffset(name))));
+    }
+
+    private Type typeOf(String name) {
+        Type type = types.get(name);
+        return type != null ? type : current.fieldTypes.get(name);
+    }
+
+    // Confere 0 <= index < tamanho com uma comparação sem sinal
+    private Stm check(Temp array, Temp index, int line) {
+        Label ok = new Label(), fail = new Label();
+        util.List<tree.Exp> args = new util.List<tree.Exp>(new TEMP(array),
+                new util.List<tree.Exp>(new TEMP(index), new util.List<tree.Exp>(new CONST(line), null)));
+        return seq(new CJUMP(CJUMP.ULT, new TEMP(index), new MEM(new TEMP(array)), ok, fail),
+                new LABEL(fail), new EXPSTM(frame.externalCall(BOUND_CHECK, args)),
+                new LABEL(ok));
+    }
+
+    private static tree.Exp element(Temp array, Temp index) {
+        return new PointerPlus(
+                new PointerPlus(new TEMP(array), new BINOP(BINOP.TIMES, new TEMP(index), new CONST(4))),
+                new CONST(Layout.WORD));
+    }
+
+    // ---- comandos ----
+
+    public LlvmValue visit(Block n) {
+        Stm r = null;
+        for (util.List<Statement> s = n.body; s != null; s = s.tail)
+            r = seq(r, statement(s.head));
+        stm = r;
+        return null;
+    }
+
+    public LlvmValue visit(If n) {
+        Label t = new Label(), f = new Label(), end = new Label();
+        Stm then = statement(n.thenClause);
+        Stm otherwise = n.elseClause == null ? null : statement(n.elseClause);
+        stm = seq(cond(n.condition, t, f),
+                new LABEL(t), then, new JUMP(end),
+                new LABEL(f), otherwise,
+                new LABEL(end));
+        return null;
+    }
+
+    public LlvmValue visit(While n) {
+        Label test = new Label(), body = new Label(), done = new Label();
+        stm = seq(new LABEL(test), cond(n.condition, body, done),
+                new LABEL(body), statement(n.body), new JUMP(test),
+                new LABEL(done));
+        return null;
+    }
+
+    public LlvmValue visit(Print n) {
+        stm = new EXPSTM(frame.externalCall(PRINT_INT, new util.List<tree.Exp>(expression(n.exp), null)));
+        return null;
+    }
+
+    public LlvmValue visit(Assign n) {
+        stm = new MOVE(variable(n.var.s), expression(n.exp));
+        return null;
+    }
+
+    public LlvmValue visit(ArrayAssign n) {
+        Temp array = new Temp(), index = new Temp(), value = new Temp();
+        stm = seq(new MOVE(new TEMP(array), variable(n.var.s)),
+                new MOVE(new TEMP(index), expression(n.index)),
+                new MOVE(new TEMP(value), expression(n.value)),
+                check(array, index, n.line),
+                new IntMem.Store(element(array, index), new TEMP(value)));
+        return null;
+    }
+
+    // ---- expressões ----
+
+    public LlvmValue visit(And n) {
+        exp = bool(n);
+        return null;
+    }
+
+    public LlvmValue visit(LessThan n) {
+        exp = bool(n);
+        return null;
+    }
+
+    public LlvmValue visit(Equal n) {
+        exp = bool(n);
+        return null;
+    }
+
+    public LlvmValue visit(Not n) {
+        exp = new BINOP(BINOP.XOR, expression(n.exp), new CONST(1));
+        return null;
+    }
+
+    public LlvmValue visit(Plus n) {
+        exp = new BINOP(BINOP.PLUS, expression(n.lhs), expression(n.rhs));
+        return null;
+    }
+
+    public LlvmValue visit(Minus n) {
+        exp = new BINOP(BINOP.MINUS, expression(n.lhs), expression(n.rhs));
+        return null;
+    }
+
+    public LlvmValue visit(Times n) {
+        exp = new BINOP(BINOP.TIMES, expression(n.lhs), expression(n.rhs));
+        return null;
+    }
+
+    public LlvmValue visit(ArrayLookup n) {
+        Temp array = new Temp(), index = new Temp();
+        exp = new ESEQ(seq(new MOVE(new TEMP(array), expression(n.array)),
+                new MOVE(new TEMP(index), expression(n.index)),
+                check(array, index, n.line)),
+                new IntMem(element(array, index)));
+        return null;
+    }
+
+    public LlvmValue visit(ArrayLength n) {
+        exp = new MEM(expression(n.array));
+        return null;
+    }
+
+    // Chamada pela vtable, ou direta se nenhuma subclasse redefine o método
+    public LlvmValue visit(Call n) {
+        Layout.ClassLayout c = layout.get(classOf(n.object));
+        String method = n.method.s;
+
+        Temp object = new Temp();
+        Stm receiver = new MOVE(new TEMP(object), expression(n.object));
+        tree.Exp function = c.overridden(method)
+                ? new MEM(new PointerPlus(new MEM(new TEMP(object)), new CONST(c.vtableOffset(method))))
+                : new NAME(new Label(c.methodLabel(method)));
+
+        java.util.List<tree.Exp> actuals = new java.util.ArrayList<tree.Exp>();
+        for (util.List<Exp> a = n.actuals; a != null; a = a.tail)
+            actuals.add(expression(a.head));
+        util.List<tree.Exp> args = null;
+        for (int i = actuals.size() - 1; i >= 0; i--)
+            args = new util.List<tree.Exp>(actuals.get(i), args);
+        args = new util.List<tree.Exp>(new TEMP(object), args);
+
+        exp = new ESEQ(receiver, new CALL(function, args));
+        return null;
+    }
+
+    // Classe estática de uma expressão que dá um objeto
+    private String classOf(Exp e) {
+        if (e instanceof This)
+            return current.name;
+        if (e instanceof NewObject)
+            return ((NewObject) e).className.s;
+        if (e instanceof IdentifierExp)
+            return ((IdentifierType) typeOf(((IdentifierExp) e).name.s)).name;
+        if (e instanceof Call) {
+            Call call = (Call) e;
+            MethodDecl m = layout.get(classOf(call.object)).methods.get(call.method.s);
+            return ((IdentifierType) m.returnType).name;
+        }
+        throw new IllegalArgumentException("expressão sem classe: " + e);
+    }
+
+    public LlvmValue visit(IntegerLiteral n) {
+        exp = new CONST(n.value);
+        return null;
+    }
+
+    public LlvmValue visit(True n) {
+        exp = new CONST(1);
+        return null;
+    }
+
+    public LlvmValue visit(False n) {
+        exp = new CONST(0);
+        return null;
+    }
+
+    public LlvmValue visit(This n) {
+        exp = new TEMP(self);
+        return null;
+    }
+
+    public LlvmValue visit(IdentifierExp n) {
+        exp = variable(n.name.s);
+        return null;
+    }
+
+    // calloc(n + 2, 4): o tamanho na primeira palavra e os elementos já zerados
+    public LlvmValue visit(NewArray n) {
+        Temp size = new Temp(), array = new Temp();
+        util.List<tree.Exp> args = new util.List<tree.Exp>(new BINOP(BINOP.PLUS, new TEMP(size), new CONST(2)),
+                new util.List<tree.Exp>(new CONST(4), null));
+        exp = new ESEQ(seq(new MOVE(new TEMP(size), expression(n.size)),
+                new MOVE(new TEMP(array), frame.externalCall(CALLOC, args)),
+                new MOVE(new MEM(new TEMP(array)), new TEMP(size))),
+                new TEMP(array));
+        return null;
+    }
+
+    // calloc zera os atributos; a primeira palavra aponta para a vtable
+    public LlvmValue visit(NewObject n) {
+        Layout.ClassLayout c = layout.get(n.className.s);
+        Temp object = new Temp();
+        util.List<tree.Exp> args = new util.List<tree.Exp>(new CONST(1),
+                new util.List<tree.Exp>(new CONST(c.size()), null));
+        exp = new ESEQ(seq(new MOVE(new TEMP(object), frame.externalCall(CALLOC, args)),
+                new MOVE(new MEM(new TEMP(object)), new NAME(new Label(c.vtableLabel())))),
+                new TEMP(object));
+        return null;
+    }
+}
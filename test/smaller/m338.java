@@ -0,0 +1,40 @@
+// despacho virtual dentro de um laco (OK)
+class m338
+{
+   public static void main(String[] args)
+   {
+      System.out.println(new b().run());
+   }
+}
+
+class a
+{
+   public int who() { return 1; }
+}
+
+class c extends a
+{
+   public int who() { return 10; }
+}
+
+class b
+{
+   public int run()
+   {
+      int i;
+      int d;
+      a x;
+      i = 0;
+      d = 0;
+      while (i < 4)
+      {
+         if (i < 2)
+            x = new a();
+         else
+            x = new c();
+         d = d + x.who();
+         i = i + 1;
+      }
+      return d;
+   }
+}